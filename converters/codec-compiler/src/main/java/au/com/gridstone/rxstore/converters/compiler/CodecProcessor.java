@@ -0,0 +1,437 @@
+/*
+ * Copyright (C) GRIDSTONE 2019
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package au.com.gridstone.rxstore.converters.compiler;
+
+import com.squareup.javapoet.ClassName;
+import com.squareup.javapoet.CodeBlock;
+import com.squareup.javapoet.FieldSpec;
+import com.squareup.javapoet.JavaFile;
+import com.squareup.javapoet.MethodSpec;
+import com.squareup.javapoet.NameAllocator;
+import com.squareup.javapoet.ParameterizedTypeName;
+import com.squareup.javapoet.TypeName;
+import com.squareup.javapoet.TypeSpec;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.Filer;
+import javax.annotation.processing.Messager;
+import javax.annotation.processing.ProcessingEnvironment;
+import javax.annotation.processing.RoundEnvironment;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.AnnotationMirror;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.ExecutableElement;
+import javax.lang.model.element.Modifier;
+import javax.lang.model.element.NestingKind;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.element.VariableElement;
+import javax.lang.model.type.ArrayType;
+import javax.lang.model.type.DeclaredType;
+import javax.lang.model.type.TypeKind;
+import javax.lang.model.type.TypeMirror;
+import javax.lang.model.util.ElementFilter;
+import javax.lang.model.util.Types;
+import javax.tools.Diagnostic;
+
+/**
+ * Generates a {@code Codec} implementation for every class annotated with {@code GenerateCodec}.
+ */
+public final class CodecProcessor extends AbstractProcessor {
+  private static final String PACKAGE = "au.com.gridstone.rxstore.converters";
+  private static final String ANNOTATION = PACKAGE + ".GenerateCodec";
+  private static final ClassName CODEC = ClassName.get(PACKAGE, "Codec");
+  private static final ClassName CODECS = ClassName.get(PACKAGE, "Codecs");
+  private static final ClassName DATA_INPUT = ClassName.get("java.io", "DataInput");
+  private static final ClassName DATA_OUTPUT = ClassName.get("java.io", "DataOutput");
+  private static final ClassName ARRAY_LIST = ClassName.get("java.util", "ArrayList");
+
+  private Types types;
+  private Filer filer;
+  private Messager messager;
+
+  @Override public synchronized void init(ProcessingEnvironment processingEnv) {
+    super.init(processingEnv);
+    types = processingEnv.getTypeUtils();
+    filer = processingEnv.getFiler();
+    messager = processingEnv.getMessager();
+  }
+
+  @Override public Set<String> getSupportedAnnotationTypes() {
+    return Collections.singleton(ANNOTATION);
+  }
+
+  @Override public SourceVersion getSupportedSourceVersion() {
+    return SourceVersion.latestSupported();
+  }
+
+  @Override public boolean process(Set<? extends TypeElement> annotations, RoundEnvironment env) {
+    for (TypeElement annotation : annotations) {
+      for (Element element : env.getElementsAnnotatedWith(annotation)) {
+        try {
+          generate((TypeElement) element);
+        } catch (InvalidElementException e) {
+          messager.printMessage(Diagnostic.Kind.ERROR, e.getMessage(), e.element);
+        } catch (IOException e) {
+          messager.printMessage(Diagnostic.Kind.ERROR,
+              "Unable to write codec: " + e.getMessage(), element);
+        }
+      }
+    }
+
+    return true;
+  }
+
+  private void generate(TypeElement type) throws IOException {
+    if (type.getKind() != ElementKind.CLASS) {
+      throw new InvalidElementException("@GenerateCodec can only be applied to classes.", type);
+    }
+
+    if (type.getModifiers().contains(Modifier.PRIVATE)
+        || type.getModifiers().contains(Modifier.ABSTRACT)) {
+      throw new InvalidElementException(
+          "@GenerateCodec classes must not be private or abstract.", type);
+    }
+
+    if (type.getNestingKind() == NestingKind.MEMBER
+        && !type.getModifiers().contains(Modifier.STATIC)) {
+      throw new InvalidElementException("@GenerateCodec classes must not be inner classes.", type);
+    }
+
+    List<VariableElement> fields = new ArrayList<VariableElement>();
+
+    for (VariableElement field : ElementFilter.fieldsIn(type.getEnclosedElements())) {
+      Set<Modifier> modifiers = field.getModifiers();
+      if (modifiers.contains(Modifier.STATIC) || modifiers.contains(Modifier.TRANSIENT)) continue;
+
+      if (modifiers.contains(Modifier.PRIVATE)) {
+        throw new InvalidElementException("Fields of @GenerateCodec classes must not be private.",
+            field);
+      }
+
+      fields.add(field);
+    }
+
+    ClassName valueName = ClassName.get(type);
+    ClassName codecName = codecName(valueName);
+
+    NameAllocator names = new NameAllocator();
+    names.newName("value");
+    names.newName("output");
+    names.newName("input");
+
+    MethodSpec.Builder encode = MethodSpec.methodBuilder("encode")
+        .addAnnotation(Override.class)
+        .addModifiers(Modifier.PUBLIC)
+        .addParameter(valueName, "value")
+        .addParameter(DATA_OUTPUT, "output")
+        .addException(IOException.class);
+
+    MethodSpec.Builder decode = MethodSpec.methodBuilder("decode")
+        .addAnnotation(Override.class)
+        .addModifiers(Modifier.PUBLIC)
+        .returns(valueName)
+        .addParameter(DATA_INPUT, "input")
+        .addException(IOException.class);
+
+    List<String> locals = new ArrayList<String>();
+
+    for (VariableElement field : fields) {
+      String fieldName = field.getSimpleName().toString();
+      String local = names.newName(fieldName);
+      locals.add(local);
+
+      TypeMirror fieldType = field.asType();
+      encode.addCode(encodeStatement(fieldType, "value." + fieldName, names, field));
+      decode.addStatement("$T $N", TypeName.get(fieldType), local);
+      decode.addCode(decodeStatement(fieldType, local, names, field));
+    }
+
+    decode.addCode(construct(type, valueName, fields, locals));
+
+    TypeSpec.Builder codec = TypeSpec.classBuilder(codecName)
+        .addJavadoc("Generated by the RxStore codec compiler. Do not edit.\n")
+        .addModifiers(Modifier.FINAL)
+        .addSuperinterface(ParameterizedTypeName.get(CODEC, valueName))
+        .addOriginatingElement(type)
+        .addField(FieldSpec.builder(codecName, "INSTANCE")
+            .addModifiers(Modifier.PUBLIC, Modifier.STATIC, Modifier.FINAL)
+            .initializer("new $T()", codecName)
+            .build())
+        .addMethod(encode.build())
+        .addMethod(decode.build());
+
+    if (type.getModifiers().contains(Modifier.PUBLIC)) {
+      codec.addModifiers(Modifier.PUBLIC);
+    }
+
+    JavaFile.builder(valueName.packageName(), codec.build())
+        .skipJavaLangImports(true)
+        .build()
+        .writeTo(filer);
+  }
+
+  private CodeBlock construct(TypeElement type, ClassName valueName, List<VariableElement> fields,
+      List<String> locals) {
+    boolean hasNoArgConstructor = false;
+
+    for (ExecutableElement constructor : ElementFilter.constructorsIn(type.getEnclosedElements())) {
+      if (constructor.getModifiers().contains(Modifier.PRIVATE)) continue;
+
+      List<? extends VariableElement> parameters = constructor.getParameters();
+      if (parameters.isEmpty()) hasNoArgConstructor = true;
+      if (parameters.size() != fields.size()) continue;
+
+      boolean matches = true;
+
+      for (int i = 0; i < parameters.size(); i++) {
+        if (!types.isSameType(parameters.get(i).asType(), fields.get(i).asType())) {
+          matches = false;
+          break;
+        }
+      }
+
+      if (matches) {
+        return CodeBlock.of("return new $T($L);\n", valueName, join(locals));
+      }
+    }
+
+    if (!hasNoArgConstructor) {
+      throw new InvalidElementException("@GenerateCodec classes need a constructor taking every "
+          + "field in declaration order, or a no-argument constructor.", type);
+    }
+
+    CodeBlock.Builder block = CodeBlock.builder().addStatement("$T value = new $T()", valueName,
+        valueName);
+
+    for (int i = 0; i < fields.size(); i++) {
+      VariableElement field = fields.get(i);
+
+      if (field.getModifiers().contains(Modifier.FINAL)) {
+        throw new InvalidElementException("Final fields must be set by a constructor taking every "
+            + "field in declaration order.", field);
+      }
+
+      block.addStatement("value.$N = $N", field.getSimpleName().toString(), locals.get(i));
+    }
+
+    return block.addStatement("return value").build();
+  }
+
+  private CodeBlock encodeStatement(TypeMirror type, String expression, NameAllocator names,
+      Element field) {
+    if (type.getKind().isPrimitive()) {
+      return CodeBlock.of("output.write$L($L);\n", primitiveSuffix(type.getKind()), expression);
+    }
+
+    if (type.getKind() == TypeKind.ARRAY
+        && ((ArrayType) type).getComponentType().getKind() == TypeKind.BYTE) {
+      return CodeBlock.of("$T.writeBytes(output, $L);\n", CODECS, expression);
+    }
+
+    if (type.getKind() != TypeKind.DECLARED) throw unsupported(type, field);
+
+    if (isType(type, "java.lang.String")) {
+      return CodeBlock.of("$T.writeString(output, $L);\n", CODECS, expression);
+    }
+
+    TypeElement typeElement = (TypeElement) types.asElement(type);
+    CodeBlock.Builder block = CodeBlock.builder();
+
+    if (typeElement.getKind() == ElementKind.ENUM) {
+      return block.addStatement("$T.writeString(output, $L == null ? null : $L.name())", CODECS,
+          expression, expression).build();
+    }
+
+    if (isType(type, "java.util.List")) {
+      TypeMirror elementType = ((DeclaredType) type).getTypeArguments().get(0);
+      String element = names.newName("element");
+
+      block.beginControlFlow("if ($L == null)", expression)
+          .addStatement("output.writeInt(-1)")
+          .nextControlFlow("else")
+          .addStatement("output.writeInt($L.size())", expression)
+          .beginControlFlow("for ($T $N : $L)", TypeName.get(elementType), element, expression)
+          .add(encodeStatement(elementType, element, names, field))
+          .endControlFlow()
+          .endControlFlow();
+
+      return block.build();
+    }
+
+    CodeBlock encodeValue;
+
+    try {
+      TypeKind unboxed = types.unboxedType(type).getKind();
+      encodeValue = CodeBlock.of("output.write$L($L);\n", primitiveSuffix(unboxed), expression);
+    } catch (IllegalArgumentException notBoxed) {
+      if (!hasAnnotation(typeElement)) throw unsupported(type, field);
+      encodeValue = CodeBlock.of("$T.INSTANCE.encode($L, output);\n",
+          codecName(ClassName.get(typeElement)), expression);
+    }
+
+    return block.addStatement("output.writeBoolean($L != null)", expression)
+        .beginControlFlow("if ($L != null)", expression)
+        .add(encodeValue)
+        .endControlFlow()
+        .build();
+  }
+
+  private CodeBlock decodeStatement(TypeMirror type, String target, NameAllocator names,
+      Element field) {
+    if (type.getKind().isPrimitive()) {
+      return CodeBlock.of("$N = input.read$L();\n", target, primitiveSuffix(type.getKind()));
+    }
+
+    if (type.getKind() == TypeKind.ARRAY
+        && ((ArrayType) type).getComponentType().getKind() == TypeKind.BYTE) {
+      return CodeBlock.of("$N = $T.readBytes(input);\n", target, CODECS);
+    }
+
+    if (type.getKind() != TypeKind.DECLARED) throw unsupported(type, field);
+
+    if (isType(type, "java.lang.String")) {
+      return CodeBlock.of("$N = $T.readString(input);\n", target, CODECS);
+    }
+
+    TypeElement typeElement = (TypeElement) types.asElement(type);
+    CodeBlock.Builder block = CodeBlock.builder();
+
+    if (typeElement.getKind() == ElementKind.ENUM) {
+      String name = names.newName(target + "Name");
+      return block.addStatement("String $N = $T.readString(input)", name, CODECS)
+          .addStatement("$N = $N == null ? null : $T.valueOf($N)", target, name,
+              TypeName.get(types.erasure(type)), name)
+          .build();
+    }
+
+    if (isType(type, "java.util.List")) {
+      TypeMirror elementType = ((DeclaredType) type).getTypeArguments().get(0);
+      TypeName elementTypeName = TypeName.get(elementType);
+      String size = names.newName(target + "Size");
+      String list = names.newName(target + "List");
+      String index = names.newName("i");
+      String element = names.newName("element");
+
+      return block.addStatement("int $N = input.readInt()", size)
+          .beginControlFlow("if ($N == -1)", size)
+          .addStatement("$N = null", target)
+          .nextControlFlow("else")
+          .addStatement("$T $N = new $T($N)", ParameterizedTypeName.get(ARRAY_LIST,
+              elementTypeName), list, ParameterizedTypeName.get(ARRAY_LIST, elementTypeName), size)
+          .beginControlFlow("for (int $N = 0; $N < $N; $N++)", index, index, size, index)
+          .addStatement("$T $N", elementTypeName, element)
+          .add(decodeStatement(elementType, element, names, field))
+          .addStatement("$N.add($N)", list, element)
+          .endControlFlow()
+          .addStatement("$N = $N", target, list)
+          .endControlFlow()
+          .build();
+    }
+
+    CodeBlock decodeValue;
+
+    try {
+      TypeKind unboxed = types.unboxedType(type).getKind();
+      decodeValue = CodeBlock.of("input.read$L()", primitiveSuffix(unboxed));
+    } catch (IllegalArgumentException notBoxed) {
+      if (!hasAnnotation(typeElement)) throw unsupported(type, field);
+      decodeValue = CodeBlock.of("$T.INSTANCE.decode(input)",
+          codecName(ClassName.get(typeElement)));
+    }
+
+    return block.addStatement("$N = input.readBoolean() ? $L : null", target, decodeValue)
+        .build();
+  }
+
+  private static String primitiveSuffix(TypeKind kind) {
+    switch (kind) {
+      case BOOLEAN:
+        return "Boolean";
+      case BYTE:
+        return "Byte";
+      case SHORT:
+        return "Short";
+      case CHAR:
+        return "Char";
+      case INT:
+        return "Int";
+      case LONG:
+        return "Long";
+      case FLOAT:
+        return "Float";
+      case DOUBLE:
+        return "Double";
+      default:
+        throw new AssertionError("Not a primitive: " + kind);
+    }
+  }
+
+  private boolean isType(TypeMirror type, String name) {
+    Element element = types.asElement(type);
+    return element instanceof TypeElement
+        && ((TypeElement) element).getQualifiedName().contentEquals(name);
+  }
+
+  private static boolean hasAnnotation(TypeElement element) {
+    for (AnnotationMirror mirror : element.getAnnotationMirrors()) {
+      Element annotation = mirror.getAnnotationType().asElement();
+      if (((TypeElement) annotation).getQualifiedName().contentEquals(ANNOTATION)) return true;
+    }
+
+    return false;
+  }
+
+  private static ClassName codecName(ClassName valueName) {
+    StringBuilder name = new StringBuilder();
+
+    for (String simpleName : valueName.simpleNames()) {
+      if (name.length() > 0) name.append('_');
+      name.append(simpleName);
+    }
+
+    return ClassName.get(valueName.packageName(), name.append("Codec").toString());
+  }
+
+  private static String join(List<String> values) {
+    StringBuilder builder = new StringBuilder();
+
+    for (String value : values) {
+      if (builder.length() > 0) builder.append(", ");
+      builder.append(value);
+    }
+
+    return builder.toString();
+  }
+
+  private static InvalidElementException unsupported(TypeMirror type, Element element) {
+    return new InvalidElementException("Unsupported type for @GenerateCodec: " + type, element);
+  }
+
+  private static final class InvalidElementException extends RuntimeException {
+    final Element element;
+
+    InvalidElementException(String message, Element element) {
+      super(message);
+      this.element = element;
+    }
+  }
+}
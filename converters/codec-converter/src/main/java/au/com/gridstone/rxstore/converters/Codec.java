@@ -0,0 +1,33 @@
+/*
+ * Copyright (C) GRIDSTONE 2019
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package au.com.gridstone.rxstore.converters;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+/**
+ * Encodes and decodes non-null instances of a single type to and from a compact binary form.
+ * Implementations are normally generated for classes annotated with {@link GenerateCodec}, but may
+ * also be written by hand. Strings written with {@link DataOutput#writeUTF(String)} are read back
+ * with {@link DataInput#readUTF()}; both use the format of {@link Codecs#writeString}.
+ */
+public interface Codec<T> {
+  void encode(T value, DataOutput output) throws IOException;
+
+  T decode(DataInput input) throws IOException;
+}
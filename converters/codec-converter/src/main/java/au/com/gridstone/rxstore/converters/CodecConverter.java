@@ -0,0 +1,217 @@
+/*
+ * Copyright (C) GRIDSTONE 2019
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package au.com.gridstone.rxstore.converters;
+
+import au.com.gridstone.rxstore.Converter;
+import au.com.gridstone.rxstore.ConverterException;
+import au.com.gridstone.rxstore.StreamConverter;
+import au.com.gridstone.rxstore.StreamingListConverter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.reflect.ParameterizedType;
+import java.lang.reflect.Type;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A {@link Converter} that stores values in a compact binary form using {@link Codec Codecs},
+ * typically generated at compile time for classes annotated with {@link GenerateCodec}. No
+ * reflection is used at runtime; every type that will be stored must be registered with a {@link
+ * Builder}.
+ * <pre>{@code
+ * CodecConverter converter = new CodecConverter.Builder()
+ *     .add(Person.class, PersonCodec.INSTANCE)
+ *     .build();
+ * }</pre>
+ */
+public final class CodecConverter implements StreamConverter, StreamingListConverter {
+  private static final int FORMAT_VERSION = 1;
+  private static final int END_OF_LIST = 0;
+  private static final int ELEMENT = 1;
+  private static final int NULL_ELEMENT = 2;
+  private static final int BUFFER_SIZE = 8 * 1024;
+
+  private final Map<Type, Codec<?>> codecs;
+
+  CodecConverter(Builder builder) {
+    this.codecs = new HashMap<Type, Codec<?>>(builder.codecs);
+  }
+
+  @Override public <T> void write(T data, Type type, File file) throws ConverterException {
+    try {
+      OutputStream output = new FileOutputStream(file);
+
+      try {
+        write(data, type, output);
+      } finally {
+        output.close();
+      }
+    } catch (IOException e) {
+      throw new ConverterException(e);
+    }
+  }
+
+  @Override public <T> T read(File file, Type type) throws ConverterException {
+    try {
+      InputStream input = new FileInputStream(file);
+
+      try {
+        return read(input, type);
+      } finally {
+        input.close();
+      }
+    } catch (IOException e) {
+      throw new ConverterException(e);
+    }
+  }
+
+  @Override public <T> void write(T data, Type type, OutputStream output)
+      throws ConverterException {
+    if (data == null) return;
+
+    try {
+      BufferedDataOutput dataOutput = new BufferedDataOutput(output, BUFFER_SIZE);
+      dataOutput.writeByte(FORMAT_VERSION);
+
+      if (data instanceof List && isListType(type)) {
+        Codec<Object> codec = codecFor(elementType(type));
+
+        for (Object element : (List<?>) data) {
+          if (element == null) {
+            dataOutput.writeByte(NULL_ELEMENT);
+          } else {
+            dataOutput.writeByte(ELEMENT);
+            codec.encode(element, dataOutput);
+          }
+        }
+
+        dataOutput.writeByte(END_OF_LIST);
+      } else {
+        this.<Object>codecFor(type).encode(data, dataOutput);
+      }
+
+      dataOutput.flush();
+    } catch (IOException e) {
+      throw new ConverterException(e);
+    }
+  }
+
+  @Override public <T> ListWriter<T> writeList(Type type, OutputStream output)
+      throws ConverterException {
+    final Codec<T> codec = codecFor(elementType(type));
+    final BufferedDataOutput dataOutput = new BufferedDataOutput(output, BUFFER_SIZE);
+
+    try {
+      dataOutput.writeByte(FORMAT_VERSION);
+    } catch (IOException e) {
+      throw new ConverterException(e);
+    }
+
+    return new ListWriter<T>() {
+      @Override public void write(T element) throws ConverterException {
+        try {
+          dataOutput.writeByte(ELEMENT);
+          codec.encode(element, dataOutput);
+        } catch (IOException e) {
+          throw new ConverterException(e);
+        }
+      }
+
+      @Override public void finish() throws ConverterException {
+        try {
+          dataOutput.writeByte(END_OF_LIST);
+          dataOutput.flush();
+        } catch (IOException e) {
+          throw new ConverterException(e);
+        }
+      }
+    };
+  }
+
+  @SuppressWarnings("unchecked") // Codecs produce instances of the type they were registered for.
+  @Override public <T> T read(InputStream input, Type type) throws ConverterException {
+    try {
+      BufferedDataInput dataInput = new BufferedDataInput(input, BUFFER_SIZE);
+      int version = dataInput.read();
+      if (version == -1) return null;
+
+      if (version != FORMAT_VERSION) {
+        throw new ConverterException("Unknown codec format version " + version + ".");
+      }
+
+      if (!isListType(type)) {
+        return (T) codecFor(type).decode(dataInput);
+      }
+
+      Codec<Object> codec = codecFor(elementType(type));
+      List<Object> list = new ArrayList<Object>();
+
+      for (int marker = dataInput.readUnsignedByte(); marker != END_OF_LIST;
+          marker = dataInput.readUnsignedByte()) {
+        list.add(marker == NULL_ELEMENT ? null : codec.decode(dataInput));
+      }
+
+      return (T) list;
+    } catch (IOException e) {
+      throw new ConverterException(e);
+    }
+  }
+
+  @SuppressWarnings("unchecked") // Builder only accepts codecs matching their type.
+  private <T> Codec<T> codecFor(Type type) {
+    Codec<T> codec = (Codec<T>) codecs.get(type);
+
+    if (codec == null) {
+      throw new ConverterException("No Codec registered for " + type + ".");
+    }
+
+    return codec;
+  }
+
+  private static boolean isListType(Type type) {
+    return type instanceof ParameterizedType
+        && ((ParameterizedType) type).getRawType() == List.class;
+  }
+
+  private static Type elementType(Type listType) {
+    return ((ParameterizedType) listType).getActualTypeArguments()[0];
+  }
+
+  public static final class Builder {
+    final Map<Type, Codec<?>> codecs = new HashMap<Type, Codec<?>>();
+
+    /**
+     * Register the {@link Codec} used to store values of type.
+     */
+    public <T> Builder add(Class<T> type, Codec<T> codec) {
+      if (type == null) throw new NullPointerException("type must not be null.");
+      if (codec == null) throw new NullPointerException("codec must not be null.");
+      codecs.put(type, codec);
+      return this;
+    }
+
+    public CodecConverter build() {
+      return new CodecConverter(this);
+    }
+  }
+}
@@ -0,0 +1,101 @@
+/*
+ * Copyright (C) GRIDSTONE 2019
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package au.com.gridstone.rxstore.converters;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+/**
+ * Encoding helpers shared by generated {@link Codec Codecs}.
+ */
+public final class Codecs {
+  private Codecs() {
+    throw new AssertionError("No instances.");
+  }
+
+  /**
+   * Write a nullable {@code String} as its length in chars followed by each char encoded as one to
+   * three bytes. No intermediate byte array is allocated.
+   */
+  public static void writeString(DataOutput output, String value) throws IOException {
+    if (value == null) {
+      output.writeInt(-1);
+      return;
+    }
+
+    int length = value.length();
+    output.writeInt(length);
+
+    for (int i = 0; i < length; i++) {
+      char c = value.charAt(i);
+
+      if (c < 0x80) {
+        output.write(c);
+      } else if (c < 0x800) {
+        output.write(0xc0 | c >> 6);
+        output.write(0x80 | c & 0x3f);
+      } else {
+        output.write(0xe0 | c >> 12);
+        output.write(0x80 | c >> 6 & 0x3f);
+        output.write(0x80 | c & 0x3f);
+      }
+    }
+  }
+
+  public static String readString(DataInput input) throws IOException {
+    int length = input.readInt();
+    if (length == -1) return null;
+
+    char[] chars = new char[length];
+
+    for (int i = 0; i < length; i++) {
+      int b = input.readUnsignedByte();
+
+      if (b < 0x80) {
+        chars[i] = (char) b;
+      } else if (b < 0xe0) {
+        chars[i] = (char) ((b & 0x1f) << 6 | input.readUnsignedByte() & 0x3f);
+      } else {
+        int middle = input.readUnsignedByte();
+        chars[i] = (char) ((b & 0x0f) << 12 | (middle & 0x3f) << 6
+            | input.readUnsignedByte() & 0x3f);
+      }
+    }
+
+    return new String(chars);
+  }
+
+  public static void writeBytes(DataOutput output, byte[] value) throws IOException {
+    if (value == null) {
+      output.writeInt(-1);
+      return;
+    }
+
+    output.writeInt(value.length);
+    output.write(value);
+  }
+
+  public static byte[] readBytes(DataInput input) throws IOException {
+    int length = input.readInt();
+    if (length == -1) return null;
+
+    byte[] value = new byte[length];
+    input.readFully(value);
+    return value;
+  }
+}
@@ -0,0 +1,51 @@
+/*
+ * Copyright (C) GRIDSTONE 2019
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package au.com.gridstone.rxstore.converters;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Generate a {@link Codec} for the annotated class at compile time. This requires the {@code
+ * converter-codec-compiler} annotation processor.
+ * <p>
+ * For a class {@code Person} the generated codec is named {@code PersonCodec} and lives in the same
+ * package. Nested classes are prefixed by their enclosing classes, so {@code Outer.Inner} produces
+ * {@code Outer_InnerCodec}. Each generated codec exposes a singleton {@code INSTANCE}.
+ * <p>
+ * Every non-static, non-transient field declared by the annotated class is encoded in declaration
+ * order. Fields must not be private and must be one of:
+ * <ul>
+ * <li>a primitive or boxed primitive</li>
+ * <li>{@code String}, {@code byte[]} or an enum</li>
+ * <li>another class annotated with {@code @GenerateCodec}</li>
+ * <li>a {@code List} of any of the above, including other {@code Lists}</li>
+ * </ul>
+ * Instances are created with a constructor whose parameters match the fields in declaration order.
+ * If there isn't one, a no-argument constructor is used and the fields are assigned directly.
+ * <p>
+ * The binary format has no field names or tags. Adding, removing or reordering fields makes
+ * previously written files unreadable.
+ */
+@Documented
+@Retention(RetentionPolicy.CLASS)
+@Target(ElementType.TYPE)
+public @interface GenerateCodec {
+}
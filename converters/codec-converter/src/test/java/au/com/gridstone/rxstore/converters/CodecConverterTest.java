@@ -0,0 +1,179 @@
+/*
+ * Copyright (C) GRIDSTONE 2019
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package au.com.gridstone.rxstore.converters;
+
+import au.com.gridstone.rxstore.ListStore;
+import au.com.gridstone.rxstore.RxStore;
+import au.com.gridstone.rxstore.ValueStore;
+import com.google.common.io.Files;
+import io.reactivex.Flowable;
+import io.reactivex.schedulers.Schedulers;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static com.google.common.truth.Truth.assertThat;
+
+/**
+ * This must remain as Java rather than Kotlin so that the test models are processed by the codec
+ * compiler without needing kapt.
+ */
+public final class CodecConverterTest {
+  @Rule public TemporaryFolder tempDir = new TemporaryFolder();
+
+  private final CodecConverter converter = new CodecConverter.Builder()
+      .add(Person.class, CodecConverterTest_PersonCodec.INSTANCE)
+      .add(Address.class, CodecConverterTest_AddressCodec.INSTANCE)
+      .build();
+
+  @Test public void convertValue() throws IOException {
+    ValueStore<Person> store = RxStore.value(tempDir.newFile(), converter, Person.class);
+    assertThat(store.blockingGet()).isNull();
+
+    Address address = new Address();
+    address.street = "1 Smith St ünïcödé";
+    address.grid = Arrays.asList(Arrays.asList(1, 2), Collections.<Integer>emptyList());
+    address.raw = new byte[] {1, 2, 3};
+
+    Person value = new Person("Test1", 1, 1000L, true, Arrays.asList("a", null), address, Kind.B);
+    store.put(value, Schedulers.trampoline());
+    assertThat(store.blockingGet()).isEqualTo(value);
+  }
+
+  @Test public void convertValueWithNulls() throws IOException {
+    ValueStore<Person> store = RxStore.value(tempDir.newFile(), converter, Person.class);
+
+    Person value = new Person(null, 0, null, false, null, null, null);
+    store.put(value, Schedulers.trampoline());
+    assertThat(store.blockingGet()).isEqualTo(value);
+  }
+
+  @Test public void convertList() throws IOException {
+    ListStore<Person> store = RxStore.list(tempDir.newFile(), converter, Person.class);
+    assertThat(store.blockingGet()).isEmpty();
+
+    List<Person> list = Arrays.asList(
+        new Person("Test1", 1, 1L, true, null, null, Kind.A),
+        new Person("Test2", 2, 2L, false, null, null, Kind.B));
+
+    store.put(list, Schedulers.trampoline());
+    assertThat(store.blockingGet()).isEqualTo(list);
+  }
+
+  @Test public void streamList() throws IOException {
+    File streamed = tempDir.newFile();
+    File put = tempDir.newFile();
+    List<Person> list = Arrays.asList(
+        new Person("Test1", 1, 1L, true, null, null, Kind.A),
+        new Person("Test2", 2, 2L, false, null, null, Kind.B));
+
+    ListStore<Person> streamedStore = RxStore.list(streamed, converter, Person.class);
+    streamedStore.observePutAll(Flowable.fromIterable(list)).blockingAwait();
+    ListStore<Person> putStore = RxStore.list(put, converter, Person.class);
+    putStore.put(list, Schedulers.trampoline());
+
+    assertThat(streamedStore.blockingGet()).isEqualTo(list);
+    assertThat(Files.toByteArray(streamed)).isEqualTo(Files.toByteArray(put));
+  }
+
+  @Test public void dataOutputRoundTripsThroughDataInput() throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    BufferedDataOutput output = new BufferedDataOutput(bytes, 4);
+    output.writeUTF("hello ünïcödé");
+    output.writeInt(42);
+    output.writeBytes("line one\r\nline two\rline three\n");
+    output.writeLong(-1L);
+    output.flush();
+
+    BufferedDataInput input =
+        new BufferedDataInput(new ByteArrayInputStream(bytes.toByteArray()), 4);
+    assertThat(input.readUTF()).isEqualTo("hello ünïcödé");
+    assertThat(input.readInt()).isEqualTo(42);
+    assertThat(input.readLine()).isEqualTo("line one");
+    assertThat(input.readLine()).isEqualTo("line two");
+    assertThat(input.readLine()).isEqualTo("line three");
+    assertThat(input.readLong()).isEqualTo(-1L);
+    assertThat(input.readLine()).isNull();
+  }
+
+  enum Kind {
+    A, B
+  }
+
+  @GenerateCodec
+  static final class Person {
+    final String name;
+    final int age;
+    final Long id;
+    final boolean active;
+    final List<String> tags;
+    final Address address;
+    final Kind kind;
+
+    Person(String name, int age, Long id, boolean active, List<String> tags, Address address,
+        Kind kind) {
+      this.name = name;
+      this.age = age;
+      this.id = id;
+      this.active = active;
+      this.tags = tags;
+      this.address = address;
+      this.kind = kind;
+    }
+
+    @Override public boolean equals(Object o) {
+      if (!(o instanceof Person)) return false;
+      Person other = (Person) o;
+      return equal(name, other.name) && age == other.age && equal(id, other.id)
+          && active == other.active && equal(tags, other.tags)
+          && equal(address, other.address) && kind == other.kind;
+    }
+
+    @Override public String toString() {
+      return name + "," + age + "," + id + "," + active + "," + tags + "," + address + "," + kind;
+    }
+  }
+
+  @GenerateCodec
+  static class Address {
+    String street;
+    List<List<Integer>> grid;
+    byte[] raw;
+
+    @Override public boolean equals(Object o) {
+      if (!(o instanceof Address)) return false;
+      Address other = (Address) o;
+      return equal(street, other.street) && equal(grid, other.grid)
+          && Arrays.equals(raw, other.raw);
+    }
+
+    @Override public String toString() {
+      return street + "," + grid + "," + Arrays.toString(raw);
+    }
+  }
+
+  static boolean equal(Object a, Object b) {
+    return a == null ? b == null : a.equals(b);
+  }
+}
@@ -18,44 +18,134 @@ package au.com.gridstone.rxstore.converters;
 
 import au.com.gridstone.rxstore.Converter;
 import au.com.gridstone.rxstore.ConverterException;
+import au.com.gridstone.rxstore.StreamConverter;
+import au.com.gridstone.rxstore.StreamingListConverter;
 import com.google.gson.Gson;
+import com.google.gson.stream.JsonWriter;
+import java.io.BufferedInputStream;
+import java.io.BufferedWriter;
 import java.io.File;
-import java.io.FileReader;
-import java.io.FileWriter;
-import java.io.Reader;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
 import java.io.Writer;
+import java.lang.reflect.ParameterizedType;
 import java.lang.reflect.Type;
+import java.nio.charset.Charset;
 
 /**
  * A {@link Converter} that uses {@link Gson} to get the job done.
+ * <p>
+ * JSON is always read and written as UTF-8. Bytes being read and characters being written pass
+ * through a buffer of {@code bufferSize}, which defaults to 8 KiB.
+ * <p>
+ * Earlier versions used the platform's default charset. Files they wrote on a platform whose
+ * default is not UTF-8 are now decoded as UTF-8, which changes any non-ASCII characters in them.
  */
-public class GsonConverter implements Converter {
-  private Gson gson;
+public class GsonConverter implements StreamConverter, StreamingListConverter {
+  private static final Charset UTF_8 = Charset.forName("UTF-8");
+  private static final int DEFAULT_BUFFER_SIZE = 8 * 1024;
+
+  private final Gson gson;
+  private final int bufferSize;
 
   public GsonConverter() {
     this(new Gson());
   }
 
   public GsonConverter(Gson gson) {
+    this(gson, DEFAULT_BUFFER_SIZE);
+  }
+
+  public GsonConverter(Gson gson, int bufferSize) {
+    if (bufferSize < 1) {
+      throw new IllegalArgumentException("bufferSize must be greater than zero.");
+    }
+
     this.gson = gson;
+    this.bufferSize = bufferSize;
   }
 
   @Override public <T> void write(T data, Type type, File file) throws ConverterException {
     try {
-      Writer writer = new FileWriter(file);
+      OutputStream output = new FileOutputStream(file);
+
+      try {
+        write(data, type, output);
+      } finally {
+        output.close();
+      }
+    } catch (IOException e) {
+      throw new ConverterException(e);
+    }
+  }
+
+  @Override public <T> T read(File file, Type type) throws ConverterException {
+    try {
+      InputStream input = new FileInputStream(file);
+
+      try {
+        return read(input, type);
+      } finally {
+        input.close();
+      }
+    } catch (IOException e) {
+      throw new ConverterException(e);
+    }
+  }
+
+  @Override public <T> void write(T data, Type type, OutputStream output)
+      throws ConverterException {
+    try {
+      Writer writer = new BufferedWriter(new OutputStreamWriter(output, UTF_8), bufferSize);
       gson.toJson(data, type, writer);
-      writer.close();
+      writer.flush();
     } catch (Exception e) {
       throw new ConverterException(e);
     }
   }
 
-  @Override public <T> T read(File file, Type type) throws ConverterException {
+  @Override public <T> ListWriter<T> writeList(Type type, OutputStream output)
+      throws ConverterException {
+    final Type elementType = ((ParameterizedType) type).getActualTypeArguments()[0];
+    final JsonWriter jsonWriter;
+
+    try {
+      jsonWriter = gson.newJsonWriter(
+          new BufferedWriter(new OutputStreamWriter(output, UTF_8), bufferSize));
+      jsonWriter.beginArray();
+    } catch (IOException e) {
+      throw new ConverterException(e);
+    }
+
+    return new ListWriter<T>() {
+      @Override public void write(T element) throws ConverterException {
+        try {
+          gson.toJson(element, elementType, jsonWriter);
+        } catch (Exception e) {
+          throw new ConverterException(e);
+        }
+      }
+
+      @Override public void finish() throws ConverterException {
+        try {
+          jsonWriter.endArray();
+          jsonWriter.flush();
+        } catch (IOException e) {
+          throw new ConverterException(e);
+        }
+      }
+    };
+  }
+
+  @Override public <T> T read(InputStream input, Type type) throws ConverterException {
     try {
-      Reader reader = new FileReader(file);
-      T value = gson.fromJson(reader, type);
-      reader.close();
-      return value;
+      return gson.fromJson(new InputStreamReader(new BufferedInputStream(input, bufferSize), UTF_8),
+          type);
     } catch (Exception e) {
       throw new ConverterException(e);
     }
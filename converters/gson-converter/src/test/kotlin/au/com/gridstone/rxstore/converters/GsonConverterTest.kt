@@ -18,7 +18,10 @@ package au.com.gridstone.rxstore.converters
 
 import au.com.gridstone.rxstore.RxStore
 import com.google.common.truth.Truth.assertThat
+import com.google.gson.Gson
+import io.reactivex.Flowable
 import io.reactivex.schedulers.Schedulers
+import org.junit.Assert.fail
 import org.junit.Rule
 import org.junit.Test
 import org.junit.rules.TemporaryFolder
@@ -43,5 +46,43 @@ class GsonConverterTest {
     assertThat(store.blockingGet()).containsExactly(TestData("1", 1), TestData("2", 2))
   }
 
+  @Test fun nonAsciiRoundTripsAsUtf8() {
+    val file = tempDir.newFile()
+    val value = TestData("ünïcödé ✓ 日本語 😀", 1)
+    // A tiny buffer splits multi-byte characters across refills.
+    val store = RxStore.value<TestData>(file, GsonConverter(Gson(), 3), TestData::class.java)
+    store.put(value, Schedulers.trampoline())
+
+    assertThat(file.readText(Charsets.UTF_8)).contains(value.string)
+    store.close()
+    assertThat(RxStore.value<TestData>(file, GsonConverter(), TestData::class.java).blockingGet())
+        .isEqualTo(value)
+  }
+
+  @Test fun invalidBufferSizeIsRejected() {
+    listOf(0, -1).forEach {
+      try {
+        GsonConverter(Gson(), it)
+        fail("Expected bufferSize $it to be rejected.")
+      } catch (expected: IllegalArgumentException) {
+      }
+    }
+  }
+
+  @Test fun streamList() {
+    val streamed = tempDir.newFile()
+    val put = tempDir.newFile()
+    val list = listOf(TestData("1", 1), TestData("2", 2))
+
+    val converter = GsonConverter()
+
+    val streamedStore = RxStore.list<TestData>(streamed, converter, TestData::class.java)
+    streamedStore.observePutAll(Flowable.fromIterable(list)).blockingAwait()
+    RxStore.list<TestData>(put, converter, TestData::class.java).put(list, Schedulers.trampoline())
+
+    assertThat(streamedStore.blockingGet()).isEqualTo(list)
+    assertThat(streamed.readBytes()).isEqualTo(put.readBytes())
+  }
+
   data class TestData(val string: String, val integer: Int)
 }
\ No newline at end of file
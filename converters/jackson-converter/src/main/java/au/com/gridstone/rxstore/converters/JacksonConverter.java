@@ -18,51 +18,167 @@ package au.com.gridstone.rxstore.converters;
 
 import au.com.gridstone.rxstore.Converter;
 import au.com.gridstone.rxstore.ConverterException;
+import au.com.gridstone.rxstore.StreamConverter;
+import au.com.gridstone.rxstore.StreamingListConverter;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
 import com.fasterxml.jackson.databind.JavaType;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
 import java.io.File;
-import java.io.FileReader;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.Reader;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.lang.reflect.Type;
 
 /**
  * A {@link Converter} that uses a Jackson {@link ObjectMapper} to get the
  * job done.
+ * <p>
+ * Files are read and written as raw bytes so that Jackson can use its byte-based parser and
+ * generator. Those bytes pass through a buffer of {@code bufferSize} on their way to and from disk,
+ * which defaults to 8 KiB.
+ * <p>
+ * Jackson detects the encoding of JSON it reads from bytes, which is UTF-8 for every file this
+ * converter writes. Earlier versions read files with the platform's default charset, so a file
+ * that was written in that charset by other means is now decoded differently if the default is not
+ * UTF-8.
+ * <p>
+ * Values are stored as JSON unless a different {@link JsonFactory} is provided. Passing a binary
+ * format such as {@code SmileFactory} or {@code CBORFactory} (from the {@code
+ * jackson-dataformat-smile} and {@code jackson-dataformat-cbor} artifacts) stores values in that
+ * format while still using the configuration of the given {@link ObjectMapper}. Binary formats are
+ * typically smaller and faster to decode, but files written in one format can't be read in another.
  */
-public class JacksonConverter implements Converter {
+public class JacksonConverter implements StreamConverter, StreamingListConverter {
+  private static final int DEFAULT_BUFFER_SIZE = 8 * 1024;
+
   private final ObjectMapper objectMapper;
+  private final JsonFactory format;
+  private final int bufferSize;
 
   public JacksonConverter() {
     this(new ObjectMapper());
   }
 
   public JacksonConverter(ObjectMapper objectMapper) {
+    this(objectMapper, DEFAULT_BUFFER_SIZE);
+  }
+
+  public JacksonConverter(ObjectMapper objectMapper, int bufferSize) {
+    this(objectMapper, objectMapper.getFactory(), bufferSize);
+  }
+
+  public JacksonConverter(ObjectMapper objectMapper, JsonFactory format) {
+    this(objectMapper, format, DEFAULT_BUFFER_SIZE);
+  }
+
+  public JacksonConverter(ObjectMapper objectMapper, JsonFactory format, int bufferSize) {
+    if (bufferSize < 1) {
+      throw new IllegalArgumentException("bufferSize must be greater than zero.");
+    }
+
     this.objectMapper = objectMapper;
+    this.format = format;
+    this.bufferSize = bufferSize;
   }
 
   @Override public <T> void write(T data, Type type, File file) throws ConverterException {
     try {
-      objectMapper.writeValue(file, data);
+      OutputStream output = new BufferedOutputStream(new FileOutputStream(file), bufferSize);
+
+      try {
+        write(data, type, output);
+      } finally {
+        output.close();
+      }
     } catch (IOException e) {
       throw new ConverterException(e);
     }
   }
 
   @Override public <T> T read(File file, Type type) throws ConverterException {
+    try {
+      InputStream input = new BufferedInputStream(new FileInputStream(file), bufferSize);
+
+      try {
+        return read(input, type);
+      } finally {
+        input.close();
+      }
+    } catch (IOException e) {
+      throw new ConverterException(e);
+    }
+  }
+
+  @Override public <T> void write(T data, Type type, OutputStream output)
+      throws ConverterException {
+    try {
+      JsonGenerator generator = format.createGenerator(output);
+      generator.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+      objectMapper.writeValue(generator, data);
+      generator.close();
+    } catch (IOException e) {
+      throw new ConverterException(e);
+    }
+  }
+
+  @Override public <T> ListWriter<T> writeList(Type type, OutputStream output)
+      throws ConverterException {
+    // Flushing after every element would defeat the generator's buffering.
+    final ObjectWriter writer =
+        objectMapper.writer().without(SerializationFeature.FLUSH_AFTER_WRITE_VALUE);
+    final JsonGenerator generator;
+
+    try {
+      generator = format.createGenerator(output);
+      generator.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+      generator.writeStartArray();
+    } catch (IOException e) {
+      throw new ConverterException(e);
+    }
+
+    return new ListWriter<T>() {
+      @Override public void write(T element) throws ConverterException {
+        try {
+          writer.writeValue(generator, element);
+        } catch (IOException e) {
+          throw new ConverterException(e);
+        }
+      }
+
+      @Override public void finish() throws ConverterException {
+        try {
+          generator.writeEndArray();
+          generator.close();
+        } catch (IOException e) {
+          throw new ConverterException(e);
+        }
+      }
+    };
+  }
+
+  @Override public <T> T read(InputStream input, Type type) throws ConverterException {
     JavaType javaType = objectMapper.getTypeFactory().constructType(type);
 
     try {
-      Reader reader = new FileReader(file);
+      JsonParser parser = format.createParser(input);
+      parser.disable(JsonParser.Feature.AUTO_CLOSE_SOURCE);
       T value;
 
-      if (!reader.ready()) {
+      if (parser.nextToken() == null) {
         value = null;
       } else {
-        value = objectMapper.readValue(reader, javaType);
+        value = objectMapper.readValue(parser, javaType);
       }
 
-      reader.close();
+      parser.close();
       return value;
     } catch (Exception e) {
       throw new ConverterException(e);
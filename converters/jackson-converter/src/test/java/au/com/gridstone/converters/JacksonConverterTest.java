@@ -20,7 +20,14 @@ import au.com.gridstone.rxstore.ListStore;
 import au.com.gridstone.rxstore.RxStore;
 import au.com.gridstone.rxstore.ValueStore;
 import au.com.gridstone.rxstore.converters.JacksonConverter;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.cbor.CBORFactory;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
+import com.google.common.base.Charsets;
+import com.google.common.io.Files;
+import io.reactivex.Flowable;
 import io.reactivex.schedulers.Schedulers;
+import java.io.File;
 import java.io.IOException;
 import java.util.Arrays;
 import java.util.List;
@@ -29,6 +36,7 @@ import org.junit.Test;
 import org.junit.rules.TemporaryFolder;
 
 import static com.google.common.truth.Truth.assertThat;
+import static org.junit.Assert.fail;
 
 /**
  * This must remain as Java rather than Kotlin because vanilla Jackson seems to have issues with
@@ -59,6 +67,67 @@ public final class JacksonConverterTest {
     assertThat(store.blockingGet()).isEqualTo(list);
   }
 
+  @Test public void convertListAsSmile() throws IOException {
+    JacksonConverter converter = new JacksonConverter(new ObjectMapper(), new SmileFactory());
+    ListStore<TestData> store = RxStore.list(tempDir.newFile(), converter, TestData.class);
+
+    assertThat(store.blockingGet()).isEmpty();
+
+    List<TestData> list = Arrays.asList(new TestData("Test1", 1), new TestData("Test2", 2));
+    store.put(list, Schedulers.trampoline());
+    assertThat(store.blockingGet()).isEqualTo(list);
+  }
+
+  @Test public void convertValueAsCbor() throws IOException {
+    JacksonConverter converter = new JacksonConverter(new ObjectMapper(), new CBORFactory());
+    ValueStore<TestData> store = RxStore.value(tempDir.newFile(), converter, TestData.class);
+
+    assertThat(store.blockingGet()).isNull();
+
+    TestData value = new TestData("Test1", 1);
+    store.put(value, Schedulers.trampoline());
+    assertThat(store.blockingGet()).isEqualTo(value);
+  }
+
+  @Test public void nonAsciiRoundTripsAsUtf8() throws IOException {
+    File file = tempDir.newFile();
+    TestData value = new TestData("\u00fcn\u00efc\u00f6d\u00e9 \u2713 \u65e5\u672c\u8a9e", 1);
+    // A tiny buffer splits multi-byte characters across refills.
+    ValueStore<TestData> store =
+        RxStore.value(file, new JacksonConverter(new ObjectMapper(), 3), TestData.class);
+    store.put(value, Schedulers.trampoline());
+
+    assertThat(new String(Files.toByteArray(file), Charsets.UTF_8)).contains(value.string);
+    store.close();
+    assertThat(RxStore.value(file, new JacksonConverter(), TestData.class).blockingGet())
+        .isEqualTo(value);
+  }
+
+  @Test public void invalidBufferSizeIsRejected() {
+    for (int bufferSize : new int[] {0, -1}) {
+      try {
+        new JacksonConverter(new ObjectMapper(), bufferSize);
+        fail("Expected bufferSize " + bufferSize + " to be rejected.");
+      } catch (IllegalArgumentException expected) {
+      }
+    }
+  }
+
+  @Test public void streamList() throws IOException {
+    File streamed = tempDir.newFile();
+    File put = tempDir.newFile();
+    List<TestData> list = Arrays.asList(new TestData("Test1", 1), new TestData("Test2", 2));
+
+    ListStore<TestData> streamedStore =
+        RxStore.list(streamed, new JacksonConverter(), TestData.class);
+    streamedStore.observePutAll(Flowable.fromIterable(list)).blockingAwait();
+    ListStore<TestData> putStore = RxStore.list(put, new JacksonConverter(), TestData.class);
+    putStore.put(list, Schedulers.trampoline());
+
+    assertThat(streamedStore.blockingGet()).isEqualTo(list);
+    assertThat(Files.toByteArray(streamed)).isEqualTo(Files.toByteArray(put));
+  }
+
   public static class TestData {
     public String string;
     public int integer;
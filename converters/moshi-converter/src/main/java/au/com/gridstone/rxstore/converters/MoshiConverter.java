@@ -16,18 +16,23 @@
 
 package au.com.gridstone.rxstore.converters;
 
-import au.com.gridstone.rxstore.Converter;
 import au.com.gridstone.rxstore.ConverterException;
+import au.com.gridstone.rxstore.StreamConverter;
+import au.com.gridstone.rxstore.StreamingListConverter;
 import com.squareup.moshi.JsonAdapter;
+import com.squareup.moshi.JsonWriter;
 import com.squareup.moshi.Moshi;
 import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.reflect.ParameterizedType;
 import java.lang.reflect.Type;
 import okio.BufferedSink;
 import okio.BufferedSource;
 import okio.Okio;
 
-public class MoshiConverter implements Converter {
+public class MoshiConverter implements StreamConverter, StreamingListConverter {
   private final Moshi moshi;
 
   public MoshiConverter() {
@@ -67,4 +72,63 @@ public class MoshiConverter implements Converter {
       throw new ConverterException(e);
     }
   }
+
+  @Override public <T> void write(T data, Type type, OutputStream output)
+      throws ConverterException {
+    try {
+      JsonAdapter<T> adapter = moshi.adapter(type);
+      BufferedSink sink = Okio.buffer(Okio.sink(output));
+      adapter.toJson(sink, data);
+      sink.flush();
+    } catch (IOException e) {
+      throw new ConverterException(e);
+    }
+  }
+
+  @Override public <T> ListWriter<T> writeList(Type type, OutputStream output)
+      throws ConverterException {
+    final JsonAdapter<T> adapter =
+        moshi.adapter(((ParameterizedType) type).getActualTypeArguments()[0]);
+    final JsonWriter writer = JsonWriter.of(Okio.buffer(Okio.sink(output)));
+
+    try {
+      writer.beginArray();
+    } catch (IOException e) {
+      throw new ConverterException(e);
+    }
+
+    return new ListWriter<T>() {
+      @Override public void write(T element) throws ConverterException {
+        try {
+          adapter.toJson(writer, element);
+        } catch (IOException e) {
+          throw new ConverterException(e);
+        }
+      }
+
+      @Override public void finish() throws ConverterException {
+        try {
+          writer.endArray();
+          writer.flush();
+        } catch (IOException e) {
+          throw new ConverterException(e);
+        }
+      }
+    };
+  }
+
+  @Override public <T> T read(InputStream input, Type type) throws ConverterException {
+    try {
+      JsonAdapter<T> adapter = moshi.adapter(type);
+      BufferedSource source = Okio.buffer(Okio.source(input));
+
+      if (source.exhausted()) {
+        return null;
+      }
+
+      return adapter.nullSafe().fromJson(source);
+    } catch (Exception e) {
+      throw new ConverterException(e);
+    }
+  }
 }
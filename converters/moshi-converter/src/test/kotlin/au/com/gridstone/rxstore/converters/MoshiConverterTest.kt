@@ -18,6 +18,7 @@ package au.com.gridstone.rxstore.converters
 
 import au.com.gridstone.rxstore.RxStore
 import com.google.common.truth.Truth.assertThat
+import io.reactivex.Flowable
 import io.reactivex.schedulers.Schedulers
 import org.junit.Rule
 import org.junit.Test
@@ -43,5 +44,20 @@ class MoshiConverterTest {
     assertThat(store.blockingGet()).containsExactly(TestData("1", 1), TestData("2", 2))
   }
 
+  @Test fun streamList() {
+    val streamed = tempDir.newFile()
+    val put = tempDir.newFile()
+    val list = listOf(TestData("1", 1), TestData("2", 2))
+
+    val converter = MoshiConverter()
+
+    val streamedStore = RxStore.list<TestData>(streamed, converter, TestData::class.java)
+    streamedStore.observePutAll(Flowable.fromIterable(list)).blockingAwait()
+    RxStore.list<TestData>(put, converter, TestData::class.java).put(list, Schedulers.trampoline())
+
+    assertThat(streamedStore.blockingGet()).isEqualTo(list)
+    assertThat(streamed.readBytes()).isEqualTo(put.readBytes())
+  }
+
   data class TestData(val string: String, val integer: Int)
 }
\ No newline at end of file
@@ -18,8 +18,17 @@ package au.com.gridstone.rxstore
 
 import java.io.File
 
-inline fun <reified T : Any> createValueStore(file: File, converter: Converter): ValueStore<T>
-    = RxStore.value(file, converter, T::class.java)
+inline fun <reified T : Any> createValueStore(file: File, converter: Converter,
+    options: StoreOptions = StoreOptions.DEFAULT): ValueStore<T>
+    = RxStore.value(file, converter, T::class.java, options)
 
-inline fun <reified T : Any> createListStore(file: File, converter: Converter): ListStore<T>
-    = RxStore.list(file, converter, T::class.java)
+inline fun <reified T : Any> createListStore(file: File, converter: Converter,
+    options: StoreOptions = StoreOptions.DEFAULT): ListStore<T>
+    = RxStore.list(file, converter, T::class.java, options)
+
+inline fun <reified T : Any> createStoreDirectory(directory: File, converter: Converter,
+    maxLiveStores: Int = 64, options: StoreOptions = StoreOptions.DEFAULT): StoreDirectory<T>
+    = RxStore.directory(directory, converter, T::class.java, maxLiveStores, options)
+
+inline fun <reified T : Any> createPackedStore(file: File, converter: StreamConverter)
+    : PackedStore<T> = RxStore.packed(file, converter, T::class.java)
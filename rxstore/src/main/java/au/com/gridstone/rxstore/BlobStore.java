@@ -0,0 +1,168 @@
+/*
+ * Copyright (C) GRIDSTONE 2017
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package au.com.gridstone.rxstore;
+
+import au.com.gridstone.rxstore.ValueStore.ValueUpdate;
+import io.reactivex.Completable;
+import io.reactivex.Maybe;
+import io.reactivex.Observable;
+import io.reactivex.Scheduler;
+import io.reactivex.Single;
+import io.reactivex.annotations.NonNull;
+import io.reactivex.annotations.Nullable;
+import io.reactivex.schedulers.Schedulers;
+import java.io.File;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * Store raw bytes on disk, such as an image or a cached HTTP body, without passing them through a
+ * {@link Converter}. Bytes move between files and channels with {@link
+ * java.nio.channels.FileChannel#transferTo transferTo} and {@link
+ * java.nio.channels.FileChannel#transferFrom transferFrom}, and reads are memory mapped, so a large
+ * payload need never be copied onto the heap as a whole.
+ * <p>
+ * Like a {@link ValueStore}, every write goes to a temporary file that is then renamed over the
+ * store's file, so readers never see a partial write. A buffer, stream or transfer obtained from
+ * this store keeps reading the bytes that were current when it was obtained, even after a later
+ * write. Some platforms (notably Windows) refuse to replace a file that is still mapped or open,
+ * so this store is best suited to platforms with POSIX file semantics.
+ * <p>
+ * A {@link ByteBuffer} can hold at most {@link Integer#MAX_VALUE} bytes. Reading larger contents
+ * through {@link #get()}, {@link #blockingGet()} or {@link #observe()} fails with an {@link
+ * java.io.IOException}, so read them with {@link #openStream()} or {@link
+ * #observeTransferTo(WritableByteChannel)} instead.
+ */
+public interface BlobStore {
+  /**
+   * Retrieve the current bytes from this store using Rx, as a read-only buffer mapped from the
+   * store's file. If this store has not had any bytes written then the returned {@link Maybe}
+   * completes without a value.
+   */
+  @NonNull Maybe<ByteBuffer> get();
+
+  /**
+   * Retrieve the current bytes from this store in a blocking manner, as a read-only buffer mapped
+   * from the store's file. If the store has not yet had any bytes written then this method returns
+   * null.
+   */
+  @Nullable ByteBuffer blockingGet();
+
+  /**
+   * Open a stream over the current bytes in this store. If this store has not had any bytes written
+   * then the returned {@link Maybe} completes without a value. The caller must close the stream.
+   */
+  @NonNull Maybe<InputStream> openStream();
+
+  /**
+   * Transfer the current bytes in this store to target and observe the operation. Transferring to
+   * a file or socket channel lets the operating system copy the bytes directly. The {@link Single}
+   * emits the number of bytes transferred, which is zero if this store is empty. Target is not
+   * closed.
+   */
+  @NonNull Single<Long> observeTransferTo(@NonNull WritableByteChannel target);
+
+  /**
+   * Replace the bytes in this store with the contents of source and observe the operation.
+   * Source is copied by the operating system without passing through the heap.
+   */
+  @NonNull Completable observePut(@NonNull File source);
+
+  /**
+   * Asynchronously replace the bytes in this store with the contents of source. The write
+   * operation occurs on {@link Schedulers#io()}. If you wish to specify the {@link Scheduler} then
+   * use {@link #put(File, Scheduler)}.
+   */
+  void put(@NonNull File source);
+
+  /**
+   * Replace the bytes in this store with the contents of source on a specified {@link Scheduler}.
+   */
+  void put(@NonNull File source, @NonNull Scheduler scheduler);
+
+  /**
+   * Replace the bytes in this store with the remaining bytes of source and observe the operation.
+   * The position of source is left unchanged.
+   */
+  @NonNull Completable observePut(@NonNull ByteBuffer source);
+
+  /**
+   * Asynchronously replace the bytes in this store with the remaining bytes of source. The write
+   * operation occurs on {@link Schedulers#io()}. If you wish to specify the {@link Scheduler} then
+   * use {@link #put(ByteBuffer, Scheduler)}.
+   */
+  void put(@NonNull ByteBuffer source);
+
+  /**
+   * Replace the bytes in this store with the remaining bytes of source on a specified {@link
+   * Scheduler}.
+   */
+  void put(@NonNull ByteBuffer source, @NonNull Scheduler scheduler);
+
+  /**
+   * Replace the bytes in this store with everything read from source and observe the operation.
+   * Source is read to its end but not closed.
+   */
+  @NonNull Completable observePut(@NonNull InputStream source);
+
+  /**
+   * Asynchronously replace the bytes in this store with everything read from source. The write
+   * operation occurs on {@link Schedulers#io()}. If you wish to specify the {@link Scheduler} then
+   * use {@link #put(InputStream, Scheduler)}.
+   */
+  void put(@NonNull InputStream source);
+
+  /**
+   * Replace the bytes in this store with everything read from source on a specified {@link
+   * Scheduler}.
+   */
+  void put(@NonNull InputStream source, @NonNull Scheduler scheduler);
+
+  /**
+   * Observe changes to the bytes in this store. {@code onNext()} will be invoked immediately with
+   * the current bytes upon subscription and subsequent changes thereafter, each as a read-only
+   * mapped buffer.
+   * <p>
+   * As it's not possible to deliver null objects in {@code onNext()}, the bytes are wrapped in a
+   * {@link ValueUpdate}. If the store is empty then {@link ValueUpdate#empty update.empty} is true.
+   */
+  @NonNull Observable<ValueUpdate<ByteBuffer>> observe();
+
+  /**
+   * Clear the bytes in this store and observe the operation.
+   */
+  @NonNull Completable observeClear();
+
+  /**
+   * Asynchronously clear the bytes in this store. The clear operation occurs on {@link
+   * Schedulers#io()}. If you wish to specify the {@link Scheduler} then use {@link
+   * #clear(Scheduler)}.
+   */
+  void clear();
+
+  /**
+   * Clear the bytes in this store on a specified {@link Scheduler}.
+   */
+  void clear(@NonNull Scheduler scheduler);
+
+  /**
+   * Release this store. Observers of this store complete, and any further mutations fail with an
+   * {@link IllegalStateException}.
+   */
+  void close();
+}
@@ -0,0 +1,334 @@
+/*
+ * Copyright (C) GRIDSTONE 2019
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package au.com.gridstone.rxstore;
+
+import io.reactivex.Scheduler;
+import io.reactivex.annotations.NonNull;
+import io.reactivex.schedulers.Schedulers;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.lang.reflect.ParameterizedType;
+import java.lang.reflect.Type;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static au.com.gridstone.rxstore.Utils.assertNotNull;
+
+/**
+ * A {@link Converter} that writes {@code Lists} as a series of independently decodable chunks, and
+ * decodes those chunks in parallel when reading. This reduces the time taken to load large {@link
+ * ListStore ListStores} on devices with many cores.
+ * <p>
+ * Each chunk is serialized by a delegate {@link StreamConverter}. Values that are not {@code
+ * Lists} are passed straight through to the delegate, as are reads of files that were not written
+ * in the chunked format. This makes it possible to switch an existing store over to this converter;
+ * its file will be rewritten as chunks on the next write.
+ * <p>
+ * Lists can also be written one element at a time through {@link #writeList(Type, OutputStream)},
+ * which holds no more than one chunk in memory.
+ * <p>
+ * Reads decode chunks on the provided {@link Scheduler} and on the reading thread at the same
+ * time. The reading thread takes any chunk that the {@link Scheduler} has not started on, and only
+ * waits for chunks that are already being decoded. A read therefore never waits on a busy {@link
+ * Scheduler}, including the one it is running on.
+ */
+public final class ChunkedListConverter implements StreamingListConverter {
+  private static final int MAGIC = 0x52584348; // "RXCH"
+  private static final int HEADER_SIZE = 4;
+  private static final int CHUNK_HEADER_SIZE = 8;
+
+  private final StreamConverter delegate;
+  private final int chunkSize;
+  private final Scheduler scheduler;
+  private final int parallelism;
+
+  /**
+   * Create a converter that writes chunks of 1024 items and decodes them on {@link
+   * Schedulers#computation()}.
+   */
+  public ChunkedListConverter(@NonNull StreamConverter delegate) {
+    this(delegate, 1024, Schedulers.computation());
+  }
+
+  public ChunkedListConverter(@NonNull StreamConverter delegate, int chunkSize,
+      @NonNull Scheduler scheduler) {
+    assertNotNull(delegate, "delegate");
+    assertNotNull(scheduler, "scheduler");
+
+    if (chunkSize < 1) {
+      throw new IllegalArgumentException("chunkSize must be greater than zero.");
+    }
+
+    this.delegate = delegate;
+    this.chunkSize = chunkSize;
+    this.scheduler = scheduler;
+    this.parallelism = Runtime.getRuntime().availableProcessors();
+  }
+
+  @Override public <T> void write(T data, Type type, File file) throws ConverterException {
+    if (!(data instanceof List) || !isListType(type)) {
+      delegate.write(data, type, file);
+      return;
+    }
+
+    List<?> list = (List<?>) data;
+
+    try {
+      DataOutputStream output =
+          new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)));
+
+      try {
+        output.writeInt(MAGIC);
+        ByteArrayOutputStream chunkBytes = new ByteArrayOutputStream();
+
+        for (int start = 0; start < list.size(); start += chunkSize) {
+          List<?> chunk = list.subList(start, Math.min(start + chunkSize, list.size()));
+          chunkBytes.reset();
+          delegate.write(chunk, type, chunkBytes);
+
+          output.writeInt(chunkBytes.size());
+          output.writeInt(chunk.size());
+          chunkBytes.writeTo(output);
+        }
+      } finally {
+        output.close();
+      }
+    } catch (IOException e) {
+      throw new ConverterException(e);
+    }
+  }
+
+  @Override public <T> ListWriter<T> writeList(final Type type, OutputStream output)
+      throws ConverterException {
+    final DataOutputStream dataOutput = new DataOutputStream(new BufferedOutputStream(output));
+
+    try {
+      dataOutput.writeInt(MAGIC);
+    } catch (IOException e) {
+      throw new ConverterException(e);
+    }
+
+    return new ListWriter<T>() {
+      private final List<T> chunk = new ArrayList<T>(chunkSize);
+      private final ByteArrayOutputStream chunkBytes = new ByteArrayOutputStream();
+
+      @Override public void write(T element) throws ConverterException {
+        chunk.add(element);
+        if (chunk.size() == chunkSize) writeChunk();
+      }
+
+      @Override public void finish() throws ConverterException {
+        if (!chunk.isEmpty()) writeChunk();
+
+        try {
+          dataOutput.flush();
+        } catch (IOException e) {
+          throw new ConverterException(e);
+        }
+      }
+
+      private void writeChunk() throws ConverterException {
+        chunkBytes.reset();
+        delegate.write(chunk, type, chunkBytes);
+
+        try {
+          dataOutput.writeInt(chunkBytes.size());
+          dataOutput.writeInt(chunk.size());
+          chunkBytes.writeTo(dataOutput);
+        } catch (IOException e) {
+          throw new ConverterException(e);
+        }
+
+        chunk.clear();
+      }
+    };
+  }
+
+  @Override public <T> T read(File file, Type type) throws ConverterException {
+    if (!isListType(type)) return delegate.read(file, type);
+
+    List<Chunk> chunks = new ArrayList<Chunk>();
+    int totalSize = 0;
+
+    try {
+      RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r");
+
+      try {
+        long length = randomAccessFile.length();
+        if (length < HEADER_SIZE || randomAccessFile.readInt() != MAGIC) {
+          return delegate.read(file, type);
+        }
+
+        long position = HEADER_SIZE;
+
+        while (position < length) {
+          randomAccessFile.seek(position);
+          int byteCount = randomAccessFile.readInt();
+          int itemCount = randomAccessFile.readInt();
+          position += CHUNK_HEADER_SIZE;
+
+          chunks.add(new Chunk(position, byteCount));
+          totalSize += itemCount;
+          position += byteCount;
+        }
+      } finally {
+        randomAccessFile.close();
+      }
+    } catch (IOException e) {
+      throw new ConverterException(e);
+    }
+
+    List<Object> result = new ArrayList<Object>(totalSize);
+
+    for (List<?> decodedChunk : new Decode(chunks, file, type).decodeAll()) {
+      result.addAll(decodedChunk);
+    }
+
+    @SuppressWarnings("unchecked") // The delegate produced Lists of the requested type.
+    T typedResult = (T) result;
+    return typedResult;
+  }
+
+  private static boolean isListType(Type type) {
+    return type instanceof ParameterizedType
+        && ((ParameterizedType) type).getRawType() == List.class;
+  }
+
+  /**
+   * Decodes a file's chunks. Up to parallelism - 1 workers are scheduled, and the reading thread
+   * claims chunks alongside them in order.
+   */
+  private final class Decode implements Runnable {
+    private final List<Chunk> chunks;
+    private final File file;
+    private final Type type;
+    private final List<?>[] decoded;
+    private final AtomicInteger next = new AtomicInteger();
+    private final CountDownLatch done;
+    private final AtomicReference<Throwable> error = new AtomicReference<Throwable>();
+
+    Decode(List<Chunk> chunks, File file, Type type) {
+      this.chunks = chunks;
+      this.file = file;
+      this.type = type;
+      this.decoded = new List<?>[chunks.size()];
+      this.done = new CountDownLatch(chunks.size());
+    }
+
+    List<?>[] decodeAll() throws ConverterException {
+      int workers = Math.min(parallelism, chunks.size()) - 1;
+
+      for (int i = 0; i < workers; i++) {
+        scheduler.scheduleDirect(this);
+      }
+
+      run();
+
+      try {
+        // Every chunk has been claimed, so this only waits for workers that are decoding.
+        done.await();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new ConverterException(e);
+      }
+
+      Throwable e = error.get();
+      if (e instanceof ConverterException) throw (ConverterException) e;
+      if (e instanceof Error) throw (Error) e;
+      if (e != null) throw new ConverterException(e);
+      return decoded;
+    }
+
+    @Override public void run() {
+      for (int i = next.getAndIncrement(); i < decoded.length; i = next.getAndIncrement()) {
+        try {
+          if (error.get() == null) decoded[i] = chunks.get(i).decode(file, type);
+        } catch (Throwable e) {
+          error.compareAndSet(null, e);
+        } finally {
+          done.countDown();
+        }
+      }
+    }
+  }
+
+  private final class Chunk {
+    private final long offset;
+    private final int byteCount;
+
+    Chunk(long offset, int byteCount) {
+      this.offset = offset;
+      this.byteCount = byteCount;
+    }
+
+    List<Object> decode(File file, Type type) throws IOException {
+      FileInputStream input = new FileInputStream(file);
+
+      try {
+        input.getChannel().position(offset);
+        List<Object> list = delegate.read(new BoundedInputStream(input, byteCount), type);
+        if (list == null) throw new ConverterException("Chunk at " + offset + " was empty.");
+        return list;
+      } finally {
+        input.close();
+      }
+    }
+  }
+
+  /**
+   * Exposes only the next {@code limit} bytes of a stream, so the delegate can't read into the
+   * following chunk.
+   */
+  private static final class BoundedInputStream extends InputStream {
+    private final InputStream input;
+    private long remaining;
+
+    BoundedInputStream(InputStream input, long limit) {
+      this.input = input;
+      this.remaining = limit;
+    }
+
+    @Override public int read() throws IOException {
+      if (remaining <= 0) return -1;
+      int value = input.read();
+      if (value != -1) remaining--;
+      return value;
+    }
+
+    @Override public int read(byte[] buffer, int offset, int length) throws IOException {
+      if (remaining <= 0) return -1;
+      int count = input.read(buffer, offset, (int) Math.min(length, remaining));
+      if (count > 0) remaining -= count;
+      return count;
+    }
+
+    @Override public int available() throws IOException {
+      return (int) Math.min(input.available(), remaining);
+    }
+  }
+}
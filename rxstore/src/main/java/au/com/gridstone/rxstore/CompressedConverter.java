@@ -0,0 +1,365 @@
+/*
+ * Copyright (C) GRIDSTONE 2017
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package au.com.gridstone.rxstore;
+
+import io.reactivex.annotations.NonNull;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FilterInputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PushbackInputStream;
+import java.lang.reflect.Type;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static au.com.gridstone.rxstore.Utils.assertNotNull;
+
+/**
+ * A {@link Converter} that compresses the output of another converter as it is written, and
+ * decompresses it as it is read. The serialized form is never held in memory as a whole.
+ * <pre>{@code
+ * Converter converter = new CompressedConverter(new GsonConverter(), Compression.gzip());
+ * ListStore<Person> store = RxStore.list(file, converter, Person.class);
+ * }</pre>
+ * When the delegate is a {@link StreamConverter} it reads and writes straight through the
+ * compression streams. Other converters are given an uncompressed temporary file, which is then
+ * streamed through compression.
+ * <p>
+ * Files written without compression can not be read by this converter. Use {@link #stats()} to
+ * decide whether compression is worth its cost for a given kind of data.
+ */
+public final class CompressedConverter implements StreamConverter {
+  private static final int BUFFER_SIZE = 8 * 1024;
+
+  private final Converter delegate;
+  private final Compression compression;
+
+  private final AtomicLong writeCount = new AtomicLong();
+  private final AtomicLong readCount = new AtomicLong();
+  private final AtomicLong uncompressedBytes = new AtomicLong();
+  private final AtomicLong compressedBytes = new AtomicLong();
+  private final AtomicLong compressNanos = new AtomicLong();
+  private final AtomicLong decompressNanos = new AtomicLong();
+
+  /**
+   * Create a converter that compresses with {@link Compression#gzip()}.
+   */
+  public CompressedConverter(@NonNull Converter delegate) {
+    this(delegate, Compression.gzip());
+  }
+
+  public CompressedConverter(@NonNull Converter delegate, @NonNull Compression compression) {
+    assertNotNull(delegate, "delegate");
+    assertNotNull(compression, "compression");
+    this.delegate = delegate;
+    this.compression = compression;
+  }
+
+  /**
+   * A snapshot of the work this converter has done since it was created.
+   */
+  @NonNull public Stats stats() {
+    return new Stats(writeCount.get(), readCount.get(), uncompressedBytes.get(),
+        compressedBytes.get(), compressNanos.get(), decompressNanos.get());
+  }
+
+  @Override public <T> void write(T data, Type type, File file) throws ConverterException {
+    try {
+      OutputStream output = new FileOutputStream(file);
+
+      try {
+        write(data, type, output);
+      } finally {
+        output.close();
+      }
+    } catch (IOException e) {
+      throw new ConverterException(e);
+    }
+  }
+
+  @Override public <T> T read(File file, Type type) throws ConverterException {
+    try {
+      InputStream input = new FileInputStream(file);
+
+      try {
+        return read(input, type);
+      } finally {
+        input.close();
+      }
+    } catch (IOException e) {
+      throw new ConverterException(e);
+    }
+  }
+
+  @Override public <T> void write(T data, Type type, OutputStream output)
+      throws ConverterException {
+    MeteredOutputStream compressed = new MeteredOutputStream(output, false);
+
+    try {
+      MeteredOutputStream uncompressed =
+          new MeteredOutputStream(compression.compress(compressed), true);
+
+      try {
+        if (delegate instanceof StreamConverter) {
+          ((StreamConverter) delegate).write(data, type, uncompressed);
+        } else {
+          File tmpFile = File.createTempFile("rxstore", ".tmp");
+
+          try {
+            delegate.write(data, type, tmpFile);
+            copy(tmpFile, uncompressed);
+          } finally {
+            tmpFile.delete();
+          }
+        }
+      } finally {
+        uncompressed.close();
+      }
+
+      writeCount.incrementAndGet();
+      uncompressedBytes.addAndGet(uncompressed.count);
+      compressedBytes.addAndGet(compressed.count);
+      compressNanos.addAndGet(uncompressed.nanos - compressed.nanos);
+    } catch (IOException e) {
+      throw new ConverterException(e);
+    }
+  }
+
+  @Override public <T> T read(InputStream input, Type type) throws ConverterException {
+    try {
+      PushbackInputStream pushbackInput = new PushbackInputStream(input, 1);
+      int first = pushbackInput.read();
+      if (first == -1) return null;
+      pushbackInput.unread(first);
+
+      MeteredInputStream compressed = new MeteredInputStream(pushbackInput, false);
+      MeteredInputStream uncompressed =
+          new MeteredInputStream(compression.decompress(compressed), true);
+      T value;
+
+      try {
+        if (delegate instanceof StreamConverter) {
+          value = ((StreamConverter) delegate).read(uncompressed, type);
+        } else {
+          File tmpFile = File.createTempFile("rxstore", ".tmp");
+
+          try {
+            copy(uncompressed, tmpFile);
+            value = delegate.read(tmpFile, type);
+          } finally {
+            tmpFile.delete();
+          }
+        }
+      } finally {
+        uncompressed.close();
+      }
+
+      readCount.incrementAndGet();
+      decompressNanos.addAndGet(uncompressed.nanos - compressed.nanos);
+      return value;
+    } catch (IOException e) {
+      throw new ConverterException(e);
+    }
+  }
+
+  private static void copy(File source, OutputStream output) throws IOException {
+    InputStream input = new FileInputStream(source);
+
+    try {
+      byte[] buffer = new byte[BUFFER_SIZE];
+
+      for (int count = input.read(buffer); count != -1; count = input.read(buffer)) {
+        output.write(buffer, 0, count);
+      }
+    } finally {
+      input.close();
+    }
+  }
+
+  private static void copy(InputStream input, File destination) throws IOException {
+    OutputStream output = new FileOutputStream(destination);
+
+    try {
+      byte[] buffer = new byte[BUFFER_SIZE];
+
+      for (int count = input.read(buffer); count != -1; count = input.read(buffer)) {
+        output.write(buffer, 0, count);
+      }
+    } finally {
+      output.close();
+    }
+  }
+
+  /**
+   * Counts the bytes and time spent writing to a stream. Metering both sides of the compression
+   * stream gives the time spent compressing as the difference between the two.
+   */
+  private static final class MeteredOutputStream extends FilterOutputStream {
+    private final boolean closeTarget;
+    long count;
+    long nanos;
+
+    MeteredOutputStream(OutputStream output, boolean closeTarget) {
+      super(output);
+      this.closeTarget = closeTarget;
+    }
+
+    @Override public void write(int b) throws IOException {
+      long start = System.nanoTime();
+      out.write(b);
+      nanos += System.nanoTime() - start;
+      count++;
+    }
+
+    @Override public void write(byte[] bytes, int offset, int length) throws IOException {
+      long start = System.nanoTime();
+      out.write(bytes, offset, length);
+      nanos += System.nanoTime() - start;
+      count += length;
+    }
+
+    @Override public void flush() throws IOException {
+      long start = System.nanoTime();
+      out.flush();
+      nanos += System.nanoTime() - start;
+    }
+
+    @Override public void close() throws IOException {
+      long start = System.nanoTime();
+
+      if (closeTarget) {
+        out.close();
+      } else {
+        out.flush();
+      }
+
+      nanos += System.nanoTime() - start;
+    }
+  }
+
+  private static final class MeteredInputStream extends FilterInputStream {
+    private final boolean closeTarget;
+    long nanos;
+
+    MeteredInputStream(InputStream input, boolean closeTarget) {
+      super(input);
+      this.closeTarget = closeTarget;
+    }
+
+    @Override public int read() throws IOException {
+      long start = System.nanoTime();
+      int b = in.read();
+      nanos += System.nanoTime() - start;
+      return b;
+    }
+
+    @Override public int read(byte[] bytes, int offset, int length) throws IOException {
+      long start = System.nanoTime();
+      int count = in.read(bytes, offset, length);
+      nanos += System.nanoTime() - start;
+      return count;
+    }
+
+    @Override public long skip(long count) throws IOException {
+      long start = System.nanoTime();
+      long skipped = in.skip(count);
+      nanos += System.nanoTime() - start;
+      return skipped;
+    }
+
+    @Override public void close() throws IOException {
+      if (closeTarget) in.close();
+    }
+  }
+
+  public static final class Stats {
+    private final long writeCount;
+    private final long readCount;
+    private final long uncompressedBytes;
+    private final long compressedBytes;
+    private final long compressNanos;
+    private final long decompressNanos;
+
+    Stats(long writeCount, long readCount, long uncompressedBytes, long compressedBytes,
+        long compressNanos, long decompressNanos) {
+      this.writeCount = writeCount;
+      this.readCount = readCount;
+      this.uncompressedBytes = uncompressedBytes;
+      this.compressedBytes = compressedBytes;
+      this.compressNanos = compressNanos;
+      this.decompressNanos = decompressNanos;
+    }
+
+    public long writeCount() {
+      return writeCount;
+    }
+
+    public long readCount() {
+      return readCount;
+    }
+
+    /**
+     * Total bytes produced by the delegate converter across all writes.
+     */
+    public long uncompressedBytes() {
+      return uncompressedBytes;
+    }
+
+    /**
+     * Total bytes written to storage across all writes.
+     */
+    public long compressedBytes() {
+      return compressedBytes;
+    }
+
+    /**
+     * Compressed size as a fraction of uncompressed size, or 1 if nothing has been written.
+     */
+    public double compressionRatio() {
+      return uncompressedBytes == 0 ? 1 : (double) compressedBytes / uncompressedBytes;
+    }
+
+    /**
+     * Time spent compressing, excluding time spent in the delegate converter and in writing to
+     * storage.
+     */
+    public long compressNanos() {
+      return compressNanos;
+    }
+
+    /**
+     * Time spent decompressing, excluding time spent in the delegate converter and in reading from
+     * storage.
+     */
+    public long decompressNanos() {
+      return decompressNanos;
+    }
+
+    @Override public String toString() {
+      return "Stats{writes=" + writeCount
+          + ", reads=" + readCount
+          + ", uncompressedBytes=" + uncompressedBytes
+          + ", compressedBytes=" + compressedBytes
+          + ", compressNanos=" + compressNanos
+          + ", decompressNanos=" + decompressNanos
+          + '}';
+    }
+  }
+}
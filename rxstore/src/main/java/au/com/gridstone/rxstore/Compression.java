@@ -0,0 +1,107 @@
+/*
+ * Copyright (C) GRIDSTONE 2017
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package au.com.gridstone.rxstore;
+
+import io.reactivex.annotations.NonNull;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * A streaming compression format used by {@link CompressedConverter}. Implementations other than
+ * those provided here can plug in any format that can be expressed as a pair of streams.
+ */
+public abstract class Compression {
+  private static final int BUFFER_SIZE = 8 * 1024;
+
+  /**
+   * GZIP as implemented by the JDK. Files are compatible with the {@code gzip} command line tool.
+   */
+  @NonNull public static Compression gzip() {
+    return new Compression() {
+      @Override public OutputStream compress(OutputStream output) throws IOException {
+        return new GZIPOutputStream(output, BUFFER_SIZE);
+      }
+
+      @Override public InputStream decompress(InputStream input) throws IOException {
+        return new GZIPInputStream(input, BUFFER_SIZE);
+      }
+    };
+  }
+
+  /**
+   * Deflate in the zlib format at the given level, from {@link Deflater#BEST_SPEED} to
+   * {@link Deflater#BEST_COMPRESSION}. Slightly smaller than {@link #gzip()}, as the zlib wrapper
+   * is a 2 byte header and an Adler-32 checksum rather than gzip's 10 byte header and 8 byte
+   * trailer.
+   */
+  @NonNull public static Compression deflate(final int level) {
+    if ((level < Deflater.BEST_SPEED || level > Deflater.BEST_COMPRESSION)
+        && level != Deflater.DEFAULT_COMPRESSION) {
+      throw new IllegalArgumentException("Invalid deflate level " + level + ".");
+    }
+
+    return new Compression() {
+      @Override public OutputStream compress(OutputStream output) {
+        final Deflater deflater = new Deflater(level);
+
+        return new DeflaterOutputStream(output, deflater, BUFFER_SIZE) {
+          @Override public void close() throws IOException {
+            try {
+              super.close();
+            } finally {
+              // A Deflater handed to the stream is not released when the stream closes.
+              deflater.end();
+            }
+          }
+        };
+      }
+
+      @Override public InputStream decompress(InputStream input) {
+        final Inflater inflater = new Inflater();
+
+        return new InflaterInputStream(input, inflater, BUFFER_SIZE) {
+          @Override public void close() throws IOException {
+            try {
+              super.close();
+            } finally {
+              inflater.end();
+            }
+          }
+        };
+      }
+    };
+  }
+
+  /**
+   * Wrap output so that everything written to the returned stream is compressed. Closing the
+   * returned stream must write any trailing data, release any resources held, and close output.
+   */
+  @NonNull public abstract OutputStream compress(@NonNull OutputStream output) throws IOException;
+
+  /**
+   * Wrap input so that reading from the returned stream yields the decompressed data. Closing the
+   * returned stream must release any resources held and close input.
+   */
+  @NonNull public abstract InputStream decompress(@NonNull InputStream input) throws IOException;
+}
@@ -0,0 +1,161 @@
+/*
+ * Copyright (C) GRIDSTONE 2017
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package au.com.gridstone.rxstore;
+
+import io.reactivex.annotations.Nullable;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.reflect.Type;
+import java.util.AbstractList;
+import java.util.List;
+import java.util.RandomAccess;
+
+/**
+ * An immutable {@code List} that holds its elements encoded by a {@link StreamConverter}, and
+ * decodes an element each time it is accessed. This trades decoding time for memory, since encoded
+ * elements are typically several times smaller than the objects they describe.
+ * <p>
+ * Elements are grouped into blocks of {@value #BLOCK_SIZE}, each optionally compressed on its own.
+ * The most recently decompressed block is kept, so iterating in order decompresses each block once.
+ */
+final class EncodedList<T> extends AbstractList<T> implements RandomAccess {
+  static final int BLOCK_SIZE = 64;
+
+  private final StreamConverter converter;
+  private final Type elementType;
+  @Nullable private final Compression compression;
+  private final byte[][] blocks;
+  /** The offset at which each element ends within its decompressed block. */
+  private final int[] ends;
+  private final long byteSize;
+
+  // Guarded by this.
+  private int decompressedIndex = -1;
+  private byte[] decompressed;
+
+  private EncodedList(StreamConverter converter, Type elementType,
+      @Nullable Compression compression, byte[][] blocks, int[] ends) {
+    this.converter = converter;
+    this.elementType = elementType;
+    this.compression = compression;
+    this.blocks = blocks;
+    this.ends = ends;
+
+    long byteSize = 4L * ends.length;
+    for (byte[] block : blocks) byteSize += block.length;
+    this.byteSize = byteSize;
+  }
+
+  /**
+   * Encode every element of list as elementType with converter, compressing each block with
+   * compression unless it is null.
+   */
+  static <T> EncodedList<T> encode(List<T> list, StreamConverter converter, Type elementType,
+      @Nullable Compression compression) throws IOException {
+    int size = list.size();
+    byte[][] blocks = new byte[(size + BLOCK_SIZE - 1) / BLOCK_SIZE][];
+    int[] ends = new int[size];
+    ByteArrayOutputStream block = new ByteArrayOutputStream();
+
+    for (int i = 0; i < size; i++) {
+      converter.write(list.get(i), elementType, block);
+      ends[i] = block.size();
+
+      if (i % BLOCK_SIZE == BLOCK_SIZE - 1 || i == size - 1) {
+        blocks[i / BLOCK_SIZE] =
+            compression == null ? block.toByteArray() : compress(block, compression);
+        block.reset();
+      }
+    }
+
+    return new EncodedList<T>(converter, elementType, compression, blocks, ends);
+  }
+
+  /**
+   * The number of bytes this list holds in memory, approximately.
+   */
+  long byteSize() {
+    return byteSize;
+  }
+
+  @Override public T get(int index) {
+    if (index < 0 || index >= ends.length) {
+      throw new IndexOutOfBoundsException("Index " + index + " of size " + ends.length + ".");
+    }
+
+    int start = index % BLOCK_SIZE == 0 ? 0 : ends[index - 1];
+    byte[] block = block(index / BLOCK_SIZE);
+    return converter.read(new ByteArrayInputStream(block, start, ends[index] - start), elementType);
+  }
+
+  @Override public int size() {
+    return ends.length;
+  }
+
+  private byte[] block(int blockIndex) {
+    if (compression == null) return blocks[blockIndex];
+
+    synchronized (this) {
+      if (decompressedIndex != blockIndex) {
+        int lastElement = Math.min(ends.length, (blockIndex + 1) * BLOCK_SIZE) - 1;
+        decompressed = decompress(blocks[blockIndex], ends[lastElement], compression);
+        decompressedIndex = blockIndex;
+      }
+
+      return decompressed;
+    }
+  }
+
+  private static byte[] compress(ByteArrayOutputStream block, Compression compression)
+      throws IOException {
+    ByteArrayOutputStream compressed = new ByteArrayOutputStream(block.size() / 2);
+    OutputStream output = compression.compress(compressed);
+
+    try {
+      block.writeTo(output);
+    } finally {
+      output.close();
+    }
+
+    return compressed.toByteArray();
+  }
+
+  private static byte[] decompress(byte[] block, int length, Compression compression) {
+    byte[] bytes = new byte[length];
+
+    try {
+      InputStream input = compression.decompress(new ByteArrayInputStream(block));
+
+      try {
+        for (int count = 0; count < length; ) {
+          int read = input.read(bytes, count, length - count);
+          if (read == -1) throw new IOException("Compressed block ended early.");
+          count += read;
+        }
+      } finally {
+        input.close();
+      }
+    } catch (IOException e) {
+      throw new ConverterException(e);
+    }
+
+    return bytes;
+  }
+}
@@ -0,0 +1,143 @@
+/*
+ * Copyright (C) GRIDSTONE 2017
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package au.com.gridstone.rxstore;
+
+import io.reactivex.plugins.RxJavaPlugins;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileFilter;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.lang.ref.WeakReference;
+
+import static au.com.gridstone.rxstore.Utils.runInWriteLock;
+
+/**
+ * Reads and writes the file beside a store that records when its contents expire, and removes
+ * stores whose contents have expired.
+ * <p>
+ * The expiry file holds a single big-endian {@code long}: the time in milliseconds at which the
+ * contents expire. A store without one never expires, and one that can not be read is treated as
+ * already expired.
+ */
+final class Expiry {
+  static final String SUFFIX = ".expires";
+
+  private Expiry() {
+    throw new AssertionError("No instances.");
+  }
+
+  static File expiryFile(File file) {
+    return new File(file.getAbsolutePath() + SUFFIX);
+  }
+
+  /**
+   * The time at which the contents recorded by expiryFile expire, or {@link Long#MAX_VALUE} if
+   * there is no expiry file.
+   */
+  static long read(File expiryFile) throws IOException {
+    if (!expiryFile.exists()) return Long.MAX_VALUE;
+    DataInputStream input = new DataInputStream(new FileInputStream(expiryFile));
+
+    try {
+      return input.readLong();
+    } catch (EOFException e) {
+      return Long.MIN_VALUE;
+    } finally {
+      input.close();
+    }
+  }
+
+  static void write(File expiryFile, long expiresAt) throws IOException {
+    DataOutputStream output = new DataOutputStream(new FileOutputStream(expiryFile));
+
+    try {
+      output.writeLong(expiresAt);
+    } finally {
+      output.close();
+    }
+  }
+
+  /**
+   * A task that clears participant once its contents have expired, notifying its observers.
+   * Does nothing if the contents were replaced since the task was scheduled, or if participant has
+   * since been garbage collected.
+   */
+  static Runnable clearTask(TransactionParticipant participant) {
+    // The scheduler holds this task until it runs, which must not keep an unused store alive.
+    final WeakReference<TransactionParticipant> reference =
+        new WeakReference<TransactionParticipant>(participant);
+
+    return new Runnable() {
+      @Override public void run() {
+        final TransactionParticipant participant = reference.get();
+        if (participant == null) return;
+
+        try {
+          runInWriteLock(participant.readWriteLock(), new ThrowingRunnable() {
+            @Override public void run() throws Exception {
+              StoreFile storeFile = participant.storeFile();
+              if (storeFile.isClosed() || !storeFile.expired()) return;
+
+              if (!storeFile.delete()) {
+                throw new IOException("Failed to delete expired " + participant.file() + ".");
+              }
+
+              participant.publish(null);
+            }
+          });
+        } catch (Throwable e) {
+          // Nobody is subscribed to expiry. The contents still read as empty until cleared.
+          RxJavaPlugins.onError(e);
+        }
+      }
+    };
+  }
+
+  /**
+   * Delete every store file in directory whose contents expired by now, along with its expiry
+   * file, and return how many were deleted. Stores that are open are skipped, since they clear
+   * themselves when their contents expire.
+   */
+  static int sweep(File directory, long now) throws IOException {
+    File[] expiryFiles = directory.listFiles(new FileFilter() {
+      @Override public boolean accept(File file) {
+        return file.isFile() && file.getName().endsWith(SUFFIX);
+      }
+    });
+
+    if (expiryFiles == null) throw new IOException("Failed to list " + directory + ".");
+    int swept = 0;
+
+    for (File expiryFile : expiryFiles) {
+      if (read(expiryFile) > now) continue;
+
+      String path = expiryFile.getPath();
+      File file = new File(path.substring(0, path.length() - SUFFIX.length()));
+      file = StoreRegistry.canonicalFile(file);
+      if (StoreRegistry.deleteUnlessOpen(file) != null) continue;
+
+      if (!expiryFile.delete()) throw new IOException("Failed to delete " + expiryFile + ".");
+      swept++;
+    }
+
+    return swept;
+  }
+}
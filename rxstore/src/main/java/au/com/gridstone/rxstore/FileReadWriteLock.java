@@ -0,0 +1,298 @@
+/*
+ * Copyright (C) GRIDSTONE 2017
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package au.com.gridstone.rxstore;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * A read-write lock that also locks a file, so that threads of other processes locking the same
+ * file are excluded just like threads of this one. Readers share a {@link FileLock} and writers
+ * hold it exclusively.
+ * <p>
+ * The in-process lock is always taken first, so the file lock is only ever contended by other
+ * processes. A process can hold only one lock on a file, so the shared lock is taken by the first
+ * reader in this process and released by the last. Uncontended, each lock and unlock costs a
+ * single system call.
+ * <p>
+ * Read locks taken while holding the write lock are covered by the exclusive file lock. If any are
+ * still held when the write lock is released, the shared file lock is taken for them before the
+ * exclusive one is given up. File locks can not be downgraded in place, so another process may
+ * briefly take the file in between.
+ * <p>
+ * {@code tryLock()} tries the file lock once, and the timed form polls it until the timeout
+ * elapses. A write lock can not be downgraded to a read lock.
+ */
+final class FileReadWriteLock extends ReentrantReadWriteLock {
+  private static final long serialVersionUID = 1L;
+  private static final long POLL_MILLIS = 10;
+
+  private final File lockFile;
+  private final ReadLock readLock = new FileReadLock();
+  private final WriteLock writeLock = new FileWriteLock();
+
+  // Guarded by this. Like the lock's own state, none of it survives serialization.
+  private transient FileChannel channel;
+  private transient FileLock sharedLock;
+  private transient int sharedCount;
+
+  /** Only touched by the thread holding the write lock. */
+  private transient FileLock exclusiveLock;
+
+  FileReadWriteLock(File lockFile) {
+    this.lockFile = lockFile;
+  }
+
+  @Override public ReadLock readLock() {
+    return readLock;
+  }
+
+  @Override public WriteLock writeLock() {
+    return writeLock;
+  }
+
+  /**
+   * Close the lock file. It is reopened if the lock is used again.
+   */
+  synchronized void close() throws IOException {
+    if (channel != null) channel.close();
+    channel = null;
+  }
+
+  private synchronized void acquireShared(int holds) {
+    if (sharedCount == 0) sharedLock = lockFile(true);
+    sharedCount += holds;
+  }
+
+  /**
+   * Take a share of the file lock, waiting up to timeoutNanos for another process to release it.
+   * Returns false if it could not be taken in time.
+   */
+  private synchronized boolean tryAcquireShared(long timeoutNanos) throws InterruptedException {
+    if (sharedCount == 0) {
+      FileLock lock = tryLockFile(true, timeoutNanos);
+      if (lock == null) return false;
+      sharedLock = lock;
+    }
+
+    sharedCount++;
+    return true;
+  }
+
+  private synchronized void releaseShared() {
+    if (--sharedCount > 0) return;
+
+    FileLock lock = sharedLock;
+    sharedLock = null;
+    release(lock);
+  }
+
+  private FileLock lockFile(boolean shared) {
+    try {
+      return channel().lock(0, Long.MAX_VALUE, shared);
+    } catch (IOException e) {
+      throw new RuntimeException("Failed to lock " + lockFile + ".", e);
+    }
+  }
+
+  private FileLock tryLockFile(boolean shared, long timeoutNanos) throws InterruptedException {
+    long deadline = System.nanoTime() + timeoutNanos;
+
+    while (true) {
+      FileLock lock;
+
+      try {
+        lock = channel().tryLock(0, Long.MAX_VALUE, shared);
+      } catch (IOException e) {
+        throw new RuntimeException("Failed to lock " + lockFile + ".", e);
+      }
+
+      if (lock != null) return lock;
+      long remaining = deadline - System.nanoTime();
+      if (remaining <= 0) return null;
+      Thread.sleep(Math.min(POLL_MILLIS, TimeUnit.NANOSECONDS.toMillis(remaining) + 1));
+    }
+  }
+
+  private synchronized FileChannel channel() throws IOException {
+    // Interrupting a thread waiting for a file lock closes the channel, so it may need reopening.
+    if (channel == null || !channel.isOpen()) {
+      channel = new RandomAccessFile(lockFile, "rw").getChannel();
+    }
+
+    return channel;
+  }
+
+  private void release(FileLock lock) {
+    try {
+      // Closing the channel has already released the lock if it is no longer valid.
+      if (lock.isValid()) lock.release();
+    } catch (IOException e) {
+      throw new RuntimeException("Failed to unlock " + lockFile + ".", e);
+    }
+  }
+
+  private final class FileReadLock extends ReadLock {
+    private static final long serialVersionUID = 1L;
+
+    FileReadLock() {
+      super(FileReadWriteLock.this);
+    }
+
+    @Override public void lock() {
+      super.lock();
+      lockFileShared();
+    }
+
+    @Override public void lockInterruptibly() throws InterruptedException {
+      super.lockInterruptibly();
+      lockFileShared();
+    }
+
+    @Override public boolean tryLock() {
+      if (!super.tryLock()) return false;
+
+      try {
+        return tryLockFileShared(0);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        return false;
+      }
+    }
+
+    @Override public boolean tryLock(long timeout, TimeUnit unit) throws InterruptedException {
+      long deadline = System.nanoTime() + unit.toNanos(timeout);
+      if (!super.tryLock(timeout, unit)) return false;
+      return tryLockFileShared(deadline - System.nanoTime());
+    }
+
+    @Override public void unlock() {
+      try {
+        if (!isWriteLockedByCurrentThread()) releaseShared();
+      } finally {
+        super.unlock();
+      }
+    }
+
+    private void lockFileShared() {
+      // Holding the write lock means this process already holds the file exclusively.
+      if (isWriteLockedByCurrentThread()) return;
+
+      try {
+        acquireShared(1);
+      } catch (RuntimeException e) {
+        super.unlock();
+        throw e;
+      }
+    }
+
+    private boolean tryLockFileShared(long timeoutNanos) throws InterruptedException {
+      if (isWriteLockedByCurrentThread()) return true;
+      boolean locked = false;
+
+      try {
+        locked = tryAcquireShared(timeoutNanos);
+        return locked;
+      } finally {
+        if (!locked) super.unlock();
+      }
+    }
+  }
+
+  private final class FileWriteLock extends WriteLock {
+    private static final long serialVersionUID = 1L;
+
+    FileWriteLock() {
+      super(FileReadWriteLock.this);
+    }
+
+    @Override public void lock() {
+      super.lock();
+      if (getWriteHoldCount() > 1) return;
+
+      try {
+        exclusiveLock = lockFile(false);
+      } catch (RuntimeException e) {
+        super.unlock();
+        throw e;
+      }
+    }
+
+    @Override public void lockInterruptibly() throws InterruptedException {
+      super.lockInterruptibly();
+      if (getWriteHoldCount() > 1) return;
+
+      try {
+        exclusiveLock = lockFile(false);
+      } catch (RuntimeException e) {
+        super.unlock();
+        throw e;
+      }
+    }
+
+    @Override public boolean tryLock() {
+      if (!super.tryLock()) return false;
+
+      try {
+        return tryLockFileExclusive(0);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        return false;
+      }
+    }
+
+    @Override public boolean tryLock(long timeout, TimeUnit unit) throws InterruptedException {
+      long deadline = System.nanoTime() + unit.toNanos(timeout);
+      if (!super.tryLock(timeout, unit)) return false;
+      return tryLockFileExclusive(deadline - System.nanoTime());
+    }
+
+    @Override public void unlock() {
+      try {
+        if (getWriteHoldCount() == 1 && exclusiveLock != null) {
+          FileLock lock = exclusiveLock;
+          exclusiveLock = null;
+          release(lock);
+
+          // Read locks taken while writing were covered by the exclusive lock until now.
+          int readHolds = getReadHoldCount();
+          if (readHolds > 0) acquireShared(readHolds);
+        }
+      } finally {
+        super.unlock();
+      }
+    }
+
+    private boolean tryLockFileExclusive(long timeoutNanos) throws InterruptedException {
+      if (getWriteHoldCount() > 1) return true;
+      boolean locked = false;
+
+      try {
+        exclusiveLock = tryLockFile(false, timeoutNanos);
+        locked = exclusiveLock != null;
+        return locked;
+      } finally {
+        if (!locked) super.unlock();
+      }
+    }
+  }
+}
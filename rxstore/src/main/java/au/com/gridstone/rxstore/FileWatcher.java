@@ -0,0 +1,226 @@
+/*
+ * Copyright (C) GRIDSTONE 2017
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package au.com.gridstone.rxstore;
+
+import io.reactivex.Observable;
+import io.reactivex.ObservableSource;
+import io.reactivex.functions.Consumer;
+import io.reactivex.functions.Function;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Lock;
+
+/**
+ * Notices changes made to the files of stores by other processes, for stores created with {@link
+ * StoreOptions.Builder#watchExternalChanges(boolean)}. Every watched directory is registered with
+ * one {@link WatchService}, drained by one daemon thread that lives as long as something is
+ * watched.
+ * <p>
+ * When a store's file changes, its contents are hashed under the store's write lock and compared
+ * with what the store last wrote. Only a difference is decoded and published, so the store's own
+ * writes are ignored. Events are gathered until none arrive for a moment, so that a write raising
+ * several events is decoded once. Other processes should still replace the file atomically, as
+ * stores do, or observers may see a write part way through.
+ * <p>
+ * This is the only class using {@code java.nio.file}, and it is only loaded once a store is
+ * watched, so stores that do not watch still run on Java 6.
+ */
+final class FileWatcher {
+  private static final long SETTLE_MILLIS = 50;
+
+  private static final Map<File, Watched> watchedStores = new HashMap<File, Watched>();
+  private static final Map<File, WatchKey> directoryKeys = new HashMap<File, WatchKey>();
+  private static final Map<WatchKey, File> keyDirectories = new HashMap<WatchKey, File>();
+  private static WatchService watchService;
+
+  private FileWatcher() {
+    throw new AssertionError("No instances.");
+  }
+
+  /**
+   * Watch store's file while updates has subscribers.
+   */
+  static <T> Observable<T> watching(final TransactionParticipant store,
+      final Observable<T> updates) {
+    return Observable.using(
+        new Callable<TransactionParticipant>() {
+          @Override public TransactionParticipant call() throws Exception {
+            watch(store);
+            return store;
+          }
+        },
+        new Function<TransactionParticipant, ObservableSource<T>>() {
+          @Override public ObservableSource<T> apply(TransactionParticipant store) {
+            return updates;
+          }
+        },
+        new Consumer<TransactionParticipant>() {
+          @Override public void accept(TransactionParticipant store) {
+            unwatch(store);
+          }
+        });
+  }
+
+  private static void watch(TransactionParticipant store) throws IOException {
+    Lock lock = store.readWriteLock().writeLock();
+    lock.lock();
+
+    try {
+      store.storeFile().rememberContents();
+    } finally {
+      lock.unlock();
+    }
+
+    synchronized (FileWatcher.class) {
+      Watched watched = watchedStores.get(store.file());
+
+      if (watched != null) {
+        watched.count++;
+        return;
+      }
+
+      File directory = store.file().getParentFile();
+
+      if (!directoryKeys.containsKey(directory)) {
+        if (watchService == null) {
+          watchService = FileSystems.getDefault().newWatchService();
+          startThread(watchService);
+        }
+
+        WatchKey key = directory.toPath().register(watchService,
+            StandardWatchEventKinds.ENTRY_CREATE,
+            StandardWatchEventKinds.ENTRY_MODIFY,
+            StandardWatchEventKinds.ENTRY_DELETE);
+        directoryKeys.put(directory, key);
+        keyDirectories.put(key, directory);
+      }
+
+      watchedStores.put(store.file(), new Watched(store));
+    }
+  }
+
+  private static synchronized void unwatch(TransactionParticipant store) {
+    Watched watched = watchedStores.get(store.file());
+    if (watched == null || --watched.count > 0) return;
+
+    watchedStores.remove(store.file());
+    File directory = store.file().getParentFile();
+
+    for (File file : watchedStores.keySet()) {
+      if (directory.equals(file.getParentFile())) return;
+    }
+
+    WatchKey key = directoryKeys.remove(directory);
+    keyDirectories.remove(key);
+    key.cancel();
+
+    if (directoryKeys.isEmpty()) {
+      try {
+        watchService.close(); // Ends the thread draining it.
+      } catch (IOException ignored) {
+      }
+
+      watchService = null;
+    }
+  }
+
+  private static void startThread(final WatchService service) {
+    Thread thread = new Thread(new Runnable() {
+      @Override public void run() {
+        try {
+          while (true) {
+            Set<TransactionParticipant> stores = changedStores(service.take());
+
+            // A write usually raises several events. Wait for them to stop before reading.
+            for (WatchKey key = service.poll(SETTLE_MILLIS, TimeUnit.MILLISECONDS); key != null;
+                key = service.poll(SETTLE_MILLIS, TimeUnit.MILLISECONDS)) {
+              stores.addAll(changedStores(key));
+            }
+
+            for (TransactionParticipant store : stores) {
+              publishIfChanged(store);
+            }
+          }
+        } catch (InterruptedException ignored) {
+        } catch (ClosedWatchServiceException ignored) {
+        }
+      }
+    }, "RxStore file watcher");
+
+    thread.setDaemon(true);
+    thread.start();
+  }
+
+  private static synchronized Set<TransactionParticipant> changedStores(WatchKey key) {
+    Set<TransactionParticipant> stores = new LinkedHashSet<TransactionParticipant>();
+    File directory = keyDirectories.get(key);
+
+    for (WatchEvent<?> event : key.pollEvents()) {
+      if (directory == null) continue;
+
+      if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+        // Events were lost, so anything in the directory may have changed.
+        for (Watched watched : watchedStores.values()) {
+          if (directory.equals(watched.store.file().getParentFile())) stores.add(watched.store);
+        }
+      } else {
+        Watched watched = watchedStores.get(new File(directory, event.context().toString()));
+        if (watched != null) stores.add(watched.store);
+      }
+    }
+
+    key.reset();
+    return stores;
+  }
+
+  private static void publishIfChanged(TransactionParticipant store) {
+    Lock lock = store.readWriteLock().writeLock();
+    lock.lock();
+
+    try {
+      if (store.storeFile().isClosed()) return;
+      if (store.storeFile().changedExternally()) store.publish(store.readContents());
+    } catch (Exception e) {
+      // Most likely another process is part way through writing the file. Forget its contents so
+      // that the event for the rest of the write tries again.
+      store.storeFile().invalidate();
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  private static final class Watched {
+    final TransactionParticipant store;
+    int count = 1;
+
+    Watched(TransactionParticipant store) {
+      this.store = store;
+    }
+  }
+}
@@ -0,0 +1,244 @@
+/*
+ * Copyright (C) GRIDSTONE 2017
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package au.com.gridstone.rxstore;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.lang.reflect.Type;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static au.com.gridstone.rxstore.Utils.readFully;
+import static au.com.gridstone.rxstore.Utils.transferFully;
+import static au.com.gridstone.rxstore.Utils.writeFully;
+
+/**
+ * A file of individually encoded values behind an index, open for reading with its index loaded.
+ * The file holds [int magic][int count], then an {@code int} key per value if the file is keyed,
+ * then the offset at which each encoded value ends as a {@code long}, then the encoded values.
+ * Offsets are relative to the first value. An absent or empty file holds no values.
+ * <p>
+ * Every change writes a temporary file and renames it over the original. Values that a change does
+ * not touch are copied without being decoded.
+ */
+final class IndexedFile {
+  private static final int HEADER_SIZE = 8;
+
+  private final File file;
+  private final int magic;
+  private final RandomAccessFile randomAccessFile;
+  final int count;
+  /** The key of each value, or null if the file is not keyed. */
+  final int[] keys;
+  final long[] ends;
+
+  private IndexedFile(File file, int magic, RandomAccessFile randomAccessFile, int[] keys,
+      long[] ends) {
+    this.file = file;
+    this.magic = magic;
+    this.randomAccessFile = randomAccessFile;
+    this.count = ends.length;
+    this.keys = keys;
+    this.ends = ends;
+  }
+
+  static IndexedFile open(File file, int magic, boolean keyed) throws IOException {
+    if (file.length() == 0) {
+      return new IndexedFile(file, magic, null, keyed ? new int[0] : null, new long[0]);
+    }
+
+    RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r");
+
+    try {
+      FileChannel channel = randomAccessFile.getChannel();
+      ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+      readFully(channel, header, 0);
+      header.flip();
+
+      if (header.getInt() != magic) {
+        throw new IOException(file + " was not written by this kind of store.");
+      }
+
+      int count = header.getInt();
+      int keysSize = keyed ? 4 * count : 0;
+      ByteBuffer index = ByteBuffer.allocate(keysSize + 8 * count);
+      readFully(channel, index, HEADER_SIZE);
+      index.flip();
+      int[] keys = keyed ? new int[count] : null;
+      long[] ends = new long[count];
+      if (keyed) index.asIntBuffer().get(keys);
+      index.position(keysSize);
+      index.asLongBuffer().get(ends);
+      return new IndexedFile(file, magic, randomAccessFile, keys, ends);
+    } catch (IOException e) {
+      randomAccessFile.close();
+      throw e;
+    }
+  }
+
+  /**
+   * Replace file with one holding values, whose ends are given by ends and whose keys, if file is
+   * keyed, are given by keys.
+   */
+  static void write(File file, int magic, int[] keys, long[] ends, byte[] values)
+      throws IOException {
+    File tmpFile = tmpFile(file);
+    RandomAccessFile randomAccessFile = new RandomAccessFile(tmpFile, "rw");
+
+    try {
+      FileChannel channel = randomAccessFile.getChannel();
+      channel.truncate(0);
+      writeFully(channel, header(magic, keys, ends), 0);
+      writeFully(channel, ByteBuffer.wrap(values), dataStart(keys, ends.length));
+    } finally {
+      randomAccessFile.close();
+    }
+
+    replace(file, tmpFile);
+  }
+
+  long start(int position) {
+    return position == 0 ? 0 : ends[position - 1];
+  }
+
+  /**
+   * The encoded bytes of the value at position.
+   */
+  byte[] bytes(int position) throws IOException {
+    ByteBuffer buffer = ByteBuffer.allocate((int) (ends[position] - start(position)));
+    readFully(randomAccessFile.getChannel(), buffer, dataStart(keys, count) + start(position));
+    return buffer.array();
+  }
+
+  <T> T value(int position, StreamConverter converter, Type type) throws IOException {
+    return this.<T>values(position, position + 1, converter, type).get(0);
+  }
+
+  /**
+   * Decode the values from start up to but excluding end, with a single read of their bytes.
+   */
+  <T> List<T> values(int start, int end, StreamConverter converter, Type type)
+      throws IOException {
+    if (start >= end) return Collections.emptyList();
+
+    long offset = start(start);
+    ByteBuffer buffer = ByteBuffer.allocate((int) (ends[end - 1] - offset));
+    readFully(randomAccessFile.getChannel(), buffer, dataStart(keys, count) + offset);
+    byte[] bytes = buffer.array();
+    List<T> values = new ArrayList<T>(end - start);
+
+    for (int i = start; i < end; i++) {
+      int valueStart = (int) (start(i) - offset);
+      int valueLength = (int) (ends[i] - start(i));
+      values.add(converter.<T>read(new ByteArrayInputStream(bytes, valueStart, valueLength), type));
+    }
+
+    return values;
+  }
+
+  /**
+   * Replace the file with one where removeCount values from position are removed and inserted,
+   * if not null, is inserted at position with key. Key is ignored if the file is not keyed. This
+   * file is closed.
+   */
+  void splice(int position, int removeCount, int key, byte[] inserted) throws IOException {
+    int insertCount = inserted == null ? 0 : 1;
+    int insertLength = inserted == null ? 0 : inserted.length;
+    int newCount = count - removeCount + insertCount;
+    long shift = insertLength - (start(position + removeCount) - start(position));
+    int[] newKeys = keys == null ? null : new int[newCount];
+    long[] newEnds = new long[newCount];
+    System.arraycopy(ends, 0, newEnds, 0, position);
+    if (keys != null) System.arraycopy(keys, 0, newKeys, 0, position);
+
+    if (inserted != null) {
+      newEnds[position] = start(position) + insertLength;
+      if (keys != null) newKeys[position] = key;
+    }
+
+    for (int i = position + removeCount; i < count; i++) {
+      newEnds[i - removeCount + insertCount] = ends[i] + shift;
+      if (keys != null) newKeys[i - removeCount + insertCount] = keys[i];
+    }
+
+    File tmpFile = tmpFile(file);
+    RandomAccessFile output = new RandomAccessFile(tmpFile, "rw");
+
+    try {
+      FileChannel target = output.getChannel();
+      target.truncate(0);
+      writeFully(target, header(magic, newKeys, newEnds), 0);
+      long newDataStart = dataStart(newKeys, newCount);
+
+      if (count > 0) {
+        FileChannel source = randomAccessFile.getChannel();
+        long dataStart = dataStart(keys, count);
+        transferFully(source, dataStart, start(position), target, newDataStart);
+
+        long tail = start(position + removeCount);
+        long tailTarget = newDataStart + start(position) + insertLength;
+        transferFully(source, dataStart + tail, start(count) - tail, target, tailTarget);
+      }
+
+      if (inserted != null) {
+        writeFully(target, ByteBuffer.wrap(inserted), newDataStart + start(position));
+      }
+    } finally {
+      output.close();
+    }
+
+    // Some platforms can not replace a file that is still open.
+    close();
+    replace(file, tmpFile);
+  }
+
+  void close() throws IOException {
+    if (randomAccessFile != null) randomAccessFile.close();
+  }
+
+  private static long dataStart(int[] keys, int count) {
+    return HEADER_SIZE + (keys == null ? 8L : 12L) * count;
+  }
+
+  private static ByteBuffer header(int magic, int[] keys, long[] ends) {
+    ByteBuffer header = ByteBuffer.allocate((int) dataStart(keys, ends.length));
+    header.putInt(magic).putInt(ends.length);
+
+    if (keys != null) {
+      for (int key : keys) header.putInt(key);
+    }
+
+    for (long end : ends) header.putLong(end);
+    header.clear();
+    return header;
+  }
+
+  private static File tmpFile(File file) {
+    return new File(file.getAbsolutePath() + ".tmp");
+  }
+
+  private static void replace(File file, File tmpFile) throws IOException {
+    if ((file.exists() && !file.delete()) || !tmpFile.renameTo(file)) {
+      throw new IOException("Failed to write values to file.");
+    }
+  }
+}
@@ -0,0 +1,195 @@
+/*
+ * Copyright (C) GRIDSTONE 2017
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package au.com.gridstone.rxstore;
+
+import io.reactivex.Observable;
+import io.reactivex.Scheduler;
+import io.reactivex.Single;
+import io.reactivex.SingleEmitter;
+import io.reactivex.SingleOnSubscribe;
+import io.reactivex.annotations.NonNull;
+import io.reactivex.schedulers.Schedulers;
+import io.reactivex.subjects.PublishSubject;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.lang.reflect.Type;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import static au.com.gridstone.rxstore.Utils.assertNotNull;
+import static au.com.gridstone.rxstore.Utils.runInReadLock;
+import static au.com.gridstone.rxstore.Utils.runInWriteLock;
+
+/**
+ * The parts of {@link SortedListStore} and {@link SetStore} that are the same for both: each keeps
+ * its values in an {@link IndexedFile} and delivers them to observers as a collection of type C.
+ */
+abstract class IndexedStore<T, C> {
+  final ReentrantReadWriteLock readWriteLock = new ReentrantReadWriteLock();
+  final PublishSubject<C> updateSubject = PublishSubject.create();
+
+  final File file;
+  final StreamConverter converter;
+  final Type type;
+  private final int magic;
+  private final boolean keyed;
+
+  /** Guarded by the write lock. */
+  private boolean closed;
+
+  IndexedStore(@NonNull File file, @NonNull StreamConverter converter, @NonNull Type type,
+      int magic, boolean keyed) {
+    assertNotNull(file, "file");
+    assertNotNull(converter, "converter");
+    assertNotNull(type, "type");
+    this.file = file;
+    this.converter = converter;
+    this.type = type;
+    this.magic = magic;
+    this.keyed = keyed;
+  }
+
+  /**
+   * Decode every value in indexedFile into the collection delivered to callers.
+   */
+  abstract C contents(IndexedFile indexedFile) throws IOException;
+
+  /**
+   * The collection delivered to callers when this store is empty.
+   */
+  abstract C empty();
+
+  @NonNull public Single<C> get() {
+    return read(new Read<C>() {
+      @Override public C read(IndexedFile indexedFile) throws IOException {
+        return contents(indexedFile);
+      }
+    });
+  }
+
+  @NonNull public C blockingGet() {
+    return get().blockingGet();
+  }
+
+  @NonNull public Single<Integer> size() {
+    return read(new Read<Integer>() {
+      @Override public Integer read(IndexedFile indexedFile) {
+        return indexedFile.count;
+      }
+    });
+  }
+
+  public int blockingSize() {
+    return size().blockingGet();
+  }
+
+  @NonNull public Observable<C> observe() {
+    return updateSubject.startWith(get().toObservable());
+  }
+
+  @NonNull public Single<C> observeClear() {
+    return Single.create(new SingleOnSubscribe<C>() {
+      @Override public void subscribe(final SingleEmitter<C> emitter) throws Exception {
+        runInWriteLock(readWriteLock, new ThrowingRunnable() {
+          @Override public void run() throws Exception {
+            checkNotClosed();
+
+            if (file.exists() && !file.delete()) {
+              throw new IOException("Clear operation on store failed.");
+            }
+
+            emitter.onSuccess(empty());
+            updateSubject.onNext(empty());
+          }
+        });
+      }
+    });
+  }
+
+  public void clear() {
+    clear(Schedulers.io());
+  }
+
+  public void clear(@NonNull Scheduler scheduler) {
+    assertNotNull(scheduler, "scheduler");
+    observeClear().subscribeOn(scheduler).subscribe();
+  }
+
+  public void close() {
+    runInWriteLock(readWriteLock, new ThrowingRunnable() {
+      @Override public void run() {
+        closed = true;
+        StoreRegistry.remove(file, IndexedStore.this);
+        updateSubject.onComplete();
+      }
+    });
+  }
+
+  final IndexedFile open() throws IOException {
+    return IndexedFile.open(file, magic, keyed);
+  }
+
+  /**
+   * Open the file, holding the read lock, and emit whatever read returns from it.
+   */
+  final <R> Single<R> read(final Read<R> read) {
+    return Single.create(new SingleOnSubscribe<R>() {
+      @Override public void subscribe(final SingleEmitter<R> emitter) throws Exception {
+        runInReadLock(readWriteLock, new ThrowingRunnable() {
+          @Override public void run() throws Exception {
+            IndexedFile indexedFile = open();
+
+            try {
+              emitter.onSuccess(read.read(indexedFile));
+            } finally {
+              indexedFile.close();
+            }
+          }
+        });
+      }
+    });
+  }
+
+  /**
+   * Deliver the current contents to observers. Must be called holding the write lock.
+   */
+  final void publish() throws IOException {
+    // Decoding every value is only worth it when somebody will receive them.
+    if (!updateSubject.hasObservers()) return;
+    IndexedFile indexedFile = open();
+
+    try {
+      updateSubject.onNext(contents(indexedFile));
+    } finally {
+      indexedFile.close();
+    }
+  }
+
+  final void checkNotClosed() {
+    if (closed) throw new IllegalStateException("Store has been closed.");
+  }
+
+  final byte[] encode(T value) {
+    ByteArrayOutputStream output = new ByteArrayOutputStream();
+    converter.write(value, type, output);
+    return output.toByteArray();
+  }
+
+  interface Read<R> {
+    R read(IndexedFile indexedFile) throws IOException;
+  }
+}
@@ -0,0 +1,255 @@
+/*
+ * Copyright (C) GRIDSTONE 2017
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package au.com.gridstone.rxstore;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.lang.reflect.Type;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.zip.CRC32;
+
+import static au.com.gridstone.rxstore.Utils.sync;
+
+/**
+ * A write-ahead journal of the mutations made to a list store since its file was last written.
+ * <p>
+ * The journal starts with a header holding the SHA-256 of the store file it applies to, followed
+ * by records of [int payload length][payload][int CRC32 of payload], where the payload is [byte
+ * op][int index][element]. Every record is synced to disk before the mutation is acknowledged.
+ * <p>
+ * A checkpoint rewrites the store file with the current list and then starts a new journal against
+ * the new file's hash. The new store file is renamed over the old one, so a crash leaves one of
+ * them in place. If the process dies after the rename but before the new journal is started, the
+ * old journal no longer matches the store file and is discarded instead of being applied a second
+ * time. A record cut short by a crash fails its checksum and is discarded along with anything
+ * after it.
+ * <p>
+ * Callers must hold the store's write lock for anything other than reading the current list.
+ */
+final class ListJournal<T> {
+  static final byte ADD = 1;
+  static final byte SET = 2;
+  static final byte REMOVE = 3;
+  static final byte CLEAR = 4;
+
+  private static final int MAGIC = 0x52584a4c;
+  private static final int HASH_LENGTH = 32;
+  private static final int HEADER_LENGTH = 4 + HASH_LENGTH;
+
+  private final File file;
+  private final File journalFile;
+  private final StoreFile storeFile;
+  private final StreamConverter converter;
+  private final Type elementType;
+  private final Type listType;
+  private final int checkpointInterval;
+
+  private List<T> list;
+  private RandomAccessFile journal;
+  private boolean closed;
+  private long journalLength;
+  private int recordCount;
+
+  ListJournal(File file, StoreFile storeFile, StreamConverter converter, Type elementType,
+      Type listType, int checkpointInterval) {
+    this.file = file;
+    this.journalFile = new File(file.getAbsolutePath() + ".journal");
+    this.storeFile = storeFile;
+    this.converter = converter;
+    this.elementType = elementType;
+    this.listType = listType;
+    this.checkpointInterval = checkpointInterval;
+  }
+
+  /**
+   * An unmodifiable view of the current list, recovered from the store file and journal the first
+   * time it's needed.
+   */
+  synchronized List<T> read() throws IOException {
+    if (list == null) recover();
+    return Collections.unmodifiableList(list);
+  }
+
+  /**
+   * Durably record a mutation that turns the current list into newList. A copy of newList is kept,
+   * so the caller remains free to modify it.
+   */
+  synchronized void append(byte op, int index, T element, List<T> newList) throws IOException {
+    checkNotClosed();
+    if (list == null) recover();
+
+    ByteArrayOutputStream payload = new ByteArrayOutputStream();
+    DataOutputStream payloadOutput = new DataOutputStream(payload);
+    payloadOutput.writeByte(op);
+    payloadOutput.writeInt(index);
+    if (element != null) converter.write(element, elementType, payloadOutput);
+    payloadOutput.flush();
+
+    CRC32 crc = new CRC32();
+    crc.update(payload.toByteArray());
+
+    ByteArrayOutputStream record = new ByteArrayOutputStream(payload.size() + 8);
+    DataOutputStream recordOutput = new DataOutputStream(record);
+    recordOutput.writeInt(payload.size());
+    payload.writeTo(recordOutput);
+    recordOutput.writeInt((int) crc.getValue());
+
+    journal.seek(journalLength);
+    journal.write(record.toByteArray());
+    journal.getFD().sync();
+    journalLength += record.size();
+    list = new ArrayList<T>(newList);
+
+    if (++recordCount >= checkpointInterval) checkpoint(list);
+  }
+
+  /**
+   * Write newList to the store file and start a new, empty journal against it. A copy of newList
+   * is kept, so the caller remains free to modify it.
+   */
+  synchronized void checkpoint(List<T> newList) throws IOException {
+    checkNotClosed();
+    openJournal();
+
+    if (newList.isEmpty()) {
+      if (!storeFile.delete()) throw new IOException("Failed to delete file for store.");
+    } else {
+      storeFile.write(newList);
+      // The journal may only be discarded once the store file it's folded into is on disk.
+      sync(file);
+    }
+
+    resetJournal(baseHash());
+    if (newList != list) list = new ArrayList<T>(newList);
+  }
+
+  synchronized void close() throws IOException {
+    closed = true;
+    if (journal != null) journal.close();
+    journal = null;
+    list = null;
+  }
+
+  private void recover() throws IOException {
+    checkNotClosed();
+    List<T> recovered = file.exists() ? converter.<List<T>>read(file, listType) : null;
+    recovered = recovered == null ? new ArrayList<T>() : new ArrayList<T>(recovered);
+    byte[] baseHash = baseHash();
+    openJournal();
+
+    if (!journalMatches(baseHash)) {
+      resetJournal(baseHash);
+      list = recovered;
+      return;
+    }
+
+    long position = HEADER_LENGTH;
+    long length = journal.length();
+    int count = 0;
+
+    while (position + 8 <= length) {
+      journal.seek(position);
+      int payloadLength = journal.readInt();
+      if (payloadLength < 5 || position + 8 + payloadLength > length) break;
+
+      byte[] payload = new byte[payloadLength];
+      journal.readFully(payload);
+      CRC32 crc = new CRC32();
+      crc.update(payload);
+      if ((int) crc.getValue() != journal.readInt()) break;
+
+      replay(recovered, payload);
+      position += 8 + payloadLength;
+      count++;
+    }
+
+    if (position < length) {
+      journal.setLength(position);
+      journal.getFD().sync();
+    }
+
+    journalLength = position;
+    recordCount = count;
+    list = recovered;
+  }
+
+  private void replay(List<T> list, byte[] payload) throws IOException {
+    ByteArrayInputStream input = new ByteArrayInputStream(payload, 5, payload.length - 5);
+    int index = (payload[1] & 0xff) << 24 | (payload[2] & 0xff) << 16 | (payload[3] & 0xff) << 8
+        | payload[4] & 0xff;
+
+    switch (payload[0]) {
+      case ADD:
+        list.add(converter.<T>read(input, elementType));
+        break;
+      case SET:
+        list.set(index, converter.<T>read(input, elementType));
+        break;
+      case REMOVE:
+        list.remove(index);
+        break;
+      case CLEAR:
+        list.clear();
+        break;
+      default:
+        throw new IOException("Unknown journal record type " + payload[0] + ".");
+    }
+  }
+
+  private void checkNotClosed() {
+    if (closed) throw new IllegalStateException("Store has been closed.");
+  }
+
+  private void openJournal() throws IOException {
+    if (journal == null) journal = new RandomAccessFile(journalFile, "rw");
+  }
+
+  private boolean journalMatches(byte[] baseHash) throws IOException {
+    if (journal.length() < HEADER_LENGTH) return false;
+
+    journal.seek(0);
+    if (journal.readInt() != MAGIC) return false;
+
+    byte[] journalHash = new byte[HASH_LENGTH];
+    journal.readFully(journalHash);
+    return Arrays.equals(journalHash, baseHash);
+  }
+
+  private void resetJournal(byte[] baseHash) throws IOException {
+    journal.setLength(0);
+    journal.seek(0);
+    journal.writeInt(MAGIC);
+    journal.write(baseHash);
+    journal.getFD().sync();
+    journalLength = HEADER_LENGTH;
+    recordCount = 0;
+  }
+
+  /**
+   * The hash of the store file's contents, where a missing file hashes the same as an empty one.
+   */
+  private byte[] baseHash() throws IOException {
+    return file.exists() ? StoreFile.hash(file) : StoreFile.newDigest().digest();
+  }
+}
@@ -16,6 +16,8 @@
 
 package au.com.gridstone.rxstore;
 
+import io.reactivex.Completable;
+import io.reactivex.Flowable;
 import io.reactivex.Observable;
 import io.reactivex.Scheduler;
 import io.reactivex.Single;
@@ -58,6 +60,31 @@ public interface ListStore<T> {
    */
   void put(@NonNull List<T> list, @NonNull Scheduler scheduler);
 
+  /**
+   * Replace the stored {@code List} with every item emitted by values and observe the operation.
+   * Items are written to a temporary file as they arrive, on the thread that emits them, and only
+   * replace the store's file once values completes. Observers never see a partial {@code List},
+   * and the store is left unchanged if values fails or the operation is disposed.
+   * <p>
+   * Items are requested a batch at a time and written without being collected, provided this
+   * store's converter is a {@link StreamingListConverter} and the store uses neither write-behind
+   * nor journaling. Otherwise they are collected and written with {@link #observePut(List)}.
+   */
+  @NonNull Completable observePutAll(@NonNull Flowable<T> values);
+
+  /**
+   * Asynchronously replace the stored {@code List} with every item emitted by values, as described
+   * by {@link #observePutAll(Flowable)}. Values is subscribed to on {@link Schedulers#io()}. If you
+   * wish to specify the {@link Scheduler} then use {@link #putAll(Flowable, Scheduler)}.
+   */
+  void putAll(@NonNull Flowable<T> values);
+
+  /**
+   * Replace the stored {@code List} with every item emitted by values, subscribing to values on a
+   * specified {@link Scheduler}.
+   */
+  void putAll(@NonNull Flowable<T> values, @NonNull Scheduler scheduler);
+
   /**
    * Observe changes to the {@code List} in this store. {@code onNext()} will be invoked immediately
    * with the current {@code List} upon subscription and subsequent changes thereafter.
@@ -87,6 +114,27 @@ public interface ListStore<T> {
    */
   void clear(@NonNull Scheduler scheduler);
 
+  /**
+   * Persist any mutations that this store is holding in memory and observe the operation. Only
+   * stores created with {@link StoreOptions.Builder#writeBehind write-behind} hold mutations in
+   * memory; for any other store this completes immediately.
+   */
+  @NonNull Completable observeFlush();
+
+  /**
+   * Persist any mutations that this store is holding in memory, blocking until they are on disk.
+   */
+  void flush();
+
+  /**
+   * Flush this store and release it, blocking until any pending mutations are on disk. Observers
+   * of this store complete, and any further mutations fail with an {@link IllegalStateException}.
+   * <p>
+   * Every caller that opened a store on this file shares this instance, as described by {@link
+   * RxStore}, so closing it closes it for all of them.
+   */
+  void close();
+
   /**
    * Add an item to the stored {@code List} and observe the operation. This will create a new {@code
    * List} if one does not currently exist.
@@ -0,0 +1,184 @@
+/*
+ * Copyright (C) GRIDSTONE 2017
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package au.com.gridstone.rxstore;
+
+import io.reactivex.Completable;
+import io.reactivex.Observable;
+import io.reactivex.Scheduler;
+import io.reactivex.Single;
+import io.reactivex.annotations.NonNull;
+import io.reactivex.schedulers.Schedulers;
+
+/**
+ * Store a list of {@code long} values on disk without boxing them or passing them through a
+ * {@link Converter}. The file holds each value as 8 little-endian bytes, so adding values,
+ * reading one value and replacing one value take the same time however long the list is.
+ * <p>
+ * Observers receive a new array after every change, which means reading the whole list. Avoid
+ * observing a long list that changes often.
+ */
+public interface LongListStore {
+  /**
+   * Retrieve every value in this store using Rx. If this store has not had any values written then
+   * an empty array is returned by this {@link Single}.
+   */
+  @NonNull Single<long[]> get();
+
+  /**
+   * Retrieve every value in this store in a blocking manner. This may take time. If this store has
+   * not had any values written then an empty array is returned.
+   */
+  @NonNull long[] blockingGet();
+
+  /**
+   * Retrieve the value at position using Rx. The {@link Single} fails if there is no such position.
+   */
+  @NonNull Single<Long> get(int position);
+
+  /**
+   * Retrieve the value at position in a blocking manner.
+   */
+  long blockingGet(int position);
+
+  /**
+   * Retrieve the number of values in this store using Rx.
+   */
+  @NonNull Single<Integer> size();
+
+  /**
+   * Retrieve the number of values in this store in a blocking manner.
+   */
+  int blockingSize();
+
+  /**
+   * Replace every value in this store and observe the operation. The array returned in the {@link
+   * Single} is the array written to this store, making this useful for chaining.
+   */
+  @NonNull Single<long[]> observePut(@NonNull long[] values);
+
+  /**
+   * Asynchronously replace every value in this store. The write operation occurs on {@link
+   * Schedulers#io()}. If you wish to specify the {@link Scheduler} then use {@link #put(long[],
+   * Scheduler)}.
+   */
+  void put(@NonNull long[] values);
+
+  /**
+   * Replace every value in this store on a specified {@link Scheduler}.
+   */
+  void put(@NonNull long[] values, @NonNull Scheduler scheduler);
+
+  /**
+   * Observe changes to the values in this store. {@code onNext()} will be invoked immediately with
+   * the current values upon subscription and subsequent changes thereafter.
+   */
+  @NonNull Observable<long[]> observe();
+
+  /**
+   * Clear every value in this store and observe the operation. The array returned by the {@link
+   * Single} is the new, empty array.
+   */
+  @NonNull Single<long[]> observeClear();
+
+  /**
+   * Asynchronously clear every value in this store. The clear operation occurs on {@link
+   * Schedulers#io()}. If you wish to specify the {@link Scheduler} then use {@link
+   * #clear(Scheduler)}.
+   */
+  void clear();
+
+  /**
+   * Clear every value in this store on a specified {@link Scheduler}.
+   */
+  void clear(@NonNull Scheduler scheduler);
+
+  /**
+   * Add a value to the end of this store and observe the operation.
+   */
+  @NonNull Completable observeAdd(long value);
+
+  /**
+   * Asynchronously add a value to the end of this store. The write operation occurs on {@link
+   * Schedulers#io()}. If you wish to specify the {@link Scheduler} then use {@link #add(long,
+   * Scheduler)}.
+   */
+  void add(long value);
+
+  /**
+   * Add a value to the end of this store on a specified {@link Scheduler}.
+   */
+  void add(long value, @NonNull Scheduler scheduler);
+
+  /**
+   * Add values to the end of this store and observe the operation.
+   */
+  @NonNull Completable observeAddAll(@NonNull long[] values);
+
+  /**
+   * Asynchronously add values to the end of this store. The write operation occurs on {@link
+   * Schedulers#io()}. If you wish to specify the {@link Scheduler} then use {@link
+   * #addAll(long[], Scheduler)}.
+   */
+  void addAll(@NonNull long[] values);
+
+  /**
+   * Add values to the end of this store on a specified {@link Scheduler}.
+   */
+  void addAll(@NonNull long[] values, @NonNull Scheduler scheduler);
+
+  /**
+   * Replace the value at position and observe the operation. The {@link Completable} fails if
+   * there is no such position.
+   */
+  @NonNull Completable observeSet(int position, long value);
+
+  /**
+   * Asynchronously replace the value at position. The write operation occurs on {@link
+   * Schedulers#io()}. If you wish to specify the {@link Scheduler} then use {@link #set(int,
+   * long, Scheduler)}.
+   */
+  void set(int position, long value);
+
+  /**
+   * Replace the value at position on a specified {@link Scheduler}.
+   */
+  void set(int position, long value, @NonNull Scheduler scheduler);
+
+  /**
+   * Remove the value at position and observe the operation. Every later value moves, so this
+   * rewrites the file. The array returned by the {@link Single} holds the remaining values.
+   */
+  @NonNull Single<long[]> observeRemove(int position);
+
+  /**
+   * Asynchronously remove the value at position. The write operation occurs on {@link
+   * Schedulers#io()}. If you wish to specify the {@link Scheduler} then use {@link #remove(int,
+   * Scheduler)}.
+   */
+  void remove(int position);
+
+  /**
+   * Remove the value at position on a specified {@link Scheduler}.
+   */
+  void remove(int position, @NonNull Scheduler scheduler);
+
+  /**
+   * Release this store. Observers of this store complete, and any further mutations fail with an
+   * {@link IllegalStateException}.
+   */
+  void close();
+}
@@ -0,0 +1,104 @@
+/*
+ * Copyright (C) GRIDSTONE 2019
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package au.com.gridstone.rxstore;
+
+import io.reactivex.annotations.NonNull;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.lang.reflect.Type;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+import static au.com.gridstone.rxstore.Utils.assertNotNull;
+
+/**
+ * A {@link StreamConverter} that reads large files by memory mapping them and handing the delegate
+ * a stream over the mapped bytes. This avoids copying the file through intermediate heap buffers,
+ * and lets repeated reads of a recently used file come straight from the page cache.
+ * <p>
+ * Files smaller than the mapping threshold are read by the delegate directly, as mapping small
+ * files costs more than it saves. So are files over 2 GiB, which can not be mapped in one piece.
+ * Writes are always handled by the delegate.
+ * <p>
+ * A mapping stays valid until it is garbage collected. Some platforms (notably Windows) refuse to
+ * delete a file that is still mapped, so this converter is best suited to platforms with POSIX file
+ * semantics.
+ */
+public final class MappedConverter implements StreamConverter {
+  private final StreamConverter delegate;
+  private final long mapThreshold;
+
+  /**
+   * Create a converter that maps any file of 64 KiB or more.
+   */
+  public MappedConverter(@NonNull StreamConverter delegate) {
+    this(delegate, 64 * 1024);
+  }
+
+  public MappedConverter(@NonNull StreamConverter delegate, long mapThreshold) {
+    assertNotNull(delegate, "delegate");
+
+    if (mapThreshold < 0) {
+      throw new IllegalArgumentException("mapThreshold must not be negative.");
+    }
+
+    this.delegate = delegate;
+    this.mapThreshold = mapThreshold;
+  }
+
+  @Override public <T> void write(T data, Type type, File file) throws ConverterException {
+    delegate.write(data, type, file);
+  }
+
+  @Override public <T> T read(File file, Type type) throws ConverterException {
+    long length = file.length();
+
+    // A single mapping can not be larger than Integer.MAX_VALUE bytes.
+    if (length == 0 || length < mapThreshold || length > Integer.MAX_VALUE) {
+      return delegate.read(file, type);
+    }
+
+    try {
+      RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r");
+      MappedByteBuffer buffer;
+
+      try {
+        FileChannel channel = randomAccessFile.getChannel();
+        buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+      } finally {
+        // The mapping remains valid after its channel is closed.
+        randomAccessFile.close();
+      }
+
+      return delegate.read(new ByteBufferInputStream(buffer), type);
+    } catch (IOException e) {
+      throw new ConverterException(e);
+    }
+  }
+
+  @Override public <T> void write(T data, Type type, OutputStream output)
+      throws ConverterException {
+    delegate.write(data, type, output);
+  }
+
+  @Override public <T> T read(InputStream input, Type type) throws ConverterException {
+    return delegate.read(input, type);
+  }
+}
@@ -0,0 +1,276 @@
+/*
+ * Copyright (C) GRIDSTONE 2017
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package au.com.gridstone.rxstore;
+
+import io.reactivex.Emitter;
+import io.reactivex.Flowable;
+import io.reactivex.Observable;
+import io.reactivex.ObservableEmitter;
+import io.reactivex.ObservableOnSubscribe;
+import io.reactivex.ObservableSource;
+import io.reactivex.annotations.NonNull;
+import io.reactivex.functions.Action;
+import io.reactivex.functions.BiConsumer;
+import io.reactivex.functions.Consumer;
+import io.reactivex.functions.Function;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.reflect.Type;
+import java.util.List;
+import java.util.concurrent.Callable;
+
+import static au.com.gridstone.rxstore.Utils.assertNotNull;
+import static au.com.gridstone.rxstore.Utils.sync;
+
+/**
+ * Imports and exports the contents of a {@link ListStore} as newline-delimited records, one item
+ * per line, each encoded by a {@link StreamConverter}. With a JSON converter this is the NDJSON
+ * format commonly used to move large data sets between systems.
+ * <p>
+ * Both operations report progress as the number of records processed so far, emitted every {@value
+ * #PROGRESS_INTERVAL} records and once more on completion. They are cold and run on whichever
+ * thread subscribes to them.
+ */
+public final class Ndjson {
+  static final int PROGRESS_INTERVAL = 1024;
+  private static final int BUFFER_SIZE = 64 * 1024;
+  private static final byte NEWLINE = '\n';
+
+  private Ndjson() {
+    throw new AssertionError("No instances.");
+  }
+
+  /**
+   * Replace the contents of store with the records in source, decoding each line as a value of
+   * type. Blank lines are skipped. Records are passed to {@link ListStore#observePutAll(Flowable)}
+   * as they are read, so the store is only changed once every line has been decoded, and is left
+   * unchanged if any line fails to decode.
+   */
+  @NonNull public static <T> Observable<Long> importList(@NonNull final File source,
+      @NonNull final ListStore<T> store, @NonNull final StreamConverter converter,
+      @NonNull final Type type) {
+    assertNotNull(source, "source");
+    assertNotNull(store, "store");
+    assertNotNull(converter, "converter");
+    assertNotNull(type, "type");
+
+    final Flowable<T> records = Flowable.generate(
+        new Callable<LineReader>() {
+          @Override public LineReader call() throws Exception {
+            return new LineReader(new FileInputStream(source));
+          }
+        },
+        new BiConsumer<LineReader, Emitter<T>>() {
+          @Override public void accept(LineReader reader, Emitter<T> emitter) throws Exception {
+            if (!reader.next()) {
+              emitter.onComplete();
+              return;
+            }
+
+            T record;
+
+            try {
+              record = converter.read(reader.line.asInputStream(), type);
+            } catch (ConverterException e) {
+              throw new ConverterException("Failed to read line " + reader.lineNumber + ".", e);
+            }
+
+            if (record == null) {
+              throw new ConverterException("Line " + reader.lineNumber + " holds a null record.");
+            }
+
+            emitter.onNext(record);
+          }
+        },
+        new Consumer<LineReader>() {
+          @Override public void accept(LineReader reader) throws Exception {
+            reader.input.close();
+          }
+        });
+
+    return Observable.create(new ObservableOnSubscribe<Long>() {
+      @Override public void subscribe(final ObservableEmitter<Long> emitter) throws Exception {
+        final long[] count = new long[1];
+
+        Flowable<T> counted = records.doOnNext(new Consumer<T>() {
+          @Override public void accept(T record) throws Exception {
+            if (++count[0] % PROGRESS_INTERVAL == 0) emitter.onNext(count[0]);
+          }
+        });
+
+        emitter.setDisposable(store.observePutAll(counted).subscribe(
+            new Action() {
+              @Override public void run() throws Exception {
+                emitter.onNext(count[0]);
+                emitter.onComplete();
+              }
+            },
+            new Consumer<Throwable>() {
+              @Override public void accept(Throwable e) throws Exception {
+                emitter.onError(e);
+              }
+            }));
+      }
+    });
+  }
+
+  /**
+   * Write every item in store to destination as a value of type, one per line. Records are written
+   * to a file beside destination, which only replaces destination once every record has been
+   * written and synced to disk. Fails if an item's encoded form is empty or spans several lines.
+   */
+  @NonNull public static <T> Observable<Long> exportList(@NonNull final ListStore<T> store,
+      @NonNull final File destination, @NonNull final StreamConverter converter,
+      @NonNull final Type type) {
+    assertNotNull(store, "store");
+    assertNotNull(destination, "destination");
+    assertNotNull(converter, "converter");
+    assertNotNull(type, "type");
+
+    return store.get().flatMapObservable(new Function<List<T>, ObservableSource<Long>>() {
+      @Override public ObservableSource<Long> apply(final List<T> list) {
+        return Observable.create(new ObservableOnSubscribe<Long>() {
+          @Override public void subscribe(ObservableEmitter<Long> emitter) throws Exception {
+            export(list, destination, converter, type, emitter);
+          }
+        });
+      }
+    });
+  }
+
+  static <T> void export(List<T> list, File destination, StreamConverter converter, Type type,
+      ObservableEmitter<Long> emitter) throws IOException {
+    File tmpFile = new File(destination.getAbsolutePath() + ".tmp");
+    OutputStream output = new BufferedOutputStream(new FileOutputStream(tmpFile), BUFFER_SIZE);
+    RecordBuffer record = new RecordBuffer();
+    boolean exported = false;
+    long count = 0;
+
+    try {
+      for (T item : list) {
+        if (emitter.isDisposed()) return;
+
+        record.reset();
+        converter.write(item, type, record);
+
+        if (record.size() == 0 || record.containsNewline()) {
+          throw new ConverterException(
+              "Item " + count + " cannot be written as a single line record.");
+        }
+
+        record.writeTo(output);
+        output.write(NEWLINE);
+        if (++count % PROGRESS_INTERVAL == 0) emitter.onNext(count);
+      }
+
+      output.close();
+      sync(tmpFile);
+
+      if ((destination.exists() && !destination.delete()) || !tmpFile.renameTo(destination)) {
+        throw new IOException("Failed to replace " + destination + " with " + tmpFile + ".");
+      }
+
+      exported = true;
+    } finally {
+      if (!exported) {
+        try {
+          output.close();
+        } catch (IOException ignored) {
+        }
+
+        tmpFile.delete();
+      }
+    }
+
+    emitter.onNext(count);
+    emitter.onComplete();
+  }
+
+  /** Reads input one line at a time into a reused buffer, skipping blank lines. */
+  static final class LineReader {
+    final InputStream input;
+    final RecordBuffer line = new RecordBuffer();
+    final byte[] buffer = new byte[BUFFER_SIZE];
+    int position;
+    int limit;
+    long lineNumber;
+
+    LineReader(InputStream input) {
+      this.input = input;
+    }
+
+    /** Advance to the next line that isn't blank, returning false once input is exhausted. */
+    boolean next() throws IOException {
+      while (true) {
+        line.reset();
+        boolean ended = false;
+
+        while (!ended) {
+          if (position == limit) {
+            limit = input.read(buffer);
+            position = 0;
+
+            if (limit == -1) {
+              limit = 0;
+              if (line.size() == 0) return false;
+              break;
+            }
+          }
+
+          int start = position;
+          while (position < limit && buffer[position] != NEWLINE) position++;
+          line.write(buffer, start, position - start);
+
+          if (position < limit) {
+            position++;
+            ended = true;
+          }
+        }
+
+        lineNumber++;
+        line.trimCarriageReturn();
+        if (line.size() > 0) return true;
+      }
+    }
+  }
+
+  /** Exposes its contents without copying them. */
+  static final class RecordBuffer extends ByteArrayOutputStream {
+    boolean containsNewline() {
+      for (int i = 0; i < count; i++) {
+        if (buf[i] == NEWLINE) return true;
+      }
+
+      return false;
+    }
+
+    void trimCarriageReturn() {
+      if (count > 0 && buf[count - 1] == '\r') count--;
+    }
+
+    InputStream asInputStream() {
+      return new ByteArrayInputStream(buf, 0, count);
+    }
+  }
+}
@@ -0,0 +1,72 @@
+/*
+ * Copyright (C) GRIDSTONE 2017
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package au.com.gridstone.rxstore;
+
+import io.reactivex.Completable;
+import io.reactivex.Scheduler;
+import io.reactivex.Single;
+import io.reactivex.annotations.NonNull;
+import io.reactivex.schedulers.Schedulers;
+import java.util.List;
+
+/**
+ * Holds many small named values inside a single file, with a {@link ValueStore} view onto each.
+ * Compared to a file per value this saves an inode, a temporary file and a rename for every write,
+ * which dominates the cost of storing small values.
+ * <p>
+ * Writes are appended to the end of the file, leaving the previous value for the same name behind
+ * as garbage. That garbage is reclaimed by {@link #compact() compaction}, which also happens
+ * automatically once the file is mostly garbage. A write interrupted part way through, such as by
+ * a crash, is discarded the next time the file is opened.
+ */
+public interface PackedStore<T> {
+  /**
+   * Retrieve a view of the value stored under name. Views for the same name share observers.
+   */
+  @NonNull ValueStore<T> store(@NonNull String name);
+
+  /**
+   * List the names that currently have a value, in ascending order.
+   */
+  @NonNull Single<List<String>> names();
+
+  /**
+   * List the names that currently have a value in a blocking manner.
+   */
+  @NonNull List<String> blockingNames();
+
+  /**
+   * Rewrite the file with only the current value for each name, and observe the operation.
+   */
+  @NonNull Completable observeCompact();
+
+  /**
+   * Asynchronously compact the file. The operation occurs on {@link Schedulers#io()}. If you wish
+   * to specify the {@link Scheduler} then use {@link #compact(Scheduler)}.
+   */
+  void compact();
+
+  /**
+   * Compact the file on a specified {@link Scheduler}.
+   */
+  void compact(@NonNull Scheduler scheduler);
+
+  /**
+   * Close every view onto this store and release the file.
+   */
+  void close();
+}
@@ -0,0 +1,346 @@
+/*
+ * Copyright (C) GRIDSTONE 2017
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package au.com.gridstone.rxstore;
+
+import au.com.gridstone.rxstore.ValueStore.ValueUpdate;
+import io.reactivex.Completable;
+import io.reactivex.CompletableEmitter;
+import io.reactivex.CompletableOnSubscribe;
+import io.reactivex.Maybe;
+import io.reactivex.MaybeEmitter;
+import io.reactivex.MaybeOnSubscribe;
+import io.reactivex.Observable;
+import io.reactivex.Scheduler;
+import io.reactivex.Single;
+import io.reactivex.SingleEmitter;
+import io.reactivex.SingleOnSubscribe;
+import io.reactivex.annotations.NonNull;
+import io.reactivex.annotations.Nullable;
+import io.reactivex.functions.Function;
+import io.reactivex.schedulers.Schedulers;
+import io.reactivex.subjects.PublishSubject;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import static au.com.gridstone.rxstore.Utils.assertNotNull;
+import static au.com.gridstone.rxstore.Utils.runInReadLock;
+import static au.com.gridstone.rxstore.Utils.runInWriteLock;
+
+final class RealBlobStore implements BlobStore {
+  private final ReentrantReadWriteLock readWriteLock = new ReentrantReadWriteLock();
+  /** Each update is the new bytes, resolved separately for every observer. */
+  private final PublishSubject<Maybe<ByteBuffer>> updateSubject = PublishSubject.create();
+
+  private final File file;
+
+  /** Guarded by the write lock. */
+  private boolean closed;
+
+  RealBlobStore(@NonNull File file) {
+    assertNotNull(file, "file");
+    this.file = file;
+  }
+
+  @Override @NonNull public Maybe<ByteBuffer> get() {
+    return Maybe.create(new MaybeOnSubscribe<ByteBuffer>() {
+      @Override public void subscribe(final MaybeEmitter<ByteBuffer> emitter) throws Exception {
+        runInReadLock(readWriteLock, new ThrowingRunnable() {
+          @Override public void run() throws Exception {
+            ByteBuffer buffer = map();
+
+            if (buffer == null) {
+              emitter.onComplete();
+            } else {
+              emitter.onSuccess(buffer);
+            }
+          }
+        });
+      }
+    });
+  }
+
+  @Override @Nullable public ByteBuffer blockingGet() {
+    return get().blockingGet();
+  }
+
+  @Override @NonNull public Maybe<InputStream> openStream() {
+    return Maybe.create(new MaybeOnSubscribe<InputStream>() {
+      @Override public void subscribe(final MaybeEmitter<InputStream> emitter) throws Exception {
+        runInReadLock(readWriteLock, new ThrowingRunnable() {
+          @Override public void run() throws Exception {
+            if (!file.exists()) {
+              emitter.onComplete();
+            } else {
+              // Writes replace the file rather than changing it, so the stream needs no lock.
+              emitter.onSuccess(new FileInputStream(file));
+            }
+          }
+        });
+      }
+    });
+  }
+
+  @Override @NonNull
+  public Single<Long> observeTransferTo(@NonNull final WritableByteChannel target) {
+    assertNotNull(target, "target");
+
+    return Single.create(new SingleOnSubscribe<Long>() {
+      @Override public void subscribe(final SingleEmitter<Long> emitter) throws Exception {
+        runInReadLock(readWriteLock, new ThrowingRunnable() {
+          @Override public void run() throws Exception {
+            if (!file.exists()) {
+              emitter.onSuccess(0L);
+              return;
+            }
+
+            RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r");
+
+            try {
+              FileChannel channel = randomAccessFile.getChannel();
+              long size = channel.size();
+
+              for (long position = 0; position < size; ) {
+                position += channel.transferTo(position, size - position, target);
+              }
+
+              emitter.onSuccess(size);
+            } finally {
+              randomAccessFile.close();
+            }
+          }
+        });
+      }
+    });
+  }
+
+  @Override @NonNull public Completable observePut(@NonNull final File source) {
+    assertNotNull(source, "source");
+
+    return put(new Writer() {
+      @Override public void write(FileChannel channel) throws IOException {
+        RandomAccessFile randomAccessFile = new RandomAccessFile(source, "r");
+
+        try {
+          FileChannel sourceChannel = randomAccessFile.getChannel();
+          long size = sourceChannel.size();
+
+          for (long position = 0; position < size; ) {
+            position += sourceChannel.transferTo(position, size - position, channel);
+          }
+        } finally {
+          randomAccessFile.close();
+        }
+      }
+    });
+  }
+
+  @Override public void put(@NonNull File source) {
+    put(source, Schedulers.io());
+  }
+
+  @Override public void put(@NonNull File source, @NonNull Scheduler scheduler) {
+    assertNotNull(scheduler, "scheduler");
+    observePut(source).subscribeOn(scheduler).subscribe();
+  }
+
+  @Override @NonNull public Completable observePut(@NonNull final ByteBuffer source) {
+    assertNotNull(source, "source");
+
+    return put(new Writer() {
+      @Override public void write(FileChannel channel) throws IOException {
+        ByteBuffer buffer = source.duplicate();
+
+        while (buffer.hasRemaining()) {
+          channel.write(buffer);
+        }
+      }
+    });
+  }
+
+  @Override public void put(@NonNull ByteBuffer source) {
+    put(source, Schedulers.io());
+  }
+
+  @Override public void put(@NonNull ByteBuffer source, @NonNull Scheduler scheduler) {
+    assertNotNull(scheduler, "scheduler");
+    observePut(source).subscribeOn(scheduler).subscribe();
+  }
+
+  @Override @NonNull public Completable observePut(@NonNull final InputStream source) {
+    assertNotNull(source, "source");
+
+    return put(new Writer() {
+      @Override public void write(FileChannel channel) throws IOException {
+        ReadableByteChannel sourceChannel = Channels.newChannel(source);
+
+        // A blocking source only transfers nothing once it is exhausted.
+        for (long position = 0, count = 1; count > 0; position += count) {
+          count = channel.transferFrom(sourceChannel, position, Long.MAX_VALUE - position);
+        }
+      }
+    });
+  }
+
+  @Override public void put(@NonNull InputStream source) {
+    put(source, Schedulers.io());
+  }
+
+  @Override public void put(@NonNull InputStream source, @NonNull Scheduler scheduler) {
+    assertNotNull(scheduler, "scheduler");
+    observePut(source).subscribeOn(scheduler).subscribe();
+  }
+
+  @Override @NonNull public Observable<ValueUpdate<ByteBuffer>> observe() {
+    return updateSubject.startWith(get())
+        .concatMap(new Function<Maybe<ByteBuffer>, Observable<ValueUpdate<ByteBuffer>>>() {
+          @Override public Observable<ValueUpdate<ByteBuffer>> apply(Maybe<ByteBuffer> bytes) {
+            return bytes
+                .map(new Function<ByteBuffer, ValueUpdate<ByteBuffer>>() {
+                  @Override public ValueUpdate<ByteBuffer> apply(ByteBuffer buffer) {
+                    return new ValueUpdate<ByteBuffer>(buffer);
+                  }
+                })
+                .defaultIfEmpty(ValueUpdate.<ByteBuffer>empty())
+                .toObservable();
+          }
+        });
+  }
+
+  @Override @NonNull public Completable observeClear() {
+    return Completable.create(new CompletableOnSubscribe() {
+      @Override public void subscribe(final CompletableEmitter emitter) throws Exception {
+        runInWriteLock(readWriteLock, new ThrowingRunnable() {
+          @Override public void run() throws Exception {
+            checkNotClosed();
+
+            if (file.exists() && !file.delete()) {
+              throw new IOException("Clear operation on store failed.");
+            }
+
+            emitter.onComplete();
+            updateSubject.onNext(Maybe.<ByteBuffer>empty());
+          }
+        });
+      }
+    });
+  }
+
+  @Override public void clear() {
+    clear(Schedulers.io());
+  }
+
+  @Override public void clear(@NonNull Scheduler scheduler) {
+    assertNotNull(scheduler, "scheduler");
+    observeClear().subscribeOn(scheduler).subscribe();
+  }
+
+  @Override public void close() {
+    runInWriteLock(readWriteLock, new ThrowingRunnable() {
+      @Override public void run() {
+        closed = true;
+        StoreRegistry.remove(file, RealBlobStore.this);
+        updateSubject.onComplete();
+      }
+    });
+  }
+
+  private Completable put(final Writer writer) {
+    return Completable.create(new CompletableOnSubscribe() {
+      @Override public void subscribe(final CompletableEmitter emitter) throws Exception {
+        runInWriteLock(readWriteLock, new ThrowingRunnable() {
+          @Override public void run() throws Exception {
+            checkNotClosed();
+            File tmpFile = new File(file.getAbsolutePath() + ".tmp");
+            RandomAccessFile randomAccessFile = new RandomAccessFile(tmpFile, "rw");
+
+            try {
+              FileChannel channel = randomAccessFile.getChannel();
+              channel.truncate(0);
+              writer.write(channel);
+            } finally {
+              randomAccessFile.close();
+            }
+
+            if ((file.exists() && !file.delete()) || !tmpFile.renameTo(file)) {
+              throw new IOException("Failed to write bytes to file.");
+            }
+
+            emitter.onComplete();
+
+            // Mapping is cheap, but there's no need to do it when nobody is listening.
+            if (updateSubject.hasObservers()) updateSubject.onNext(update());
+          }
+        });
+      }
+    });
+  }
+
+  /**
+   * The store's current bytes for observers. Bytes too large to map are delivered as an error, so
+   * that only observers are failed and not the write that produced them.
+   */
+  private Maybe<ByteBuffer> update() throws IOException {
+    long size = file.length();
+    // Wrapped the same way as the error get() emits for the first update.
+    if (size > Integer.MAX_VALUE) return Maybe.error(new RuntimeException(tooLargeToMap(size)));
+    ByteBuffer buffer = map();
+    return buffer == null ? Maybe.<ByteBuffer>empty() : Maybe.just(buffer);
+  }
+
+  /**
+   * Map the store's file read-only, or return null if there is no file.
+   */
+  @Nullable private ByteBuffer map() throws IOException {
+    if (!file.exists()) return null;
+    RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r");
+
+    try {
+      FileChannel channel = randomAccessFile.getChannel();
+      long size = channel.size();
+      if (size == 0) return ByteBuffer.allocate(0).asReadOnlyBuffer();
+      // A ByteBuffer, and so a single mapping, can not be larger than Integer.MAX_VALUE bytes.
+      if (size > Integer.MAX_VALUE) throw tooLargeToMap(size);
+
+      // The mapping remains valid after its channel is closed.
+      return channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+    } finally {
+      randomAccessFile.close();
+    }
+  }
+
+  private IOException tooLargeToMap(long size) {
+    return new IOException(file + " holds " + size + " bytes, which is too many to map into one"
+        + " buffer. Read it with openStream() or observeTransferTo() instead.");
+  }
+
+  private void checkNotClosed() {
+    if (closed) throw new IllegalStateException("Store has been closed.");
+  }
+
+  private interface Writer {
+    void write(FileChannel channel) throws IOException;
+  }
+}
@@ -0,0 +1,85 @@
+/*
+ * Copyright (C) GRIDSTONE 2017
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package au.com.gridstone.rxstore;
+
+import io.reactivex.Completable;
+import io.reactivex.Scheduler;
+import io.reactivex.Single;
+import io.reactivex.annotations.NonNull;
+import io.reactivex.functions.Function;
+import io.reactivex.schedulers.Schedulers;
+import java.io.File;
+import java.nio.ByteBuffer;
+
+import static au.com.gridstone.rxstore.Utils.assertNotNull;
+
+final class RealDoubleListStore extends RealPrimitiveListStore<double[]>
+    implements DoubleListStore {
+  private static final int SIZE = 8;
+
+  RealDoubleListStore(File file) {
+    super(file, double.class, SIZE);
+  }
+
+  @Override void decode(ByteBuffer source, double[] destination, int offset, int count) {
+    source.asDoubleBuffer().get(destination, offset, count);
+  }
+
+  @Override void encode(double[] source, int offset, int count, ByteBuffer destination) {
+    destination.asDoubleBuffer().put(source, offset, count);
+  }
+
+  @Override @NonNull public Single<Double> get(int position) {
+    return getElement(position, new Function<ByteBuffer, Double>() {
+      @Override public Double apply(ByteBuffer buffer) {
+        return buffer.getDouble(0);
+      }
+    });
+  }
+
+  @Override public double blockingGet(int position) {
+    return get(position).blockingGet();
+  }
+
+  @Override @NonNull public Completable observeAdd(double value) {
+    return observeAddAll(new double[] {value});
+  }
+
+  @Override public void add(double value) {
+    add(value, Schedulers.io());
+  }
+
+  @Override public void add(double value, @NonNull Scheduler scheduler) {
+    assertNotNull(scheduler, "scheduler");
+    observeAdd(value).subscribeOn(scheduler).subscribe();
+  }
+
+  @Override @NonNull public Completable observeSet(int position, double value) {
+    ByteBuffer buffer = newBuffer(SIZE);
+    buffer.putDouble(0, value);
+    return setElement(position, buffer);
+  }
+
+  @Override public void set(int position, double value) {
+    set(position, value, Schedulers.io());
+  }
+
+  @Override public void set(int position, double value, @NonNull Scheduler scheduler) {
+    assertNotNull(scheduler, "scheduler");
+    observeSet(position, value).subscribeOn(scheduler).subscribe();
+  }
+}
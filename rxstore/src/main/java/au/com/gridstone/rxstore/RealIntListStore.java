@@ -0,0 +1,84 @@
+/*
+ * Copyright (C) GRIDSTONE 2017
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package au.com.gridstone.rxstore;
+
+import io.reactivex.Completable;
+import io.reactivex.Scheduler;
+import io.reactivex.Single;
+import io.reactivex.annotations.NonNull;
+import io.reactivex.functions.Function;
+import io.reactivex.schedulers.Schedulers;
+import java.io.File;
+import java.nio.ByteBuffer;
+
+import static au.com.gridstone.rxstore.Utils.assertNotNull;
+
+final class RealIntListStore extends RealPrimitiveListStore<int[]> implements IntListStore {
+  private static final int SIZE = 4;
+
+  RealIntListStore(File file) {
+    super(file, int.class, SIZE);
+  }
+
+  @Override void decode(ByteBuffer source, int[] destination, int offset, int count) {
+    source.asIntBuffer().get(destination, offset, count);
+  }
+
+  @Override void encode(int[] source, int offset, int count, ByteBuffer destination) {
+    destination.asIntBuffer().put(source, offset, count);
+  }
+
+  @Override @NonNull public Single<Integer> get(int position) {
+    return getElement(position, new Function<ByteBuffer, Integer>() {
+      @Override public Integer apply(ByteBuffer buffer) {
+        return buffer.getInt(0);
+      }
+    });
+  }
+
+  @Override public int blockingGet(int position) {
+    return get(position).blockingGet();
+  }
+
+  @Override @NonNull public Completable observeAdd(int value) {
+    return observeAddAll(new int[] {value});
+  }
+
+  @Override public void add(int value) {
+    add(value, Schedulers.io());
+  }
+
+  @Override public void add(int value, @NonNull Scheduler scheduler) {
+    assertNotNull(scheduler, "scheduler");
+    observeAdd(value).subscribeOn(scheduler).subscribe();
+  }
+
+  @Override @NonNull public Completable observeSet(int position, int value) {
+    ByteBuffer buffer = newBuffer(SIZE);
+    buffer.putInt(0, value);
+    return setElement(position, buffer);
+  }
+
+  @Override public void set(int position, int value) {
+    set(position, value, Schedulers.io());
+  }
+
+  @Override public void set(int position, int value, @NonNull Scheduler scheduler) {
+    assertNotNull(scheduler, "scheduler");
+    observeSet(position, value).subscribeOn(scheduler).subscribe();
+  }
+}
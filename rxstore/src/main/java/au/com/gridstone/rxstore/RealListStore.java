@@ -16,43 +16,83 @@
 
 package au.com.gridstone.rxstore;
 
+import io.reactivex.Completable;
+import io.reactivex.CompletableEmitter;
+import io.reactivex.CompletableOnSubscribe;
+import io.reactivex.Flowable;
 import io.reactivex.Observable;
 import io.reactivex.Scheduler;
 import io.reactivex.Single;
 import io.reactivex.SingleEmitter;
 import io.reactivex.SingleOnSubscribe;
 import io.reactivex.annotations.NonNull;
+import io.reactivex.annotations.Nullable;
+import io.reactivex.functions.Action;
+import io.reactivex.functions.Consumer;
+import io.reactivex.functions.Function;
 import io.reactivex.schedulers.Schedulers;
 import io.reactivex.subjects.PublishSubject;
+import java.io.BufferedOutputStream;
 import java.io.File;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.lang.reflect.ParameterizedType;
 import java.lang.reflect.Type;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.Callable;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
 
-import static au.com.gridstone.rxstore.Utils.converterWrite;
 import static au.com.gridstone.rxstore.Utils.runInReadLock;
 import static au.com.gridstone.rxstore.Utils.runInWriteLock;
 import static au.com.gridstone.rxstore.Utils.assertNotNull;
 
-final class RealListStore<T> implements ListStore<T> {
-  private final ReentrantReadWriteLock readWriteLock = new ReentrantReadWriteLock();
+final class RealListStore<T> implements ListStore<T>, TransactionParticipant {
+  private final ReentrantReadWriteLock readWriteLock;
   private final PublishSubject<List<T>> updateSubject = PublishSubject.create();
 
   private final File file;
-  private final Converter converter;
-  private final Type type;
-
-  RealListStore(@NonNull File file, @NonNull Converter converter, @NonNull Type type) {
+  private final StoreFile storeFile;
+  private final boolean watchExternalChanges;
+  private final Type listType;
+  @Nullable private final ListJournal<T> journal;
+  @Nullable private final StreamingListConverter streamingConverter;
+
+  RealListStore(@NonNull File file, @NonNull Converter converter, @NonNull Type type,
+      @NonNull StoreOptions options) {
     assertNotNull(file, "file");
     assertNotNull(converter, "converter");
     assertNotNull(type, "type");
+    assertNotNull(options, "options");
+
+    if (options.cacheEncoded() && !(converter instanceof StreamConverter)) {
+      throw new IllegalArgumentException("Caching encoded lists requires a StreamConverter.");
+    }
+
     this.file = file;
-    this.converter = converter;
-    this.type = new ListType(type);
+    this.listType = new ListType(type);
+    this.storeFile = new StoreFile(file, converter, listType, options);
+    this.readWriteLock = options.lockAcrossProcesses()
+        ? new FileReadWriteLock(new File(file.getAbsolutePath() + ".lock"))
+        : new ReentrantReadWriteLock();
+    this.watchExternalChanges = options.watchExternalChanges();
+
+    if (!options.journal()) {
+      this.journal = null;
+    } else if (converter instanceof StreamConverter) {
+      this.journal = new ListJournal<T>(file, storeFile, (StreamConverter) converter, type,
+          listType, options.journalCheckpointInterval);
+    } else {
+      throw new IllegalArgumentException("Journaling requires a StreamConverter.");
+    }
+
+    // Streamed lists replace the file directly, bypassing a journal or contents held in memory.
+    boolean canStream = converter instanceof StreamingListConverter
+        && journal == null && storeFile.supportsTransactions();
+    this.streamingConverter = canStream ? (StreamingListConverter) converter : null;
+    storeFile.runOnExpiry(Expiry.clearTask(this));
   }
 
   @Override @NonNull public Single<List<T>> get() {
@@ -60,12 +100,7 @@ final class RealListStore<T> implements ListStore<T> {
       @Override public void subscribe(final SingleEmitter<List<T>> emitter) throws Exception {
         runInReadLock(readWriteLock, new ThrowingRunnable() {
           @Override public void run() throws Exception {
-            if (!file.exists()) {
-              emitter.onSuccess(Collections.<T>emptyList());
-              return;
-            }
-
-            List<T> list = converter.read(file, type);
+            List<T> list = read();
             if (list == null) list = Collections.emptyList();
             emitter.onSuccess(list);
           }
@@ -85,13 +120,9 @@ final class RealListStore<T> implements ListStore<T> {
       @Override public void subscribe(final SingleEmitter<List<T>> emitter) throws Exception {
         runInWriteLock(readWriteLock, new ThrowingRunnable() {
           @Override public void run() throws Exception {
-            if (!file.exists() && !file.createNewFile()) {
-              throw new IOException("Could not create file for store.");
-            }
-
-            converterWrite(list, converter, type, file);
+            boolean written = writeAll(list);
             emitter.onSuccess(list);
-            updateSubject.onNext(list);
+            if (written) updateSubject.onNext(list);
           }
         });
       }
@@ -107,8 +138,77 @@ final class RealListStore<T> implements ListStore<T> {
     observePut(list).subscribeOn(scheduler).subscribe();
   }
 
+  @Override @NonNull public Completable observePutAll(@NonNull final Flowable<T> values) {
+    assertNotNull(values, "values");
+
+    if (streamingConverter == null) {
+      return values.toList()
+          .flatMapCompletable(new Function<List<T>, Completable>() {
+            @Override public Completable apply(List<T> list) {
+              return observePut(list).ignoreElement();
+            }
+          });
+    }
+
+    return Completable.using(
+        new Callable<StreamingWrite>() {
+          @Override public StreamingWrite call() throws Exception {
+            return new StreamingWrite();
+          }
+        },
+        new Function<StreamingWrite, Completable>() {
+          @Override public Completable apply(final StreamingWrite write) {
+            return values
+                // Ask for a bounded number of elements at a time rather than all of them.
+                .rebatchRequests(Flowable.bufferSize())
+                .doOnNext(new Consumer<T>() {
+                  @Override public void accept(T value) throws Exception {
+                    write.listWriter.write(value);
+                  }
+                })
+                .ignoreElements()
+                .andThen(Completable.fromAction(new Action() {
+                  @Override public void run() throws Exception {
+                    commit(write);
+                  }
+                }));
+          }
+        },
+        new Consumer<StreamingWrite>() {
+          @Override public void accept(StreamingWrite write) {
+            write.discard();
+          }
+        });
+  }
+
+  @Override public void putAll(@NonNull Flowable<T> values) {
+    putAll(values, Schedulers.io());
+  }
+
+  @Override public void putAll(@NonNull Flowable<T> values, @NonNull Scheduler scheduler) {
+    assertNotNull(scheduler, "scheduler");
+    observePutAll(values).subscribeOn(scheduler).subscribe();
+  }
+
+  private void commit(final StreamingWrite write) throws IOException {
+    write.finish();
+
+    runInWriteLock(readWriteLock, new ThrowingRunnable() {
+      @Override public void run() throws Exception {
+        storeFile.commitPrepared(write.tmpFile);
+
+        // The list was never held in memory, so it's only read back when somebody wants it.
+        if (updateSubject.hasObservers()) {
+          List<T> list = read();
+          updateSubject.onNext(list != null ? list : Collections.<T>emptyList());
+        }
+      }
+    });
+  }
+
   @Override @NonNull public Observable<List<T>> observe() {
-    return updateSubject.startWith(get().toObservable());
+    Observable<List<T>> updates = updateSubject.startWith(get().toObservable());
+    return watchExternalChanges ? FileWatcher.watching(this, updates) : updates;
   }
 
   @Override @NonNull public Single<List<T>> observeClear() {
@@ -116,7 +216,7 @@ final class RealListStore<T> implements ListStore<T> {
       @Override public void subscribe(final SingleEmitter<List<T>> emitter) throws Exception {
         runInWriteLock(readWriteLock, new ThrowingRunnable() {
           @Override public void run() throws Exception {
-            if (file.exists() && !file.delete()) {
+            if (!delete()) {
               throw new IOException("Clear operation on store failed.");
             }
 
@@ -137,6 +237,38 @@ final class RealListStore<T> implements ListStore<T> {
     observeClear().subscribeOn(scheduler).subscribe();
   }
 
+  @Override @NonNull public Completable observeFlush() {
+    return Completable.create(new CompletableOnSubscribe() {
+      @Override public void subscribe(CompletableEmitter emitter) throws Exception {
+        storeFile.flush();
+        emitter.onComplete();
+      }
+    });
+  }
+
+  @Override public void flush() {
+    observeFlush().blockingAwait();
+  }
+
+  @Override public void close() {
+    runInWriteLock(readWriteLock, new ThrowingRunnable() {
+      @Override public void run() throws Exception {
+        try {
+          storeFile.close();
+        } finally {
+          // Even if the final flush failed, this store is closed and must not be handed out again.
+          StoreRegistry.remove(file, RealListStore.this);
+          updateSubject.onComplete();
+          if (journal != null) journal.close();
+
+          if (readWriteLock instanceof FileReadWriteLock) {
+            ((FileReadWriteLock) readWriteLock).close();
+          }
+        }
+      }
+    });
+  }
+
   @Override @NonNull public Single<List<T>> observeAdd(@NonNull final T value) {
     assertNotNull(value, "value");
 
@@ -144,20 +276,16 @@ final class RealListStore<T> implements ListStore<T> {
       @Override public void subscribe(final SingleEmitter<List<T>> emitter) throws Exception {
         runInWriteLock(readWriteLock, new ThrowingRunnable() {
           @Override public void run() throws Exception {
-            if (!file.exists() && !file.createNewFile()) {
-              throw new IOException("Could not create file for store.");
-            }
-
-            List<T> originalList = converter.read(file, type);
+            List<T> originalList = read();
             if (originalList == null) originalList = Collections.emptyList();
 
             List<T> result = new ArrayList<T>(originalList.size() + 1);
             result.addAll(originalList);
             result.add(value);
 
-            converterWrite(result, converter, type, file);
+            boolean written = write(result, ListJournal.ADD, -1, value);
             emitter.onSuccess(result);
-            updateSubject.onNext(result);
+            if (written) updateSubject.onNext(result);
           }
         });
       }
@@ -181,14 +309,13 @@ final class RealListStore<T> implements ListStore<T> {
       @Override public void subscribe(final SingleEmitter<List<T>> emitter) throws Exception {
         runInWriteLock(readWriteLock, new ThrowingRunnable() {
           @Override public void run() throws Exception {
-            if (!file.exists()) {
+            List<T> originalList = read();
+
+            if (originalList == null) {
               emitter.onSuccess(Collections.<T>emptyList());
               return;
             }
 
-            List<T> originalList = converter.read(file, type);
-            if (originalList == null) originalList = Collections.emptyList();
-
             int indexOfItemToRemove = -1;
 
             for (int i = 0; i < originalList.size(); i++) {
@@ -199,14 +326,15 @@ final class RealListStore<T> implements ListStore<T> {
             }
 
             List<T> modifiedList = new ArrayList<T>(originalList);
+            boolean skipped = false;
 
             if (indexOfItemToRemove != -1) {
               modifiedList.remove(indexOfItemToRemove);
-              converterWrite(modifiedList, converter, type, file);
+              skipped = !write(modifiedList, ListJournal.REMOVE, indexOfItemToRemove, null);
             }
 
             emitter.onSuccess(modifiedList);
-            updateSubject.onNext(modifiedList);
+            if (!skipped) updateSubject.onNext(modifiedList);
           }
         });
       }
@@ -246,15 +374,15 @@ final class RealListStore<T> implements ListStore<T> {
       @Override public void subscribe(final SingleEmitter<List<T>> emitter) throws Exception {
         runInWriteLock(readWriteLock, new ThrowingRunnable() {
           @Override public void run() throws Exception {
-            List<T> originalList = converter.read(file, type);
+            List<T> originalList = read();
             if (originalList == null) originalList = Collections.emptyList();
 
             List<T> modifiedList = new ArrayList<T>(originalList);
             modifiedList.remove(position);
 
-            converterWrite(modifiedList, converter, type, file);
+            boolean written = write(modifiedList, ListJournal.REMOVE, position, null);
             emitter.onSuccess(modifiedList);
-            updateSubject.onNext(modifiedList);
+            if (written) updateSubject.onNext(modifiedList);
           }
         });
       }
@@ -279,14 +407,13 @@ final class RealListStore<T> implements ListStore<T> {
       @Override public void subscribe(final SingleEmitter<List<T>> emitter) throws Exception {
         runInWriteLock(readWriteLock, new ThrowingRunnable() {
           @Override public void run() throws Exception {
-            if (!file.exists()) {
+            List<T> originalList = read();
+
+            if (originalList == null) {
               emitter.onSuccess(Collections.<T>emptyList());
               return;
             }
 
-            List<T> originalList = converter.read(file, type);
-            if (originalList == null) originalList = Collections.emptyList();
-
             int indexOfItemToReplace = -1;
 
             for (int i = 0; i < originalList.size(); i++) {
@@ -297,15 +424,16 @@ final class RealListStore<T> implements ListStore<T> {
             }
 
             List<T> modifiedList = new ArrayList<T>(originalList);
+            boolean skipped = false;
 
             if (indexOfItemToReplace != -1) {
               modifiedList.remove(indexOfItemToReplace);
               modifiedList.add(indexOfItemToReplace, value);
-              converterWrite(modifiedList, converter, type, file);
+              skipped = !write(modifiedList, ListJournal.SET, indexOfItemToReplace, value);
             }
 
             emitter.onSuccess(modifiedList);
-            updateSubject.onNext(modifiedList);
+            if (!skipped) updateSubject.onNext(modifiedList);
           }
         });
       }
@@ -331,11 +459,7 @@ final class RealListStore<T> implements ListStore<T> {
       @Override public void subscribe(final SingleEmitter<List<T>> emitter) throws Exception {
         runInWriteLock(readWriteLock, new ThrowingRunnable() {
           @Override public void run() throws Exception {
-            if (!file.exists() && !file.createNewFile()) {
-              throw new IOException("Could not create store.");
-            }
-
-            List<T> originalList = converter.read(file, type);
+            List<T> originalList = read();
             if (originalList == null) originalList = Collections.emptyList();
 
             int indexOfItemToReplace = -1;
@@ -360,9 +484,10 @@ final class RealListStore<T> implements ListStore<T> {
               modifiedList.add(indexOfItemToReplace, value);
             }
 
-            converterWrite(modifiedList, converter, type, file);
+            byte op = indexOfItemToReplace == -1 ? ListJournal.ADD : ListJournal.SET;
+            boolean written = write(modifiedList, op, indexOfItemToReplace, value);
             emitter.onSuccess(modifiedList);
-            updateSubject.onNext(modifiedList);
+            if (written) updateSubject.onNext(modifiedList);
           }
         });
       }
@@ -379,6 +504,100 @@ final class RealListStore<T> implements ListStore<T> {
     observeAddOrReplace(value, predicateFunc).subscribeOn(scheduler).subscribe();
   }
 
+  @Override public File file() {
+    return file;
+  }
+
+  @Override public ReentrantReadWriteLock readWriteLock() {
+    return readWriteLock;
+  }
+
+  @Override public StoreFile storeFile() {
+    return storeFile;
+  }
+
+  @Override public boolean supportsTransactions() {
+    return journal == null && storeFile.supportsTransactions();
+  }
+
+  @Override public boolean supportsSnapshots() {
+    return journal == null;
+  }
+
+  @Override @Nullable public Object readContents() throws IOException {
+    return read();
+  }
+
+  @SuppressWarnings("unchecked") // Contents always have the store's own type.
+  @Override public void publish(@Nullable Object contents) {
+    updateSubject.onNext(contents == null ? Collections.<T>emptyList() : (List<T>) contents);
+  }
+
+  /**
+   * Must be called holding the read lock.
+   */
+  @Nullable private List<T> read() throws IOException {
+    return journal != null ? journal.read() : storeFile.<List<T>>read();
+  }
+
+  /**
+   * Replace the stored list, which must be called holding the write lock. With journaling enabled
+   * the change is recorded as a single journal op, otherwise the whole list is written. Returns
+   * false if the write was skipped because nothing changed.
+   */
+  private boolean write(List<T> list, byte op, int index, @Nullable T element)
+      throws IOException {
+    if (journal == null) return storeFile.write(list);
+    storeFile.checkNotClosed();
+    journal.append(op, index, element, list);
+    return true;
+  }
+
+  private boolean writeAll(List<T> list) throws IOException {
+    if (journal == null) return storeFile.write(list);
+    storeFile.checkNotClosed();
+    journal.checkpoint(list);
+    return true;
+  }
+
+  private boolean delete() throws IOException {
+    if (journal == null) return storeFile.delete();
+    storeFile.checkNotClosed();
+    journal.append(ListJournal.CLEAR, -1, null, Collections.<T>emptyList());
+    return true;
+  }
+
+  /**
+   * A list being streamed into a temporary file beside the store's file. Each streaming write has
+   * its own file, so it needs no lock until it replaces the store's file.
+   */
+  private final class StreamingWrite {
+    final File tmpFile;
+    final OutputStream output;
+    final StreamingListConverter.ListWriter<T> listWriter;
+
+    StreamingWrite() throws IOException {
+      tmpFile = File.createTempFile(file.getName() + ".put", ".tmp", file.getParentFile());
+      output = new BufferedOutputStream(new FileOutputStream(tmpFile));
+      listWriter = streamingConverter.writeList(listType, output);
+    }
+
+    void finish() throws IOException {
+      listWriter.finish();
+      output.close();
+    }
+
+    void discard() {
+      try {
+        output.close();
+      } catch (IOException ignored) {
+      }
+
+      // Once committed the file has been renamed, leaving nothing to delete.
+      tmpFile.delete();
+    }
+  }
+
   static final class ListType implements ParameterizedType {
     private final Type wrappedType;
 
@@ -0,0 +1,551 @@
+/*
+ * Copyright (C) GRIDSTONE 2017
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package au.com.gridstone.rxstore;
+
+import io.reactivex.Completable;
+import io.reactivex.CompletableEmitter;
+import io.reactivex.CompletableOnSubscribe;
+import io.reactivex.Maybe;
+import io.reactivex.MaybeEmitter;
+import io.reactivex.MaybeOnSubscribe;
+import io.reactivex.Observable;
+import io.reactivex.Scheduler;
+import io.reactivex.Single;
+import io.reactivex.SingleEmitter;
+import io.reactivex.SingleOnSubscribe;
+import io.reactivex.annotations.NonNull;
+import io.reactivex.annotations.Nullable;
+import io.reactivex.functions.Function;
+import io.reactivex.schedulers.Schedulers;
+import io.reactivex.subjects.PublishSubject;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.lang.reflect.Type;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import static au.com.gridstone.rxstore.Utils.assertNotNull;
+import static au.com.gridstone.rxstore.Utils.runInReadLock;
+import static au.com.gridstone.rxstore.Utils.runInWriteLock;
+import static au.com.gridstone.rxstore.Utils.sync;
+
+/**
+ * The file starts with a header of {@link #MAGIC} and {@link #VERSION}, followed by records of
+ * [byte op][short name length][name as UTF-8] and, for {@link #PUT}, [int value length][value].
+ * The index maps each name to the position of its most recent value.
+ */
+final class RealPackedStore<T> implements PackedStore<T> {
+  private static final int MAGIC = 0x52585042;
+  private static final int VERSION = 1;
+  private static final int HEADER_LENGTH = 5;
+  private static final byte PUT = 1;
+  private static final byte DELETE = 2;
+  private static final long MIN_COMPACTION_LENGTH = 64 * 1024;
+  private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+  private final ReentrantReadWriteLock readWriteLock = new ReentrantReadWriteLock();
+  private final File file;
+  private final StreamConverter converter;
+  private final Type type;
+
+  // Guarded by readWriteLock.
+  private final Map<String, Entry> index = new HashMap<String, Entry>();
+  private RandomAccessFile randomAccessFile;
+  private boolean loaded;
+  private long fileLength;
+  /** Total length of the records the index points at. The rest of the file is garbage. */
+  private long liveLength;
+  private boolean closed;
+
+  /** Views handed out so far, guarded by this. */
+  private final Map<String, EntryStore> views = new HashMap<String, EntryStore>();
+
+  RealPackedStore(@NonNull File file, @NonNull StreamConverter converter, @NonNull Type type) {
+    assertNotNull(file, "file");
+    assertNotNull(converter, "converter");
+    assertNotNull(type, "type");
+    this.file = file;
+    this.converter = converter;
+    this.type = type;
+  }
+
+  @Override @NonNull public synchronized ValueStore<T> store(@NonNull String name) {
+    assertNotNull(name, "name");
+
+    if (name.getBytes(UTF_8).length > 0xffff) {
+      throw new IllegalArgumentException("name must be at most 65535 bytes as UTF-8.");
+    }
+
+    EntryStore view = views.get(name);
+
+    if (view == null) {
+      view = new EntryStore(name);
+      views.put(name, view);
+    }
+
+    return view;
+  }
+
+  @Override @NonNull public Single<List<String>> names() {
+    return Single.create(new SingleOnSubscribe<List<String>>() {
+      @Override public void subscribe(final SingleEmitter<List<String>> emitter) throws Exception {
+        runInReadLock(readWriteLock, new ThrowingRunnable() {
+          @Override public void run() throws Exception {
+            ensureLoaded();
+            List<String> names = new ArrayList<String>(index.keySet());
+            Collections.sort(names);
+            emitter.onSuccess(names);
+          }
+        });
+      }
+    });
+  }
+
+  @Override @NonNull public List<String> blockingNames() {
+    return names().blockingGet();
+  }
+
+  @Override @NonNull public Completable observeCompact() {
+    return Completable.create(new CompletableOnSubscribe() {
+      @Override public void subscribe(final CompletableEmitter emitter) throws Exception {
+        runInWriteLock(readWriteLock, new ThrowingRunnable() {
+          @Override public void run() throws Exception {
+            ensureLoaded();
+            if (randomAccessFile != null) compactFile();
+            emitter.onComplete();
+          }
+        });
+      }
+    });
+  }
+
+  @Override public void compact() {
+    compact(Schedulers.io());
+  }
+
+  @Override public void compact(@NonNull Scheduler scheduler) {
+    assertNotNull(scheduler, "scheduler");
+    observeCompact().subscribeOn(scheduler).subscribe();
+  }
+
+  @Override public void close() {
+    List<EntryStore> openViews;
+
+    synchronized (this) {
+      openViews = new ArrayList<EntryStore>(views.values());
+    }
+
+    for (EntryStore view : openViews) {
+      view.close();
+    }
+
+    runInWriteLock(readWriteLock, new ThrowingRunnable() {
+      @Override public void run() throws Exception {
+        closed = true;
+        if (randomAccessFile != null) randomAccessFile.close();
+        randomAccessFile = null;
+        StoreRegistry.remove(file, RealPackedStore.this);
+      }
+    });
+  }
+
+  /**
+   * Must be called holding either lock. Builds the index from the file the first time it's needed.
+   */
+  private void ensureLoaded() {
+    if (closed) throw new IllegalStateException("Store has been closed.");
+    if (loaded) return;
+
+    runInWriteLock(readWriteLock, new ThrowingRunnable() {
+      @Override public void run() throws Exception {
+        if (loaded) return;
+        if (file.exists() && file.length() > 0) load();
+        loaded = true;
+      }
+    });
+  }
+
+  private void load() throws IOException {
+    long length = file.length();
+    DataInputStream input =
+        new DataInputStream(new BufferedInputStream(new FileInputStream(file), 8 * 1024));
+    long position = 0;
+
+    try {
+      if (input.readInt() != MAGIC || input.readByte() != VERSION) {
+        throw new IOException(file + " is not a packed store.");
+      }
+
+      position = HEADER_LENGTH;
+
+      while (true) {
+        int op = input.read();
+        if (op == -1) break;
+
+        byte[] nameBytes = new byte[input.readUnsignedShort()];
+        input.readFully(nameBytes);
+        String name = new String(nameBytes, UTF_8);
+        long recordLength = 3 + nameBytes.length;
+
+        if (op == PUT) {
+          int valueLength = input.readInt();
+          long offset = position + recordLength + 4;
+          // Skipping can go past the end of the file, so check the value is all there first.
+          if (offset + valueLength > length) break;
+          skipFully(input, valueLength);
+          putIndex(name, new Entry(offset, valueLength, recordLength + 4 + valueLength));
+          recordLength += 4 + valueLength;
+        } else if (op == DELETE) {
+          removeIndex(name);
+        } else {
+          throw new IOException("Unknown record type " + op + " in " + file + ".");
+        }
+
+        position += recordLength;
+      }
+    } catch (EOFException e) {
+      // The last record was only partly written. It is discarded below.
+    } finally {
+      input.close();
+    }
+
+    randomAccessFile = new RandomAccessFile(file, "rw");
+    if (randomAccessFile.length() > position) randomAccessFile.setLength(position);
+    fileLength = position;
+  }
+
+  private static void skipFully(DataInputStream input, int count) throws IOException {
+    while (count > 0) {
+      int skipped = input.skipBytes(count);
+      if (skipped <= 0) throw new EOFException();
+      count -= skipped;
+    }
+  }
+
+  /**
+   * Must be called holding the read lock.
+   */
+  @Nullable private T readValue(String name) throws IOException {
+    ensureLoaded();
+    Entry entry = index.get(name);
+    if (entry == null) return null;
+    return converter.read(new ByteArrayInputStream(readBytes(entry)), type);
+  }
+
+  private byte[] readBytes(Entry entry) throws IOException {
+    byte[] bytes = new byte[entry.length];
+    ByteBuffer buffer = ByteBuffer.wrap(bytes);
+    FileChannel channel = randomAccessFile.getChannel();
+
+    while (buffer.hasRemaining()) {
+      // Positioned reads are safe to make from many threads holding the read lock.
+      if (channel.read(buffer, entry.offset + buffer.position()) == -1) throw new EOFException();
+    }
+
+    return bytes;
+  }
+
+  /**
+   * Must be called holding the write lock.
+   */
+  private void writeValue(String name, T value) throws IOException {
+    ensureLoaded();
+    ByteArrayOutputStream valueBytes = new ByteArrayOutputStream();
+    converter.write(value, type, valueBytes);
+
+    ByteArrayOutputStream record = new ByteArrayOutputStream(valueBytes.size() + 64);
+    DataOutputStream output = new DataOutputStream(record);
+    byte[] nameBytes = name.getBytes(UTF_8);
+    output.writeByte(PUT);
+    output.writeShort(nameBytes.length);
+    output.write(nameBytes);
+    output.writeInt(valueBytes.size());
+    valueBytes.writeTo(output);
+
+    long offset = append(record.toByteArray()) + 3 + nameBytes.length + 4;
+    putIndex(name, new Entry(offset, valueBytes.size(), record.size()));
+    compactIfMostlyGarbage();
+  }
+
+  /**
+   * Must be called holding the write lock.
+   */
+  private void deleteValue(String name) throws IOException {
+    ensureLoaded();
+    if (!index.containsKey(name)) return;
+
+    ByteArrayOutputStream record = new ByteArrayOutputStream();
+    DataOutputStream output = new DataOutputStream(record);
+    byte[] nameBytes = name.getBytes(UTF_8);
+    output.writeByte(DELETE);
+    output.writeShort(nameBytes.length);
+    output.write(nameBytes);
+
+    append(record.toByteArray());
+    removeIndex(name);
+    compactIfMostlyGarbage();
+  }
+
+  /**
+   * Append bytes to the file, creating it if needed, and return the position they were written at.
+   */
+  private long append(byte[] bytes) throws IOException {
+    if (randomAccessFile == null) randomAccessFile = new RandomAccessFile(file, "rw");
+
+    // A new file, or one whose header was torn and truncated away by load().
+    if (fileLength == 0) {
+      randomAccessFile.setLength(0);
+      randomAccessFile.write(header());
+      fileLength = HEADER_LENGTH;
+    }
+
+    long position = fileLength;
+    randomAccessFile.seek(position);
+    randomAccessFile.write(bytes);
+    fileLength += bytes.length;
+    return position;
+  }
+
+  private static byte[] header() {
+    return ByteBuffer.allocate(HEADER_LENGTH).putInt(MAGIC).put((byte) VERSION).array();
+  }
+
+  private void putIndex(String name, Entry entry) {
+    removeIndex(name);
+    index.put(name, entry);
+    liveLength += entry.recordLength;
+  }
+
+  private void removeIndex(String name) {
+    Entry previous = index.remove(name);
+    if (previous != null) liveLength -= previous.recordLength;
+  }
+
+  private void compactIfMostlyGarbage() throws IOException {
+    if (fileLength >= MIN_COMPACTION_LENGTH && fileLength - liveLength > liveLength) {
+      compactFile();
+    }
+  }
+
+  private void compactFile() throws IOException {
+    File tmpFile = new File(file.getAbsolutePath() + ".tmp");
+    Map<String, Entry> compactedIndex = new HashMap<String, Entry>(index.size());
+    OutputStream fileOutput = new FileOutputStream(tmpFile);
+    long position = HEADER_LENGTH;
+
+    try {
+      DataOutputStream output = new DataOutputStream(new BufferedOutputStream(fileOutput));
+      output.write(header());
+
+      for (Map.Entry<String, Entry> indexEntry : index.entrySet()) {
+        byte[] nameBytes = indexEntry.getKey().getBytes(UTF_8);
+        Entry entry = indexEntry.getValue();
+        output.writeByte(PUT);
+        output.writeShort(nameBytes.length);
+        output.write(nameBytes);
+        output.writeInt(entry.length);
+        output.write(readBytes(entry));
+
+        long offset = position + 3 + nameBytes.length + 4;
+        compactedIndex.put(indexEntry.getKey(),
+            new Entry(offset, entry.length, entry.recordLength));
+        position = offset + entry.length;
+      }
+
+      output.flush();
+    } finally {
+      fileOutput.close();
+    }
+
+    sync(tmpFile);
+
+    // Renaming over the file, rather than deleting it first, leaves either the old file or its
+    // compacted copy in place if the process dies. Some platforms can not rename over a file that
+    // is still open, so it is reopened whether or not the rename succeeds.
+    randomAccessFile.close();
+    boolean replaced = tmpFile.renameTo(file);
+    randomAccessFile = new RandomAccessFile(file, "rw");
+
+    if (!replaced) {
+      tmpFile.delete();
+      throw new IOException("Failed to replace " + file + " with its compacted copy.");
+    }
+
+    index.clear();
+    index.putAll(compactedIndex);
+    fileLength = position;
+  }
+
+  private static final class Entry {
+    /** Position of the value within the file. */
+    final long offset;
+    /** Length of the value. */
+    final int length;
+    /** Length of the whole record holding the value, used to track how much of the file is live. */
+    final long recordLength;
+
+    Entry(long offset, int length, long recordLength) {
+      this.offset = offset;
+      this.length = length;
+      this.recordLength = recordLength;
+    }
+  }
+
+  /**
+   * A {@link ValueStore} view of a single name. Every view shares the container's lock.
+   */
+  private final class EntryStore implements ValueStore<T> {
+    private final PublishSubject<ValueUpdate<T>> updateSubject = PublishSubject.create();
+    private final String name;
+    private boolean closed;
+
+    EntryStore(String name) {
+      this.name = name;
+    }
+
+    @Override @NonNull public Maybe<T> get() {
+      return Maybe.create(new MaybeOnSubscribe<T>() {
+        @Override public void subscribe(final MaybeEmitter<T> emitter) throws Exception {
+          runInReadLock(readWriteLock, new ThrowingRunnable() {
+            @Override public void run() throws Exception {
+              T value = readValue(name);
+
+              if (value == null) {
+                emitter.onComplete();
+              } else {
+                emitter.onSuccess(value);
+              }
+            }
+          });
+        }
+      });
+    }
+
+    @Override @Nullable public T blockingGet() {
+      return get().blockingGet();
+    }
+
+    @Override @NonNull public Single<T> observePut(@NonNull final T value) {
+      assertNotNull(value, "value");
+
+      return Single.create(new SingleOnSubscribe<T>() {
+        @Override public void subscribe(final SingleEmitter<T> emitter) throws Exception {
+          runInWriteLock(readWriteLock, new ThrowingRunnable() {
+            @Override public void run() throws Exception {
+              checkNotClosed();
+              writeValue(name, value);
+              emitter.onSuccess(value);
+              updateSubject.onNext(new ValueUpdate<T>(value));
+            }
+          });
+        }
+      });
+    }
+
+    @Override public void put(@NonNull T value) {
+      put(value, Schedulers.io());
+    }
+
+    @Override public void put(@NonNull T value, @NonNull Scheduler scheduler) {
+      assertNotNull(scheduler, "scheduler");
+      observePut(value).subscribeOn(scheduler).subscribe();
+    }
+
+    @Override @NonNull public Observable<ValueUpdate<T>> observe() {
+      Observable<ValueUpdate<T>> startingValue = get()
+          .map(new Function<T, ValueUpdate<T>>() {
+            @Override public ValueUpdate<T> apply(T value) throws Exception {
+              return new ValueUpdate<T>(value);
+            }
+          })
+          .defaultIfEmpty(ValueUpdate.<T>empty())
+          .toObservable();
+
+      return updateSubject.startWith(startingValue);
+    }
+
+    @Override @NonNull public Completable observeClear() {
+      return Completable.create(new CompletableOnSubscribe() {
+        @Override public void subscribe(final CompletableEmitter emitter) throws Exception {
+          runInWriteLock(readWriteLock, new ThrowingRunnable() {
+            @Override public void run() throws Exception {
+              checkNotClosed();
+              deleteValue(name);
+              emitter.onComplete();
+              updateSubject.onNext(ValueUpdate.<T>empty());
+            }
+          });
+        }
+      });
+    }
+
+    @Override public void clear() {
+      clear(Schedulers.io());
+    }
+
+    @Override public void clear(@NonNull Scheduler scheduler) {
+      assertNotNull(scheduler, "scheduler");
+      observeClear().subscribeOn(scheduler).subscribe();
+    }
+
+    /**
+     * Values are appended to the file as they are written, so there is never anything to flush.
+     */
+    @Override @NonNull public Completable observeFlush() {
+      return Completable.complete();
+    }
+
+    @Override public void flush() {
+    }
+
+    @Override public void close() {
+      synchronized (RealPackedStore.this) {
+        if (views.get(name) == this) views.remove(name);
+      }
+
+      runInWriteLock(readWriteLock, new ThrowingRunnable() {
+        @Override public void run() throws Exception {
+          if (closed) return;
+          closed = true;
+          updateSubject.onComplete();
+        }
+      });
+    }
+
+    private void checkNotClosed() {
+      if (closed) throw new IllegalStateException("Store has been closed.");
+    }
+  }
+}
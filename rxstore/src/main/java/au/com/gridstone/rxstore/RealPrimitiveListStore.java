@@ -0,0 +1,416 @@
+/*
+ * Copyright (C) GRIDSTONE 2017
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package au.com.gridstone.rxstore;
+
+import io.reactivex.Completable;
+import io.reactivex.CompletableEmitter;
+import io.reactivex.CompletableOnSubscribe;
+import io.reactivex.Observable;
+import io.reactivex.Scheduler;
+import io.reactivex.Single;
+import io.reactivex.SingleEmitter;
+import io.reactivex.SingleOnSubscribe;
+import io.reactivex.annotations.NonNull;
+import io.reactivex.functions.Function;
+import io.reactivex.schedulers.Schedulers;
+import io.reactivex.subjects.PublishSubject;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.lang.reflect.Array;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import static au.com.gridstone.rxstore.Utils.assertNotNull;
+import static au.com.gridstone.rxstore.Utils.readFully;
+import static au.com.gridstone.rxstore.Utils.runInReadLock;
+import static au.com.gridstone.rxstore.Utils.runInWriteLock;
+import static au.com.gridstone.rxstore.Utils.writeFully;
+
+/**
+ * Shared implementation of the primitive list stores, where A is the primitive array type held.
+ * <p>
+ * The file holds nothing but the elements, each encoded little-endian in elementSize bytes, so the
+ * size of the list is the length of the file divided by elementSize. Appending writes only the new
+ * elements to the end of the file and reading or replacing one element touches only its bytes.
+ * Anything that changes the positions of elements rewrites a temporary file and renames it over
+ * the store's file. Trailing bytes too few to make an element, left by an interrupted append, are
+ * ignored and overwritten by the next one.
+ * <p>
+ * Observers receive a copy of the whole list after each mutation, which is only read while there
+ * are observers.
+ */
+abstract class RealPrimitiveListStore<A> {
+  private static final int BUFFER_SIZE = 64 * 1024;
+
+  private final ReentrantReadWriteLock readWriteLock = new ReentrantReadWriteLock();
+  private final PublishSubject<A> updateSubject = PublishSubject.create();
+
+  private final File file;
+  private final Class<?> componentType;
+  private final int elementSize;
+
+  /** Guarded by the write lock. */
+  private boolean closed;
+
+  RealPrimitiveListStore(File file, Class<?> componentType, int elementSize) {
+    this.file = file;
+    this.componentType = componentType;
+    this.elementSize = elementSize;
+  }
+
+  /**
+   * Decode count elements from source, which is little-endian, into destination from offset.
+   */
+  abstract void decode(ByteBuffer source, A destination, int offset, int count);
+
+  /**
+   * Encode count elements from offset of source into destination, which is little-endian.
+   */
+  abstract void encode(A source, int offset, int count, ByteBuffer destination);
+
+  @NonNull public Single<A> get() {
+    return Single.create(new SingleOnSubscribe<A>() {
+      @Override public void subscribe(final SingleEmitter<A> emitter) throws Exception {
+        runInReadLock(readWriteLock, new ThrowingRunnable() {
+          @Override public void run() throws Exception {
+            emitter.onSuccess(readAll());
+          }
+        });
+      }
+    });
+  }
+
+  @NonNull public A blockingGet() {
+    return get().blockingGet();
+  }
+
+  @NonNull public Single<Integer> size() {
+    return Single.create(new SingleOnSubscribe<Integer>() {
+      @Override public void subscribe(final SingleEmitter<Integer> emitter) throws Exception {
+        runInReadLock(readWriteLock, new ThrowingRunnable() {
+          @Override public void run() throws Exception {
+            emitter.onSuccess(readSize());
+          }
+        });
+      }
+    });
+  }
+
+  public int blockingSize() {
+    return size().blockingGet();
+  }
+
+  @NonNull public Single<A> observePut(@NonNull final A values) {
+    assertNotNull(values, "values");
+
+    return Single.create(new SingleOnSubscribe<A>() {
+      @Override public void subscribe(final SingleEmitter<A> emitter) throws Exception {
+        runInWriteLock(readWriteLock, new ThrowingRunnable() {
+          @Override public void run() throws Exception {
+            checkNotClosed();
+            A copy = copyOf(values, length(values));
+            writeAll(copy);
+            emitter.onSuccess(values);
+            updateSubject.onNext(copy);
+          }
+        });
+      }
+    });
+  }
+
+  public void put(@NonNull A values) {
+    put(values, Schedulers.io());
+  }
+
+  public void put(@NonNull A values, @NonNull Scheduler scheduler) {
+    assertNotNull(scheduler, "scheduler");
+    observePut(values).subscribeOn(scheduler).subscribe();
+  }
+
+  @NonNull public Observable<A> observe() {
+    return updateSubject.startWith(get().toObservable());
+  }
+
+  @NonNull public Single<A> observeClear() {
+    return Single.create(new SingleOnSubscribe<A>() {
+      @Override public void subscribe(final SingleEmitter<A> emitter) throws Exception {
+        runInWriteLock(readWriteLock, new ThrowingRunnable() {
+          @Override public void run() throws Exception {
+            checkNotClosed();
+
+            if (file.exists() && !file.delete()) {
+              throw new IOException("Clear operation on store failed.");
+            }
+
+            A empty = newArray(0);
+            emitter.onSuccess(empty);
+            updateSubject.onNext(empty);
+          }
+        });
+      }
+    });
+  }
+
+  public void clear() {
+    clear(Schedulers.io());
+  }
+
+  public void clear(@NonNull Scheduler scheduler) {
+    assertNotNull(scheduler, "scheduler");
+    observeClear().subscribeOn(scheduler).subscribe();
+  }
+
+  @NonNull public Completable observeAddAll(@NonNull final A values) {
+    assertNotNull(values, "values");
+
+    return Completable.create(new CompletableOnSubscribe() {
+      @Override public void subscribe(final CompletableEmitter emitter) throws Exception {
+        runInWriteLock(readWriteLock, new ThrowingRunnable() {
+          @Override public void run() throws Exception {
+            checkNotClosed();
+            append(values);
+            emitter.onComplete();
+            publish();
+          }
+        });
+      }
+    });
+  }
+
+  public void addAll(@NonNull A values) {
+    addAll(values, Schedulers.io());
+  }
+
+  public void addAll(@NonNull A values, @NonNull Scheduler scheduler) {
+    assertNotNull(scheduler, "scheduler");
+    observeAddAll(values).subscribeOn(scheduler).subscribe();
+  }
+
+  @NonNull public Single<A> observeRemove(final int position) {
+    return Single.create(new SingleOnSubscribe<A>() {
+      @Override public void subscribe(final SingleEmitter<A> emitter) throws Exception {
+        runInWriteLock(readWriteLock, new ThrowingRunnable() {
+          @Override public void run() throws Exception {
+            checkNotClosed();
+            A values = readAll();
+            int length = length(values);
+            checkPosition(position, length);
+
+            A result = newArray(length - 1);
+            System.arraycopy(values, 0, result, 0, position);
+            System.arraycopy(values, position + 1, result, position, length - position - 1);
+            writeAll(result);
+            emitter.onSuccess(result);
+            updateSubject.onNext(copyOf(result, length - 1));
+          }
+        });
+      }
+    });
+  }
+
+  public void remove(int position) {
+    remove(position, Schedulers.io());
+  }
+
+  public void remove(int position, @NonNull Scheduler scheduler) {
+    assertNotNull(scheduler, "scheduler");
+    observeRemove(position).subscribeOn(scheduler).subscribe();
+  }
+
+  public void close() {
+    runInWriteLock(readWriteLock, new ThrowingRunnable() {
+      @Override public void run() {
+        closed = true;
+        StoreRegistry.remove(file, RealPrimitiveListStore.this);
+        updateSubject.onComplete();
+      }
+    });
+  }
+
+  /**
+   * Read the element at position and convert it with function.
+   */
+  final <E> Single<E> getElement(final int position, final Function<ByteBuffer, E> function) {
+    return Single.create(new SingleOnSubscribe<E>() {
+      @Override public void subscribe(final SingleEmitter<E> emitter) throws Exception {
+        runInReadLock(readWriteLock, new ThrowingRunnable() {
+          @Override public void run() throws Exception {
+            checkPosition(position, readSize());
+            ByteBuffer buffer = newBuffer(elementSize);
+            RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r");
+
+            try {
+              readFully(randomAccessFile.getChannel(), buffer, (long) position * elementSize);
+            } finally {
+              randomAccessFile.close();
+            }
+
+            emitter.onSuccess(function.apply(buffer));
+          }
+        });
+      }
+    });
+  }
+
+  /**
+   * Overwrite the element at position with the single element encoded in value. Value is not
+   * consumed, so every subscription writes it.
+   */
+  final Completable setElement(final int position, final ByteBuffer value) {
+    return Completable.create(new CompletableOnSubscribe() {
+      @Override public void subscribe(final CompletableEmitter emitter) throws Exception {
+        runInWriteLock(readWriteLock, new ThrowingRunnable() {
+          @Override public void run() throws Exception {
+            checkNotClosed();
+            checkPosition(position, readSize());
+            RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw");
+
+            try {
+              writeFully(randomAccessFile.getChannel(), value.duplicate(),
+                  (long) position * elementSize);
+            } finally {
+              randomAccessFile.close();
+            }
+
+            emitter.onComplete();
+            publish();
+          }
+        });
+      }
+    });
+  }
+
+  /**
+   * Create a little-endian buffer of capacity bytes.
+   */
+  static ByteBuffer newBuffer(int capacity) {
+    return ByteBuffer.allocate(capacity).order(ByteOrder.LITTLE_ENDIAN);
+  }
+
+  private void publish() throws IOException {
+    // Reading the whole list is only worth it when somebody will receive it.
+    if (updateSubject.hasObservers()) updateSubject.onNext(readAll());
+  }
+
+  private void checkNotClosed() {
+    if (closed) throw new IllegalStateException("Store has been closed.");
+  }
+
+  private static void checkPosition(int position, int size) {
+    if (position < 0 || position >= size) {
+      throw new IndexOutOfBoundsException("Position " + position + " of list of size " + size);
+    }
+  }
+
+  private int readSize() {
+    return (int) (file.length() / elementSize);
+  }
+
+  private A readAll() throws IOException {
+    if (!file.exists()) return newArray(0);
+    RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r");
+
+    try {
+      FileChannel channel = randomAccessFile.getChannel();
+      int size = (int) (channel.size() / elementSize);
+      A values = newArray(size);
+      ByteBuffer buffer = newBuffer(Math.min(BUFFER_SIZE, size * elementSize));
+      int chunkSize = buffer.capacity() / elementSize;
+
+      for (int offset = 0; offset < size; offset += chunkSize) {
+        int count = Math.min(chunkSize, size - offset);
+        buffer.clear();
+        buffer.limit(count * elementSize);
+        readFully(channel, buffer, (long) offset * elementSize);
+        buffer.flip();
+        decode(buffer, values, offset, count);
+      }
+
+      return values;
+    } finally {
+      randomAccessFile.close();
+    }
+  }
+
+  private void append(A values) throws IOException {
+    int length = length(values);
+    if (length == 0) return;
+
+    RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw");
+
+    try {
+      FileChannel channel = randomAccessFile.getChannel();
+      // Start after the last whole element, dropping any partial one left by an earlier failure.
+      long end = channel.size() / elementSize * elementSize;
+      writeEncoded(channel, values, end);
+      long newEnd = end + (long) length * elementSize;
+      if (channel.size() > newEnd) channel.truncate(newEnd);
+    } finally {
+      randomAccessFile.close();
+    }
+  }
+
+  private void writeAll(A values) throws IOException {
+    File tmpFile = new File(file.getAbsolutePath() + ".tmp");
+    RandomAccessFile randomAccessFile = new RandomAccessFile(tmpFile, "rw");
+
+    try {
+      FileChannel channel = randomAccessFile.getChannel();
+      channel.truncate(0);
+      writeEncoded(channel, values, 0);
+    } finally {
+      randomAccessFile.close();
+    }
+
+    if ((file.exists() && !file.delete()) || !tmpFile.renameTo(file)) {
+      throw new IOException("Failed to write values to file.");
+    }
+  }
+
+  private void writeEncoded(FileChannel channel, A values, long position) throws IOException {
+    int length = length(values);
+    ByteBuffer buffer = newBuffer(Math.min(BUFFER_SIZE, length * elementSize));
+    int chunkSize = buffer.capacity() / elementSize;
+
+    for (int offset = 0; offset < length; offset += chunkSize) {
+      int count = Math.min(chunkSize, length - offset);
+      buffer.clear();
+      encode(values, offset, count, buffer);
+      // Encoding goes through a view of the buffer, which does not advance the buffer itself.
+      buffer.limit(count * elementSize);
+      writeFully(channel, buffer, position + (long) offset * elementSize);
+    }
+  }
+
+  @SuppressWarnings("unchecked") // Component type always matches A.
+  private A newArray(int length) {
+    return (A) Array.newInstance(componentType, length);
+  }
+
+  private A copyOf(A values, int length) {
+    A copy = newArray(length);
+    System.arraycopy(values, 0, copy, 0, length);
+    return copy;
+  }
+
+  private static int length(Object array) {
+    return Array.getLength(array);
+  }
+}
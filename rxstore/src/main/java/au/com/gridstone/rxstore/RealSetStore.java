@@ -0,0 +1,290 @@
+/*
+ * Copyright (C) GRIDSTONE 2017
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package au.com.gridstone.rxstore;
+
+import io.reactivex.Scheduler;
+import io.reactivex.Single;
+import io.reactivex.SingleEmitter;
+import io.reactivex.SingleOnSubscribe;
+import io.reactivex.annotations.NonNull;
+import io.reactivex.schedulers.Schedulers;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.lang.reflect.Type;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+import static au.com.gridstone.rxstore.Utils.assertNotNull;
+import static au.com.gridstone.rxstore.Utils.runInWriteLock;
+
+/**
+ * Values are kept in an {@link IndexedFile} keyed by the hash of each encoded value, in ascending
+ * hash order.
+ */
+final class RealSetStore<T> extends IndexedStore<T, Set<T>> implements SetStore<T> {
+  private static final int MAGIC = 0x52585354;
+
+  private static final Comparator<Member> BY_HASH = new Comparator<Member>() {
+    @Override public int compare(Member a, Member b) {
+      return a.hash < b.hash ? -1 : (a.hash == b.hash ? 0 : 1);
+    }
+  };
+
+  RealSetStore(@NonNull File file, @NonNull StreamConverter converter, @NonNull Type type) {
+    super(file, converter, type, MAGIC, true);
+  }
+
+  @Override Set<T> contents(IndexedFile indexedFile) throws IOException {
+    if (indexedFile.count == 0) return Collections.emptySet();
+    List<T> values = indexedFile.values(0, indexedFile.count, converter, type);
+    return Collections.unmodifiableSet(new LinkedHashSet<T>(values));
+  }
+
+  @Override Set<T> empty() {
+    return Collections.emptySet();
+  }
+
+  @Override @NonNull public Single<Boolean> contains(@NonNull final T value) {
+    assertNotNull(value, "value");
+
+    return read(new Read<Boolean>() {
+      @Override public Boolean read(IndexedFile indexedFile) throws IOException {
+        byte[] encoded = encode(value);
+        return indexOf(indexedFile, hash(encoded), encoded) >= 0;
+      }
+    });
+  }
+
+  @Override public boolean blockingContains(@NonNull T value) {
+    return contains(value).blockingGet();
+  }
+
+  @Override @NonNull public Single<Set<T>> observePut(@NonNull final Set<T> set) {
+    assertNotNull(set, "set");
+
+    return Single.create(new SingleOnSubscribe<Set<T>>() {
+      @Override public void subscribe(final SingleEmitter<Set<T>> emitter) throws Exception {
+        runInWriteLock(readWriteLock, new ThrowingRunnable() {
+          @Override public void run() throws Exception {
+            checkNotClosed();
+            Set<T> written = writeAll(set);
+            emitter.onSuccess(written);
+            updateSubject.onNext(written);
+          }
+        });
+      }
+    });
+  }
+
+  @Override public void put(@NonNull Set<T> set) {
+    put(set, Schedulers.io());
+  }
+
+  @Override public void put(@NonNull Set<T> set, @NonNull Scheduler scheduler) {
+    assertNotNull(scheduler, "scheduler");
+    observePut(set).subscribeOn(scheduler).subscribe();
+  }
+
+  @Override @NonNull public Single<Boolean> observeAdd(@NonNull final T value) {
+    assertNotNull(value, "value");
+
+    return mutate(new Mutation() {
+      @Override public boolean apply(IndexedFile indexedFile) throws IOException {
+        byte[] encoded = encode(value);
+        int hash = hash(encoded);
+        if (indexOf(indexedFile, hash, encoded) >= 0) return false;
+        indexedFile.splice(search(indexedFile, hash, true), 0, hash, encoded);
+        return true;
+      }
+    });
+  }
+
+  @Override public void add(@NonNull T value) {
+    add(value, Schedulers.io());
+  }
+
+  @Override public void add(@NonNull T value, @NonNull Scheduler scheduler) {
+    assertNotNull(scheduler, "scheduler");
+    observeAdd(value).subscribeOn(scheduler).subscribe();
+  }
+
+  @Override @NonNull public Single<Boolean> observeRemove(@NonNull final T value) {
+    assertNotNull(value, "value");
+
+    return mutate(new Mutation() {
+      @Override public boolean apply(IndexedFile indexedFile) throws IOException {
+        byte[] encoded = encode(value);
+        int position = indexOf(indexedFile, hash(encoded), encoded);
+        if (position < 0) return false;
+        indexedFile.splice(position, 1, 0, null);
+        return true;
+      }
+    });
+  }
+
+  @Override public void remove(@NonNull T value) {
+    remove(value, Schedulers.io());
+  }
+
+  @Override public void remove(@NonNull T value, @NonNull Scheduler scheduler) {
+    assertNotNull(scheduler, "scheduler");
+    observeRemove(value).subscribeOn(scheduler).subscribe();
+  }
+
+  private Single<Boolean> mutate(final Mutation mutation) {
+    return Single.create(new SingleOnSubscribe<Boolean>() {
+      @Override public void subscribe(final SingleEmitter<Boolean> emitter) throws Exception {
+        runInWriteLock(readWriteLock, new ThrowingRunnable() {
+          @Override public void run() throws Exception {
+            checkNotClosed();
+            IndexedFile indexedFile = open();
+            boolean changed;
+
+            try {
+              changed = mutation.apply(indexedFile);
+            } finally {
+              indexedFile.close();
+            }
+
+            emitter.onSuccess(changed);
+            if (changed) publish();
+          }
+        });
+      }
+    });
+  }
+
+  /**
+   * Write every distinct value in set, in hash order, and return the values written in that order.
+   */
+  private Set<T> writeAll(Set<T> set) throws IOException {
+    List<Member> members = new ArrayList<Member>(set.size());
+
+    for (T value : set) {
+      byte[] encoded = encode(value);
+      members.add(new Member(hash(encoded), encoded, value));
+    }
+
+    // The sort is stable, so values keep the set's iteration order within a hash.
+    Collections.sort(members, BY_HASH);
+    List<Member> distinct = new ArrayList<Member>(members.size());
+    int hashStart = 0;
+
+    for (Member member : members) {
+      if (!distinct.isEmpty() && distinct.get(distinct.size() - 1).hash != member.hash) {
+        hashStart = distinct.size();
+      }
+
+      boolean duplicate = false;
+
+      for (int i = hashStart; i < distinct.size() && !duplicate; i++) {
+        duplicate = Arrays.equals(distinct.get(i).encoded, member.encoded);
+      }
+
+      if (!duplicate) distinct.add(member);
+    }
+
+    int count = distinct.size();
+    int[] hashes = new int[count];
+    long[] ends = new long[count];
+    ByteArrayOutputStream values = new ByteArrayOutputStream();
+    Set<T> written = new LinkedHashSet<T>(count);
+
+    for (int i = 0; i < count; i++) {
+      Member member = distinct.get(i);
+      values.write(member.encoded);
+      hashes[i] = member.hash;
+      ends[i] = values.size();
+      written.add(this.<T>cast(member.value));
+    }
+
+    IndexedFile.write(file, MAGIC, hashes, ends, values.toByteArray());
+    return Collections.unmodifiableSet(written);
+  }
+
+  @SuppressWarnings("unchecked") // Members are only created from values of this store's type.
+  private <V> V cast(Object value) {
+    return (V) value;
+  }
+
+  private static int hash(byte[] encoded) {
+    return Arrays.hashCode(encoded);
+  }
+
+  /**
+   * Binary search for the first position whose hash is greater than hash, or greater than or
+   * equal to it if inclusive is false.
+   */
+  private static int search(IndexedFile indexedFile, int hash, boolean inclusive) {
+    int[] hashes = indexedFile.keys;
+    int low = 0;
+    int high = indexedFile.count;
+
+    while (low < high) {
+      int middle = (low + high) >>> 1;
+
+      if (hashes[middle] < hash || (inclusive && hashes[middle] == hash)) {
+        low = middle + 1;
+      } else {
+        high = middle;
+      }
+    }
+
+    return low;
+  }
+
+  /**
+   * Find the position of the value encoded as encoded, or -1 if this set does not hold it. Only
+   * values with the same hash and length are read, and none are decoded.
+   */
+  private static int indexOf(IndexedFile indexedFile, int hash, byte[] encoded)
+      throws IOException {
+    int end = search(indexedFile, hash, true);
+
+    for (int i = search(indexedFile, hash, false); i < end; i++) {
+      long length = indexedFile.ends[i] - indexedFile.start(i);
+      if (length == encoded.length && Arrays.equals(indexedFile.bytes(i), encoded)) return i;
+    }
+
+    return -1;
+  }
+
+  private interface Mutation {
+    /**
+     * Change the file if needed, returning whether it was changed.
+     */
+    boolean apply(IndexedFile indexedFile) throws IOException;
+  }
+
+  private static final class Member {
+    final int hash;
+    final byte[] encoded;
+    final Object value;
+
+    Member(int hash, byte[] encoded, Object value) {
+      this.hash = hash;
+      this.encoded = encoded;
+      this.value = value;
+    }
+  }
+}
@@ -0,0 +1,239 @@
+/*
+ * Copyright (C) GRIDSTONE 2017
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package au.com.gridstone.rxstore;
+
+import io.reactivex.Completable;
+import io.reactivex.CompletableEmitter;
+import io.reactivex.CompletableOnSubscribe;
+import io.reactivex.Scheduler;
+import io.reactivex.Single;
+import io.reactivex.SingleEmitter;
+import io.reactivex.SingleOnSubscribe;
+import io.reactivex.annotations.NonNull;
+import io.reactivex.schedulers.Schedulers;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.lang.reflect.Type;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+import static au.com.gridstone.rxstore.Utils.assertNotNull;
+import static au.com.gridstone.rxstore.Utils.runInWriteLock;
+
+/**
+ * Values are kept in an unkeyed {@link IndexedFile} in comparator order.
+ */
+final class RealSortedListStore<T> extends IndexedStore<T, List<T>>
+    implements SortedListStore<T> {
+  private static final int MAGIC = 0x52585353;
+
+  private final Comparator<? super T> comparator;
+
+  RealSortedListStore(@NonNull File file, @NonNull StreamConverter converter, @NonNull Type type,
+      @NonNull Comparator<? super T> comparator) {
+    super(file, converter, type, MAGIC, false);
+    assertNotNull(comparator, "comparator");
+    this.comparator = comparator;
+  }
+
+  @Override List<T> contents(IndexedFile indexedFile) throws IOException {
+    return indexedFile.values(0, indexedFile.count, converter, type);
+  }
+
+  @Override List<T> empty() {
+    return Collections.emptyList();
+  }
+
+  @Override @NonNull public Single<List<T>> between(@NonNull final T from, @NonNull final T to) {
+    assertNotNull(from, "from");
+    assertNotNull(to, "to");
+
+    return read(new Read<List<T>>() {
+      @Override public List<T> read(IndexedFile indexedFile) throws IOException {
+        int start = search(indexedFile, from, false);
+        int end = Math.max(start, search(indexedFile, to, true));
+        return indexedFile.values(start, end, converter, type);
+      }
+    });
+  }
+
+  @Override @NonNull public Single<List<T>> head(final int count) {
+    checkCount(count);
+
+    return read(new Read<List<T>>() {
+      @Override public List<T> read(IndexedFile indexedFile) throws IOException {
+        return indexedFile.values(0, Math.min(count, indexedFile.count), converter, type);
+      }
+    });
+  }
+
+  @Override @NonNull public Single<List<T>> tail(final int count) {
+    checkCount(count);
+
+    return read(new Read<List<T>>() {
+      @Override public List<T> read(IndexedFile indexedFile) throws IOException {
+        int start = Math.max(0, indexedFile.count - count);
+        return indexedFile.values(start, indexedFile.count, converter, type);
+      }
+    });
+  }
+
+  @Override @NonNull public Single<List<T>> observePut(@NonNull final List<T> list) {
+    assertNotNull(list, "list");
+
+    return Single.create(new SingleOnSubscribe<List<T>>() {
+      @Override public void subscribe(final SingleEmitter<List<T>> emitter) throws Exception {
+        runInWriteLock(readWriteLock, new ThrowingRunnable() {
+          @Override public void run() throws Exception {
+            checkNotClosed();
+            List<T> sorted = new ArrayList<T>(list);
+            Collections.sort(sorted, comparator);
+            writeAll(sorted);
+            emitter.onSuccess(sorted);
+            updateSubject.onNext(Collections.unmodifiableList(new ArrayList<T>(sorted)));
+          }
+        });
+      }
+    });
+  }
+
+  @Override public void put(@NonNull List<T> list) {
+    put(list, Schedulers.io());
+  }
+
+  @Override public void put(@NonNull List<T> list, @NonNull Scheduler scheduler) {
+    assertNotNull(scheduler, "scheduler");
+    observePut(list).subscribeOn(scheduler).subscribe();
+  }
+
+  @Override @NonNull public Completable observeAdd(@NonNull final T value) {
+    assertNotNull(value, "value");
+
+    return Completable.create(new CompletableOnSubscribe() {
+      @Override public void subscribe(final CompletableEmitter emitter) throws Exception {
+        runInWriteLock(readWriteLock, new ThrowingRunnable() {
+          @Override public void run() throws Exception {
+            checkNotClosed();
+            IndexedFile indexedFile = open();
+
+            try {
+              indexedFile.splice(search(indexedFile, value, true), 0, 0, encode(value));
+            } finally {
+              indexedFile.close();
+            }
+
+            emitter.onComplete();
+            publish();
+          }
+        });
+      }
+    });
+  }
+
+  @Override public void add(@NonNull T value) {
+    add(value, Schedulers.io());
+  }
+
+  @Override public void add(@NonNull T value, @NonNull Scheduler scheduler) {
+    assertNotNull(scheduler, "scheduler");
+    observeAdd(value).subscribeOn(scheduler).subscribe();
+  }
+
+  @Override @NonNull public Single<Boolean> observeRemove(@NonNull final T value) {
+    assertNotNull(value, "value");
+
+    return Single.create(new SingleOnSubscribe<Boolean>() {
+      @Override public void subscribe(final SingleEmitter<Boolean> emitter) throws Exception {
+        runInWriteLock(readWriteLock, new ThrowingRunnable() {
+          @Override public void run() throws Exception {
+            checkNotClosed();
+            IndexedFile indexedFile = open();
+            boolean removed = false;
+
+            try {
+              int end = search(indexedFile, value, true);
+
+              for (int i = search(indexedFile, value, false); i < end && !removed; i++) {
+                if (value.equals(indexedFile.value(i, converter, type))) {
+                  indexedFile.splice(i, 1, 0, null);
+                  removed = true;
+                }
+              }
+            } finally {
+              indexedFile.close();
+            }
+
+            emitter.onSuccess(removed);
+            if (removed) publish();
+          }
+        });
+      }
+    });
+  }
+
+  @Override public void remove(@NonNull T value) {
+    remove(value, Schedulers.io());
+  }
+
+  @Override public void remove(@NonNull T value, @NonNull Scheduler scheduler) {
+    assertNotNull(scheduler, "scheduler");
+    observeRemove(value).subscribeOn(scheduler).subscribe();
+  }
+
+  /**
+   * Binary search for the first position whose value is greater than value, or greater than or
+   * equal to it if inclusive is false.
+   */
+  private int search(IndexedFile indexedFile, T value, boolean inclusive) throws IOException {
+    int low = 0;
+    int high = indexedFile.count;
+
+    while (low < high) {
+      int middle = (low + high) >>> 1;
+      T current = indexedFile.value(middle, converter, type);
+      int comparison = comparator.compare(current, value);
+
+      if (comparison < 0 || (inclusive && comparison == 0)) {
+        low = middle + 1;
+      } else {
+        high = middle;
+      }
+    }
+
+    return low;
+  }
+
+  private void writeAll(List<T> sorted) throws IOException {
+    int count = sorted.size();
+    ByteArrayOutputStream values = new ByteArrayOutputStream();
+    long[] ends = new long[count];
+
+    for (int i = 0; i < count; i++) {
+      converter.write(sorted.get(i), type, values);
+      ends[i] = values.size();
+    }
+
+    IndexedFile.write(file, MAGIC, null, ends, values.toByteArray());
+  }
+
+  private static void checkCount(int count) {
+    if (count < 0) throw new IllegalArgumentException("count must not be negative.");
+  }
+}
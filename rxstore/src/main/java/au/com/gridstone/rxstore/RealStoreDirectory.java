@@ -0,0 +1,235 @@
+/*
+ * Copyright (C) GRIDSTONE 2017
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package au.com.gridstone.rxstore;
+
+import io.reactivex.Completable;
+import io.reactivex.CompletableEmitter;
+import io.reactivex.CompletableOnSubscribe;
+import io.reactivex.Scheduler;
+import io.reactivex.Single;
+import io.reactivex.SingleEmitter;
+import io.reactivex.SingleOnSubscribe;
+import io.reactivex.annotations.NonNull;
+import io.reactivex.schedulers.Schedulers;
+import java.io.File;
+import java.io.UnsupportedEncodingException;
+import java.lang.reflect.Type;
+import java.net.URLDecoder;
+import java.net.URLEncoder;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static au.com.gridstone.rxstore.Utils.assertNotNull;
+
+final class RealStoreDirectory<T> implements StoreDirectory<T> {
+  private final File directory;
+  private final Converter converter;
+  private final Type type;
+  private final StoreOptions options;
+
+  /** Recently used stores in access order, guarded by this. */
+  private final Map<String, RealValueStore<T>> liveStores;
+
+  RealStoreDirectory(@NonNull File directory, @NonNull Converter converter, @NonNull Type type,
+      int maxLiveStores, @NonNull StoreOptions options) {
+    assertNotNull(directory, "directory");
+    assertNotNull(converter, "converter");
+    assertNotNull(type, "type");
+    assertNotNull(options, "options");
+
+    if (maxLiveStores < 1) {
+      throw new IllegalArgumentException("maxLiveStores must be at least 1.");
+    }
+
+    this.directory = StoreRegistry.canonicalFile(directory);
+    this.converter = converter;
+    this.type = type;
+    this.options = options;
+
+    liveStores = new LiveStores<T>(maxLiveStores, options.writeBehind());
+  }
+
+  @Override @NonNull public ValueStore<T> store(@NonNull String key) {
+    final String fileName = fileName(key);
+
+    synchronized (this) {
+      RealValueStore<T> store = liveStores.get(key);
+      if (store != null && !store.isClosed()) return store;
+
+      if (!directory.exists() && !directory.mkdirs()) {
+        throw new IllegalStateException("Could not create directory " + directory + ".");
+      }
+
+      store = StoreRegistry.obtain(new File(directory, fileName), RealValueStore.class, type,
+          Arrays.asList(converter, options), new StoreRegistry.Factory<RealValueStore<T>>() {
+            @Override public RealValueStore<T> create(File canonicalFile) {
+              return new RealValueStore<T>(canonicalFile, converter, type, options);
+            }
+          });
+
+      liveStores.put(key, store);
+      return store;
+    }
+  }
+
+  @Override @NonNull public Single<List<String>> keys() {
+    return Single.create(new SingleOnSubscribe<List<String>>() {
+      @Override public void subscribe(SingleEmitter<List<String>> emitter) throws Exception {
+        String[] fileNames = directory.list();
+
+        if (fileNames == null) {
+          emitter.onSuccess(Collections.<String>emptyList());
+          return;
+        }
+
+        List<String> keys = new ArrayList<String>(fileNames.length);
+
+        for (String fileName : fileNames) {
+          if (isKeyFile(fileName)) keys.add(URLDecoder.decode(fileName, "UTF-8"));
+        }
+
+        Collections.sort(keys);
+        emitter.onSuccess(keys);
+      }
+    });
+  }
+
+  @Override @NonNull public List<String> blockingKeys() {
+    return keys().blockingGet();
+  }
+
+  @Override @NonNull public Completable observeDelete(@NonNull final Collection<String> keys) {
+    assertNotNull(keys, "keys");
+
+    return Completable.create(new CompletableOnSubscribe() {
+      @Override public void subscribe(CompletableEmitter emitter) throws Exception {
+        Set<String> fileNames = new HashSet<String>(keys.size());
+        List<RealValueStore<T>> stores = new ArrayList<RealValueStore<T>>();
+
+        synchronized (RealStoreDirectory.this) {
+          for (String key : keys) {
+            fileNames.add(fileName(key));
+            RealValueStore<T> store = liveStores.get(key);
+            if (store != null && !store.isClosed()) stores.add(store);
+          }
+        }
+
+        // Clear live stores through their locks, which also covers values only held in memory.
+        for (RealValueStore<T> store : stores) {
+          store.observeClear().blockingAwait();
+        }
+
+        String[] presentFileNames = directory.list();
+
+        if (presentFileNames != null) {
+          for (String fileName : presentFileNames) {
+            if (!fileNames.contains(fileName)) continue;
+
+            Object store = StoreRegistry.deleteUnlessOpen(new File(directory, fileName));
+
+            if (store instanceof ValueStore) {
+              ((ValueStore<?>) store).observeClear().blockingAwait();
+            } else if (store != null) {
+              throw new IllegalStateException("A store of a different kind is open for "
+                  + fileName + ".");
+            }
+          }
+        }
+
+        emitter.onComplete();
+      }
+    });
+  }
+
+  @Override public void delete(@NonNull Collection<String> keys) {
+    delete(keys, Schedulers.io());
+  }
+
+  @Override public void delete(@NonNull Collection<String> keys, @NonNull Scheduler scheduler) {
+    assertNotNull(scheduler, "scheduler");
+    observeDelete(keys).subscribeOn(scheduler).subscribe();
+  }
+
+  @Override public void flush() {
+    for (RealValueStore<T> store : snapshotLiveStores(false)) {
+      store.flush();
+    }
+  }
+
+  @Override public void close() {
+    for (RealValueStore<T> store : snapshotLiveStores(true)) {
+      if (!store.isClosed()) store.close();
+    }
+  }
+
+  private synchronized List<RealValueStore<T>> snapshotLiveStores(boolean clear) {
+    List<RealValueStore<T>> stores = new ArrayList<RealValueStore<T>>(liveStores.values());
+    if (clear) liveStores.clear();
+    return stores;
+  }
+
+  /**
+   * Keys are URL encoded, with dots escaped as well. That keeps "." and ".." from being treated as
+   * paths, and means a key never collides with a store's temporary or other sidecar files.
+   */
+  private static String fileName(String key) {
+    assertNotNull(key, "key");
+    if (key.length() == 0) throw new IllegalArgumentException("key must not be empty.");
+
+    try {
+      return URLEncoder.encode(key, "UTF-8").replace(".", "%2E").replace("*", "%2A");
+    } catch (UnsupportedEncodingException e) {
+      throw new AssertionError(e); // Every Java platform is required to support UTF-8.
+    }
+  }
+
+  private static boolean isKeyFile(String fileName) {
+    return fileName.indexOf('.') == -1;
+  }
+
+  /**
+   * Live stores in access order, evicting the least recently used once there are more than
+   * maxLiveStores.
+   */
+  private static final class LiveStores<T> extends LinkedHashMap<String, RealValueStore<T>> {
+    private static final long serialVersionUID = 1L;
+
+    private final int maxLiveStores;
+    private final boolean writeBehind;
+
+    LiveStores(int maxLiveStores, boolean writeBehind) {
+      super(16, 0.75f, true);
+      this.maxLiveStores = maxLiveStores;
+      this.writeBehind = writeBehind;
+    }
+
+    @Override protected boolean removeEldestEntry(Map.Entry<String, RealValueStore<T>> eldest) {
+      if (size() <= maxLiveStores) return false;
+
+      // Whatever the evicted store holds in memory must reach disk before it can be collected.
+      if (writeBehind) eldest.getValue().observeFlush().subscribeOn(Schedulers.io()).subscribe();
+      return true;
+    }
+  }
+}
@@ -37,26 +37,40 @@ import java.io.IOException;
 import java.lang.reflect.Type;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
 
-import static au.com.gridstone.rxstore.Utils.converterWrite;
 import static au.com.gridstone.rxstore.Utils.runInReadLock;
 import static au.com.gridstone.rxstore.Utils.runInWriteLock;
 import static au.com.gridstone.rxstore.Utils.assertNotNull;
 
-final class RealValueStore<T> implements ValueStore<T> {
-  private final ReentrantReadWriteLock readWriteLock = new ReentrantReadWriteLock();
+final class RealValueStore<T> implements ValueStore<T>, TransactionParticipant {
+  private final ReentrantReadWriteLock readWriteLock;
   private final PublishSubject<ValueUpdate<T>> updateSubject = PublishSubject.create();
 
   private final File file;
-  private final Converter converter;
-  private final Type type;
+  private final StoreFile storeFile;
+  private final boolean watchExternalChanges;
 
-  RealValueStore(@NonNull File file, @NonNull Converter converter, @NonNull Type type) {
+  RealValueStore(@NonNull File file, @NonNull Converter converter, @NonNull Type type,
+      @NonNull StoreOptions options) {
     assertNotNull(file, "file");
     assertNotNull(converter, "converter");
     assertNotNull(type, "type");
+    assertNotNull(options, "options");
+
+    if (options.journal()) {
+      throw new IllegalArgumentException("Journaling is only supported by ListStore.");
+    }
+
+    if (options.cacheEncoded()) {
+      throw new IllegalArgumentException("Caching encoded lists is only supported by ListStore.");
+    }
+
     this.file = file;
-    this.converter = converter;
-    this.type = type;
+    this.storeFile = new StoreFile(file, converter, type, options);
+    this.readWriteLock = options.lockAcrossProcesses()
+        ? new FileReadWriteLock(new File(file.getAbsolutePath() + ".lock"))
+        : new ReentrantReadWriteLock();
+    this.watchExternalChanges = options.watchExternalChanges();
+    storeFile.runOnExpiry(Expiry.clearTask(this));
   }
 
   @Override @NonNull public Maybe<T> get() {
@@ -64,14 +78,13 @@ final class RealValueStore<T> implements ValueStore<T> {
       @Override public void subscribe(final MaybeEmitter<T> emitter) throws Exception {
         runInReadLock(readWriteLock, new ThrowingRunnable() {
           @Override public void run() throws Exception {
-            if (!file.exists()) {
+            T value = storeFile.read();
+
+            if (value == null) {
               emitter.onComplete();
-              return;
+            } else {
+              emitter.onSuccess(value);
             }
-
-            T value = converter.read(file, type);
-            if (value == null) emitter.onComplete();
-            emitter.onSuccess(value);
           }
         });
       }
@@ -89,13 +102,9 @@ final class RealValueStore<T> implements ValueStore<T> {
       @Override public void subscribe(final SingleEmitter<T> emitter) throws Exception {
         runInWriteLock(readWriteLock, new ThrowingRunnable() {
           @Override public void run() throws Exception {
-            if (!file.exists() && !file.createNewFile()) {
-              throw new IOException("Could not create file for store.");
-            }
-
-            converterWrite(value, converter, type, file);
+            boolean written = storeFile.write(value);
             emitter.onSuccess(value);
-            updateSubject.onNext(new ValueUpdate<T>(value));
+            if (written) updateSubject.onNext(new ValueUpdate<T>(value));
           }
         });
       }
@@ -121,7 +130,8 @@ final class RealValueStore<T> implements ValueStore<T> {
         .defaultIfEmpty(ValueUpdate.<T>empty())
         .toObservable();
 
-    return updateSubject.startWith(startingValue);
+    Observable<ValueUpdate<T>> updates = updateSubject.startWith(startingValue);
+    return watchExternalChanges ? FileWatcher.watching(this, updates) : updates;
   }
 
   @Override @NonNull public Completable observeClear() {
@@ -129,7 +139,7 @@ final class RealValueStore<T> implements ValueStore<T> {
       @Override public void subscribe(final CompletableEmitter emitter) throws Exception {
         runInWriteLock(readWriteLock, new ThrowingRunnable() {
           @Override public void run() throws Exception {
-            if (file.exists() && !file.delete()) {
+            if (!storeFile.delete()) {
               throw new IOException("Clear operation on store failed.");
             } else {
               emitter.onComplete();
@@ -150,4 +160,70 @@ final class RealValueStore<T> implements ValueStore<T> {
     assertNotNull(scheduler, "scheduler");
     observeClear().subscribeOn(scheduler).subscribe();
   }
+
+  boolean isClosed() {
+    return storeFile.isClosed();
+  }
+
+  @Override public File file() {
+    return file;
+  }
+
+  @Override public ReentrantReadWriteLock readWriteLock() {
+    return readWriteLock;
+  }
+
+  @Override public StoreFile storeFile() {
+    return storeFile;
+  }
+
+  @Override public boolean supportsTransactions() {
+    return storeFile.supportsTransactions();
+  }
+
+  @Override public boolean supportsSnapshots() {
+    return true;
+  }
+
+  @Override @Nullable public Object readContents() {
+    return storeFile.read();
+  }
+
+  @SuppressWarnings("unchecked") // Contents always have the store's own type.
+  @Override public void publish(@Nullable Object contents) {
+    updateSubject.onNext(contents == null
+        ? ValueUpdate.<T>empty()
+        : new ValueUpdate<T>((T) contents));
+  }
+
+  @Override @NonNull public Completable observeFlush() {
+    return Completable.create(new CompletableOnSubscribe() {
+      @Override public void subscribe(CompletableEmitter emitter) throws Exception {
+        storeFile.flush();
+        emitter.onComplete();
+      }
+    });
+  }
+
+  @Override public void flush() {
+    observeFlush().blockingAwait();
+  }
+
+  @Override public void close() {
+    runInWriteLock(readWriteLock, new ThrowingRunnable() {
+      @Override public void run() throws Exception {
+        try {
+          storeFile.close();
+        } finally {
+          // Even if the final flush failed, this store is closed and must not be handed out again.
+          StoreRegistry.remove(file, RealValueStore.this);
+          updateSubject.onComplete();
+
+          if (readWriteLock instanceof FileReadWriteLock) {
+            ((FileReadWriteLock) readWriteLock).close();
+          }
+        }
+      }
+    });
+  }
 }
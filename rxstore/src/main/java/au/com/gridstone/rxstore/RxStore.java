@@ -16,9 +16,20 @@
 
 package au.com.gridstone.rxstore;
 
+import io.reactivex.Scheduler;
+import io.reactivex.Single;
 import io.reactivex.annotations.NonNull;
+import io.reactivex.schedulers.Schedulers;
 import java.io.File;
+import java.io.IOException;
 import java.lang.reflect.Type;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.concurrent.Callable;
+import java.util.concurrent.TimeUnit;
+
+import static au.com.gridstone.rxstore.Utils.assertNotNull;
 
 /**
  * Facilitates the read and write of objects to and from disk using RxJava and observing changes
@@ -26,7 +37,31 @@ import java.lang.reflect.Type;
  * <p>
  * To create a store for a single object use {@link #value(File, Converter, Type)}.
  * <p>
- * For {@code Lists} of objects use {@link #list(File, Converter, Type)}.
+ * For {@code Lists} of objects use {@link #list(File, Converter, Type)}, or {@link
+ * #sortedList(File, StreamConverter, Type, Comparator)} to keep them in order. A {@link
+ * #set(File, StreamConverter, Type)} holds distinct values and checks membership without decoding
+ * them.
+ * <p>
+ * To store one value per key, each in its own file within a directory, use {@link
+ * #directory(File, Converter, Type)}. To hold many small values inside a single file use {@link
+ * #packed(File, StreamConverter, Type)}.
+ * <p>
+ * Lists of {@code int}, {@code long} or {@code double} values can be stored without boxing or a
+ * converter using {@link #intList(File)}, {@link #longList(File)} and {@link #doubleList(File)}.
+ * Raw bytes, such as images, are best kept in a {@link #blob(File)} store.
+ * <p>
+ * The contents of a {@link ListStore} can be imported from or exported to newline-delimited
+ * records, such as NDJSON, using {@link Ndjson}. Consistent backups of several stores can be taken
+ * while they are in use with {@link #snapshot()}.
+ * <p>
+ * Value, list and directory stores accept {@link StoreOptions} to enable optional behaviour.
+ * <p>
+ * Only one store is open for a given file at a time. Asking for a store on a file that already has
+ * an open store returns that same store, so that every caller shares its lock and observers. The
+ * converter and options given when the store was first opened remain in effect until it is {@link
+ * ValueStore#close() closed}, and closing the store closes it for every caller. Asking for a
+ * different kind of store, a store of a different type, or a store with a different converter or
+ * options on a file that already has an open store throws an {@link IllegalStateException}.
  */
 public class RxStore {
   private RxStore() {
@@ -38,7 +73,24 @@ public class RxStore {
    */
   public static <T> ValueStore<T> value(@NonNull File file, @NonNull Converter converter, @NonNull
       Type type) {
-    return new RealValueStore<T>(file, converter, type);
+    return value(file, converter, type, StoreOptions.DEFAULT);
+  }
+
+  /**
+   * Create a new {@link ValueStore} that is capable of persisting a single object to disk, with
+   * optional behaviour configured by options.
+   */
+  public static <T> ValueStore<T> value(@NonNull File file, @NonNull final Converter converter,
+      @NonNull final Type type, @NonNull final StoreOptions options) {
+    assertNotNull(file, "file");
+    assertNotNull(type, "type");
+
+    return StoreRegistry.obtain(file, RealValueStore.class, type, Arrays.asList(converter, options),
+        new StoreRegistry.Factory<RealValueStore<T>>() {
+          @Override public RealValueStore<T> create(File canonicalFile) {
+            return new RealValueStore<T>(canonicalFile, converter, type, options);
+          }
+        });
   }
 
   /**
@@ -46,6 +98,205 @@ public class RxStore {
    */
   public static <T> ListStore<T> list(@NonNull File file, @NonNull Converter converter,
       @NonNull Type type) {
-    return new RealListStore<T>(file, converter, type);
+    return list(file, converter, type, StoreOptions.DEFAULT);
+  }
+
+  /**
+   * Create a new {@link ListStore} that is capable of persisting many objects to disk, with
+   * optional behaviour configured by options.
+   */
+  public static <T> ListStore<T> list(@NonNull File file, @NonNull final Converter converter,
+      @NonNull final Type type, @NonNull final StoreOptions options) {
+    assertNotNull(file, "file");
+    assertNotNull(type, "type");
+
+    return StoreRegistry.obtain(file, RealListStore.class, type, Arrays.asList(converter, options),
+        new StoreRegistry.Factory<RealListStore<T>>() {
+          @Override public RealListStore<T> create(File canonicalFile) {
+            return new RealListStore<T>(canonicalFile, converter, type, options);
+          }
+        });
+  }
+
+  /**
+   * Create a new {@link PackedStore} that holds many named values of a single type inside file.
+   */
+  public static <T> PackedStore<T> packed(@NonNull File file,
+      @NonNull final StreamConverter converter, @NonNull final Type type) {
+    assertNotNull(file, "file");
+    assertNotNull(type, "type");
+
+    return StoreRegistry.obtain(file, RealPackedStore.class, type, Arrays.asList(converter),
+        new StoreRegistry.Factory<RealPackedStore<T>>() {
+          @Override public RealPackedStore<T> create(File canonicalFile) {
+            return new RealPackedStore<T>(canonicalFile, converter, type);
+          }
+        });
+  }
+
+  /**
+   * Create a new {@link SortedListStore} that keeps a list of values of type in file, in the order
+   * given by comparator.
+   */
+  public static <T> SortedListStore<T> sortedList(@NonNull File file,
+      @NonNull final StreamConverter converter, @NonNull final Type type,
+      @NonNull final Comparator<? super T> comparator) {
+    assertNotNull(file, "file");
+    assertNotNull(type, "type");
+
+    return StoreRegistry.obtain(file, RealSortedListStore.class, type,
+        Arrays.asList(converter, comparator),
+        new StoreRegistry.Factory<RealSortedListStore<T>>() {
+          @Override public RealSortedListStore<T> create(File canonicalFile) {
+            return new RealSortedListStore<T>(canonicalFile, converter, type, comparator);
+          }
+        });
+  }
+
+  /**
+   * Create a new {@link SetStore} that keeps a set of distinct values of type in file.
+   */
+  public static <T> SetStore<T> set(@NonNull File file, @NonNull final StreamConverter converter,
+      @NonNull final Type type) {
+    assertNotNull(file, "file");
+    assertNotNull(type, "type");
+
+    return StoreRegistry.obtain(file, RealSetStore.class, type, Arrays.asList(converter),
+        new StoreRegistry.Factory<RealSetStore<T>>() {
+          @Override public RealSetStore<T> create(File canonicalFile) {
+            return new RealSetStore<T>(canonicalFile, converter, type);
+          }
+        });
+  }
+
+  /**
+   * Create a new {@link BlobStore} that holds raw bytes in file.
+   */
+  @NonNull public static BlobStore blob(@NonNull File file) {
+    assertNotNull(file, "file");
+
+    return StoreRegistry.obtain(file, RealBlobStore.class, byte[].class, Collections.emptyList(),
+        new StoreRegistry.Factory<RealBlobStore>() {
+          @Override public RealBlobStore create(File canonicalFile) {
+            return new RealBlobStore(canonicalFile);
+          }
+        });
+  }
+
+  /**
+   * Create a new {@link IntListStore} that holds a list of {@code int} values in file.
+   */
+  @NonNull public static IntListStore intList(@NonNull File file) {
+    assertNotNull(file, "file");
+
+    return StoreRegistry.obtain(file, RealIntListStore.class, int.class, Collections.emptyList(),
+        new StoreRegistry.Factory<RealIntListStore>() {
+          @Override public RealIntListStore create(File canonicalFile) {
+            return new RealIntListStore(canonicalFile);
+          }
+        });
+  }
+
+  /**
+   * Create a new {@link LongListStore} that holds a list of {@code long} values in file.
+   */
+  @NonNull public static LongListStore longList(@NonNull File file) {
+    assertNotNull(file, "file");
+
+    return StoreRegistry.obtain(file, RealLongListStore.class, long.class, Collections.emptyList(),
+        new StoreRegistry.Factory<RealLongListStore>() {
+          @Override public RealLongListStore create(File canonicalFile) {
+            return new RealLongListStore(canonicalFile);
+          }
+        });
+  }
+
+  /**
+   * Create a new {@link DoubleListStore} that holds a list of {@code double} values in file.
+   */
+  @NonNull public static DoubleListStore doubleList(@NonNull File file) {
+    assertNotNull(file, "file");
+
+    return StoreRegistry.obtain(file, RealDoubleListStore.class, double.class,
+        Collections.emptyList(),
+        new StoreRegistry.Factory<RealDoubleListStore>() {
+          @Override public RealDoubleListStore create(File canonicalFile) {
+            return new RealDoubleListStore(canonicalFile);
+          }
+        });
+  }
+
+  /**
+   * Begin a {@link Transaction} that changes several stores atomically, using journal to record
+   * each commit. If a previous commit using journal was interrupted it is completed first, so call
+   * this at startup before reading any stores that take part in transactions.
+   */
+  @NonNull public static Transaction transaction(@NonNull File journal) {
+    assertNotNull(journal, "journal");
+
+    try {
+      Transaction.recover(journal);
+    } catch (IOException e) {
+      throw new RuntimeException(e);
+    }
+
+    return new Transaction(journal);
+  }
+
+  /**
+   * Begin a {@link Snapshot} that copies one or more stores as they stand at a single moment,
+   * without blocking writers while the copy is made.
+   */
+  @NonNull public static Snapshot snapshot() {
+    return new Snapshot();
+  }
+
+  /**
+   * Delete the file of every store in directory whose contents have expired, reclaiming their
+   * space, and emit how many were deleted. Stores that are open are skipped, since they delete
+   * their own contents when they expire. See {@link StoreOptions.Builder#expireAfterWrite}.
+   * <p>
+   * The current time is read from {@link Schedulers#computation()}, the clock used by stores that
+   * expire on the default scheduler.
+   */
+  @NonNull public static Single<Integer> sweep(@NonNull File directory) {
+    return sweep(directory, Schedulers.computation());
+  }
+
+  /**
+   * Delete expired stores in directory as described by {@link #sweep(File)}, reading the current
+   * time from clock. Pass the {@link Scheduler} given to {@link
+   * StoreOptions.Builder#expireAfterWrite(long, TimeUnit, Scheduler)}, since the stores recorded
+   * their expiry times with its clock.
+   */
+  @NonNull public static Single<Integer> sweep(@NonNull final File directory,
+      @NonNull final Scheduler clock) {
+    assertNotNull(directory, "directory");
+    assertNotNull(clock, "clock");
+
+    return Single.fromCallable(new Callable<Integer>() {
+      @Override public Integer call() throws Exception {
+        return Expiry.sweep(directory, clock.now(TimeUnit.MILLISECONDS));
+      }
+    });
+  }
+
+  /**
+   * Create a new {@link StoreDirectory} that hands out a {@link ValueStore} per key, storing each
+   * value in its own file inside directory. Up to 64 stores are kept alive at a time.
+   */
+  public static <T> StoreDirectory<T> directory(@NonNull File directory,
+      @NonNull Converter converter, @NonNull Type type) {
+    return directory(directory, converter, type, 64, StoreOptions.DEFAULT);
+  }
+
+  /**
+   * Create a new {@link StoreDirectory} that keeps up to maxLiveStores stores alive at a time, each
+   * created with options.
+   */
+  public static <T> StoreDirectory<T> directory(@NonNull File directory,
+      @NonNull Converter converter, @NonNull Type type, int maxLiveStores,
+      @NonNull StoreOptions options) {
+    return new RealStoreDirectory<T>(directory, converter, type, maxLiveStores, options);
   }
 }
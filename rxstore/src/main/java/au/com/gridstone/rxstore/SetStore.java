@@ -0,0 +1,158 @@
+/*
+ * Copyright (C) GRIDSTONE 2017
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package au.com.gridstone.rxstore;
+
+import io.reactivex.Observable;
+import io.reactivex.Scheduler;
+import io.reactivex.Single;
+import io.reactivex.annotations.NonNull;
+import io.reactivex.schedulers.Schedulers;
+import java.util.Set;
+
+/**
+ * Store a {@code Set} of values on disk. Two values are the same member of the set when their
+ * converter encodes them to the same bytes, so the converter must encode equal values identically.
+ * <p>
+ * The file holds an index of a hash of each encoded value, kept in hash order, followed by the
+ * values themselves. {@link #contains(Object)}, {@link #observeAdd(Object)} and {@link
+ * #observeRemove(Object)} encode their value, binary search the index for its hash and compare
+ * the bytes of the few values sharing it, so they never decode a stored value. Adding or removing
+ * a value copies the encoded bytes of every other value into the new file unchanged.
+ * <p>
+ * Values are returned in the order of their hashes, which is unrelated to the order in which they
+ * were added. Observers receive a new {@code Set} after every change, which means reading the
+ * whole set. Avoid observing a large set that changes often.
+ */
+public interface SetStore<T> {
+  /**
+   * Retrieve the current {@code Set} from this store using Rx. If this store has not had any values
+   * written then an empty immutable {@code Set} is returned by this {@link Single}.
+   */
+  @NonNull Single<Set<T>> get();
+
+  /**
+   * Retrieve the current {@code Set} from this store in a blocking manner. This may take time. If
+   * this store has not had any values written then an empty immutable {@code Set} is returned.
+   */
+  @NonNull Set<T> blockingGet();
+
+  /**
+   * Retrieve the number of values in this store using Rx. Like every other operation, this counts
+   * members by their encoded bytes, so it is larger than the {@code Set} returned by {@link #get()}
+   * if the converter encodes some equal values differently.
+   */
+  @NonNull Single<Integer> size();
+
+  /**
+   * Retrieve the number of values in this store in a blocking manner.
+   */
+  int blockingSize();
+
+  /**
+   * Determine whether value is a member of this store using Rx.
+   */
+  @NonNull Single<Boolean> contains(@NonNull T value);
+
+  /**
+   * Determine whether value is a member of this store in a blocking manner.
+   */
+  boolean blockingContains(@NonNull T value);
+
+  /**
+   * Replace the values in this store with those in set and observe the operation. The {@code Set}
+   * returned in the {@link Single} is the {@code Set} written to this store, in stored order.
+   */
+  @NonNull Single<Set<T>> observePut(@NonNull Set<T> set);
+
+  /**
+   * Asynchronously replace the values in this store with those in set. The write operation occurs
+   * on {@link Schedulers#io()}. If you wish to specify the {@link Scheduler} then use {@link
+   * #put(Set, Scheduler)}.
+   */
+  void put(@NonNull Set<T> set);
+
+  /**
+   * Replace the values in this store with those in set on a specified {@link Scheduler}.
+   */
+  void put(@NonNull Set<T> set, @NonNull Scheduler scheduler);
+
+  /**
+   * Add a value to this store and observe the operation. The {@link Single} emits false, and the
+   * store is left unchanged, if value was already a member.
+   */
+  @NonNull Single<Boolean> observeAdd(@NonNull T value);
+
+  /**
+   * Asynchronously add a value to this store. The write operation occurs on {@link
+   * Schedulers#io()}. If you wish to specify the {@link Scheduler} then use {@link #add(Object,
+   * Scheduler)}.
+   */
+  void add(@NonNull T value);
+
+  /**
+   * Add a value to this store on a specified {@link Scheduler}.
+   */
+  void add(@NonNull T value, @NonNull Scheduler scheduler);
+
+  /**
+   * Remove a value from this store and observe the operation. The {@link Single} emits false if
+   * value was not a member.
+   */
+  @NonNull Single<Boolean> observeRemove(@NonNull T value);
+
+  /**
+   * Asynchronously remove a value from this store. The write operation occurs on {@link
+   * Schedulers#io()}. If you wish to specify the {@link Scheduler} then use {@link
+   * #remove(Object, Scheduler)}.
+   */
+  void remove(@NonNull T value);
+
+  /**
+   * Remove a value from this store on a specified {@link Scheduler}.
+   */
+  void remove(@NonNull T value, @NonNull Scheduler scheduler);
+
+  /**
+   * Observe changes to the {@code Set} in this store. {@code onNext()} will be invoked immediately
+   * with the current {@code Set} upon subscription and subsequent changes thereafter.
+   */
+  @NonNull Observable<Set<T>> observe();
+
+  /**
+   * Clear the {@code Set} in this store and observe the operation. The {@code Set} returned by the
+   * {@link Single} is the new, empty {@code Set}.
+   */
+  @NonNull Single<Set<T>> observeClear();
+
+  /**
+   * Asynchronously clear the {@code Set} in this store. The clear operation occurs on {@link
+   * Schedulers#io()}. If you wish to specify the {@link Scheduler} then use {@link
+   * #clear(Scheduler)}.
+   */
+  void clear();
+
+  /**
+   * Clear the {@code Set} in this store on a specified {@link Scheduler}.
+   */
+  void clear(@NonNull Scheduler scheduler);
+
+  /**
+   * Release this store. Observers of this store complete, and any further mutations fail with an
+   * {@link IllegalStateException}.
+   */
+  void close();
+}
@@ -0,0 +1,212 @@
+/*
+ * Copyright (C) GRIDSTONE 2017
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package au.com.gridstone.rxstore;
+
+import io.reactivex.Completable;
+import io.reactivex.CompletableEmitter;
+import io.reactivex.CompletableOnSubscribe;
+import io.reactivex.annotations.NonNull;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static au.com.gridstone.rxstore.Utils.assertNotNull;
+
+/**
+ * A consistent point-in-time copy of one or more stores, written to a directory without blocking
+ * writers for the duration of the copy. Create one with {@link RxStore#snapshot()}.
+ * <pre>{@code
+ * RxStore.snapshot()
+ *     .add(userStore)
+ *     .add(messageStore)
+ *     .writeTo(backupDirectory)
+ *     .subscribe();
+ * }</pre>
+ * Writing a snapshot takes the read lock of every store involved, in the same order as a {@link
+ * Transaction}, just long enough to open each store's file. Stores only ever replace their file
+ * rather than changing it in place, so the open files keep the contents they had at that moment
+ * while writers carry on. Every file is then copied into the directory under its own name, with
+ * the same format as the store's file, so a copy can be opened as a store to restore it.
+ * <p>
+ * A store created with write-behind contributes what it last wrote to disk. Only stores created
+ * by {@link RxStore#value} and {@link RxStore#list} can be added, and not those using journaling.
+ */
+public final class Snapshot {
+  private final Map<String, TransactionParticipant> stores =
+      new LinkedHashMap<String, TransactionParticipant>();
+
+  Snapshot() {
+  }
+
+  /**
+   * Include store in this snapshot.
+   */
+  @NonNull public <T> Snapshot add(@NonNull ValueStore<T> store) {
+    return addStore(store);
+  }
+
+  /**
+   * Include store in this snapshot.
+   */
+  @NonNull public <T> Snapshot add(@NonNull ListStore<T> store) {
+    return addStore(store);
+  }
+
+  /**
+   * Copy every store added to this snapshot into directory, creating it if necessary. Each copy
+   * replaces any file of the same name, and a store that is empty removes it. Each copy is synced
+   * to disk before completing.
+   */
+  @NonNull public Completable writeTo(@NonNull final File directory) {
+    assertNotNull(directory, "directory");
+
+    return Completable.create(new CompletableOnSubscribe() {
+      @Override public void subscribe(CompletableEmitter emitter) throws Exception {
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+          throw new IOException("Failed to create " + directory + ".");
+        }
+
+        Map<String, FileInputStream> files = open();
+
+        try {
+          for (Map.Entry<String, FileInputStream> file : files.entrySet()) {
+            copy(file.getValue(), new File(directory, file.getKey()));
+          }
+        } finally {
+          for (FileInputStream input : files.values()) {
+            if (input != null) input.close();
+          }
+        }
+
+        emitter.onComplete();
+      }
+    });
+  }
+
+  private Snapshot addStore(Object store) {
+    assertNotNull(store, "store");
+
+    if (!(store instanceof TransactionParticipant)
+        || !((TransactionParticipant) store).supportsSnapshots()) {
+      throw new IllegalArgumentException("Store can not take part in a snapshot: " + store);
+    }
+
+    TransactionParticipant participant = (TransactionParticipant) store;
+    String name = participant.file().getName();
+    TransactionParticipant existing = stores.get(name);
+
+    if (existing != null && existing != participant) {
+      throw new IllegalArgumentException("Snapshot already has a store named " + name + ".");
+    }
+
+    stores.put(name, participant);
+    return this;
+  }
+
+  /**
+   * Open the file of every store while holding all of their read locks, so that together they
+   * reflect a single moment. Stores without a file map to null.
+   */
+  private Map<String, FileInputStream> open() throws IOException {
+    List<TransactionParticipant> participants =
+        new ArrayList<TransactionParticipant>(stores.values());
+
+    // Locking in path order means a snapshot and a transaction can never deadlock.
+    Collections.sort(participants, new Comparator<TransactionParticipant>() {
+      @Override public int compare(TransactionParticipant a, TransactionParticipant b) {
+        return a.file().getPath().compareTo(b.file().getPath());
+      }
+    });
+
+    Map<String, FileInputStream> files = new LinkedHashMap<String, FileInputStream>();
+    int locked = 0;
+    boolean opened = false;
+
+    try {
+      for (TransactionParticipant participant : participants) {
+        participant.readWriteLock().readLock().lock();
+        locked++;
+      }
+
+      for (TransactionParticipant participant : participants) {
+        files.put(participant.file().getName(), participant.storeFile().openCommitted());
+      }
+
+      opened = true;
+    } finally {
+      for (int i = locked - 1; i >= 0; i--) {
+        participants.get(i).readWriteLock().readLock().unlock();
+      }
+
+      if (!opened) {
+        for (FileInputStream input : files.values()) {
+          if (input != null) input.close();
+        }
+      }
+    }
+
+    return files;
+  }
+
+  private static void copy(FileInputStream input, File destination) throws IOException {
+    if (input == null) {
+      if (destination.exists() && !destination.delete()) {
+        throw new IOException("Failed to delete " + destination + ".");
+      }
+
+      return;
+    }
+
+    File tmpFile = new File(destination.getAbsolutePath() + ".tmp");
+    boolean copied = false;
+
+    try {
+      RandomAccessFile output = new RandomAccessFile(tmpFile, "rw");
+
+      try {
+        FileChannel source = input.getChannel();
+        FileChannel target = output.getChannel();
+        target.truncate(0);
+        long size = source.size();
+
+        for (long position = 0; position < size; ) {
+          position += source.transferTo(position, size - position, target);
+        }
+
+        target.force(true);
+      } finally {
+        output.close();
+      }
+
+      if ((destination.exists() && !destination.delete()) || !tmpFile.renameTo(destination)) {
+        throw new IOException("Failed to replace " + destination + " with " + tmpFile + ".");
+      }
+
+      copied = true;
+    } finally {
+      if (!copied) tmpFile.delete();
+    }
+  }
+}
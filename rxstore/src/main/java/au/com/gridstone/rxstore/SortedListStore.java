@@ -0,0 +1,161 @@
+/*
+ * Copyright (C) GRIDSTONE 2017
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package au.com.gridstone.rxstore;
+
+import io.reactivex.Completable;
+import io.reactivex.Observable;
+import io.reactivex.Scheduler;
+import io.reactivex.Single;
+import io.reactivex.annotations.NonNull;
+import io.reactivex.schedulers.Schedulers;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Store a {@code List} of values on disk, kept in the order of a {@link Comparator}. Values that
+ * compare as equal keep the order in which they were added.
+ * <p>
+ * The file holds an index of where each encoded value ends, followed by the values themselves.
+ * Adding a value decodes only the values a binary search visits, and copies the encoded bytes of
+ * every other value into the new file unchanged. Range reads such as {@link #between(Object,
+ * Object)}, {@link #head(int)} and {@link #tail(int)} decode only the values they return.
+ * <p>
+ * Observers receive a new {@code List} after every change, which means reading the whole list.
+ * Avoid observing a long list that changes often.
+ */
+public interface SortedListStore<T> {
+  /**
+   * Retrieve the current {@code List} from this store using Rx. If this store has not had any
+   * values written then an empty immutable {@code List} is returned by this {@link Single}.
+   */
+  @NonNull Single<List<T>> get();
+
+  /**
+   * Retrieve the current {@code List} from this store in a blocking manner. This may take time. If
+   * this store has not had any values written then an empty immutable {@code List} is returned.
+   */
+  @NonNull List<T> blockingGet();
+
+  /**
+   * Retrieve the number of values in this store using Rx.
+   */
+  @NonNull Single<Integer> size();
+
+  /**
+   * Retrieve the number of values in this store in a blocking manner.
+   */
+  int blockingSize();
+
+  /**
+   * Retrieve every value that is neither less than from nor greater than to, in order.
+   */
+  @NonNull Single<List<T>> between(@NonNull T from, @NonNull T to);
+
+  /**
+   * Retrieve up to count of the first values in this store, in order.
+   */
+  @NonNull Single<List<T>> head(int count);
+
+  /**
+   * Retrieve up to count of the last values in this store, in order.
+   */
+  @NonNull Single<List<T>> tail(int count);
+
+  /**
+   * Replace the values in this store with those in list, sorted, and observe the operation. The
+   * {@code List} returned in the {@link Single} is the sorted {@code List} written to this store.
+   */
+  @NonNull Single<List<T>> observePut(@NonNull List<T> list);
+
+  /**
+   * Asynchronously replace the values in this store with those in list. The write operation occurs
+   * on {@link Schedulers#io()}. If you wish to specify the {@link Scheduler} then use {@link
+   * #put(List, Scheduler)}.
+   */
+  void put(@NonNull List<T> list);
+
+  /**
+   * Replace the values in this store with those in list on a specified {@link Scheduler}.
+   */
+  void put(@NonNull List<T> list, @NonNull Scheduler scheduler);
+
+  /**
+   * Add a value at its sorted position, after any values equal to it, and observe the operation.
+   */
+  @NonNull Completable observeAdd(@NonNull T value);
+
+  /**
+   * Asynchronously add a value at its sorted position. The write operation occurs on {@link
+   * Schedulers#io()}. If you wish to specify the {@link Scheduler} then use {@link #add(Object,
+   * Scheduler)}.
+   */
+  void add(@NonNull T value);
+
+  /**
+   * Add a value at its sorted position on a specified {@link Scheduler}.
+   */
+  void add(@NonNull T value, @NonNull Scheduler scheduler);
+
+  /**
+   * Remove the first value that {@code .equals()} value and observe the operation. Only values the
+   * comparator considers equal to value are examined. The {@link Single} emits false if there was
+   * no such value.
+   */
+  @NonNull Single<Boolean> observeRemove(@NonNull T value);
+
+  /**
+   * Asynchronously remove the first value that {@code .equals()} value. The write operation occurs
+   * on {@link Schedulers#io()}. If you wish to specify the {@link Scheduler} then use {@link
+   * #remove(Object, Scheduler)}.
+   */
+  void remove(@NonNull T value);
+
+  /**
+   * Remove the first value that {@code .equals()} value on a specified {@link Scheduler}.
+   */
+  void remove(@NonNull T value, @NonNull Scheduler scheduler);
+
+  /**
+   * Observe changes to the {@code List} in this store. {@code onNext()} will be invoked immediately
+   * with the current {@code List} upon subscription and subsequent changes thereafter.
+   */
+  @NonNull Observable<List<T>> observe();
+
+  /**
+   * Clear the {@code List} in this store and observe the operation. The {@code List} returned by
+   * the {@link Single} is the new, empty {@code List}.
+   */
+  @NonNull Single<List<T>> observeClear();
+
+  /**
+   * Asynchronously clear the {@code List} in this store. The clear operation occurs on {@link
+   * Schedulers#io()}. If you wish to specify the {@link Scheduler} then use {@link
+   * #clear(Scheduler)}.
+   */
+  void clear();
+
+  /**
+   * Clear the {@code List} in this store on a specified {@link Scheduler}.
+   */
+  void clear(@NonNull Scheduler scheduler);
+
+  /**
+   * Release this store. Observers of this store complete, and any further mutations fail with an
+   * {@link IllegalStateException}.
+   */
+  void close();
+}
@@ -0,0 +1,251 @@
+/*
+ * Copyright (C) GRIDSTONE 2017
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package au.com.gridstone.rxstore;
+
+import io.reactivex.annotations.NonNull;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.SoftReference;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import static au.com.gridstone.rxstore.Utils.assertNotNull;
+
+/**
+ * Keeps the decoded contents of stores in memory so that reading them again does not touch the
+ * disk, within a single budget shared by every store that uses it. Create one cache for the whole
+ * process and give it to each store through {@link StoreOptions.Builder#cache(StoreCache)}.
+ * <pre>{@code
+ * StoreCache cache = new StoreCache.Builder()
+ *     .maxWeight(8 * 1024 * 1024)
+ *     .build();
+ * StoreOptions options = new StoreOptions.Builder()
+ *     .cache(cache)
+ *     .build();
+ * }</pre>
+ * Contents are cached when a store's file is read and weighed, by default as the size of the file
+ * in bytes, or of the encoded elements for lists cached {@link
+ * StoreOptions.Builder#cacheEncoded(boolean) encoded}. Writing to a store removes its contents
+ * until they are next read. Once the cache holds more than its maximum weight or number of
+ * entries, the contents least recently read are evicted. Entries are also held softly, so the
+ * garbage collector may clear them when the heap runs low.
+ * <p>
+ * Cached contents are shared by every read of a store, so they must not be modified.
+ */
+public final class StoreCache {
+  private final long maxWeight;
+  private final int maxEntries;
+  private final Weigher weigher;
+
+  // Guarded by this.
+  private final LinkedHashMap<Object, Entry> entries =
+      new LinkedHashMap<Object, Entry>(16, 0.75f, true);
+  private final ReferenceQueue<Object> collected = new ReferenceQueue<Object>();
+  private long weight;
+  private long hitCount;
+  private long missCount;
+  private long evictionCount;
+
+  StoreCache(Builder builder) {
+    this.maxWeight = builder.maxWeight;
+    this.maxEntries = builder.maxEntries;
+    this.weigher = builder.weigher;
+  }
+
+  /**
+   * Return the cached contents for key, or null if there are none.
+   */
+  synchronized Object get(Object key) {
+    purgeCollected();
+    Entry entry = entries.get(key);
+    Object contents = entry == null ? null : entry.get();
+
+    if (contents == null) {
+      missCount++;
+      return null;
+    }
+
+    hitCount++;
+    return contents;
+  }
+
+  /**
+   * Cache contents for key, replacing anything already cached for it. Size is the number of bytes
+   * the contents occupy on disk.
+   */
+  synchronized void put(Object key, Object contents, long size) {
+    purgeCollected();
+    remove(key);
+
+    long entryWeight = weigher.weigh(contents, size);
+    if (entryWeight < 0) throw new IllegalStateException("Weigher returned a negative weight.");
+    if (entryWeight > maxWeight) return;
+
+    entries.put(key, new Entry(key, contents, entryWeight, collected));
+    weight += entryWeight;
+    trim();
+  }
+
+  /**
+   * Forget any contents cached for key.
+   */
+  synchronized void remove(Object key) {
+    Entry entry = entries.remove(key);
+    if (entry != null) weight -= entry.weight;
+  }
+
+  /**
+   * Take a snapshot of this cache's counters.
+   */
+  @NonNull public synchronized Stats stats() {
+    purgeCollected();
+    return new Stats(hitCount, missCount, evictionCount, entries.size(), weight);
+  }
+
+  /**
+   * Evict every entry from this cache.
+   */
+  public synchronized void evictAll() {
+    evictionCount += entries.size();
+    entries.clear();
+    weight = 0;
+  }
+
+  private void trim() {
+    Iterator<Entry> iterator = entries.values().iterator();
+
+    while ((weight > maxWeight || entries.size() > maxEntries) && iterator.hasNext()) {
+      Entry eldest = iterator.next();
+      iterator.remove();
+      weight -= eldest.weight;
+      evictionCount++;
+    }
+  }
+
+  private void purgeCollected() {
+    for (Object reference = collected.poll(); reference != null; reference = collected.poll()) {
+      Entry entry = (Entry) reference;
+
+      if (entries.get(entry.key) == entry) {
+        entries.remove(entry.key);
+        weight -= entry.weight;
+        evictionCount++;
+      }
+    }
+  }
+
+  /**
+   * Estimates how much of a cache's budget some contents occupy.
+   */
+  public interface Weigher {
+    /**
+     * Return the weight of contents, whose encoded form occupies size bytes: on disk, or in memory
+     * for lists cached {@link StoreOptions.Builder#cacheEncoded(boolean) encoded}. Must not be
+     * negative.
+     */
+    long weigh(@NonNull Object contents, long size);
+  }
+
+  /**
+   * Counters describing how a cache has performed since it was created.
+   */
+  public static final class Stats {
+    /** Reads answered from the cache. */
+    public final long hitCount;
+    /** Reads that had to decode the store's file. */
+    public final long missCount;
+    /** Entries removed to stay within budget, or cleared by the garbage collector. */
+    public final long evictionCount;
+    /** Entries currently cached. */
+    public final int entryCount;
+    /** Total weight of the entries currently cached. */
+    public final long weight;
+
+    Stats(long hitCount, long missCount, long evictionCount, int entryCount, long weight) {
+      this.hitCount = hitCount;
+      this.missCount = missCount;
+      this.evictionCount = evictionCount;
+      this.entryCount = entryCount;
+      this.weight = weight;
+    }
+
+    /**
+     * The fraction of reads answered from the cache, or 1 if there have been no reads.
+     */
+    public double hitRate() {
+      long requestCount = hitCount + missCount;
+      return requestCount == 0 ? 1.0 : (double) hitCount / requestCount;
+    }
+
+    @Override public String toString() {
+      return "Stats[hits=" + hitCount + ", misses=" + missCount + ", evictions=" + evictionCount
+          + ", entries=" + entryCount + ", weight=" + weight + "]";
+    }
+  }
+
+  public static final class Builder {
+    long maxWeight = Long.MAX_VALUE;
+    int maxEntries = Integer.MAX_VALUE;
+    Weigher weigher = new Weigher() {
+      @Override public long weigh(Object contents, long size) {
+        return size;
+      }
+    };
+
+    /**
+     * Evict entries once their total weight exceeds maxWeight. Unlimited by default.
+     */
+    @NonNull public Builder maxWeight(long maxWeight) {
+      if (maxWeight < 0) throw new IllegalArgumentException("maxWeight must not be negative.");
+      this.maxWeight = maxWeight;
+      return this;
+    }
+
+    /**
+     * Evict entries once more than maxEntries are cached. Unlimited by default.
+     */
+    @NonNull public Builder maxEntries(int maxEntries) {
+      if (maxEntries < 0) throw new IllegalArgumentException("maxEntries must not be negative.");
+      this.maxEntries = maxEntries;
+      return this;
+    }
+
+    /**
+     * Weigh entries with weigher rather than by the size of the store's file.
+     */
+    @NonNull public Builder weigher(@NonNull Weigher weigher) {
+      assertNotNull(weigher, "weigher");
+      this.weigher = weigher;
+      return this;
+    }
+
+    @NonNull public StoreCache build() {
+      return new StoreCache(this);
+    }
+  }
+
+  private static final class Entry extends SoftReference<Object> {
+    final Object key;
+    final long weight;
+
+    Entry(Object key, Object contents, long weight, ReferenceQueue<Object> queue) {
+      super(contents, queue);
+      this.key = key;
+      this.weight = weight;
+    }
+  }
+}
@@ -0,0 +1,81 @@
+/*
+ * Copyright (C) GRIDSTONE 2017
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package au.com.gridstone.rxstore;
+
+import io.reactivex.Completable;
+import io.reactivex.Scheduler;
+import io.reactivex.Single;
+import io.reactivex.annotations.NonNull;
+import io.reactivex.schedulers.Schedulers;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Hands out a {@link ValueStore} per string key, each backed by its own file inside one
+ * directory. Useful when storing one value per entity, where keeping a store object alive for
+ * every entity would cost too much memory.
+ * <p>
+ * Only a bounded number of recently used stores are kept alive by the directory. Evicted stores
+ * are flushed and left to be garbage collected once nobody else references them. Asking for the
+ * same key again returns the same store for as long as it is alive.
+ */
+public interface StoreDirectory<T> {
+  /**
+   * Retrieve the store for key. Any non-empty string may be used as a key.
+   */
+  @NonNull ValueStore<T> store(@NonNull String key);
+
+  /**
+   * List the keys that currently have a value on disk, in ascending order. Mutations held in
+   * memory by write-behind stores are only included once flushed.
+   */
+  @NonNull Single<List<String>> keys();
+
+  /**
+   * List the keys that currently have a value on disk in a blocking manner.
+   */
+  @NonNull List<String> blockingKeys();
+
+  /**
+   * Clear the values of many keys at once and observe the operation. The directory is only
+   * scanned once, no matter how many keys are given. Observers of live stores are notified.
+   */
+  @NonNull Completable observeDelete(@NonNull Collection<String> keys);
+
+  /**
+   * Asynchronously clear the values of many keys at once. The operation occurs on {@link
+   * Schedulers#io()}. If you wish to specify the {@link Scheduler} then use {@link
+   * #delete(Collection, Scheduler)}.
+   */
+  void delete(@NonNull Collection<String> keys);
+
+  /**
+   * Clear the values of many keys at once on a specified {@link Scheduler}.
+   */
+  void delete(@NonNull Collection<String> keys, @NonNull Scheduler scheduler);
+
+  /**
+   * Flush every store this directory is keeping alive, blocking until they are on disk.
+   */
+  void flush();
+
+  /**
+   * Close every store this directory is keeping alive. Stores retrieved after this call are newly
+   * opened.
+   */
+  void close();
+}
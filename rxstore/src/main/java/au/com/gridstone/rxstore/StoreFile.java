@@ -0,0 +1,522 @@
+/*
+ * Copyright (C) GRIDSTONE 2017
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package au.com.gridstone.rxstore;
+
+import io.reactivex.disposables.Disposable;
+import io.reactivex.plugins.RxJavaPlugins;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.reflect.ParameterizedType;
+import java.lang.reflect.Type;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+import static au.com.gridstone.rxstore.Utils.converterWrite;
+import static au.com.gridstone.rxstore.Utils.replace;
+import static au.com.gridstone.rxstore.Utils.sync;
+
+/**
+ * Reads, writes and deletes the file backing a store, applying any {@link StoreOptions} that
+ * affect persistence. Callers must hold the store's read lock to read and its write lock for
+ * anything else.
+ * <p>
+ * With write-behind enabled the store's contents are held in memory once first read or written.
+ * Mutations update that copy and are persisted later by {@link #flush()}, which only needs the
+ * store's lock long enough to take a snapshot of what to persist.
+ * <p>
+ * With expiry enabled each write also records when the contents expire in an {@link Expiry} file
+ * beside the store's file. Expired contents read as null until they are deleted.
+ * <p>
+ * With a {@link StoreCache} the contents last read are kept in the cache until the file changes,
+ * either as they were decoded or as an {@link EncodedList}.
+ */
+final class StoreFile {
+  private static final OutputStream NULL_OUTPUT = new OutputStream() {
+    @Override public void write(int b) {
+    }
+
+    @Override public void write(byte[] bytes, int offset, int length) {
+    }
+  };
+
+  private final File file;
+  private final Converter converter;
+  private final Type type;
+  private final StoreOptions options;
+  private final File expiryFile;
+  private final StoreCache cache;
+
+  /** Serialises disk writes, which may happen without holding the store's lock. */
+  private final ReentrantLock diskLock = new ReentrantLock();
+
+  /** The hash of the file's current contents, or null if it is unknown or there is no file. */
+  private byte[] committedHash;
+
+  // Write-behind state, guarded by this.
+  private Object state;
+  private boolean stateLoaded;
+  private boolean dirty;
+  private int pendingCount;
+  private boolean delayedFlushScheduled;
+  private boolean immediateFlushScheduled;
+  private boolean closed;
+
+  // Expiry state, guarded by this.
+  private Runnable expiryTask;
+  private Disposable scheduledExpiry;
+
+  StoreFile(File file, Converter converter, Type type, StoreOptions options) {
+    this.file = file;
+    this.converter = converter;
+    this.type = type;
+    this.options = options;
+    this.expiryFile = Expiry.expiryFile(file);
+    this.cache = options.cache;
+  }
+
+  /**
+   * Read the store's contents, or null if there are none.
+   */
+  @SuppressWarnings("unchecked") // Type is checked by the converter when reading.
+  <T> T read() throws ConverterException {
+    if (!options.writeBehind()) {
+      if (!file.exists() || expired()) return null;
+      if (cache == null) return converter.read(file, type);
+
+      Object cached = cache.get(this);
+      if (cached != null) return (T) cached;
+
+      T contents = converter.read(file, type);
+      return contents != null ? (T) cacheContents(contents) : null;
+    }
+
+    synchronized (this) {
+      if (!stateLoaded) {
+        state = file.exists() ? converter.read(file, type) : null;
+        stateLoaded = true;
+      }
+
+      return (T) state;
+    }
+  }
+
+  /**
+   * Replace the store's contents with value. Returns false if nothing was written because the file
+   * already holds exactly these bytes.
+   */
+  boolean write(Object value) throws IOException {
+    checkNotClosed();
+
+    if (options.writeBehind()) {
+      mutate(value);
+      return true;
+    }
+
+    diskLock.lock();
+
+    try {
+      // Recorded first, so that a crash can at worst keep old contents for one more period.
+      if (options.expires()) recordExpiry();
+      // The caller may still modify value, so it is only cached once read back from the file.
+      if (cache != null) cache.remove(this);
+      return writeToDisk(value);
+    } finally {
+      diskLock.unlock();
+    }
+  }
+
+  /**
+   * Remove the store's contents. Returns false if they could not be removed.
+   */
+  boolean delete() {
+    checkNotClosed();
+
+    if (options.writeBehind()) {
+      mutate(null);
+      return true;
+    }
+
+    diskLock.lock();
+
+    try {
+      return deleteFromDisk();
+    } finally {
+      diskLock.unlock();
+    }
+  }
+
+  /**
+   * Write value to a file beside the store's file and sync it to disk, ready to replace the store's
+   * file in {@link #commitPrepared(File)}.
+   */
+  File prepare(Object value) throws IOException {
+    checkNotClosed();
+    File preparedFile = preparedFile();
+    converter.write(value, type, preparedFile);
+    sync(preparedFile);
+    return preparedFile;
+  }
+
+  /**
+   * Replace the store's file with one written by {@link #prepare(Object)}, or any other complete
+   * file written in the store's format.
+   */
+  void commitPrepared(File preparedFile) throws IOException {
+    checkNotClosed();
+    committedHash = null;
+    if (cache != null) cache.remove(this);
+    byte[] hash = options.watchExternalChanges ? hash(preparedFile) : null;
+    if (options.expires()) recordExpiry();
+
+    if ((file.exists() && !file.delete()) || !preparedFile.renameTo(file)) {
+      throw new IOException("Failed to replace " + file + " with " + preparedFile + ".");
+    }
+
+    committedHash = hash;
+  }
+
+  /**
+   * Run task once the contents expire, and again whenever contents written later expire. Task is
+   * responsible for checking that the contents have in fact expired, and deleting them.
+   */
+  void runOnExpiry(Runnable task) {
+    if (!options.expires()) return;
+    long expiresAt;
+
+    try {
+      expiresAt = Expiry.read(expiryFile);
+    } catch (IOException e) {
+      expiresAt = Long.MIN_VALUE;
+    }
+
+    synchronized (this) {
+      expiryTask = task;
+    }
+
+    if (file.exists()) scheduleExpiry(expiresAt);
+  }
+
+  /**
+   * Returns true if expiry is enabled and the file's contents have expired. Contents whose expiry
+   * can not be read are treated as expired.
+   */
+  boolean expired() {
+    if (!options.expires()) return false;
+
+    try {
+      return Expiry.read(expiryFile) <= now();
+    } catch (IOException e) {
+      return true;
+    }
+  }
+
+  /**
+   * Forget anything known about the file's contents, after it was changed by something other than
+   * this object.
+   */
+  void invalidate() {
+    committedHash = null;
+    if (cache != null) cache.remove(this);
+  }
+
+  /**
+   * Record the file's current contents, so that {@link #changedExternally()} can tell whether a
+   * later change to the file was made by this store.
+   */
+  void rememberContents() throws IOException {
+    committedHash = file.exists() ? hash(file) : null;
+  }
+
+  /**
+   * Returns true if the file's contents differ from what this store last wrote or remembered,
+   * and remembers the new contents.
+   */
+  boolean changedExternally() throws IOException {
+    byte[] hash = file.exists() ? hash(file) : null;
+    if (Arrays.equals(hash, committedHash)) return false;
+
+    committedHash = hash;
+    if (cache != null) cache.remove(this);
+    return true;
+  }
+
+  /**
+   * Open the file as last written to disk, or return null if there is no file. Must be called
+   * holding the store's read lock. Every write replaces the file rather than changing it in place,
+   * so the stream keeps reading these contents after later writes.
+   */
+  FileInputStream openCommitted() throws IOException {
+    diskLock.lock();
+
+    try {
+      return file.exists() ? new FileInputStream(file) : null;
+    } finally {
+      diskLock.unlock();
+    }
+  }
+
+  File preparedFile() {
+    return new File(file.getAbsolutePath() + ".txn");
+  }
+
+  boolean supportsTransactions() {
+    return !options.writeBehind();
+  }
+
+  /**
+   * Persist any mutations held in memory. Does not require the store's lock.
+   */
+  void flush() throws IOException {
+    if (!options.writeBehind()) return;
+    diskLock.lock();
+
+    try {
+      Object snapshot;
+
+      synchronized (this) {
+        if (!dirty) return;
+        snapshot = state;
+        dirty = false;
+        pendingCount = 0;
+      }
+
+      boolean persisted = false;
+
+      try {
+        if (snapshot == null) {
+          if (!deleteFromDisk()) throw new IOException("Failed to delete file for store.");
+        } else {
+          writeToDisk(snapshot);
+        }
+
+        persisted = true;
+      } finally {
+        if (!persisted) {
+          synchronized (this) {
+            // Leave the failed snapshot to be retried unless a newer mutation already replaced it.
+            if (!dirty) dirty = true;
+          }
+        }
+      }
+    } finally {
+      diskLock.unlock();
+    }
+  }
+
+  /**
+   * Persist any mutations held in memory, sync the file to disk and reject any further mutations.
+   */
+  void close() throws IOException {
+    synchronized (this) {
+      closed = true;
+      if (scheduledExpiry != null) scheduledExpiry.dispose();
+    }
+
+    if (cache != null) cache.remove(this);
+    flush();
+    if (file.exists()) sync(file);
+  }
+
+  synchronized boolean isClosed() {
+    return closed;
+  }
+
+  synchronized void checkNotClosed() {
+    if (closed) throw new IllegalStateException("Store has been closed.");
+  }
+
+  private synchronized void mutate(Object value) {
+    state = value;
+    stateLoaded = true;
+    dirty = true;
+    pendingCount++;
+
+    if (pendingCount >= options.writeBehindMaxPending) {
+      if (!immediateFlushScheduled) {
+        immediateFlushScheduled = true;
+        scheduleFlush(true);
+      }
+    } else if (!delayedFlushScheduled) {
+      delayedFlushScheduled = true;
+      scheduleFlush(false);
+    }
+  }
+
+  /**
+   * Put contents in the cache and return what to hand out in its place. Every read shares the
+   * cached object, so lists are cached as unmodifiable views.
+   */
+  @SuppressWarnings("unchecked") // Only used to wrap, never to add elements.
+  private Object cacheContents(Object contents) {
+    if (!options.cacheEncoded) {
+      Object shared = contents instanceof List
+          ? Collections.unmodifiableList((List<Object>) contents) : contents;
+      cache.put(this, shared, file.length());
+      return shared;
+    }
+
+    Type elementType = ((ParameterizedType) type).getActualTypeArguments()[0];
+    EncodedList<?> encoded;
+
+    try {
+      encoded = EncodedList.encode((List<?>) contents, (StreamConverter) converter, elementType,
+          options.cacheCompression);
+    } catch (IOException e) {
+      throw new ConverterException(e);
+    }
+
+    cache.put(this, encoded, encoded.byteSize());
+    return encoded;
+  }
+
+  private void recordExpiry() throws IOException {
+    long now = now();
+    long ttl = options.expireAfterWriteMillis;
+    long expiresAt = ttl < Long.MAX_VALUE - now ? now + ttl : Long.MAX_VALUE - 1;
+    Expiry.write(expiryFile, expiresAt);
+    scheduleExpiry(expiresAt);
+  }
+
+  private synchronized void scheduleExpiry(long expiresAt) {
+    if (scheduledExpiry != null) scheduledExpiry.dispose();
+    scheduledExpiry = null;
+    if (expiryTask == null || closed || expiresAt == Long.MAX_VALUE) return;
+
+    long now = now();
+    long delay = expiresAt <= now ? 0 : expiresAt - now;
+    scheduledExpiry =
+        options.expiryScheduler.scheduleDirect(expiryTask, delay, TimeUnit.MILLISECONDS);
+  }
+
+  private long now() {
+    return options.expiryScheduler.now(TimeUnit.MILLISECONDS);
+  }
+
+  private void scheduleFlush(final boolean immediate) {
+    Runnable flush = new Runnable() {
+      @Override public void run() {
+        synchronized (StoreFile.this) {
+          if (immediate) {
+            immediateFlushScheduled = false;
+          } else {
+            delayedFlushScheduled = false;
+          }
+        }
+
+        try {
+          flush();
+        } catch (Throwable e) {
+          // Nobody is subscribed to a background flush. The mutation stays pending for the next
+          // one.
+          RxJavaPlugins.onError(e);
+        }
+      }
+    };
+
+    long delay = immediate ? 0 : options.writeBehindDelayMillis;
+    options.writeBehindScheduler.scheduleDirect(flush, delay, TimeUnit.MILLISECONDS);
+  }
+
+  private boolean writeToDisk(Object value) throws IOException {
+    if (!file.exists() && !file.createNewFile()) {
+      throw new IOException("Could not create file for store.");
+    }
+
+    if (!options.dedupeWrites) {
+      committedHash = null;
+      converterWrite(value, converter, type, file);
+      if (options.watchExternalChanges) committedHash = hash(file);
+      return true;
+    }
+
+    if (committedHash == null) committedHash = hash(file);
+
+    if (converter instanceof StreamConverter) {
+      MessageDigest digest = newDigest();
+      ((StreamConverter) converter).write(value, type, new DigestOutputStream(NULL_OUTPUT, digest));
+      byte[] hash = digest.digest();
+      if (Arrays.equals(hash, committedHash)) return false;
+
+      committedHash = null;
+      converterWrite(value, converter, type, file);
+      committedHash = hash;
+      return true;
+    }
+
+    File tmpFile = new File(file.getAbsolutePath() + ".tmp");
+    converter.write(value, type, tmpFile);
+    byte[] hash = hash(tmpFile);
+
+    if (Arrays.equals(hash, committedHash)) {
+      tmpFile.delete();
+      return false;
+    }
+
+    committedHash = null;
+    replace(file, tmpFile);
+
+    committedHash = hash;
+    return true;
+  }
+
+  private boolean deleteFromDisk() {
+    committedHash = null;
+    if (cache != null) cache.remove(this);
+    if (file.exists() && !file.delete()) return false;
+
+    if (options.expires()) {
+      scheduleExpiry(Long.MAX_VALUE);
+      return !expiryFile.exists() || expiryFile.delete();
+    }
+
+    return true;
+  }
+
+  static byte[] hash(File file) throws IOException {
+    MessageDigest digest = newDigest();
+    InputStream input = new FileInputStream(file);
+
+    try {
+      byte[] buffer = new byte[8 * 1024];
+
+      for (int count = input.read(buffer); count != -1; count = input.read(buffer)) {
+        digest.update(buffer, 0, count);
+      }
+    } finally {
+      input.close();
+    }
+
+    return digest.digest();
+  }
+
+  static MessageDigest newDigest() {
+    try {
+      return MessageDigest.getInstance("SHA-256");
+    } catch (NoSuchAlgorithmException e) {
+      throw new AssertionError(e); // Every Java platform is required to support SHA-256.
+    }
+  }
+}
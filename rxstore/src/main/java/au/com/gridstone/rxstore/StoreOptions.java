@@ -0,0 +1,384 @@
+/*
+ * Copyright (C) GRIDSTONE 2017
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package au.com.gridstone.rxstore;
+
+import io.reactivex.Scheduler;
+import io.reactivex.annotations.NonNull;
+import io.reactivex.annotations.Nullable;
+import io.reactivex.schedulers.Schedulers;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+import static au.com.gridstone.rxstore.Utils.assertNotNull;
+
+/**
+ * Optional behaviour for a store, supplied when it is created through {@link RxStore}. Every
+ * option is off by default, matching the behaviour of stores created without options.
+ * <pre>{@code
+ * StoreOptions options = new StoreOptions.Builder()
+ *     .dedupeWrites(true)
+ *     .build();
+ * ListStore<Person> store = RxStore.list(file, converter, Person.class, options);
+ * }</pre>
+ */
+public final class StoreOptions {
+  /**
+   * Options with every behaviour left at its default.
+   */
+  @NonNull public static final StoreOptions DEFAULT = new Builder().build();
+
+  final boolean dedupeWrites;
+  final long writeBehindDelayMillis;
+  final int writeBehindMaxPending;
+  final Scheduler writeBehindScheduler;
+  final int journalCheckpointInterval;
+  final boolean watchExternalChanges;
+  final boolean lockAcrossProcesses;
+  final long expireAfterWriteMillis;
+  final Scheduler expiryScheduler;
+  final StoreCache cache;
+  final boolean cacheEncoded;
+  final Compression cacheCompression;
+
+  StoreOptions(Builder builder) {
+    this.dedupeWrites = builder.dedupeWrites;
+    this.writeBehindDelayMillis = builder.writeBehindDelayMillis;
+    this.writeBehindMaxPending = builder.writeBehindMaxPending;
+    this.writeBehindScheduler = builder.writeBehindScheduler;
+    this.journalCheckpointInterval = builder.journalCheckpointInterval;
+    this.watchExternalChanges = builder.watchExternalChanges;
+    this.lockAcrossProcesses = builder.lockAcrossProcesses;
+    this.expireAfterWriteMillis = builder.expireAfterWriteMillis;
+    this.expiryScheduler = builder.expiryScheduler;
+    this.cache = builder.cache;
+    this.cacheEncoded = builder.cacheEncoded;
+    this.cacheCompression = builder.cacheCompression;
+  }
+
+  public boolean dedupeWrites() {
+    return dedupeWrites;
+  }
+
+  public boolean writeBehind() {
+    return writeBehindDelayMillis >= 0;
+  }
+
+  public boolean journal() {
+    return journalCheckpointInterval > 0;
+  }
+
+  public boolean watchExternalChanges() {
+    return watchExternalChanges;
+  }
+
+  public boolean lockAcrossProcesses() {
+    return lockAcrossProcesses;
+  }
+
+  public boolean expires() {
+    return expireAfterWriteMillis >= 0;
+  }
+
+  @Nullable public StoreCache cache() {
+    return cache;
+  }
+
+  public boolean cacheEncoded() {
+    return cacheEncoded;
+  }
+
+  /**
+   * Options are equal when every setting is equal. Schedulers, caches and compressions are compared
+   * by identity.
+   */
+  @Override public boolean equals(Object o) {
+    if (o == this) return true;
+    if (!(o instanceof StoreOptions)) return false;
+    StoreOptions other = (StoreOptions) o;
+    return dedupeWrites == other.dedupeWrites
+        && writeBehindDelayMillis == other.writeBehindDelayMillis
+        && writeBehindMaxPending == other.writeBehindMaxPending
+        && writeBehindScheduler == other.writeBehindScheduler
+        && journalCheckpointInterval == other.journalCheckpointInterval
+        && watchExternalChanges == other.watchExternalChanges
+        && lockAcrossProcesses == other.lockAcrossProcesses
+        && expireAfterWriteMillis == other.expireAfterWriteMillis
+        && expiryScheduler == other.expiryScheduler
+        && cache == other.cache
+        && cacheEncoded == other.cacheEncoded
+        && cacheCompression == other.cacheCompression;
+  }
+
+  @Override public int hashCode() {
+    return Arrays.hashCode(new Object[] {
+        dedupeWrites, writeBehindDelayMillis, writeBehindMaxPending,
+        System.identityHashCode(writeBehindScheduler), journalCheckpointInterval,
+        watchExternalChanges, lockAcrossProcesses, expireAfterWriteMillis,
+        System.identityHashCode(expiryScheduler), System.identityHashCode(cache), cacheEncoded,
+        System.identityHashCode(cacheCompression)
+    });
+  }
+
+  /**
+   * Create a builder initialised with the values of these options.
+   */
+  @NonNull public Builder newBuilder() {
+    return new Builder(this);
+  }
+
+  public static final class Builder {
+    boolean dedupeWrites;
+    long writeBehindDelayMillis = -1;
+    int writeBehindMaxPending = Integer.MAX_VALUE;
+    Scheduler writeBehindScheduler = Schedulers.io();
+    int journalCheckpointInterval;
+    boolean watchExternalChanges;
+    boolean lockAcrossProcesses;
+    long expireAfterWriteMillis = -1;
+    Scheduler expiryScheduler = Schedulers.computation();
+    StoreCache cache;
+    boolean cacheEncoded;
+    Compression cacheCompression;
+
+    public Builder() {
+    }
+
+    Builder(StoreOptions options) {
+      this.dedupeWrites = options.dedupeWrites;
+      this.writeBehindDelayMillis = options.writeBehindDelayMillis;
+      this.writeBehindMaxPending = options.writeBehindMaxPending;
+      this.writeBehindScheduler = options.writeBehindScheduler;
+      this.journalCheckpointInterval = options.journalCheckpointInterval;
+      this.watchExternalChanges = options.watchExternalChanges;
+      this.lockAcrossProcesses = options.lockAcrossProcesses;
+      this.expireAfterWriteMillis = options.expireAfterWriteMillis;
+      this.expiryScheduler = options.expiryScheduler;
+      this.cache = options.cache;
+      this.cacheEncoded = options.cacheEncoded;
+      this.cacheCompression = options.cacheCompression;
+    }
+
+    /**
+     * When enabled, a write whose encoded bytes are identical to what is already on disk leaves the
+     * file untouched and does not notify observers. Writes still succeed with the given value.
+     * <p>
+     * With a {@link StreamConverter} an unchanged value is encoded once and never written to disk,
+     * while a changed value is encoded twice. Other converters always write a temporary file, but
+     * skip replacing the store's file when nothing changed.
+     */
+    @NonNull public Builder dedupeWrites(boolean dedupeWrites) {
+      this.dedupeWrites = dedupeWrites;
+      return this;
+    }
+
+    /**
+     * When enabled, mutations are applied to an in-memory copy of the store's contents and notify
+     * observers straight away, but are only persisted once delay has passed since the first
+     * unpersisted mutation. A burst of mutations within that window becomes a single disk write.
+     * <p>
+     * Persistence happens on {@link Schedulers#io()}. Use {@link ValueStore#flush()} or {@link
+     * ListStore#flush()} to persist immediately, and {@code close()} when a store is no longer
+     * needed, so that no mutations are lost on shutdown.
+     */
+    @NonNull public Builder writeBehind(long delay, @NonNull TimeUnit unit) {
+      return writeBehind(delay, unit, Schedulers.io());
+    }
+
+    /**
+     * Enable write-behind as described by {@link #writeBehind(long, TimeUnit)}, persisting on a
+     * specified {@link Scheduler}.
+     */
+    @NonNull public Builder writeBehind(long delay, @NonNull TimeUnit unit,
+        @NonNull Scheduler scheduler) {
+      if (delay < 0) throw new IllegalArgumentException("delay must not be negative.");
+      assertNotNull(unit, "unit");
+      assertNotNull(scheduler, "scheduler");
+      this.writeBehindDelayMillis = unit.toMillis(delay);
+      this.writeBehindScheduler = scheduler;
+      return this;
+    }
+
+    /**
+     * With write-behind enabled, persist as soon as this many mutations are waiting rather than
+     * waiting for the delay to pass. Unlimited by default.
+     */
+    @NonNull public Builder writeBehindMaxPending(int maxPending) {
+      if (maxPending < 1) throw new IllegalArgumentException("maxPending must be at least 1.");
+      this.writeBehindMaxPending = maxPending;
+      return this;
+    }
+
+    /**
+     * When enabled, each mutation of a {@link ListStore} is appended to a journal next to the
+     * store's file and synced to disk, rather than rewriting the whole file. After
+     * checkpointInterval mutations the file is rewritten and the journal started afresh. Opening
+     * the store replays whatever is in the journal, so no acknowledged mutation is lost to a crash.
+     * <p>
+     * Journaling keeps the list in memory, and requires a {@link StreamConverter} to encode
+     * individual elements. It is only supported by {@link ListStore}, and can not be combined with
+     * {@link #writeBehind(long, TimeUnit) write-behind}.
+     */
+    @NonNull public Builder journal(int checkpointInterval) {
+      if (checkpointInterval < 1) {
+        throw new IllegalArgumentException("checkpointInterval must be at least 1.");
+      }
+
+      this.journalCheckpointInterval = checkpointInterval;
+      return this;
+    }
+
+    /**
+     * When enabled, changes made to the store's file by other processes are noticed and pushed to
+     * {@code observe()} subscribers, decoded once per change. The store's own writes are not
+     * reported twice. The file is only watched while {@code observe()} has subscribers.
+     * <p>
+     * Watching uses {@code java.nio.file.WatchService}, so it requires Java 7 or Android API 26.
+     * How quickly changes are noticed depends on the platform; some poll every few seconds. It can
+     * not be combined with {@link #writeBehind(long, TimeUnit) write-behind} or {@link
+     * #journal(int) journaling}, which hold contents in memory that an external change would
+     * contradict.
+     */
+    @NonNull public Builder watchExternalChanges(boolean watchExternalChanges) {
+      this.watchExternalChanges = watchExternalChanges;
+      return this;
+    }
+
+    /**
+     * When enabled, every read and write of the store also locks a file next to the store's file,
+     * shared for reads and exclusive for writes. Stores in other processes with this option then
+     * never observe or interleave with a partial operation, such as a list being read and rewritten
+     * by {@link ListStore#add(Object)}. Each store is locked separately, so processes only wait for
+     * each other when they use the same store.
+     * <p>
+     * The lock file is left in place when the store is closed or cleared. It can not be combined
+     * with {@link #writeBehind(long, TimeUnit) write-behind} or {@link #journal(int) journaling},
+     * which hold contents in memory that another process would not see.
+     */
+    @NonNull public Builder lockAcrossProcesses(boolean lockAcrossProcesses) {
+      this.lockAcrossProcesses = lockAcrossProcesses;
+      return this;
+    }
+
+    /**
+     * When enabled, the store's contents expire once duration has passed since they were last
+     * written. Expired contents read as empty, and are deleted and reported to {@code observe()}
+     * subscribers as empty when they expire. Each write records its expiry time in a small file
+     * next to the store's file, so it can be checked without decoding the store's contents. Use
+     * {@link RxStore#sweep(java.io.File)} to reclaim the space of expired stores that are not open.
+     * <p>
+     * Expiry is timed and performed on {@link Schedulers#computation()}. It can not be combined
+     * with {@link #writeBehind(long, TimeUnit) write-behind} or {@link #journal(int) journaling},
+     * whose contents are not written to the store's file straight away.
+     */
+    @NonNull public Builder expireAfterWrite(long duration, @NonNull TimeUnit unit) {
+      return expireAfterWrite(duration, unit, Schedulers.computation());
+    }
+
+    /**
+     * Enable expiry as described by {@link #expireAfterWrite(long, TimeUnit)}, using a specified
+     * {@link Scheduler} as the clock and to delete expired contents. Pass the same scheduler to
+     * {@link RxStore#sweep(java.io.File, Scheduler)}.
+     */
+    @NonNull public Builder expireAfterWrite(long duration, @NonNull TimeUnit unit,
+        @NonNull Scheduler scheduler) {
+      if (duration < 0) throw new IllegalArgumentException("duration must not be negative.");
+      assertNotNull(unit, "unit");
+      assertNotNull(scheduler, "scheduler");
+      this.expireAfterWriteMillis = unit.toMillis(duration);
+      this.expiryScheduler = scheduler;
+      return this;
+    }
+
+    /**
+     * Keep the store's decoded contents in cache, so that reading them again does not decode the
+     * store's file. Pass null, the default, to read the file every time. The same cache should be
+     * shared by every store so that they are held to a single budget.
+     * <p>
+     * Every read of a cached store returns the same object until the store changes. Lists are
+     * returned as unmodifiable views, but other values are returned as they are and must not be
+     * modified by callers.
+     * <p>
+     * A cache can not be combined with {@link #writeBehind(long, TimeUnit) write-behind} or {@link
+     * #journal(int) journaling}, which keep contents in memory already, or with {@link
+     * #lockAcrossProcesses(boolean) locking across processes}, since another process could change
+     * the file behind the cache.
+     */
+    @NonNull public Builder cache(@Nullable StoreCache cache) {
+      this.cache = cache;
+      return this;
+    }
+
+    /**
+     * When enabled, a {@link ListStore} keeps its elements in the {@link #cache(StoreCache) cache}
+     * in encoded form, and decodes an element each time it is accessed. Lists read from the cache
+     * are then immutable views that are typically several times smaller than the decoded list,
+     * at the cost of decoding elements again on every access. Suited to large lists that are
+     * rarely read. Requires a cache and a {@link StreamConverter}.
+     */
+    @NonNull public Builder cacheEncoded(boolean cacheEncoded) {
+      this.cacheEncoded = cacheEncoded;
+      this.cacheCompression = null;
+      return this;
+    }
+
+    /**
+     * Cache lists in encoded form as described by {@link #cacheEncoded(boolean)}, compressing
+     * each block of elements with compression to use less memory still.
+     */
+    @NonNull public Builder cacheEncoded(@NonNull Compression compression) {
+      assertNotNull(compression, "compression");
+      this.cacheEncoded = true;
+      this.cacheCompression = compression;
+      return this;
+    }
+
+    @NonNull public StoreOptions build() {
+      if (journalCheckpointInterval > 0 && writeBehindDelayMillis >= 0) {
+        throw new IllegalStateException("Journaling can not be combined with write-behind.");
+      }
+
+      if (watchExternalChanges && (writeBehindDelayMillis >= 0 || journalCheckpointInterval > 0)) {
+        throw new IllegalStateException(
+            "Watching external changes can not be combined with write-behind or journaling.");
+      }
+
+      if (lockAcrossProcesses && (writeBehindDelayMillis >= 0 || journalCheckpointInterval > 0)) {
+        throw new IllegalStateException(
+            "Locking across processes can not be combined with write-behind or journaling.");
+      }
+
+      if (expireAfterWriteMillis >= 0
+          && (writeBehindDelayMillis >= 0 || journalCheckpointInterval > 0)) {
+        throw new IllegalStateException(
+            "Expiry can not be combined with write-behind or journaling.");
+      }
+
+      boolean holdsContents = writeBehindDelayMillis >= 0 || journalCheckpointInterval > 0;
+
+      if (cache != null && (holdsContents || lockAcrossProcesses)) {
+        throw new IllegalStateException("A cache can not be combined with write-behind, journaling "
+            + "or locking across processes.");
+      }
+
+      if (cacheEncoded && cache == null) {
+        throw new IllegalStateException("Caching encoded lists requires a cache.");
+      }
+
+      return new StoreOptions(this);
+    }
+  }
+}
@@ -0,0 +1,156 @@
+/*
+ * Copyright (C) GRIDSTONE 2017
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package au.com.gridstone.rxstore;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.lang.reflect.Type;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Tracks every live store by the canonical path of its file, so that all callers asking for a
+ * store on the same file share one instance, and with it one lock and one set of observers.
+ * <p>
+ * Stores are held weakly; a store nobody references any more can be collected and a later request
+ * for its file creates a new one. Closing a store removes it straight away.
+ */
+final class StoreRegistry {
+  private static final Map<File, Entry> entries = new HashMap<File, Entry>();
+  private static final ReferenceQueue<Object> collected = new ReferenceQueue<Object>();
+
+  private StoreRegistry() {
+    throw new AssertionError("No instances.");
+  }
+
+  interface Factory<S> {
+    S create(File canonicalFile);
+  }
+
+  /**
+   * Return the live store for file, or create one with factory if there is none. Configuration
+   * holds whatever the store was created with, such as its converter and options, and is compared
+   * using {@code equals()}.
+   *
+   * @throws IllegalStateException if the live store for file is not of kind, is for a different
+   * type, or was created with a different configuration.
+   */
+  @SuppressWarnings("unchecked") // Kind is checked before casting.
+  static synchronized <S> S obtain(File file, Class<?> kind, Type type, List<?> configuration,
+      Factory<S> factory) {
+    purgeCollected();
+    File canonicalFile = canonicalFile(file);
+    Entry entry = entries.get(canonicalFile);
+    Object store = entry == null ? null : entry.get();
+
+    if (store != null) {
+      if (!kind.isInstance(store)) {
+        throw new IllegalStateException("A " + describe(store.getClass()) + " is already open for "
+            + canonicalFile + ".");
+      }
+
+      if (!entry.type.equals(type)) {
+        throw new IllegalStateException("A store of " + entry.type + " is already open for "
+            + canonicalFile + ".");
+      }
+
+      if (!entry.configuration.equals(configuration)) {
+        throw new IllegalStateException("A store with a different converter or options is already "
+            + "open for " + canonicalFile + ".");
+      }
+
+      return (S) store;
+    }
+
+    S newStore = factory.create(canonicalFile);
+    entries.put(canonicalFile,
+        new Entry(canonicalFile, type, configuration, newStore, collected));
+    return newStore;
+  }
+
+  /**
+   * Return the live store for file, or null if there is none.
+   */
+  static synchronized Object get(File canonicalFile) {
+    Entry entry = entries.get(canonicalFile);
+    return entry == null ? null : entry.get();
+  }
+
+  /**
+   * Delete file unless it has a live store, in which case that store is returned so that the caller
+   * can clear it through its lock.
+   */
+  static synchronized Object deleteUnlessOpen(File canonicalFile) throws IOException {
+    Entry entry = entries.get(canonicalFile);
+    Object store = entry == null ? null : entry.get();
+    if (store != null) return store;
+
+    if (canonicalFile.exists() && !canonicalFile.delete()) {
+      throw new IOException("Failed to delete " + canonicalFile + ".");
+    }
+
+    return null;
+  }
+
+  /**
+   * Forget store, if it is the live store for its file.
+   */
+  static synchronized void remove(File canonicalFile, Object store) {
+    Entry entry = entries.get(canonicalFile);
+    if (entry != null && entry.get() == store) entries.remove(canonicalFile);
+  }
+
+  static File canonicalFile(File file) {
+    try {
+      return file.getCanonicalFile();
+    } catch (IOException e) {
+      return file.getAbsoluteFile();
+    }
+  }
+
+  private static void purgeCollected() {
+    for (Object reference = collected.poll(); reference != null; reference = collected.poll()) {
+      Entry entry = (Entry) reference;
+      if (entries.get(entry.file) == entry) entries.remove(entry.file);
+    }
+  }
+
+  private static String describe(Class<?> storeClass) {
+    if (ListStore.class.isAssignableFrom(storeClass)) return "ListStore";
+    if (ValueStore.class.isAssignableFrom(storeClass)) return "ValueStore";
+    if (SortedListStore.class.isAssignableFrom(storeClass)) return "SortedListStore";
+    if (SetStore.class.isAssignableFrom(storeClass)) return "SetStore";
+    return storeClass.getSimpleName();
+  }
+
+  private static final class Entry extends WeakReference<Object> {
+    final File file;
+    final Type type;
+    final List<?> configuration;
+
+    Entry(File file, Type type, List<?> configuration, Object store,
+        ReferenceQueue<Object> queue) {
+      super(store, queue);
+      this.file = file;
+      this.type = type;
+      this.configuration = configuration;
+    }
+  }
+}
@@ -0,0 +1,43 @@
+/*
+ * Copyright (C) GRIDSTONE 2019
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package au.com.gridstone.rxstore;
+
+import io.reactivex.annotations.NonNull;
+import io.reactivex.annotations.Nullable;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.reflect.Type;
+
+/**
+ * A {@link Converter} that can also work against raw byte streams rather than whole files. This
+ * allows stores and other converters to frame, wrap or split the serialized form of a value.
+ * <p>
+ * Implementations must not close the streams they are given; the caller owns them.
+ */
+public interface StreamConverter extends Converter {
+  /**
+   * Convert data into a serializable format and write it to output. Any buffered bytes must be
+   * flushed to output before this method returns.
+   */
+  <T> void write(@Nullable T data, @NonNull Type type, @NonNull OutputStream output)
+      throws ConverterException;
+
+  /**
+   * Pull typed data out of input. If input contains no bytes then null is returned.
+   */
+  @Nullable <T> T read(@NonNull InputStream input, @NonNull Type type) throws ConverterException;
+}
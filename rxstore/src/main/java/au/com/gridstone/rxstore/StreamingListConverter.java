@@ -0,0 +1,54 @@
+/*
+ * Copyright (C) GRIDSTONE 2017
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package au.com.gridstone.rxstore;
+
+import io.reactivex.annotations.NonNull;
+import java.io.OutputStream;
+import java.lang.reflect.Type;
+
+/**
+ * A {@link Converter} that can also write a {@code List} one element at a time, producing the same
+ * bytes as writing the whole {@code List} at once. This lets {@link
+ * ListStore#observePutAll(io.reactivex.Flowable)} persist a {@code List} that is never held in
+ * memory as a whole.
+ * <p>
+ * Implementations must not close the stream they are given; the caller owns it.
+ */
+public interface StreamingListConverter extends Converter {
+  /**
+   * Begin writing a {@code List} to output. Type is the type of the whole {@code List}, as it
+   * would be given to {@link #write(Object, Type, java.io.File)}.
+   */
+  @NonNull <T> ListWriter<T> writeList(@NonNull Type type, @NonNull OutputStream output)
+      throws ConverterException;
+
+  /**
+   * Writes the elements of one {@code List}, in order.
+   */
+  interface ListWriter<T> {
+    /**
+     * Write the next element of the {@code List}.
+     */
+    void write(@NonNull T element) throws ConverterException;
+
+    /**
+     * End the {@code List} and flush any buffered bytes to output. No elements may be written
+     * afterwards.
+     */
+    void finish() throws ConverterException;
+  }
+}
@@ -0,0 +1,353 @@
+/*
+ * Copyright (C) GRIDSTONE 2017
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package au.com.gridstone.rxstore;
+
+import io.reactivex.Completable;
+import io.reactivex.CompletableEmitter;
+import io.reactivex.CompletableOnSubscribe;
+import io.reactivex.annotations.NonNull;
+import io.reactivex.functions.Function;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+import java.util.zip.CheckedOutputStream;
+
+import static au.com.gridstone.rxstore.Utils.assertNotNull;
+
+/**
+ * Changes to several stores that are committed together: either every store sees its change, or
+ * none of them do. Create one with {@link RxStore#transaction(File)}.
+ * <pre>{@code
+ * RxStore.transaction(journalFile)
+ *     .put(userStore, user)
+ *     .update(messageStore, messages -> append(messages, message))
+ *     .commit()
+ *     .subscribe();
+ * }</pre>
+ * Committing locks every store involved, in a fixed order so that concurrent transactions can not
+ * deadlock. The new contents of each store are written beside it and synced to disk, and then a
+ * single record naming every change is synced to the journal file. That record is the commit
+ * point. The new files then replace the old ones, the journal is deleted, and observers of each
+ * store are notified.
+ * <p>
+ * If the process dies after the commit point, the changes are completed by the next call to {@link
+ * RxStore#transaction(File)} with the same journal file. Make that call at startup, before reading
+ * any of the stores involved, so that no partly applied transaction is ever observed. If it dies
+ * before the commit point, no store is changed.
+ * <p>
+ * Only stores created by {@link RxStore#value} and {@link RxStore#list} can take part, and not
+ * those using write-behind or journaling.
+ */
+public final class Transaction {
+  private static final int MAGIC = 0x52585458;
+
+  private final File journal;
+  private final Map<TransactionParticipant, List<Change>> changes =
+      new LinkedHashMap<TransactionParticipant, List<Change>>();
+
+  Transaction(File journal) {
+    this.journal = journal;
+  }
+
+  /**
+   * Replace the value of store.
+   */
+  @NonNull public <T> Transaction put(@NonNull ValueStore<T> store, @NonNull final T value) {
+    assertNotNull(value, "value");
+
+    return add(store, new Change() {
+      @Override public Object apply(Object contents) {
+        return value;
+      }
+    });
+  }
+
+  /**
+   * Replace the list in store.
+   */
+  @NonNull public <T> Transaction put(@NonNull ListStore<T> store, @NonNull final List<T> list) {
+    assertNotNull(list, "list");
+
+    return add(store, new Change() {
+      @Override public Object apply(Object contents) {
+        return list;
+      }
+    });
+  }
+
+  /**
+   * Replace the list in store with the result of function, which receives the list as it stands
+   * at this point of the transaction. Function is called while the transaction's stores are locked.
+   */
+  @NonNull public <T> Transaction update(@NonNull ListStore<T> store,
+      @NonNull final Function<List<T>, List<T>> function) {
+    assertNotNull(function, "function");
+
+    return add(store, new Change() {
+      @SuppressWarnings("unchecked") // Contents of a list store are always a list of its type.
+      @Override public Object apply(Object contents) throws Exception {
+        List<T> list = contents == null ? Collections.<T>emptyList() : (List<T>) contents;
+        List<T> result = function.apply(list);
+        assertNotNull(result, "Result of function");
+        return result;
+      }
+    });
+  }
+
+  /**
+   * Clear the value in store.
+   */
+  @NonNull public Transaction clear(@NonNull ValueStore<?> store) {
+    return add(store, Change.CLEAR);
+  }
+
+  /**
+   * Clear the list in store.
+   */
+  @NonNull public Transaction clear(@NonNull ListStore<?> store) {
+    return add(store, Change.CLEAR);
+  }
+
+  /**
+   * Apply every change atomically and observe the operation.
+   */
+  @NonNull public Completable commit() {
+    return Completable.create(new CompletableOnSubscribe() {
+      @Override public void subscribe(CompletableEmitter emitter) throws Exception {
+        synchronized (Transaction.class) {
+          recover(journal);
+          commitLocked();
+        }
+
+        emitter.onComplete();
+      }
+    });
+  }
+
+  private Transaction add(Object store, Change change) {
+    assertNotNull(store, "store");
+
+    if (!(store instanceof TransactionParticipant)
+        || !((TransactionParticipant) store).supportsTransactions()) {
+      throw new IllegalArgumentException("Store can not take part in a transaction: " + store);
+    }
+
+    TransactionParticipant participant = (TransactionParticipant) store;
+    List<Change> storeChanges = changes.get(participant);
+
+    if (storeChanges == null) {
+      storeChanges = new ArrayList<Change>();
+      changes.put(participant, storeChanges);
+    }
+
+    storeChanges.add(change);
+    return this;
+  }
+
+  private void commitLocked() throws Exception {
+    List<TransactionParticipant> participants =
+        new ArrayList<TransactionParticipant>(changes.keySet());
+
+    // Locking in path order means two transactions over the same stores can never deadlock.
+    Collections.sort(participants, new Comparator<TransactionParticipant>() {
+      @Override public int compare(TransactionParticipant a, TransactionParticipant b) {
+        return a.file().getPath().compareTo(b.file().getPath());
+      }
+    });
+
+    int locked = 0;
+
+    try {
+      for (TransactionParticipant participant : participants) {
+        participant.readWriteLock().writeLock().lock();
+        locked++;
+      }
+
+      Map<TransactionParticipant, Object> results =
+          new LinkedHashMap<TransactionParticipant, Object>();
+
+      for (TransactionParticipant participant : participants) {
+        Object contents = participant.readContents();
+
+        for (Change change : changes.get(participant)) {
+          contents = change.apply(contents);
+        }
+
+        results.put(participant, contents);
+      }
+
+      boolean committed = false;
+
+      try {
+        for (Map.Entry<TransactionParticipant, Object> result : results.entrySet()) {
+          if (result.getValue() != null) result.getKey().storeFile().prepare(result.getValue());
+        }
+
+        writeJournal(journal, results);
+        committed = true;
+      } finally {
+        if (!committed) {
+          for (TransactionParticipant participant : participants) {
+            participant.storeFile().preparedFile().delete();
+          }
+        }
+      }
+
+      for (Map.Entry<TransactionParticipant, Object> result : results.entrySet()) {
+        StoreFile storeFile = result.getKey().storeFile();
+
+        if (result.getValue() != null) {
+          storeFile.commitPrepared(storeFile.preparedFile());
+        } else if (!storeFile.delete()) {
+          throw new IOException("Failed to delete " + result.getKey().file() + ".");
+        }
+      }
+
+      if (!journal.delete()) throw new IOException("Failed to delete " + journal + ".");
+
+      for (Map.Entry<TransactionParticipant, Object> result : results.entrySet()) {
+        result.getKey().publish(result.getValue());
+      }
+    } finally {
+      for (int i = locked - 1; i >= 0; i--) {
+        participants.get(i).readWriteLock().writeLock().unlock();
+      }
+    }
+  }
+
+  /**
+   * The journal holds [int magic][int count], then [UTF path][boolean replaced] for each store,
+   * then a CRC32 of everything before it. Stores that are not replaced are deleted.
+   */
+  private static void writeJournal(File journal, Map<TransactionParticipant, Object> results)
+      throws IOException {
+    FileOutputStream fileOutput = new FileOutputStream(journal);
+
+    try {
+      CheckedOutputStream checkedOutput =
+          new CheckedOutputStream(new BufferedOutputStream(fileOutput), new CRC32());
+      DataOutputStream output = new DataOutputStream(checkedOutput);
+      output.writeInt(MAGIC);
+      output.writeInt(results.size());
+
+      for (Map.Entry<TransactionParticipant, Object> result : results.entrySet()) {
+        output.writeUTF(result.getKey().file().getPath());
+        output.writeBoolean(result.getValue() != null);
+      }
+
+      output.writeInt((int) checkedOutput.getChecksum().getValue());
+      output.flush();
+      fileOutput.getFD().sync();
+    } finally {
+      fileOutput.close();
+    }
+  }
+
+  /**
+   * Complete the transaction recorded in journal, if there is one. A journal that is incomplete
+   * belongs to a transaction that never reached its commit point, and is discarded.
+   */
+  static synchronized void recover(File journal) throws IOException {
+    if (!journal.exists()) return;
+
+    Map<File, Boolean> entries = readJournal(journal);
+
+    if (entries != null) {
+      for (Map.Entry<File, Boolean> entry : entries.entrySet()) {
+        redo(entry.getKey(), entry.getValue());
+      }
+    }
+
+    if (!journal.delete()) throw new IOException("Failed to delete " + journal + ".");
+  }
+
+  private static Map<File, Boolean> readJournal(File journal) throws IOException {
+    CheckedInputStream checkedInput = new CheckedInputStream(
+        new BufferedInputStream(new FileInputStream(journal)), new CRC32());
+    DataInputStream input = new DataInputStream(checkedInput);
+
+    try {
+      if (input.readInt() != MAGIC) return null;
+
+      int count = input.readInt();
+      Map<File, Boolean> entries = new LinkedHashMap<File, Boolean>();
+
+      for (int i = 0; i < count; i++) {
+        entries.put(new File(input.readUTF()), input.readBoolean());
+      }
+
+      int checksum = (int) checkedInput.getChecksum().getValue();
+      return input.readInt() == checksum ? entries : null;
+    } catch (EOFException e) {
+      return null;
+    } finally {
+      input.close();
+    }
+  }
+
+  private static void redo(File file, boolean replaced) throws IOException {
+    Object store = StoreRegistry.get(file);
+    TransactionParticipant participant =
+        store instanceof TransactionParticipant ? (TransactionParticipant) store : null;
+    if (participant != null) participant.readWriteLock().writeLock().lock();
+
+    try {
+      File preparedFile = new File(file.getAbsolutePath() + ".txn");
+
+      if (replaced) {
+        // A missing prepared file means this store was already replaced before the process died.
+        if (preparedFile.exists()
+            && ((file.exists() && !file.delete()) || !preparedFile.renameTo(file))) {
+          throw new IOException("Failed to replace " + file + " with " + preparedFile + ".");
+        }
+      } else if (file.exists() && !file.delete()) {
+        throw new IOException("Failed to delete " + file + ".");
+      }
+
+      if (participant != null) {
+        participant.storeFile().invalidate();
+        participant.publish(participant.readContents());
+      }
+    } finally {
+      if (participant != null) participant.readWriteLock().writeLock().unlock();
+    }
+  }
+
+  private interface Change {
+    Change CLEAR = new Change() {
+      @Override public Object apply(Object contents) {
+        return null;
+      }
+    };
+
+    Object apply(Object contents) throws Exception;
+  }
+}
@@ -0,0 +1,57 @@
+/*
+ * Copyright (C) GRIDSTONE 2017
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package au.com.gridstone.rxstore;
+
+import io.reactivex.annotations.Nullable;
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * A store whose file can be replaced as part of a {@link Transaction}, copied by a {@link
+ * Snapshot}, or changed by another process and reported by {@link FileWatcher}.
+ */
+interface TransactionParticipant {
+  File file();
+
+  ReentrantReadWriteLock readWriteLock();
+
+  StoreFile storeFile();
+
+  /**
+   * False if the store keeps state that a transaction would bypass, such as a journal or
+   * mutations held in memory.
+   */
+  boolean supportsTransactions();
+
+  /**
+   * False if the store's file alone does not hold its contents, such as when a journal records
+   * recent mutations.
+   */
+  boolean supportsSnapshots();
+
+  /**
+   * The store's current contents, or null if it is empty. Must be called holding the write lock.
+   */
+  @Nullable Object readContents() throws IOException;
+
+  /**
+   * Notify observers of new contents, which may be null if the store is now empty. Must be called
+   * holding the write lock.
+   */
+  void publish(@Nullable Object contents);
+}
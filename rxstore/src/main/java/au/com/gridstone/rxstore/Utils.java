@@ -16,9 +16,13 @@
 
 package au.com.gridstone.rxstore;
 
+import java.io.EOFException;
 import java.io.File;
 import java.io.IOException;
+import java.io.RandomAccessFile;
 import java.lang.reflect.Type;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
 
@@ -69,12 +73,62 @@ final class Utils {
     }
   }
 
+  /**
+   * Force the contents of file out to the storage device.
+   */
+  static void sync(File file) throws IOException {
+    RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw");
+
+    try {
+      randomAccessFile.getFD().sync();
+    } finally {
+      randomAccessFile.close();
+    }
+  }
+
+  static void readFully(FileChannel channel, ByteBuffer buffer, long position)
+      throws IOException {
+    while (buffer.hasRemaining()) {
+      if (channel.read(buffer, position + buffer.position()) == -1) throw new EOFException();
+    }
+  }
+
+  static void writeFully(FileChannel channel, ByteBuffer buffer, long position)
+      throws IOException {
+    while (buffer.hasRemaining()) {
+      channel.write(buffer, position + buffer.position());
+    }
+  }
+
+  /**
+   * Copy count bytes from position in source to targetPosition in target, without passing them
+   * through the Java heap where the platform allows.
+   */
+  static void transferFully(FileChannel source, long position, long count, FileChannel target,
+      long targetPosition) throws IOException {
+    target.position(targetPosition);
+
+    for (long transferred = 0; transferred < count; ) {
+      transferred += source.transferTo(position + transferred, count - transferred, target);
+    }
+  }
+
   static <T> void converterWrite(T value, Converter converter, Type type, File file)
       throws IOException {
     File tmpFile = new File(file.getAbsolutePath() + ".tmp");
     converter.write(value, type, tmpFile);
+    replace(file, tmpFile);
+  }
+
+  /**
+   * Move tmpFile over file. Renaming over the file, rather than deleting it first, leaves either
+   * the old or the new contents in place if the process dies. Platforms that can not rename over
+   * an existing file fall back to deleting it first.
+   */
+  static void replace(File file, File tmpFile) throws IOException {
+    if (tmpFile.renameTo(file)) return;
 
-    if (!file.delete() || !tmpFile.renameTo(file)) {
+    if ((file.exists() && !file.delete()) || !tmpFile.renameTo(file)) {
       throw new IOException("Failed to write value to file.");
     }
   }
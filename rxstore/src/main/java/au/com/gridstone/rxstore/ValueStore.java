@@ -86,6 +86,27 @@ public interface ValueStore<T> {
    */
   void clear(@NonNull Scheduler scheduler);
 
+  /**
+   * Persist any mutations that this store is holding in memory and observe the operation. Only
+   * stores created with {@link StoreOptions.Builder#writeBehind write-behind} hold mutations in
+   * memory; for any other store this completes immediately.
+   */
+  @NonNull Completable observeFlush();
+
+  /**
+   * Persist any mutations that this store is holding in memory, blocking until they are on disk.
+   */
+  void flush();
+
+  /**
+   * Flush this store and release it, blocking until any pending mutations are on disk. Observers
+   * of this store complete, and any further mutations fail with an {@link IllegalStateException}.
+   * <p>
+   * Every caller that opened a store on this file shares this instance, as described by {@link
+   * RxStore}, so closing it closes it for all of them.
+   */
+  void close();
+
   /**
    * Wraps the current value in a {@link ValueStore}. This is useful as {@link ValueStore#observe()}
    * is unable to deliver null objects in {@code onNext()} to represent an empty state. To that end,
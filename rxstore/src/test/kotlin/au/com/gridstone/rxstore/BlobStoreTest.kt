@@ -0,0 +1,132 @@
+/*
+ * Copyright (C) GRIDSTONE 2017
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package au.com.gridstone.rxstore
+
+import com.google.common.truth.Truth.assertThat
+import io.reactivex.schedulers.Schedulers
+import org.junit.Rule
+import org.junit.Test
+import org.junit.rules.TemporaryFolder
+import java.io.ByteArrayInputStream
+import java.io.File
+import java.io.FileOutputStream
+import java.io.IOException
+import java.io.RandomAccessFile
+import java.nio.ByteBuffer
+import java.util.Random
+
+class BlobStoreTest {
+  @Rule @JvmField val tempDir = TemporaryFolder().apply { create() }
+
+  private val file by lazy { File(tempDir.root, "blob") }
+  private val bytes = ByteArray(3 * 1024 * 1024).also { Random(42).nextBytes(it) }
+
+  private fun ByteBuffer.toBytes() = ByteArray(remaining()).also { duplicate().get(it) }
+
+  @Test fun emptyStoreHasNoBytes() {
+    val store = RxStore.blob(file)
+    assertThat(store.blockingGet()).isNull()
+    store.openStream().test().assertNoValues().assertComplete()
+    assertThat(store.observeTransferTo(FileOutputStream(tempDir.newFile()).channel).blockingGet())
+        .isEqualTo(0L)
+  }
+
+  @Test fun putFromFileAndReadMapped() {
+    val source = tempDir.newFile().apply { writeBytes(bytes) }
+    val store = RxStore.blob(file)
+    store.put(source, Schedulers.trampoline())
+
+    val buffer = store.blockingGet()!!
+    assertThat(buffer.isReadOnly).isTrue()
+    assertThat(buffer.toBytes()).isEqualTo(bytes)
+    assertThat(source.readBytes()).isEqualTo(bytes)
+  }
+
+  @Test fun putFromBufferLeavesItsPositionAlone() {
+    val source = ByteBuffer.wrap(bytes)
+    source.position(10)
+    val store = RxStore.blob(file)
+    store.put(source, Schedulers.trampoline())
+
+    assertThat(source.position()).isEqualTo(10)
+    assertThat(file.readBytes()).isEqualTo(bytes.copyOfRange(10, bytes.size))
+  }
+
+  @Test fun putFromStreamAndReadStream() {
+    val store = RxStore.blob(file)
+    store.put(ByteArrayInputStream(bytes), Schedulers.trampoline())
+
+    val read = store.openStream().blockingGet().use { it.readBytes() }
+    assertThat(read).isEqualTo(bytes)
+  }
+
+  @Test fun transferToChannel() {
+    val store = RxStore.blob(file)
+    store.put(ByteBuffer.wrap(bytes), Schedulers.trampoline())
+
+    val target = tempDir.newFile()
+    val count = FileOutputStream(target).use { store.observeTransferTo(it.channel).blockingGet() }
+
+    assertThat(count).isEqualTo(bytes.size.toLong())
+    assertThat(target.readBytes()).isEqualTo(bytes)
+  }
+
+  @Test fun readersKeepBytesCurrentWhenObtained() {
+    val store = RxStore.blob(file)
+    store.put(ByteBuffer.wrap(byteArrayOf(1, 2, 3)), Schedulers.trampoline())
+    val buffer = store.blockingGet()!!
+    val stream = store.openStream().blockingGet()
+
+    store.put(ByteBuffer.wrap(byteArrayOf(4, 5)), Schedulers.trampoline())
+
+    assertThat(buffer.toBytes()).isEqualTo(byteArrayOf(1, 2, 3))
+    assertThat(stream.use { it.readBytes() }).isEqualTo(byteArrayOf(1, 2, 3))
+    assertThat(store.blockingGet()!!.toBytes()).isEqualTo(byteArrayOf(4, 5))
+  }
+
+  @Test fun observersAreNotified() {
+    val store = RxStore.blob(file)
+    val observer = store.observe().test()
+    store.put(ByteBuffer.wrap(byteArrayOf(1)), Schedulers.trampoline())
+    store.put(ByteBuffer.allocate(0), Schedulers.trampoline())
+    store.clear(Schedulers.trampoline())
+
+    observer.assertValueCount(4)
+    assertThat(observer.values()[0].empty).isTrue()
+    assertThat(observer.values()[1].value!!.toBytes()).isEqualTo(byteArrayOf(1))
+    assertThat(observer.values()[2].value!!.remaining()).isEqualTo(0)
+    assertThat(observer.values()[3].empty).isTrue()
+    assertThat(file.exists()).isFalse()
+  }
+
+  @Test fun bytesTooLargeToMapAreReadAsStream() {
+    // A sparse file, so no disk space is used.
+    RandomAccessFile(file, "rw").use { it.setLength(Int.MAX_VALUE + 1L) }
+    val store = RxStore.blob(file)
+
+    store.get().test().assertError { it.cause is IOException }
+    store.observe().test().assertError { it.cause is IOException }
+    store.openStream().blockingGet().use { assertThat(it.read()).isEqualTo(0) }
+  }
+
+  @Test fun closedStoreRejectsWrites() {
+    val store = RxStore.blob(file)
+    store.close()
+    store.observePut(ByteBuffer.allocate(1)).test()
+        .assertError { it.cause is IllegalStateException }
+  }
+}
@@ -0,0 +1,85 @@
+/*
+ * Copyright (C) GRIDSTONE 2019
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package au.com.gridstone.rxstore
+
+import com.google.common.truth.Truth.assertThat
+import io.reactivex.Single
+import io.reactivex.schedulers.Schedulers
+import org.junit.Rule
+import org.junit.Test
+import org.junit.rules.TemporaryFolder
+
+class ChunkedListConverterTest {
+  @Rule @JvmField val tempDir = TemporaryFolder().apply { create() }
+
+  private val converter = ChunkedListConverter(TestData.converter, 3, Schedulers.computation())
+
+  @Test fun emptyStoreReadsEmpty() {
+    val store = RxStore.list<TestData>(tempDir.newFile(), converter, TestData::class.java)
+    assertThat(store.blockingGet()).isEmpty()
+
+    store.put(emptyList(), Schedulers.trampoline())
+    assertThat(store.blockingGet()).isEmpty()
+  }
+
+  @Test fun listSurvivesChunking() {
+    val store = RxStore.list<TestData>(tempDir.newFile(), converter, TestData::class.java)
+    val list = (1..10).map { TestData("$it", it) }
+    store.put(list, Schedulers.trampoline())
+    assertThat(store.blockingGet()).isEqualTo(list)
+
+    store.add(TestData("11", 11), Schedulers.trampoline())
+    assertThat(store.blockingGet()).isEqualTo(list.plus(TestData("11", 11)))
+  }
+
+  @Test(timeout = 10_000) fun readFromOnlyThreadOfDecodeSchedulerCompletes() {
+    val converter = ChunkedListConverter(TestData.converter, 3, Schedulers.single())
+    val store = RxStore.list<TestData>(tempDir.newFile(), converter, TestData::class.java)
+    val list = (1..10).map { TestData("$it", it) }
+    store.put(list, Schedulers.trampoline())
+
+    assertThat(store.get().subscribeOn(Schedulers.single()).blockingGet()).isEqualTo(list)
+  }
+
+  @Test(timeout = 10_000) fun readsFromEveryComputationThreadComplete() {
+    val store = RxStore.list<TestData>(tempDir.newFile(), converter, TestData::class.java)
+    val list = (1..100).map { TestData("$it", it) }
+    store.put(list, Schedulers.trampoline())
+
+    // More reads than computation threads, so every thread is blocked in a read at some point.
+    val reads = List(4 * Runtime.getRuntime().availableProcessors()) {
+      store.get().subscribeOn(Schedulers.computation())
+    }
+    assertThat(Single.merge(reads).toList().blockingGet()).containsExactlyElementsIn(
+        List(reads.size) { list })
+  }
+
+  @Test fun readsFileWrittenWithoutChunks() {
+    val file = tempDir.newFile()
+    val list = listOf(TestData("1", 1), TestData("2", 2))
+    TestData.converter.write(list, RealListStore.ListType(TestData::class.java), file)
+
+    val store = RxStore.list<TestData>(file, converter, TestData::class.java)
+    assertThat(store.blockingGet()).isEqualTo(list)
+  }
+
+  @Test fun valuesPassThrough() {
+    val store = RxStore.value<TestData>(tempDir.newFile(), converter, TestData::class.java)
+    store.put(TestData("1", 1), Schedulers.trampoline())
+    assertThat(store.blockingGet()).isEqualTo(TestData("1", 1))
+  }
+}
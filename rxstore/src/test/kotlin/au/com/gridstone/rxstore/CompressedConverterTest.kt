@@ -0,0 +1,93 @@
+/*
+ * Copyright (C) GRIDSTONE 2017
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package au.com.gridstone.rxstore
+
+import com.google.common.truth.Truth.assertThat
+import io.reactivex.schedulers.Schedulers
+import org.junit.Rule
+import org.junit.Test
+import org.junit.rules.TemporaryFolder
+import java.io.File
+import java.lang.reflect.Type
+import java.util.zip.Deflater
+import java.util.zip.GZIPInputStream
+import java.util.zip.InflaterInputStream
+
+class CompressedConverterTest {
+  @Rule @JvmField val tempDir = TemporaryFolder().apply { create() }
+
+  private val list = (1..500).map { TestData("Repetitive value $it", it) }
+
+  @Test fun listSurvivesCompression() {
+    val converter = CompressedConverter(TestData.converter)
+    val file = tempDir.newFile()
+    val store = RxStore.list<TestData>(file, converter, TestData::class.java)
+    assertThat(store.blockingGet()).isEmpty()
+
+    store.put(list, Schedulers.trampoline())
+    assertThat(store.blockingGet()).isEqualTo(list)
+
+    // GZIP output can be read back by any other GZIP implementation.
+    val raw = GZIPInputStream(file.inputStream()).use { it.readBytes() }
+    assertThat(raw.size.toLong()).isEqualTo(converter.stats().uncompressedBytes())
+  }
+
+  @Test fun valueSurvivesDeflate() {
+    val converter =
+        CompressedConverter(TestData.converter, Compression.deflate(Deflater.BEST_SPEED))
+    val file = tempDir.newFile()
+    val store = RxStore.value<TestData>(file, converter, TestData::class.java)
+    assertThat(store.blockingGet()).isNull()
+
+    store.put(TestData("1", 1), Schedulers.trampoline())
+    assertThat(store.blockingGet()).isEqualTo(TestData("1", 1))
+
+    // Deflate output is zlib wrapped, so it can be read back by any other zlib implementation.
+    val raw = InflaterInputStream(file.inputStream()).use { it.readBytes() }
+    assertThat(String(raw)).isEqualTo("1,1")
+  }
+
+  @Test fun fileOnlyConverterGoesThroughTempFile() {
+    val fileOnly = object : Converter {
+      override fun <T : Any?> write(data: T?, type: Type, file: File) {
+        TestData.converter.write(data, type, file)
+      }
+
+      override fun <T : Any?> read(file: File, type: Type): T? =
+          TestData.converter.read(file, type)
+    }
+
+    val store = RxStore.list<TestData>(tempDir.newFile(), CompressedConverter(fileOnly),
+        TestData::class.java)
+    store.put(list, Schedulers.trampoline())
+    assertThat(store.blockingGet()).isEqualTo(list)
+  }
+
+  @Test fun statsReportCompression() {
+    val converter = CompressedConverter(TestData.converter)
+    val store = RxStore.list<TestData>(tempDir.newFile(), converter, TestData::class.java)
+    store.put(list, Schedulers.trampoline())
+    store.blockingGet()
+
+    val stats = converter.stats()
+    assertThat(stats.writeCount()).isEqualTo(1)
+    assertThat(stats.readCount()).isEqualTo(1)
+    assertThat(stats.compressedBytes()).isLessThan(stats.uncompressedBytes())
+    assertThat(stats.compressionRatio()).isLessThan(0.5)
+    assertThat(stats.compressNanos()).isGreaterThan(0L)
+  }
+}
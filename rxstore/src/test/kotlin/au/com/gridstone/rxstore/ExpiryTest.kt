@@ -0,0 +1,146 @@
+/*
+ * Copyright (C) GRIDSTONE 2017
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package au.com.gridstone.rxstore
+
+import au.com.gridstone.rxstore.ValueStore.ValueUpdate
+import com.google.common.truth.Truth.assertThat
+import io.reactivex.schedulers.Schedulers
+import io.reactivex.schedulers.TestScheduler
+import org.junit.Rule
+import org.junit.Test
+import org.junit.rules.TemporaryFolder
+import java.io.File
+import java.lang.ref.WeakReference
+import java.util.concurrent.TimeUnit.MILLISECONDS
+import java.util.concurrent.TimeUnit.MINUTES
+import java.util.concurrent.TimeUnit.SECONDS
+
+class ExpiryTest {
+  @Rule @JvmField val tempDir = TemporaryFolder().apply { create() }
+
+  private val scheduler = TestScheduler()
+  private val options = StoreOptions.Builder().expireAfterWrite(1, MINUTES, scheduler).build()
+
+  private fun newValueStore(file: File = tempDir.newFile()): ValueStore<TestData> =
+      RxStore.value(file, TestData.converter, TestData::class.java, options)
+
+  @Test fun valueExpiresAfterWrite() {
+    val file = tempDir.newFile()
+    val store = newValueStore(file)
+    store.put(TestData("1", 1), Schedulers.trampoline())
+    val testObserver = store.observe().test()
+
+    scheduler.advanceTimeBy(59, SECONDS)
+    assertThat(store.blockingGet()).isEqualTo(TestData("1", 1))
+
+    scheduler.advanceTimeBy(1, SECONDS)
+    assertThat(store.blockingGet()).isNull()
+    testObserver.assertValues(ValueUpdate(TestData("1", 1)), ValueUpdate.empty())
+    assertThat(file.exists()).isFalse()
+    assertThat(Expiry.expiryFile(file).exists()).isFalse()
+  }
+
+  @Test fun writeRestartsExpiry() {
+    val store = newValueStore()
+    store.put(TestData("1", 1), Schedulers.trampoline())
+    scheduler.advanceTimeBy(30, SECONDS)
+    store.put(TestData("2", 2), Schedulers.trampoline())
+
+    scheduler.advanceTimeBy(59, SECONDS)
+    assertThat(store.blockingGet()).isEqualTo(TestData("2", 2))
+
+    scheduler.advanceTimeBy(1, SECONDS)
+    assertThat(store.blockingGet()).isNull()
+  }
+
+  @Test fun listExpiresAfterWrite() {
+    val store =
+        RxStore.list<TestData>(tempDir.newFile(), TestData.converter, TestData::class.java, options)
+    store.put(listOf(TestData("1", 1)), Schedulers.trampoline())
+    val testObserver = store.observe().test()
+
+    scheduler.advanceTimeBy(1, MINUTES)
+    assertThat(store.blockingGet()).isEmpty()
+    testObserver.assertValues(listOf(TestData("1", 1)), emptyList())
+  }
+
+  @Test fun expiredContentsAreNotDecoded() {
+    val file = tempDir.newFile()
+    file.writeText("not a TestData")
+    Expiry.write(Expiry.expiryFile(file), scheduler.now(MILLISECONDS))
+
+    val store = newValueStore(file)
+    assertThat(store.blockingGet()).isNull()
+
+    scheduler.triggerActions()
+    assertThat(file.exists()).isFalse()
+  }
+
+  @Test fun storesWithoutExpiryFileNeverExpire() {
+    val file = tempDir.newFile()
+    file.writeText("1,1")
+    val store = newValueStore(file)
+
+    scheduler.advanceTimeBy(1, MINUTES)
+    assertThat(store.blockingGet()).isEqualTo(TestData("1", 1))
+  }
+
+  @Test fun sweepDeletesExpiredStoresThatAreNotOpen() {
+    val expired = File(tempDir.root, "expired")
+    val fresh = File(tempDir.root, "fresh")
+    val open = File(tempDir.root, "open")
+    val now = System.currentTimeMillis()
+    listOf(expired, fresh, open).forEach { it.writeText("1,1") }
+    Expiry.write(Expiry.expiryFile(expired), now - 1)
+    Expiry.write(Expiry.expiryFile(fresh), now + 60_000)
+    Expiry.write(Expiry.expiryFile(open), now - 1)
+    val openStore = newValueStore(open)
+
+    RxStore.sweep(tempDir.root).test().assertValue(1)
+
+    assertThat(tempDir.root.list()).asList()
+        .containsExactly("fresh", "fresh.expires", "open", "open.expires")
+    openStore.close()
+  }
+
+  @Test fun sweepUsesClockOfExpiryScheduler() {
+    val file = tempDir.newFile()
+    val store = newValueStore(file)
+    store.put(TestData("1", 1), Schedulers.trampoline())
+    store.close()
+
+    RxStore.sweep(tempDir.root, scheduler).test().assertValue(0)
+    scheduler.advanceTimeBy(1, MINUTES)
+    RxStore.sweep(tempDir.root, scheduler).test().assertValue(1)
+    assertThat(file.exists()).isFalse()
+  }
+
+  @Test fun expiryTaskDoesNotKeepStoreAlive() {
+    val reference = putAndForget(newValueStore())
+    repeat(10) { if (reference.get() != null) System.gc() }
+    assertThat(reference.get()).isNull()
+  }
+
+  private fun putAndForget(store: ValueStore<TestData>): WeakReference<ValueStore<TestData>> {
+    store.put(TestData("1", 1), Schedulers.trampoline())
+    return WeakReference(store)
+  }
+
+  @Test(expected = IllegalStateException::class) fun expiryCanNotBeCombinedWithWriteBehind() {
+    StoreOptions.Builder().expireAfterWrite(1, MINUTES).writeBehind(1, SECONDS).build()
+  }
+}
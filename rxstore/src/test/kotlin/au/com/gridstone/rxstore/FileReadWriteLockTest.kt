@@ -0,0 +1,188 @@
+/*
+ * Copyright (C) GRIDSTONE 2017
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package au.com.gridstone.rxstore
+
+import com.google.common.truth.Truth.assertThat
+import io.reactivex.schedulers.Schedulers
+import org.junit.After
+import org.junit.Assert.fail
+import org.junit.Rule
+import org.junit.Test
+import org.junit.rules.TemporaryFolder
+import java.io.File
+import java.io.RandomAccessFile
+import java.nio.channels.OverlappingFileLockException
+import java.util.concurrent.TimeUnit.MILLISECONDS
+import java.util.concurrent.TimeUnit.SECONDS
+
+class FileReadWriteLockTest {
+  @Rule @JvmField val tempDir = TemporaryFolder().apply { create() }
+
+  private val options = StoreOptions.Builder().lockAcrossProcesses(true).build()
+  private val processes = mutableListOf<Process>()
+
+  private val file by lazy { File(tempDir.root, "store") }
+
+  private fun newTestStore(): ListStore<TestData> =
+      RxStore.list(file, TestData.converter, TestData::class.java, options)
+
+  /** Start another JVM that holds the store's lock file until its input is closed. */
+  private fun lockInOtherProcess(shared: Boolean): Process {
+    val java = File(System.getProperty("java.home"), "bin/java").path
+    val process = ProcessBuilder(java, "-cp", System.getProperty("java.class.path"),
+        LockHolder::class.java.name, "${file.absolutePath}.lock", shared.toString())
+        .redirectErrorStream(true)
+        .start()
+    processes += process
+    assertThat(process.inputStream.bufferedReader().readLine()).isEqualTo("locked")
+    return process
+  }
+
+  private fun FileReadWriteLock.readWriteLockIsFree() = readLockCount == 0 && !isWriteLocked
+
+  @After fun destroyProcesses() {
+    processes.forEach { it.destroy() }
+  }
+
+  @Test fun otherProcessHoldingLockBlocksWrites() {
+    val store = newTestStore()
+    val process = lockInOtherProcess(shared = false)
+
+    val observer = store.observeAdd(TestData("1", 1)).subscribeOn(Schedulers.io()).test()
+    assertThat(observer.await(500, MILLISECONDS)).isFalse()
+
+    process.outputStream.close()
+    observer.awaitTerminalEvent(10, SECONDS)
+    observer.assertValue(listOf(TestData("1", 1)))
+  }
+
+  @Test fun otherProcessReadingAllowsReadsButBlocksWrites() {
+    val store = newTestStore()
+    store.add(TestData("1", 1), Schedulers.trampoline())
+    val process = lockInOtherProcess(shared = true)
+
+    assertThat(store.blockingGet()).containsExactly(TestData("1", 1))
+
+    val observer = store.observeClear().subscribeOn(Schedulers.io()).test()
+    assertThat(observer.await(500, MILLISECONDS)).isFalse()
+
+    process.outputStream.close()
+    observer.awaitTerminalEvent(10, SECONDS)
+    observer.assertValue(emptyList())
+  }
+
+  @Test fun concurrentReadersShareOneFileLock() {
+    val store = newTestStore()
+    store.add(TestData("1", 1), Schedulers.trampoline())
+
+    val observers = (1..20).map { store.get().subscribeOn(Schedulers.io()).test() }
+
+    observers.forEach {
+      it.awaitTerminalEvent(10, SECONDS)
+      it.assertValue(listOf(TestData("1", 1)))
+    }
+  }
+
+  @Test fun readingWhileWritingIsAllowed() {
+    val lock = FileReadWriteLock(File("${file.absolutePath}.lock"))
+    lock.writeLock().lock()
+    lock.writeLock().lock()
+    lock.readLock().lock()
+    lock.readLock().unlock()
+    lock.writeLock().unlock()
+    lock.writeLock().unlock()
+
+    // Everything was released, so a fresh exclusive lock can be taken from this process.
+    RandomAccessFile("${file.absolutePath}.lock", "rw").channel.use { channel ->
+      assertThat(channel.tryLock()).isNotNull()
+    }
+  }
+
+  @Test(timeout = 10_000) fun writingFromInsideReadKeepsLocksBalanced() {
+    val store = newTestStore()
+    store.get().subscribe { _ -> store.add(TestData("1", 1), Schedulers.trampoline()) }
+
+    assertThat(store.blockingGet()).containsExactly(TestData("1", 1))
+    store.add(TestData("2", 2), Schedulers.trampoline())
+    assertThat(store.blockingGet()).hasSize(2)
+
+    // Every read released its share of the file lock, so another process can take it.
+    lockInOtherProcess(shared = false)
+  }
+
+  @Test fun readsTakenWhileWritingKeepFileLockedAfterWrite() {
+    val lock = FileReadWriteLock(File("${file.absolutePath}.lock"))
+    lock.writeLock().lock()
+    lock.readLock().lock()
+    lock.writeLock().unlock()
+
+
+    // This process still holds the file, so it can not be locked again from here.
+    RandomAccessFile("${file.absolutePath}.lock", "rw").channel.use { channel ->
+      try {
+        channel.tryLock()
+        fail("Expected the file to be locked.")
+      } catch (expected: OverlappingFileLockException) {
+      }
+    }
+
+    lock.readLock().unlock()
+
+    RandomAccessFile("${file.absolutePath}.lock", "rw").channel.use { channel ->
+      assertThat(channel.tryLock()).isNotNull()
+    }
+  }
+
+  @Test fun tryLockFailsWhileOtherProcessHoldsFile() {
+    val lock = FileReadWriteLock(File("${file.absolutePath}.lock"))
+    val process = lockInOtherProcess(shared = false)
+
+    assertThat(lock.readLock().tryLock()).isFalse()
+    assertThat(lock.writeLock().tryLock(100, MILLISECONDS)).isFalse()
+    assertThat(lock.readWriteLockIsFree()).isTrue()
+
+    process.outputStream.close()
+    process.waitFor()
+    assertThat(lock.writeLock().tryLock(10, SECONDS)).isTrue()
+    lock.writeLock().unlock()
+    assertThat(lock.readLock().tryLock()).isTrue()
+    lock.readLock().unlock()
+  }
+
+  @Test(timeout = 10_000) fun closedStoreReleasesLockFile() {
+    val store = newTestStore()
+    store.add(TestData("1", 1), Schedulers.trampoline())
+    store.close()
+
+    lockInOtherProcess(shared = false)
+  }
+
+  @Test(expected = IllegalStateException::class)
+  fun cannotCombineWithWriteBehind() {
+    options.newBuilder().writeBehind(1, SECONDS).build()
+  }
+}
+
+/** Run in another process to hold a lock on the file named by the first argument. */
+object LockHolder {
+  @JvmStatic fun main(args: Array<String>) {
+    val channel = RandomAccessFile(args[0], "rw").channel
+    channel.lock(0, Long.MAX_VALUE, args[1].toBoolean())
+    println("locked")
+    System.`in`.read()
+  }
+}
@@ -0,0 +1,97 @@
+/*
+ * Copyright (C) GRIDSTONE 2017
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package au.com.gridstone.rxstore
+
+import com.google.common.truth.Truth.assertThat
+import io.reactivex.schedulers.Schedulers
+import org.junit.Rule
+import org.junit.Test
+import org.junit.rules.TemporaryFolder
+import java.io.File
+import java.lang.reflect.Type
+import java.util.concurrent.TimeUnit.SECONDS
+
+class FileWatcherTest {
+  @Rule @JvmField val tempDir = TemporaryFolder().apply { create() }
+
+  private val options = StoreOptions.Builder().watchExternalChanges(true).build()
+  private val listType = RealListStore.ListType(TestData::class.java)
+
+  /** Replace file as another process would, bypassing the store entirely. */
+  private fun <T> writeExternally(file: File, value: T, type: Type) {
+    val tmpFile = File(file.parentFile, "${file.name}.external")
+    TestData.converter.write(value, type, tmpFile)
+    assertThat(tmpFile.renameTo(file)).isTrue()
+  }
+
+  @Test fun externalChangeToValueIsObserved() {
+    val file = File(tempDir.root, "value")
+    val store = RxStore.value<TestData>(file, TestData.converter, TestData::class.java, options)
+    val observer = store.observe().map { it.value ?: TestData("none", 0) }.test()
+    observer.awaitCount(1)
+
+    writeExternally(file, TestData("external", 1), TestData::class.java)
+
+    // Platforms without native file notifications poll every few seconds.
+    observer.awaitCount(2, {}, SECONDS.toMillis(15))
+    observer.assertValues(TestData("none", 0), TestData("external", 1))
+  }
+
+  @Test fun externalChangeToListIsObserved() {
+    val file = File(tempDir.root, "list")
+    val store = RxStore.list<TestData>(file, TestData.converter, TestData::class.java, options)
+    val observer = store.observe().test()
+    observer.awaitCount(1)
+
+    writeExternally(file, listOf(TestData("external", 1)), listType)
+
+    observer.awaitCount(2, {}, SECONDS.toMillis(15))
+    observer.assertValueAt(1, listOf(TestData("external", 1)))
+  }
+
+  @Test fun ownWritesAreNotObservedTwice() {
+    val file = File(tempDir.root, "value")
+    val store = RxStore.value<TestData>(file, TestData.converter, TestData::class.java, options)
+    val observer = store.observe().test()
+    observer.awaitCount(1)
+
+    store.put(TestData("own", 1), Schedulers.trampoline())
+    writeExternally(file, TestData("external", 2), TestData::class.java)
+
+    // The external write is only seen after the watcher has handled the events of the own write.
+    observer.awaitCount(3, {}, SECONDS.toMillis(15))
+    assertThat(observer.values().map { it.value })
+        .containsExactly(null, TestData("own", 1), TestData("external", 2)).inOrder()
+  }
+
+  @Test fun stopsWatchingWithoutSubscribers() {
+    val file = File(tempDir.root, "value")
+    val store = RxStore.value<TestData>(file, TestData.converter, TestData::class.java, options)
+    store.observe().test().dispose()
+
+    writeExternally(file, TestData("external", 1), TestData::class.java)
+    val observer = store.observe().test()
+
+    observer.awaitCount(2, {}, SECONDS.toMillis(2))
+    observer.assertValueCount(1)
+  }
+
+  @Test(expected = IllegalStateException::class)
+  fun cannotCombineWithWriteBehind() {
+    options.newBuilder().writeBehind(1, SECONDS).build()
+  }
+}
@@ -0,0 +1,147 @@
+/*
+ * Copyright (C) GRIDSTONE 2017
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package au.com.gridstone.rxstore
+
+import com.google.common.truth.Truth.assertThat
+import io.reactivex.schedulers.Schedulers
+import org.junit.Rule
+import org.junit.Test
+import org.junit.rules.TemporaryFolder
+import java.io.File
+import java.io.RandomAccessFile
+
+class ListJournalTest {
+  @Rule @JvmField val tempDir = TemporaryFolder().apply { create() }
+
+  private val listType = RealListStore.ListType(TestData::class.java)
+
+  private fun newJournaledStore(file: File, checkpointInterval: Int = 100): ListStore<TestData> {
+    val options = StoreOptions.Builder().journal(checkpointInterval).build()
+    return RxStore.list(file, TestData.converter, TestData::class.java, options)
+  }
+
+  private fun File.journal() = File("$absolutePath.journal")
+
+  @Test fun mutationsAreJournaledAndReplayed() {
+    val file = File(tempDir.root, "store")
+    val store = newJournaledStore(file)
+    store.add(TestData("1", 1), Schedulers.trampoline())
+    store.add(TestData("2", 2), Schedulers.trampoline())
+    store.add(TestData("3", 3), Schedulers.trampoline())
+    store.replace(TestData("two", 2), Schedulers.trampoline()) { it.integer == 2 }
+    store.remove(0, Schedulers.trampoline())
+    val expected = listOf(TestData("two", 2), TestData("3", 3))
+    assertThat(store.blockingGet()).isEqualTo(expected)
+    assertThat(file.exists()).isFalse()
+    store.close()
+
+    assertThat(newJournaledStore(file).blockingGet()).isEqualTo(expected)
+  }
+
+  @Test fun checkpointRewritesFileAndEmptiesJournal() {
+    val file = File(tempDir.root, "store")
+    val store = newJournaledStore(file, 2)
+    store.add(TestData("1", 1), Schedulers.trampoline())
+    store.add(TestData("2", 2), Schedulers.trampoline())
+
+    assertThat(TestData.converter.read<List<TestData>>(file, listType))
+        .containsExactly(TestData("1", 1), TestData("2", 2))
+    assertThat(file.journal().length()).isEqualTo(36L)
+  }
+
+  @Test fun putAndClearAreReplayed() {
+    val file = File(tempDir.root, "store")
+    val store = newJournaledStore(file)
+    store.put(listOf(TestData("1", 1)), Schedulers.trampoline())
+    store.add(TestData("2", 2), Schedulers.trampoline())
+    store.clear(Schedulers.trampoline())
+    store.add(TestData("3", 3), Schedulers.trampoline())
+    store.close()
+
+    assertThat(newJournaledStore(file).blockingGet()).containsExactly(TestData("3", 3))
+  }
+
+  @Test fun callersCanNotChangeJournaledListWithoutARecord() {
+    val file = File(tempDir.root, "store")
+    val store = newJournaledStore(file)
+    val put = mutableListOf(TestData("1", 1))
+    store.put(put, Schedulers.trampoline())
+    put.add(TestData("junk", 0))
+
+    val added = store.observeAdd(TestData("2", 2)).blockingGet() as MutableList<TestData>
+    added.add(TestData("junk", 0))
+
+    val expected = listOf(TestData("1", 1), TestData("2", 2))
+    assertThat(store.blockingGet()).isEqualTo(expected)
+    store.close()
+    assertThat(newJournaledStore(file).blockingGet()).isEqualTo(expected)
+  }
+
+  @Test(expected = UnsupportedOperationException::class) fun journaledListIsUnmodifiable() {
+    val store = newJournaledStore(File(tempDir.root, "store"))
+    store.add(TestData("1", 1), Schedulers.trampoline())
+    (store.blockingGet() as MutableList<TestData>).clear()
+  }
+
+  @Test fun tornRecordIsDiscarded() {
+    val file = File(tempDir.root, "store")
+    val store = newJournaledStore(file)
+    store.add(TestData("1", 1), Schedulers.trampoline())
+    store.add(TestData("2", 2), Schedulers.trampoline())
+    store.close()
+
+    RandomAccessFile(file.journal(), "rw").use { it.setLength(it.length() - 2) }
+
+    val recovered = newJournaledStore(file)
+    assertThat(recovered.blockingGet()).containsExactly(TestData("1", 1))
+    recovered.add(TestData("3", 3), Schedulers.trampoline())
+    recovered.close()
+
+    assertThat(newJournaledStore(file).blockingGet())
+        .containsExactly(TestData("1", 1), TestData("3", 3)).inOrder()
+  }
+
+  @Test fun journalForOlderFileIsNotReplayedTwice() {
+    val file = File(tempDir.root, "store")
+    val store = newJournaledStore(file)
+    store.add(TestData("1", 1), Schedulers.trampoline())
+    store.close()
+
+    // As if a checkpoint replaced the file but died before starting a new journal.
+    TestData.converter.write(listOf(TestData("1", 1)), listType, file)
+
+    assertThat(newJournaledStore(file).blockingGet()).containsExactly(TestData("1", 1))
+  }
+
+  @Test fun closedStoreRejectsJournaledMutations() {
+    val file = File(tempDir.root, "store")
+    val store = newJournaledStore(file)
+    store.add(TestData("1", 1), Schedulers.trampoline())
+    store.close()
+
+    store.observeAdd(TestData("2", 2)).test()
+        .assertError { it.cause is IllegalStateException }
+    store.observeRemove(0).test().assertError { it.cause is IllegalStateException }
+    store.observeClear().test().assertError { it.cause is IllegalStateException }
+    assertThat(newJournaledStore(file).blockingGet()).containsExactly(TestData("1", 1))
+  }
+
+  @Test(expected = IllegalArgumentException::class) fun valueStoresCanNotBeJournaled() {
+    val options = StoreOptions.Builder().journal(10).build()
+    RxStore.value<TestData>(tempDir.newFile(), TestData.converter, TestData::class.java, options)
+  }
+}
@@ -17,7 +17,9 @@
 package au.com.gridstone.rxstore
 
 import com.google.common.truth.Truth.assertThat
+import io.reactivex.Flowable
 import io.reactivex.schedulers.Schedulers
+import io.reactivex.schedulers.TestScheduler
 import org.junit.Rule
 import org.junit.Test
 import org.junit.rules.TemporaryFolder
@@ -26,6 +28,8 @@ import java.util.concurrent.TimeUnit.SECONDS
 class ListStoreTest {
   @Rule @JvmField val tempDir = TemporaryFolder().apply { create() }
 
+  private val listType = RealListStore.ListType(TestData::class.java)
+
   private fun newTestStore(): ListStore<TestData> =
       RxStore.list(tempDir.newFile(), TestData.converter, TestData::class.java)
 
@@ -225,4 +229,112 @@ class ListStoreTest {
     val producedList = store.observeClear().timeout(1, SECONDS).blockingGet()
     assertThat(producedList).isEmpty()
   }
+
+  @Test fun dedupedWritesCompareAgainstExistingFile() {
+    val file = tempDir.newFile()
+    val list = listOf(TestData("1", 1), TestData("2", 2))
+    TestData.converter.write(list, listType, file)
+    file.setLastModified(0)
+
+    val options = StoreOptions.Builder().dedupeWrites(true).build()
+    val store = RxStore.list<TestData>(file, TestData.converter, TestData::class.java, options)
+    val testObserver = store.observe().test()
+
+    store.put(list, Schedulers.trampoline())
+    store.replace(TestData("2", 2), Schedulers.trampoline()) { it.integer == 2 }
+    assertThat(file.lastModified()).isEqualTo(0L)
+
+    store.addOrReplace(TestData("3", 3), Schedulers.trampoline()) { it.integer == 3 }
+    assertThat(file.lastModified()).isNotEqualTo(0L)
+    testObserver.assertValues(list, list.plus(TestData("3", 3)))
+  }
+
+  @Test fun dedupedWritesWorkWithFileOnlyConverters() {
+    val fileOnly = object : Converter by TestData.converter {}
+    val file = tempDir.newFile()
+    val options = StoreOptions.Builder().dedupeWrites(true).build()
+    val store = RxStore.list<TestData>(file, fileOnly, TestData::class.java, options)
+    val list = listOf(TestData("1", 1))
+    store.put(list, Schedulers.trampoline())
+    file.setLastModified(0)
+
+    store.put(list, Schedulers.trampoline())
+    assertThat(file.lastModified()).isEqualTo(0L)
+    assertThat(store.blockingGet()).isEqualTo(list)
+    assertThat(tempDir.root.list()).asList().containsExactly(file.name)
+  }
+
+  @Test fun writeBehindPersistsBurstAfterDelay() {
+    val file = tempDir.newFile()
+    val scheduler = TestScheduler()
+    val options = StoreOptions.Builder().writeBehind(1, SECONDS, scheduler).build()
+    val store = RxStore.list<TestData>(file, TestData.converter, TestData::class.java, options)
+    val testObserver = store.observe().test()
+
+    store.add(TestData("1", 1), Schedulers.trampoline())
+    store.add(TestData("2", 2), Schedulers.trampoline())
+    val list = listOf(TestData("1", 1), TestData("2", 2))
+    assertThat(store.blockingGet()).isEqualTo(list)
+    testObserver.assertValues(emptyList(), list.take(1), list)
+    assertThat(file.length()).isEqualTo(0L)
+
+    scheduler.advanceTimeBy(1, SECONDS)
+    assertThat(TestData.converter.read<List<TestData>>(file, listType)).isEqualTo(list)
+  }
+
+  @Test fun writeBehindPersistsOnceMaxPendingReached() {
+    val file = tempDir.newFile()
+    val scheduler = TestScheduler()
+    val options = StoreOptions.Builder()
+        .writeBehind(1, SECONDS, scheduler)
+        .writeBehindMaxPending(2)
+        .build()
+    val store = RxStore.list<TestData>(file, TestData.converter, TestData::class.java, options)
+
+    store.add(TestData("1", 1), Schedulers.trampoline())
+    scheduler.triggerActions()
+    assertThat(file.length()).isEqualTo(0L)
+
+    store.add(TestData("2", 2), Schedulers.trampoline())
+    scheduler.triggerActions()
+    assertThat(TestData.converter.read<List<TestData>>(file, listType))
+        .containsExactly(TestData("1", 1), TestData("2", 2))
+  }
+
+  @Test fun putAllStreamsIntoStore() {
+    val file = tempDir.newFile()
+    val converter = ChunkedListConverter(TestData.converter, 16, Schedulers.trampoline())
+    val store = RxStore.list<TestData>(file, converter, TestData::class.java)
+    val testObserver = store.observe().test()
+
+    store.putAll(Flowable.range(0, 1000).map { TestData("$it", it) }, Schedulers.trampoline())
+
+    val list = List(1000) { TestData("$it", it) }
+    assertThat(store.blockingGet()).isEqualTo(list)
+    testObserver.assertValues(emptyList(), list)
+    assertThat(tempDir.root.list()).asList().containsExactly(file.name)
+  }
+
+  @Test fun failedPutAllLeavesStoreUnchanged() {
+    val file = tempDir.newFile()
+    val converter = ChunkedListConverter(TestData.converter, 16, Schedulers.trampoline())
+    val store = RxStore.list<TestData>(file, converter, TestData::class.java)
+    val list = listOf(TestData("1", 1))
+    store.put(list, Schedulers.trampoline())
+
+    val values = Flowable.range(0, 100)
+        .map { TestData("$it", it) }
+        .concatWith(Flowable.error(IllegalStateException()))
+    store.observePutAll(values).test().assertError(IllegalStateException::class.java)
+
+    assertThat(store.blockingGet()).isEqualTo(list)
+    assertThat(tempDir.root.list()).asList().containsExactly(file.name)
+  }
+
+  @Test fun putAllCollectsForNonStreamingConverter() {
+    val store = newTestStore()
+    val list = listOf(TestData("1", 1), TestData("2", 2))
+    store.putAll(Flowable.fromIterable(list), Schedulers.trampoline())
+    assertThat(store.blockingGet()).isEqualTo(list)
+  }
 }
@@ -0,0 +1,78 @@
+/*
+ * Copyright (C) GRIDSTONE 2019
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package au.com.gridstone.rxstore
+
+import com.google.common.truth.Truth.assertThat
+import io.reactivex.schedulers.Schedulers
+import org.junit.Rule
+import org.junit.Test
+import org.junit.rules.TemporaryFolder
+import java.io.File
+import java.io.RandomAccessFile
+import java.lang.reflect.Type
+
+class MappedConverterTest {
+  @Rule @JvmField val tempDir = TemporaryFolder().apply { create() }
+
+  // Only the mapped read path decodes from a stream, so the number of reads shows the path taken.
+  private val countingConverter = CountingConverter()
+
+  // A threshold of one byte forces every non-empty file through the mapped read path.
+  private val converter = MappedConverter(countingConverter, 1)
+
+  @Test fun readValueThroughMapping() {
+    val store = RxStore.value<TestData>(tempDir.newFile(), converter, TestData::class.java)
+    assertThat(store.blockingGet()).isNull()
+
+    store.put(TestData("1", 1), Schedulers.trampoline())
+    assertThat(store.blockingGet()).isEqualTo(TestData("1", 1))
+    assertThat(countingConverter.reads).isEqualTo(1)
+  }
+
+  @Test fun readListThroughMapping() {
+    val store = RxStore.list<TestData>(tempDir.newFile(), converter, TestData::class.java)
+    assertThat(store.blockingGet()).isEmpty()
+
+    val list = listOf(TestData("1", 1), TestData("2", 2))
+    store.put(list, Schedulers.trampoline())
+    assertThat(store.blockingGet()).isEqualTo(list)
+  }
+
+  @Test fun filesBelowThresholdAreReadDirectly() {
+    val store = RxStore.value<TestData>(tempDir.newFile(),
+        MappedConverter(countingConverter, Long.MAX_VALUE), TestData::class.java)
+
+    store.put(TestData("1", 1), Schedulers.trampoline())
+    assertThat(store.blockingGet()).isEqualTo(TestData("1", 1))
+    assertThat(countingConverter.reads).isEqualTo(0)
+  }
+
+  @Test fun filesTooLargeToMapAreReadDirectly() {
+    val file = tempDir.newFile()
+    // A sparse file, so no disk space is used.
+    RandomAccessFile(file, "rw").use { it.setLength(Int.MAX_VALUE + 1L) }
+    val direct = TestData("direct", 1)
+    val delegate = object : StreamConverter by countingConverter {
+      @Suppress("UNCHECKED_CAST")
+      override fun <T> read(file: File, type: Type): T? = direct as T
+    }
+
+    assertThat(MappedConverter(delegate, 1).read<TestData>(file, TestData::class.java))
+        .isEqualTo(direct)
+    assertThat(countingConverter.reads).isEqualTo(0)
+  }
+}
@@ -0,0 +1,103 @@
+/*
+ * Copyright (C) GRIDSTONE 2017
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package au.com.gridstone.rxstore
+
+import com.google.common.truth.Truth.assertThat
+import io.reactivex.schedulers.Schedulers
+import org.junit.Rule
+import org.junit.Test
+import org.junit.rules.TemporaryFolder
+
+class NdjsonTest {
+  @Rule @JvmField val tempDir = TemporaryFolder().apply { create() }
+
+  private fun newTestStore(): ListStore<TestData> =
+      RxStore.list(tempDir.newFile(), TestData.converter, TestData::class.java)
+
+  @Test fun importReplacesStoreAndReportsProgress() {
+    val source = tempDir.newFile()
+    val list = List(2500) { TestData("$it", it) }
+    source.writeText(list.joinToString("\r\n", postfix = "\n\n"))
+    val store = newTestStore()
+    store.put(listOf(TestData("old", 0)), Schedulers.trampoline())
+
+    Ndjson.importList(source, store, TestData.converter, TestData::class.java)
+        .test()
+        .assertValues(1024L, 2048L, 2500L)
+        .assertComplete()
+
+    assertThat(store.blockingGet()).isEqualTo(list)
+  }
+
+  @Test fun failedImportLeavesStoreUnchanged() {
+    val source = tempDir.newFile()
+    source.writeText("1,1\nnot a record\n3,3\n")
+    val store = newTestStore()
+    val list = listOf(TestData("old", 0))
+    store.put(list, Schedulers.trampoline())
+
+    Ndjson.importList(source, store, TestData.converter, TestData::class.java)
+        .test()
+        .assertNotComplete()
+        .assertError(Exception::class.java)
+
+    assertThat(store.blockingGet()).isEqualTo(list)
+  }
+
+  @Test fun exportWritesOneRecordPerLine() {
+    val store = newTestStore()
+    store.put(listOf(TestData("1", 1), TestData("2", 2)), Schedulers.trampoline())
+    val destination = tempDir.newFile()
+
+    Ndjson.exportList(store, destination, TestData.converter, TestData::class.java)
+        .test()
+        .assertValues(2L)
+        .assertComplete()
+
+    assertThat(destination.readText()).isEqualTo("1,1\n2,2\n")
+  }
+
+  @Test fun exportedRecordsImportIntoAnotherStore() {
+    val list = List(5000) { TestData("$it", it) }
+    val store = newTestStore()
+    store.put(list, Schedulers.trampoline())
+    val file = tempDir.newFile()
+
+    Ndjson.exportList(store, file, TestData.converter, TestData::class.java)
+        .test()
+        .assertValueCount(5)
+        .assertComplete()
+
+    val copy = newTestStore()
+    Ndjson.importList(file, copy, TestData.converter, TestData::class.java).blockingSubscribe()
+    assertThat(copy.blockingGet()).isEqualTo(list)
+  }
+
+  @Test fun exportRejectsRecordsSpanningLines() {
+    val store = newTestStore()
+    store.put(listOf(TestData("1", 1), TestData("a\nb", 2)), Schedulers.trampoline())
+    val destination = tempDir.newFile()
+    destination.writeText("existing")
+
+    Ndjson.exportList(store, destination, TestData.converter, TestData::class.java)
+        .test()
+        .assertError(ConverterException::class.java)
+
+    assertThat(destination.readText()).isEqualTo("existing")
+    assertThat(tempDir.root.list()).asList().doesNotContain(destination.name + ".tmp")
+  }
+}
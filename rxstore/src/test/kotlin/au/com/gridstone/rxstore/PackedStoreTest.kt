@@ -0,0 +1,133 @@
+/*
+ * Copyright (C) GRIDSTONE 2017
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package au.com.gridstone.rxstore
+
+import au.com.gridstone.rxstore.ValueStore.ValueUpdate
+import com.google.common.truth.Truth.assertThat
+import io.reactivex.schedulers.Schedulers
+import org.junit.Rule
+import org.junit.Test
+import org.junit.rules.TemporaryFolder
+import java.io.RandomAccessFile
+
+class PackedStoreTest {
+  @Rule @JvmField val tempDir = TemporaryFolder().apply { create() }
+
+  private fun newTestStore(file: java.io.File = tempDir.newFile()): PackedStore<TestData> =
+      RxStore.packed(file, TestData.converter, TestData::class.java)
+
+  @Test fun valuesAreIndependentByName() {
+    val store = newTestStore()
+    assertThat(store.store("a").blockingGet()).isNull()
+
+    store.store("a").put(TestData("a", 1), Schedulers.trampoline())
+    store.store("b").put(TestData("b", 2), Schedulers.trampoline())
+    store.store("a").put(TestData("a", 3), Schedulers.trampoline())
+    store.store("b").clear(Schedulers.trampoline())
+
+    assertThat(store.store("a").blockingGet()).isEqualTo(TestData("a", 3))
+    assertThat(store.store("b").blockingGet()).isNull()
+    assertThat(store.blockingNames()).containsExactly("a")
+  }
+
+  @Test fun observersOfAViewSeeItsUpdates() {
+    val store = newTestStore()
+    val testObserver = store.store("a").observe().test()
+
+    store.store("a").put(TestData("a", 1), Schedulers.trampoline())
+    store.store("b").put(TestData("b", 2), Schedulers.trampoline())
+    store.store("a").clear(Schedulers.trampoline())
+
+    testObserver.assertValues(ValueUpdate.empty(), ValueUpdate(TestData("a", 1)),
+        ValueUpdate.empty())
+  }
+
+  @Test fun valuesSurviveReopening() {
+    val file = tempDir.newFile()
+    val store = newTestStore(file)
+    store.store("a").put(TestData("a", 1), Schedulers.trampoline())
+    store.store("b").put(TestData("b", 2), Schedulers.trampoline())
+    store.store("b").clear(Schedulers.trampoline())
+    store.close()
+
+    val reopened = newTestStore(file)
+    assertThat(reopened).isNotSameAs(store)
+    assertThat(reopened.store("a").blockingGet()).isEqualTo(TestData("a", 1))
+    assertThat(reopened.blockingNames()).containsExactly("a")
+  }
+
+  @Test fun partlyWrittenRecordIsDiscarded() {
+    val file = tempDir.newFile()
+    val store = newTestStore(file)
+    store.store("a").put(TestData("a", 1), Schedulers.trampoline())
+    val intactLength = file.length()
+    store.store("b").put(TestData("b", 2), Schedulers.trampoline())
+    store.close()
+
+    RandomAccessFile(file, "rw").use { it.setLength(file.length() - 2) }
+
+    val reopened = newTestStore(file)
+    assertThat(reopened.blockingNames()).containsExactly("a")
+    assertThat(file.length()).isEqualTo(intactLength)
+
+    reopened.store("c").put(TestData("c", 3), Schedulers.trampoline())
+    reopened.close()
+    assertThat(newTestStore(file).blockingNames()).containsExactly("a", "c").inOrder()
+  }
+
+  @Test fun tornHeaderIsRewritten() {
+    val file = tempDir.newFile()
+    val store = newTestStore(file)
+    store.store("a").put(TestData("a", 1), Schedulers.trampoline())
+    store.close()
+
+    RandomAccessFile(file, "rw").use { it.setLength(4) }
+
+    val reopened = newTestStore(file)
+    assertThat(reopened.blockingNames()).isEmpty()
+    reopened.store("b").put(TestData("b", 2), Schedulers.trampoline())
+    reopened.close()
+
+    assertThat(newTestStore(file).store("b").blockingGet()).isEqualTo(TestData("b", 2))
+  }
+
+  @Test fun compactionReclaimsSpace() {
+    val file = tempDir.newFile()
+    val store = newTestStore(file)
+    repeat(100) { store.store("a").put(TestData("a", it), Schedulers.trampoline()) }
+    store.store("b").put(TestData("b", 1), Schedulers.trampoline())
+    val uncompactedLength = file.length()
+
+    store.observeCompact().test().assertComplete()
+    assertThat(file.length()).isLessThan(uncompactedLength)
+    assertThat(store.store("a").blockingGet()).isEqualTo(TestData("a", 99))
+    assertThat(store.store("b").blockingGet()).isEqualTo(TestData("b", 1))
+
+    store.close()
+    assertThat(newTestStore(file).store("a").blockingGet()).isEqualTo(TestData("a", 99))
+  }
+
+  @Test fun mostlyGarbageFileIsCompactedAutomatically() {
+    val file = tempDir.newFile()
+    val store = newTestStore(file)
+    val value = TestData("x".repeat(1000), 1)
+    repeat(200) { store.store("a").put(value, Schedulers.trampoline()) }
+
+    assertThat(file.length()).isLessThan(64 * 1024L)
+    assertThat(store.store("a").blockingGet()).isEqualTo(value)
+  }
+}
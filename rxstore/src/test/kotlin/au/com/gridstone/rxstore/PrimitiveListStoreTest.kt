@@ -0,0 +1,131 @@
+/*
+ * Copyright (C) GRIDSTONE 2017
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package au.com.gridstone.rxstore
+
+import com.google.common.truth.Truth.assertThat
+import io.reactivex.schedulers.Schedulers
+import org.junit.Rule
+import org.junit.Test
+import org.junit.rules.TemporaryFolder
+import java.io.File
+import java.io.RandomAccessFile
+import java.nio.ByteBuffer
+import java.nio.ByteOrder
+
+class PrimitiveListStoreTest {
+  @Rule @JvmField val tempDir = TemporaryFolder().apply { create() }
+
+  private val file by lazy { File(tempDir.root, "store") }
+
+  @Test fun emptyStoreReturnsEmptyArray() {
+    val store = RxStore.longList(file)
+    assertThat(store.blockingGet()).isEmpty()
+    assertThat(store.blockingSize()).isEqualTo(0)
+  }
+
+  @Test fun addAppendsLittleEndianValues() {
+    val store = RxStore.longList(file)
+    store.add(1L, Schedulers.trampoline())
+    store.addAll(longArrayOf(2L, Long.MAX_VALUE), Schedulers.trampoline())
+
+    assertThat(store.blockingGet()).isEqualTo(longArrayOf(1L, 2L, Long.MAX_VALUE))
+    assertThat(store.blockingSize()).isEqualTo(3)
+
+    val buffer = ByteBuffer.wrap(file.readBytes()).order(ByteOrder.LITTLE_ENDIAN)
+    assertThat(buffer.remaining()).isEqualTo(24)
+    assertThat(buffer.getLong(8)).isEqualTo(2L)
+  }
+
+  @Test fun getAndSetSingleValues() {
+    val store = RxStore.intList(file)
+    store.put(intArrayOf(1, 2, 3), Schedulers.trampoline())
+    store.set(1, 20, Schedulers.trampoline())
+
+    assertThat(store.blockingGet(1)).isEqualTo(20)
+    assertThat(store.blockingGet()).isEqualTo(intArrayOf(1, 20, 3))
+    store.get(3).test().assertError { it.cause is IndexOutOfBoundsException }
+    store.observeSet(-1, 0).test().assertError { it.cause is IndexOutOfBoundsException }
+  }
+
+  @Test fun setWritesOnEverySubscription() {
+    val store = RxStore.longList(file)
+    store.put(longArrayOf(5L), Schedulers.trampoline())
+    val set = store.observeSet(0, 99L)
+
+    set.blockingAwait()
+    store.put(longArrayOf(5L), Schedulers.trampoline())
+    set.blockingAwait()
+
+    assertThat(store.blockingGet()).isEqualTo(longArrayOf(99L))
+  }
+
+  @Test fun removeShiftsLaterValues() {
+    val store = RxStore.doubleList(file)
+    store.put(doubleArrayOf(1.0, 2.5, 3.0), Schedulers.trampoline())
+
+    store.observeRemove(1).test().assertValue { it.contentEquals(doubleArrayOf(1.0, 3.0)) }
+    assertThat(store.blockingGet()).isEqualTo(doubleArrayOf(1.0, 3.0))
+  }
+
+  @Test fun largeListSpansSeveralBuffers() {
+    val store = RxStore.longList(file)
+    val values = LongArray(100_000) { it * 3L }
+    store.put(values, Schedulers.trampoline())
+    store.addAll(values, Schedulers.trampoline())
+
+    val result = store.blockingGet()
+    assertThat(result.size).isEqualTo(200_000)
+    assertThat(result.copyOfRange(100_000, 200_000)).isEqualTo(values)
+    assertThat(store.blockingGet(199_999)).isEqualTo(299_997L)
+  }
+
+  @Test fun observersReceiveSnapshots() {
+    val store = RxStore.intList(file)
+    val observer = store.observe().test()
+    store.add(1, Schedulers.trampoline())
+    store.set(0, 2, Schedulers.trampoline())
+    store.clear(Schedulers.trampoline())
+
+    observer.assertValueCount(4)
+    assertThat(observer.values()[1]).isEqualTo(intArrayOf(1))
+    assertThat(observer.values()[2]).isEqualTo(intArrayOf(2))
+    assertThat(observer.values()[3]).isEmpty()
+  }
+
+  @Test fun partialTrailingValueIsIgnoredAndOverwritten() {
+    val store = RxStore.longList(file)
+    store.addAll(longArrayOf(1L, 2L), Schedulers.trampoline())
+    RandomAccessFile(file, "rw").use { it.setLength(20) }
+
+    assertThat(store.blockingGet()).isEqualTo(longArrayOf(1L, 2L))
+    store.add(3L, Schedulers.trampoline())
+    assertThat(store.blockingGet()).isEqualTo(longArrayOf(1L, 2L, 3L))
+    assertThat(file.length()).isEqualTo(24L)
+  }
+
+  @Test fun closedStoreRejectsMutations() {
+    val store = RxStore.longList(file)
+    store.close()
+    store.observeAdd(1L).test().assertError { it.cause is IllegalStateException }
+  }
+
+  @Test(expected = IllegalStateException::class)
+  fun differentKindOnSameFileIsRejected() {
+    RxStore.longList(file)
+    RxStore.intList(file)
+  }
+}
@@ -0,0 +1,105 @@
+/*
+ * Copyright (C) GRIDSTONE 2017
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package au.com.gridstone.rxstore
+
+import com.google.common.truth.Truth.assertThat
+import io.reactivex.schedulers.Schedulers
+import org.junit.Rule
+import org.junit.Test
+import org.junit.rules.TemporaryFolder
+
+class SetStoreTest {
+  @Rule @JvmField val tempDir = TemporaryFolder().apply { create() }
+
+  private fun newTestStore(converter: StreamConverter = TestData.converter): SetStore<TestData> =
+      RxStore.set(tempDir.newFile(), converter, TestData::class.java)
+
+  @Test fun emptyStoreIsEmpty() {
+    val store = newTestStore()
+    assertThat(store.blockingGet()).isEmpty()
+    assertThat(store.blockingSize()).isEqualTo(0)
+    assertThat(store.blockingContains(TestData("1", 1))).isFalse()
+  }
+
+  @Test fun addIgnoresDuplicates() {
+    val store = newTestStore()
+
+    assertThat(store.observeAdd(TestData("1", 1)).blockingGet()).isTrue()
+    assertThat(store.observeAdd(TestData("2", 2)).blockingGet()).isTrue()
+    assertThat(store.observeAdd(TestData("1", 1)).blockingGet()).isFalse()
+
+    assertThat(store.blockingGet()).containsExactly(TestData("1", 1), TestData("2", 2))
+    assertThat(store.blockingContains(TestData("1", 1))).isTrue()
+    assertThat(store.blockingContains(TestData("1", 2))).isFalse()
+  }
+
+  @Test fun putWritesDistinctValues() {
+    val store = newTestStore()
+    val values = List(100) { TestData("$it", it) }.toSet()
+    val written = store.observePut(values).blockingGet()
+
+    assertThat(written).containsExactlyElementsIn(values)
+    assertThat(store.blockingGet()).containsExactlyElementsIn(written).inOrder()
+    values.forEach { assertThat(store.blockingContains(it)).isTrue() }
+  }
+
+  @Test fun removeDeletesMember() {
+    val store = newTestStore()
+    store.put(setOf(TestData("a", 1), TestData("b", 2), TestData("c", 3)), Schedulers.trampoline())
+
+    assertThat(store.observeRemove(TestData("b", 2)).blockingGet()).isTrue()
+    assertThat(store.observeRemove(TestData("b", 2)).blockingGet()).isFalse()
+    assertThat(store.blockingGet()).containsExactly(TestData("a", 1), TestData("c", 3))
+
+    store.remove(TestData("a", 1), Schedulers.trampoline())
+    store.remove(TestData("c", 3), Schedulers.trampoline())
+    assertThat(store.blockingGet()).isEmpty()
+  }
+
+  @Test fun membershipDoesNotDecodeValues() {
+    val countingConverter = CountingConverter()
+    val store = newTestStore(countingConverter)
+    store.put(List(1000) { TestData("$it", it) }.toSet(), Schedulers.trampoline())
+
+    countingConverter.reads = 0
+    assertThat(store.blockingContains(TestData("500", 500))).isTrue()
+    assertThat(store.observeAdd(TestData("new", 1000)).blockingGet()).isTrue()
+    assertThat(store.observeAdd(TestData("new", 1000)).blockingGet()).isFalse()
+    assertThat(store.observeRemove(TestData("250", 250)).blockingGet()).isTrue()
+    assertThat(countingConverter.reads).isEqualTo(0)
+
+    assertThat(store.blockingSize()).isEqualTo(1000)
+    assertThat(store.blockingContains(TestData("250", 250))).isFalse()
+  }
+
+  @Test fun observeReceivesChanges() {
+    val store = newTestStore()
+    val testObserver = store.observe().test()
+
+    store.add(TestData("1", 1), Schedulers.trampoline())
+    store.add(TestData("1", 1), Schedulers.trampoline())
+    store.clear(Schedulers.trampoline())
+
+    testObserver.assertValues(emptySet(), setOf(TestData("1", 1)), emptySet())
+  }
+
+  @Test fun closedStoreRejectsMutations() {
+    val store = newTestStore()
+    store.close()
+    store.observeAdd(TestData("1", 1)).test().assertError { it.cause is IllegalStateException }
+  }
+}
@@ -0,0 +1,102 @@
+/*
+ * Copyright (C) GRIDSTONE 2017
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package au.com.gridstone.rxstore
+
+import com.google.common.truth.Truth.assertThat
+import io.reactivex.schedulers.Schedulers
+import io.reactivex.schedulers.TestScheduler
+import org.junit.Rule
+import org.junit.Test
+import org.junit.rules.TemporaryFolder
+import java.io.File
+import java.util.concurrent.TimeUnit.SECONDS
+
+class SnapshotTest {
+  @Rule @JvmField val tempDir = TemporaryFolder().apply { create() }
+
+  private val stores by lazy { tempDir.newFolder("stores") }
+  private val backup by lazy { File(tempDir.root, "backup") }
+
+  private fun newValueStore(name: String, options: StoreOptions = StoreOptions.DEFAULT)
+      : ValueStore<TestData> =
+      RxStore.value(File(stores, name), TestData.converter, TestData::class.java, options)
+
+  private fun newListStore(name: String, options: StoreOptions = StoreOptions.DEFAULT)
+      : ListStore<TestData> =
+      RxStore.list(File(stores, name), TestData.converter, TestData::class.java, options)
+
+  @Test fun copiesEveryStore() {
+    val valueStore = newValueStore("value")
+    val listStore = newListStore("list")
+    valueStore.put(TestData("1", 1), Schedulers.trampoline())
+    listStore.put(listOf(TestData("2", 2), TestData("3", 3)), Schedulers.trampoline())
+
+    RxStore.snapshot().add(valueStore).add(listStore).writeTo(backup).blockingAwait()
+
+    assertThat(backup.list()).asList().containsExactly("value", "list")
+    assertThat(File(backup, "value").readBytes()).isEqualTo(File(stores, "value").readBytes())
+    assertThat(File(backup, "list").readBytes()).isEqualTo(File(stores, "list").readBytes())
+  }
+
+  @Test fun emptyStoreRemovesOldCopy() {
+    val valueStore = newValueStore("value")
+    valueStore.put(TestData("1", 1), Schedulers.trampoline())
+    RxStore.snapshot().add(valueStore).writeTo(backup).blockingAwait()
+
+    valueStore.clear(Schedulers.trampoline())
+    RxStore.snapshot().add(valueStore).writeTo(backup).blockingAwait()
+
+    assertThat(backup.list()).isEmpty()
+  }
+
+  @Test fun openedFileKeepsContentsAfterWrite() {
+    val valueStore = newValueStore("value") as RealValueStore<TestData>
+    valueStore.put(TestData("1", 1), Schedulers.trampoline())
+    val input = valueStore.storeFile().openCommitted()
+
+    valueStore.put(TestData("2", 2), Schedulers.trampoline())
+
+    assertThat(input.use { it.readBytes() }.toString(Charsets.UTF_8)).isEqualTo("1,1")
+    assertThat(valueStore.blockingGet()).isEqualTo(TestData("2", 2))
+  }
+
+  @Test fun writeBehindStoreContributesPersistedContents() {
+    val scheduler = TestScheduler()
+    val options = StoreOptions.Builder().writeBehind(1, SECONDS, scheduler).build()
+    val valueStore = newValueStore("value", options)
+    valueStore.put(TestData("1", 1), Schedulers.trampoline())
+    scheduler.advanceTimeBy(1, SECONDS)
+    valueStore.put(TestData("2", 2), Schedulers.trampoline())
+
+    RxStore.snapshot().add(valueStore).writeTo(backup).blockingAwait()
+
+    assertThat(File(backup, "value").readText()).isEqualTo("1,1")
+  }
+
+  @Test(expected = IllegalArgumentException::class) fun rejectsJournaledStore() {
+    val listStore = newListStore("list", StoreOptions.Builder().journal(10).build())
+    RxStore.snapshot().add(listStore)
+  }
+
+  @Test(expected = IllegalArgumentException::class) fun rejectsStoresWithSameName() {
+    val other = tempDir.newFolder("other")
+    val first = newValueStore("value")
+    val second =
+        RxStore.value<TestData>(File(other, "value"), TestData.converter, TestData::class.java)
+    RxStore.snapshot().add(first).add(second)
+  }
+}
@@ -0,0 +1,117 @@
+/*
+ * Copyright (C) GRIDSTONE 2017
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package au.com.gridstone.rxstore
+
+import com.google.common.truth.Truth.assertThat
+import io.reactivex.schedulers.Schedulers
+import org.junit.Rule
+import org.junit.Test
+import org.junit.rules.TemporaryFolder
+
+class SortedListStoreTest {
+  @Rule @JvmField val tempDir = TemporaryFolder().apply { create() }
+
+  private val byInteger = Comparator<TestData> { a, b -> a.integer.compareTo(b.integer) }
+
+  private fun newTestStore(converter: StreamConverter = TestData.converter)
+      : SortedListStore<TestData> =
+      RxStore.sortedList(tempDir.newFile(), converter, TestData::class.java, byInteger)
+
+  @Test fun emptyStoreIsEmpty() {
+    val store = newTestStore()
+    assertThat(store.blockingGet()).isEmpty()
+    assertThat(store.blockingSize()).isEqualTo(0)
+    assertThat(store.head(5).blockingGet()).isEmpty()
+  }
+
+  @Test fun addInsertsInOrder() {
+    val store = newTestStore()
+    listOf(TestData("5", 5), TestData("1", 1), TestData("3a", 3), TestData("9", 9),
+        TestData("3b", 3)).forEach { store.add(it, Schedulers.trampoline()) }
+
+    assertThat(store.blockingGet()).containsExactly(TestData("1", 1), TestData("3a", 3),
+        TestData("3b", 3), TestData("5", 5), TestData("9", 9)).inOrder()
+  }
+
+  @Test fun putSortsList() {
+    val store = newTestStore()
+    val sorted = store.observePut(listOf(TestData("2", 2), TestData("1", 1))).blockingGet()
+
+    assertThat(sorted).containsExactly(TestData("1", 1), TestData("2", 2)).inOrder()
+    assertThat(store.blockingGet()).isEqualTo(sorted)
+  }
+
+  @Test fun rangeReads() {
+    val store = newTestStore()
+    store.put(List(10) { TestData("$it", it * 10) }, Schedulers.trampoline())
+
+    assertThat(store.between(TestData("", 20), TestData("", 50)).blockingGet().map { it.integer })
+        .containsExactly(20, 30, 40, 50).inOrder()
+    assertThat(store.between(TestData("", 15), TestData("", 25)).blockingGet().map { it.integer })
+        .containsExactly(20)
+    assertThat(store.between(TestData("", 50), TestData("", 20)).blockingGet()).isEmpty()
+    assertThat(store.head(3).blockingGet().map { it.integer }).containsExactly(0, 10, 20).inOrder()
+    assertThat(store.tail(2).blockingGet().map { it.integer }).containsExactly(80, 90).inOrder()
+    assertThat(store.tail(20).blockingGet()).hasSize(10)
+  }
+
+  @Test fun rangeReadsOnlyDecodeWhatTheyNeed() {
+    val countingConverter = CountingConverter()
+    val store = newTestStore(countingConverter)
+    store.put(List(1000) { TestData("$it", it) }, Schedulers.trampoline())
+
+    countingConverter.reads = 0
+    assertThat(store.between(TestData("", 500), TestData("", 509)).blockingGet()).hasSize(10)
+    assertThat(countingConverter.reads).isAtMost(10 + 2 * 10)
+
+    countingConverter.reads = 0
+    store.add(TestData("new", 250), Schedulers.trampoline())
+    assertThat(countingConverter.reads).isAtMost(11)
+    assertThat(store.blockingGet()[251]).isEqualTo(TestData("new", 250))
+  }
+
+  @Test fun removeDeletesEqualValue() {
+    val store = newTestStore()
+    store.put(listOf(TestData("a", 1), TestData("b", 1), TestData("c", 2)), Schedulers.trampoline())
+
+    assertThat(store.observeRemove(TestData("b", 1)).blockingGet()).isTrue()
+    assertThat(store.observeRemove(TestData("x", 1)).blockingGet()).isFalse()
+    assertThat(store.blockingGet()).containsExactly(TestData("a", 1), TestData("c", 2)).inOrder()
+
+    store.remove(TestData("c", 2), Schedulers.trampoline())
+    store.remove(TestData("a", 1), Schedulers.trampoline())
+    assertThat(store.blockingGet()).isEmpty()
+  }
+
+  @Test fun observeReceivesChanges() {
+    val store = newTestStore()
+    val testObserver = store.observe().test()
+
+    store.add(TestData("2", 2), Schedulers.trampoline())
+    store.add(TestData("1", 1), Schedulers.trampoline())
+    store.clear(Schedulers.trampoline())
+
+    testObserver.assertValues(emptyList(), listOf(TestData("2", 2)),
+        listOf(TestData("1", 1), TestData("2", 2)), emptyList())
+  }
+
+  @Test fun closedStoreRejectsMutations() {
+    val store = newTestStore()
+    store.close()
+    store.observeAdd(TestData("1", 1)).test().assertError { it.cause is IllegalStateException }
+  }
+}
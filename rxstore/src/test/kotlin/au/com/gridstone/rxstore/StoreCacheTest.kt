@@ -0,0 +1,198 @@
+/*
+ * Copyright (C) GRIDSTONE 2017
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package au.com.gridstone.rxstore
+
+import com.google.common.truth.Truth.assertThat
+import io.reactivex.schedulers.Schedulers
+import org.junit.Assert.fail
+import org.junit.Rule
+import org.junit.Test
+import org.junit.rules.TemporaryFolder
+
+class StoreCacheTest {
+  @Rule @JvmField val tempDir = TemporaryFolder().apply { create() }
+
+  private fun newValueStore(cache: StoreCache): ValueStore<TestData> {
+    val options = StoreOptions.Builder().cache(cache).build()
+    return RxStore.value(tempDir.newFile(), TestData.converter, TestData::class.java, options)
+  }
+
+  @Test fun repeatedReadsAreServedFromCache() {
+    val cache = StoreCache.Builder().build()
+    val store = newValueStore(cache)
+    store.put(TestData("1", 1), Schedulers.trampoline())
+
+    assertThat(store.blockingGet()).isEqualTo(TestData("1", 1))
+    assertThat(store.blockingGet()).isEqualTo(TestData("1", 1))
+
+    val stats = cache.stats()
+    assertThat(stats.missCount).isEqualTo(1)
+    assertThat(stats.hitCount).isEqualTo(1)
+    assertThat(stats.entryCount).isEqualTo(1)
+    assertThat(stats.weight).isEqualTo(3)
+  }
+
+  @Test fun writesRemoveCachedContents() {
+    val cache = StoreCache.Builder().build()
+    val store = newValueStore(cache)
+    store.put(TestData("1", 1), Schedulers.trampoline())
+    store.blockingGet()
+
+    store.put(TestData("2", 2), Schedulers.trampoline())
+    assertThat(cache.stats().entryCount).isEqualTo(0)
+    assertThat(store.blockingGet()).isEqualTo(TestData("2", 2))
+
+    store.clear(Schedulers.trampoline())
+    assertThat(store.blockingGet()).isNull()
+    assertThat(cache.stats().entryCount).isEqualTo(0)
+  }
+
+  @Test fun leastRecentlyReadIsEvicted() {
+    val cache = StoreCache.Builder().maxEntries(2).build()
+    val stores = List(3) { newValueStore(cache) }
+    stores.forEachIndexed { i, store -> store.put(TestData("$i", i), Schedulers.trampoline()) }
+
+    stores[0].blockingGet()
+    stores[1].blockingGet()
+    stores[0].blockingGet()
+    stores[2].blockingGet()
+    assertThat(cache.stats().evictionCount).isEqualTo(1)
+
+    stores[0].blockingGet()
+    stores[1].blockingGet()
+    val stats = cache.stats()
+    assertThat(stats.hitCount).isEqualTo(2)
+    assertThat(stats.missCount).isEqualTo(4)
+  }
+
+  @Test fun weightBudgetIsSharedByStores() {
+    val cache = StoreCache.Builder()
+        .maxWeight(25)
+        .weigher(object : StoreCache.Weigher {
+          override fun weigh(contents: Any, size: Long) = 10L
+        })
+        .build()
+    val stores = List(3) { newValueStore(cache) }
+    stores.forEach { it.put(TestData("1", 1), Schedulers.trampoline()) }
+
+    stores.forEach { it.blockingGet() }
+
+    val stats = cache.stats()
+    assertThat(stats.entryCount).isEqualTo(2)
+    assertThat(stats.weight).isEqualTo(20)
+    assertThat(stats.evictionCount).isEqualTo(1)
+  }
+
+  @Test fun contentsHeavierThanBudgetAreNotCached() {
+    val cache = StoreCache.Builder().maxWeight(2).build()
+    val store = newValueStore(cache)
+    store.put(TestData("1", 1), Schedulers.trampoline())
+
+    store.blockingGet()
+    store.blockingGet()
+
+    assertThat(cache.stats().missCount).isEqualTo(2)
+    assertThat(cache.stats().entryCount).isEqualTo(0)
+  }
+
+  @Test fun listStoreUsesCache() {
+    val cache = StoreCache.Builder().build()
+    val options = StoreOptions.Builder().cache(cache).build()
+    val store =
+        RxStore.list<TestData>(tempDir.newFile(), TestData.converter, TestData::class.java, options)
+    store.put(listOf(TestData("1", 1)), Schedulers.trampoline())
+
+    store.add(TestData("2", 2), Schedulers.trampoline())
+
+    assertThat(store.blockingGet()).containsExactly(TestData("1", 1), TestData("2", 2))
+    assertThat(cache.stats().hitCount).isEqualTo(0)
+    assertThat(store.blockingGet()).containsExactly(TestData("1", 1), TestData("2", 2))
+    assertThat(cache.stats().hitCount).isEqualTo(1)
+  }
+
+  @Test fun cachedListsCanNotBeModifiedByCallers() {
+    val options = StoreOptions.Builder().cache(StoreCache.Builder().build()).build()
+    val store =
+        RxStore.list<TestData>(tempDir.newFile(), TestData.converter, TestData::class.java, options)
+    store.put(listOf(TestData("1", 1)), Schedulers.trampoline())
+
+    listOf(store.blockingGet(), store.blockingGet()).forEach {
+      try {
+        (it as MutableList<TestData>).add(TestData("junk", 0))
+        fail("Expected the cached list to be unmodifiable.")
+      } catch (expected: UnsupportedOperationException) {
+      }
+    }
+
+    assertThat(store.blockingGet()).containsExactly(TestData("1", 1))
+  }
+
+  @Test fun encodedListsDecodeOnAccess() {
+    val cache = StoreCache.Builder().build()
+    val options = StoreOptions.Builder().cache(cache).cacheEncoded(true).build()
+    val store =
+        RxStore.list<TestData>(tempDir.newFile(), TestData.converter, TestData::class.java, options)
+    val list = List(200) { TestData("$it", it) }
+    store.put(list, Schedulers.trampoline())
+
+    assertThat(store.blockingGet()).isEqualTo(list)
+    val cached = store.blockingGet()
+
+    assertThat(cached).isInstanceOf(EncodedList::class.java)
+    assertThat(cached).isEqualTo(list)
+    assertThat(cached[150]).isEqualTo(TestData("150", 150))
+    assertThat(cache.stats().weight).isEqualTo((cached as EncodedList<*>).byteSize())
+  }
+
+  @Test fun compressedEncodedListsUseLessMemory() {
+    val cache = StoreCache.Builder().build()
+    val list = List(500) { TestData("a long and repetitive string", it) }
+    val plain = EncodedList.encode(list, TestData.converter, TestData::class.java, null)
+    val compressed =
+        EncodedList.encode(list, TestData.converter, TestData::class.java, Compression.gzip())
+
+    assertThat(compressed).isEqualTo(list)
+    assertThat(compressed.byteSize()).isLessThan(plain.byteSize() / 4)
+
+    val options = StoreOptions.Builder().cache(cache).cacheEncoded(Compression.gzip()).build()
+    val store =
+        RxStore.list<TestData>(tempDir.newFile(), TestData.converter, TestData::class.java, options)
+    store.put(list, Schedulers.trampoline())
+    store.blockingGet()
+    assertThat(store.blockingGet()).isEqualTo(list)
+    assertThat(cache.stats().weight).isEqualTo(compressed.byteSize())
+  }
+
+  @Test(expected = UnsupportedOperationException::class) fun encodedListsAreImmutable() {
+    val list = EncodedList.encode(listOf(TestData("1", 1)), TestData.converter,
+        TestData::class.java, null) as MutableList<TestData>
+    list[0] = TestData("2", 2)
+  }
+
+  @Test(expected = IllegalArgumentException::class) fun encodedCachingIsOnlyForLists() {
+    val options =
+        StoreOptions.Builder().cache(StoreCache.Builder().build()).cacheEncoded(true).build()
+    RxStore.value<TestData>(tempDir.newFile(), TestData.converter, TestData::class.java, options)
+  }
+
+  @Test(expected = IllegalStateException::class) fun cacheCanNotBeCombinedWithProcessLocks() {
+    StoreOptions.Builder()
+        .cache(StoreCache.Builder().build())
+        .lockAcrossProcesses(true)
+        .build()
+  }
+}
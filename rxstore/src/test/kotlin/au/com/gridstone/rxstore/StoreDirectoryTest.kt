@@ -0,0 +1,92 @@
+/*
+ * Copyright (C) GRIDSTONE 2017
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package au.com.gridstone.rxstore
+
+import au.com.gridstone.rxstore.ValueStore.ValueUpdate
+import com.google.common.truth.Truth.assertThat
+import io.reactivex.schedulers.Schedulers
+import io.reactivex.schedulers.TestScheduler
+import org.junit.Rule
+import org.junit.Test
+import org.junit.rules.TemporaryFolder
+import java.util.concurrent.TimeUnit.SECONDS
+
+class StoreDirectoryTest {
+  @Rule @JvmField val tempDir = TemporaryFolder().apply { create() }
+
+  private fun newTestDirectory(maxLiveStores: Int = 64,
+      options: StoreOptions = StoreOptions.DEFAULT): StoreDirectory<TestData> =
+      RxStore.directory(tempDir.newFolder(), TestData.converter, TestData::class.java,
+          maxLiveStores, options)
+
+  @Test fun storesAreSharedByKey() {
+    val directory = newTestDirectory()
+    val store = directory.store("a")
+    assertThat(directory.store("a")).isSameAs(store)
+    assertThat(directory.store("b")).isNotSameAs(store)
+  }
+
+  @Test fun keysRoundTripThroughFileNames() {
+    val directory = newTestDirectory()
+    val keys = listOf("..", "a/b", "naïve key", "x.tmp", "*")
+    keys.forEach { directory.store(it).put(TestData(it, 1), Schedulers.trampoline()) }
+
+    assertThat(directory.blockingKeys()).containsExactlyElementsIn(keys.sorted()).inOrder()
+    keys.forEach { assertThat(directory.store(it).blockingGet()).isEqualTo(TestData(it, 1)) }
+  }
+
+  @Test fun evictedStoresAreFlushed() {
+    val options = StoreOptions.Builder().writeBehind(1, SECONDS, TestScheduler()).build()
+    val directory = newTestDirectory(1, options)
+    directory.store("a").put(TestData("a", 1), Schedulers.trampoline())
+    assertThat(directory.blockingKeys()).isEmpty()
+
+    directory.store("b")
+
+    // Eviction flushes on the io scheduler.
+    val deadline = System.currentTimeMillis() + 5000
+    while (directory.blockingKeys().isEmpty() && System.currentTimeMillis() < deadline) {
+      Thread.sleep(10)
+    }
+
+    assertThat(directory.blockingKeys()).containsExactly("a")
+  }
+
+  @Test fun deleteClearsLiveAndIdleStores() {
+    val directory = newTestDirectory(1)
+    directory.store("a").put(TestData("a", 1), Schedulers.trampoline())
+    directory.store("b").put(TestData("b", 2), Schedulers.trampoline())
+    directory.store("c").put(TestData("c", 3), Schedulers.trampoline())
+    val testObserver = directory.store("c").observe().test()
+
+    directory.observeDelete(listOf("a", "c", "missing")).test().assertComplete()
+
+    assertThat(directory.blockingKeys()).containsExactly("b")
+    testObserver.assertValues(TestData("c", 3).asUpdate(), ValueUpdate.empty())
+  }
+
+  @Test fun closeClosesLiveStores() {
+    val directory = newTestDirectory()
+    val store = directory.store("a")
+    directory.close()
+
+    store.observePut(TestData("a", 1)).test().assertError(RuntimeException::class.java)
+    assertThat(directory.store("a")).isNotSameAs(store)
+  }
+
+  private fun TestData.asUpdate(): ValueUpdate<TestData> = ValueUpdate(this)
+}
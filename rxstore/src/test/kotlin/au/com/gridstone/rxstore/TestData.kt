@@ -17,6 +17,8 @@
 package au.com.gridstone.rxstore
 
 import java.io.File
+import java.io.InputStream
+import java.io.OutputStream
 import java.lang.reflect.Type
 
 data class TestData(val string: String, val integer: Int) {
@@ -29,22 +31,29 @@ data class TestData(val string: String, val integer: Int) {
     }
 
     @Suppress("UNCHECKED_CAST") // Special converter just for testing. Casts will always work.
-    val converter = object : Converter {
+    val converter = object : StreamConverter {
       override fun <T> write(data: T?, type: Type, file: File) {
-        when (data) {
-          null -> file.writeText("")
-          is TestData -> file.writeText(data.toString())
-          is List<*> -> {
-            val list = data as List<T>
-            // Separate each TestData instance by a "~" character.
-            val listAsText = list.map { it.toString() }.reduce { acc, item -> "$acc~$item" }
-            file.writeText(listAsText)
-          }
-        }
+        file.writeText(encode(data))
+      }
+
+      override fun <T> read(file: File, type: Type): T? = decode(file.readText(), type)
+
+      override fun <T> write(data: T?, type: Type, output: OutputStream) {
+        output.write(encode(data).toByteArray())
+        output.flush()
       }
 
-      override fun <T> read(file: File, type: Type): T? {
-        val storedString = file.readText()
+      override fun <T> read(input: InputStream, type: Type): T? =
+          decode(input.readBytes().toString(Charsets.UTF_8), type)
+
+      private fun encode(data: Any?): String = when (data) {
+        is TestData -> data.toString()
+        // Separate each TestData instance by a "~" character.
+        is List<*> -> data.joinToString("~")
+        else -> ""
+      }
+
+      private fun <T> decode(storedString: String, type: Type): T? {
         if (storedString.isBlank()) return null
 
         if (type is RealListStore.ListType) {
@@ -60,3 +69,14 @@ data class TestData(val string: String, val integer: Int) {
     }
   }
 }
+
+/** Counts how many values are decoded from streams. */
+class CountingConverter(private val delegate: StreamConverter = TestData.converter)
+  : StreamConverter by delegate {
+  var reads = 0
+
+  override fun <T> read(input: InputStream, type: Type): T? {
+    reads++
+    return delegate.read(input, type)
+  }
+}
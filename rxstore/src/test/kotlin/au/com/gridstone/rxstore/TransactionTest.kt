@@ -0,0 +1,164 @@
+/*
+ * Copyright (C) GRIDSTONE 2017
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package au.com.gridstone.rxstore
+
+import com.google.common.truth.Truth.assertThat
+import io.reactivex.schedulers.Schedulers
+import org.junit.Rule
+import org.junit.Test
+import org.junit.rules.TemporaryFolder
+import java.io.DataOutputStream
+import java.io.File
+import java.io.FileOutputStream
+import java.util.zip.CRC32
+import java.util.concurrent.TimeUnit
+import java.util.zip.CheckedOutputStream
+
+class TransactionTest {
+  @Rule @JvmField val tempDir = TemporaryFolder().apply { create() }
+
+  private val journal by lazy { File(tempDir.root, "transactions") }
+
+  private fun newValueStore(name: String): ValueStore<TestData> =
+      RxStore.value(File(tempDir.root, name), TestData.converter, TestData::class.java)
+
+  private fun newListStore(name: String): ListStore<TestData> =
+      RxStore.list(File(tempDir.root, name), TestData.converter, TestData::class.java)
+
+  /** Write a journal in the format used by [Transaction], optionally torn before its checksum. */
+  private fun writeJournal(entries: Map<File, Boolean>, torn: Boolean = false) {
+    val checkedOutput = CheckedOutputStream(FileOutputStream(journal), CRC32())
+    DataOutputStream(checkedOutput).use { output ->
+      output.writeInt(0x52585458)
+      output.writeInt(entries.size)
+      entries.forEach { (file, replaced) ->
+        output.writeUTF(file.canonicalPath)
+        output.writeBoolean(replaced)
+      }
+      if (!torn) output.writeInt(checkedOutput.checksum.value.toInt())
+    }
+  }
+
+  @Test fun changesAreCommittedTogether() {
+    val valueStore = newValueStore("value")
+    val listStore = newListStore("list")
+    listStore.put(listOf(TestData("1", 1)), Schedulers.trampoline())
+    val valueObserver = valueStore.observe().test()
+    val listObserver = listStore.observe().test()
+
+    RxStore.transaction(journal)
+        .put(valueStore, TestData("value", 1))
+        .update(listStore) { it + TestData("2", 2) }
+        .commit()
+        .blockingAwait()
+
+    assertThat(valueStore.blockingGet()).isEqualTo(TestData("value", 1))
+    assertThat(listStore.blockingGet()).containsExactly(TestData("1", 1), TestData("2", 2))
+    valueObserver.assertValueCount(2)
+    assertThat(valueObserver.values()[1].value).isEqualTo(TestData("value", 1))
+    listObserver.assertValueCount(2)
+    assertThat(listObserver.values()[1]).hasSize(2)
+    assertThat(journal.exists()).isFalse()
+    assertThat(tempDir.root.listFiles().map { it.name }).containsExactly("value", "list")
+  }
+
+  @Test fun changesToOneStoreApplyInOrder() {
+    val listStore = newListStore("list")
+    listStore.put(listOf(TestData("1", 1)), Schedulers.trampoline())
+
+    RxStore.transaction(journal)
+        .clear(listStore)
+        .update(listStore) { it + TestData("2", 2) }
+        .commit()
+        .blockingAwait()
+
+    assertThat(listStore.blockingGet()).containsExactly(TestData("2", 2))
+  }
+
+  @Test fun clearDeletesFile() {
+    val valueStore = newValueStore("value")
+    valueStore.put(TestData("1", 1), Schedulers.trampoline())
+    val observer = valueStore.observe().test()
+
+    RxStore.transaction(journal).clear(valueStore).commit().blockingAwait()
+
+    assertThat(valueStore.blockingGet()).isNull()
+    assertThat(File(tempDir.root, "value").exists()).isFalse()
+    assertThat(observer.values()[1].empty).isTrue()
+  }
+
+  @Test fun failedUpdateChangesNothing() {
+    val valueStore = newValueStore("value")
+    val listStore = newListStore("list")
+
+    RxStore.transaction(journal)
+        .put(valueStore, TestData("value", 1))
+        .update(listStore) { throw IllegalStateException("Nope") }
+        .commit()
+        .test()
+        .assertError(IllegalStateException::class.java)
+
+    assertThat(valueStore.blockingGet()).isNull()
+    assertThat(tempDir.root.listFiles()).isEmpty()
+  }
+
+  @Test fun committedJournalIsRecovered() {
+    val valueFile = File(tempDir.root, "value")
+    val deletedFile = File(tempDir.root, "deleted")
+    TestData.converter.write(TestData("old", 1), TestData::class.java, valueFile)
+    TestData.converter.write(TestData("new", 2), TestData::class.java, File("$valueFile.txn"))
+    TestData.converter.write(TestData("gone", 3), TestData::class.java, deletedFile)
+    writeJournal(mapOf(valueFile to true, deletedFile to false))
+
+    val valueStore = newValueStore("value")
+    val observer = valueStore.observe().test()
+    RxStore.transaction(journal)
+
+    assertThat(valueStore.blockingGet()).isEqualTo(TestData("new", 2))
+    assertThat(observer.values().last().value).isEqualTo(TestData("new", 2))
+    assertThat(deletedFile.exists()).isFalse()
+    assertThat(journal.exists()).isFalse()
+  }
+
+  @Test fun tornJournalIsDiscarded() {
+    val valueFile = File(tempDir.root, "value")
+    TestData.converter.write(TestData("old", 1), TestData::class.java, valueFile)
+    TestData.converter.write(TestData("new", 2), TestData::class.java, File("$valueFile.txn"))
+    writeJournal(mapOf(valueFile to true), torn = true)
+
+    RxStore.transaction(journal)
+
+    assertThat(newValueStore("value").blockingGet()).isEqualTo(TestData("old", 1))
+    assertThat(journal.exists()).isFalse()
+  }
+
+  @Test(expected = IllegalArgumentException::class)
+  fun writeBehindStoreIsRejected() {
+    val options = StoreOptions.Builder().writeBehind(1, TimeUnit.SECONDS).build()
+    val store = RxStore.value<TestData>(File(tempDir.root, "value"), TestData.converter,
+        TestData::class.java, options)
+    RxStore.transaction(journal).put(store, TestData("1", 1))
+  }
+
+  @Test(expected = IllegalArgumentException::class)
+  fun journaledStoreIsRejected() {
+    val options = StoreOptions.Builder().journal(10).build()
+    val store = RxStore.list<TestData>(File(tempDir.root, "list"), TestData.converter,
+        TestData::class.java, options)
+    RxStore.transaction(journal).clear(store)
+  }
+}
@@ -19,9 +19,13 @@ package au.com.gridstone.rxstore
 import au.com.gridstone.rxstore.ValueStore.ValueUpdate
 import com.google.common.truth.Truth.assertThat
 import io.reactivex.schedulers.Schedulers
+import io.reactivex.schedulers.TestScheduler
+import org.junit.Assert.fail
 import org.junit.Rule
 import org.junit.Test
 import org.junit.rules.TemporaryFolder
+import java.io.File
+import java.lang.reflect.Type
 import java.util.concurrent.TimeUnit.SECONDS
 
 class ValueStoreTest {
@@ -96,4 +100,120 @@ class ValueStoreTest {
     val testObserver = store.observeClear().subscribeOn(Schedulers.trampoline()).test()
     testObserver.assertComplete()
   }
+
+  @Test fun dedupedPutOfSameValueLeavesFileAndObserversAlone() {
+    val file = tempDir.newFile()
+    val options = StoreOptions.Builder().dedupeWrites(true).build()
+    val store = RxStore.value<TestData>(file, TestData.converter, TestData::class.java, options)
+    val value = TestData("test", 1)
+    store.put(value, Schedulers.trampoline())
+    file.setLastModified(0)
+
+    val testObserver = store.observe().test()
+    store.observePut(value).test().assertValue(value)
+    assertThat(file.lastModified()).isEqualTo(0L)
+
+    store.put(TestData("test", 2), Schedulers.trampoline())
+    assertThat(file.lastModified()).isNotEqualTo(0L)
+    testObserver.assertValues(value.asUpdate(), TestData("test", 2).asUpdate())
+  }
+
+  @Test fun writeBehindFlushAndClose() {
+    val file = tempDir.newFile()
+    val options = StoreOptions.Builder().writeBehind(1, SECONDS, TestScheduler()).build()
+    val store = RxStore.value<TestData>(file, TestData.converter, TestData::class.java, options)
+    val testObserver = store.observe().test()
+
+    store.put(TestData("test", 1), Schedulers.trampoline())
+    assertThat(file.length()).isEqualTo(0L)
+    store.flush()
+    assertThat(TestData.converter.read<TestData>(file, TestData::class.java))
+        .isEqualTo(TestData("test", 1))
+
+    store.clear(Schedulers.trampoline())
+    assertThat(store.blockingGet()).isNull()
+    assertThat(file.exists()).isTrue()
+    store.close()
+    assertThat(file.exists()).isFalse()
+
+    testObserver.assertValues(ValueUpdate.empty(), TestData("test", 1).asUpdate(),
+        ValueUpdate.empty())
+    testObserver.assertComplete()
+    store.observePut(TestData("test", 2)).test().assertError(RuntimeException::class.java)
+  }
+
+  @Test fun closeReleasesStoreEvenIfFinalFlushFails() {
+    val file = tempDir.newFile()
+    val failingConverter = object : Converter by TestData.converter {
+      override fun <T> write(data: T?, type: Type, file: File) =
+          throw ConverterException("Disk is full.")
+    }
+    val options = StoreOptions.Builder().writeBehind(1, SECONDS, TestScheduler()).build()
+    val store = RxStore.value<TestData>(file, failingConverter, TestData::class.java, options)
+    val testObserver = store.observe().test()
+    store.put(TestData("test", 1), Schedulers.trampoline())
+
+    try {
+      store.close()
+      fail("Expected the final flush to fail.")
+    } catch (e: RuntimeException) {
+      assertThat(e.cause).isInstanceOf(ConverterException::class.java)
+    }
+
+    testObserver.assertComplete()
+    assertThat(RxStore.value<TestData>(file, failingConverter, TestData::class.java, options))
+        .isNotSameAs(store)
+  }
+
+  @Test fun storesForSameFileAreShared() {
+    val file = tempDir.newFile()
+    val store = RxStore.value<TestData>(file, TestData.converter, TestData::class.java)
+    val path = File(file.parentFile, "../${file.parentFile.name}/${file.name}")
+    val sameStore = RxStore.value<TestData>(path, TestData.converter, TestData::class.java)
+    assertThat(sameStore).isSameAs(store)
+
+    val testObserver = sameStore.observe().test()
+    store.put(TestData("test", 1), Schedulers.trampoline())
+    testObserver.assertValues(ValueUpdate.empty(), TestData("test", 1).asUpdate())
+
+    store.close()
+    assertThat(RxStore.value<TestData>(file, TestData.converter, TestData::class.java))
+        .isNotSameAs(store)
+  }
+
+  @Test(expected = IllegalStateException::class) fun storeOfDifferentTypeForSameFileThrows() {
+    val file = tempDir.newFile()
+    RxStore.value<TestData>(file, TestData.converter, TestData::class.java)
+    RxStore.value<String>(file, TestData.converter, String::class.java)
+  }
+
+  @Test fun storeWithEqualOptionsForSameFileIsShared() {
+    val file = tempDir.newFile()
+    val options = StoreOptions.Builder().dedupeWrites(true).build()
+    val store = RxStore.value<TestData>(file, TestData.converter, TestData::class.java, options)
+    val sameStore = RxStore.value<TestData>(file, TestData.converter, TestData::class.java,
+        StoreOptions.Builder().dedupeWrites(true).build())
+    assertThat(sameStore).isSameAs(store)
+  }
+
+  @Test(expected = IllegalStateException::class) fun storeWithDifferentOptionsForSameFileThrows() {
+    val file = tempDir.newFile()
+    RxStore.value<TestData>(file, TestData.converter, TestData::class.java)
+    RxStore.value<TestData>(file, TestData.converter, TestData::class.java,
+        StoreOptions.Builder().dedupeWrites(true).build())
+  }
+
+  @Test(expected = IllegalStateException::class)
+  fun storeWithDifferentConverterForSameFileThrows() {
+    val file = tempDir.newFile()
+    val otherConverter = object : StreamConverter by TestData.converter {}
+    RxStore.value<TestData>(file, TestData.converter, TestData::class.java)
+    RxStore.value<TestData>(file, otherConverter, TestData::class.java)
+  }
+
+  @Test(expected = IllegalStateException::class) fun listStoreForSameFileThrows() {
+    val file = tempDir.newFile()
+    RxStore.value<TestData>(file, TestData.converter, TestData::class.java)
+    RxStore.list<TestData>(file, TestData.converter, TestData::class.java)
+  }
 }